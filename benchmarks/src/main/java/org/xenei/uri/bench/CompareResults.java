@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with <code>-rf csv</code>.
+ * <p>
+ * Usage: <code>CompareResults baseline.csv candidate.csv</code>. For every
+ * benchmark, mode, thread count and parameter combination present in both
+ * files the scores are printed with the change relative to the baseline. The
+ * change is positive when the candidate is better: a higher score for
+ * throughput units (ops/time) and a lower score for everything else (time/op,
+ * B/op). If the baseline score is 0, as the B/op of an allocation free
+ * benchmark is, the change is the difference of the scores in their unit
+ * instead of a percentage. Changes larger than the sum of the two score
+ * errors are marked with an asterisk, smaller changes are within the noise of
+ * the runs.
+ * </p>
+ */
+public final class CompareResults {
+
+	private CompareResults() {
+	}
+
+	/**
+	 * One row of a result file.
+	 */
+	static final class Row {
+		final String key;
+		final double score;
+		final double error;
+		final String unit;
+
+		Row(String key, double score, double error, String unit) {
+			this.key = key;
+			this.score = score;
+			this.error = Double.isNaN(error) ? 0 : error;
+			this.unit = unit;
+		}
+
+		/**
+		 * Get the change from a baseline, positive if this row is better.
+		 * 
+		 * @param baseline
+		 *            the baseline row.
+		 * @return the change as a percentage of the baseline score.
+		 */
+		double change(Row baseline) {
+			double pct = (score - baseline.score) * 100.0 / baseline.score;
+			return unit.startsWith("ops/") ? pct : -pct;
+		}
+
+		/**
+		 * Format the change from a baseline, positive if this row is better.
+		 * 
+		 * @param baseline
+		 *            the baseline row.
+		 * @return the change as a percentage of the baseline score, or the
+		 *         difference of the scores if the baseline score is 0.
+		 */
+		String formatChange(Row baseline) {
+			if (baseline.score == 0) {
+				double diff = unit.startsWith("ops/") ? score - baseline.score
+						: baseline.score - score;
+				return String.format("%+9.3f", diff);
+			}
+			return String.format("%+8.1f%%", change(baseline));
+		}
+
+		/**
+		 * Determine if the difference from a baseline exceeds the errors.
+		 * 
+		 * @param baseline
+		 *            the baseline row.
+		 * @return true if the difference is significant.
+		 */
+		boolean significant(Row baseline) {
+			return Math.abs(score - baseline.score) > error + baseline.error;
+		}
+	}
+
+	/**
+	 * Read a JMH csv result file.
+	 * 
+	 * @param file
+	 *            the file name.
+	 * @return the rows keyed by benchmark, mode, threads and parameters.
+	 * @throws IOException
+	 *             on error.
+	 */
+	static Map<String, Row> read(String file) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(file),
+				StandardCharsets.UTF_8);
+		if (lines.isEmpty()) {
+			throw new IllegalArgumentException(String.format("%s is empty",
+					file));
+		}
+		List<String> header = split(lines.get(0));
+		int benchmark = column(header, "Benchmark", file);
+		int mode = column(header, "Mode", file);
+		int threads = column(header, "Threads", file);
+		int score = column(header, "Score", file);
+		int error = column(header, "Score Error (99.9%)", file);
+		int unit = column(header, "Unit", file);
+		Map<String, Row> retval = new LinkedHashMap<String, Row>();
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			List<String> cols = split(line);
+			StringBuilder key = new StringBuilder(shortName(cols
+					.get(benchmark)));
+			key.append(' ').append(cols.get(mode)).append(" t=")
+					.append(cols.get(threads));
+			for (int i = unit + 1; i < cols.size(); i++) {
+				if (!cols.get(i).isEmpty()) {
+					key.append(' ').append(header.get(i).replace("Param: ", ""))
+							.append('=').append(cols.get(i));
+				}
+			}
+			retval.put(key.toString(), new Row(key.toString(),
+					Double.parseDouble(cols.get(score)),
+					Double.parseDouble(cols.get(error)), cols.get(unit)));
+		}
+		return retval;
+	}
+
+	private static int column(List<String> header, String name, String file) {
+		int idx = header.indexOf(name);
+		if (idx == -1) {
+			throw new IllegalArgumentException(String.format(
+					"%s has no %s column, was it written with -rf csv?", file,
+					name));
+		}
+		return idx;
+	}
+
+	// remove the package from a benchmark name.
+	private static String shortName(String benchmark) {
+		String prefix = CompareResults.class.getPackage().getName() + ".";
+		return benchmark.startsWith(prefix) ? benchmark.substring(prefix
+				.length()) : benchmark;
+	}
+
+	// split a csv line honoring double quotes.
+	static List<String> split(String line) {
+		List<String> retval = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length()
+						&& line.charAt(i + 1) == '"') {
+					sb.append(c);
+					i++;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				retval.add(sb.toString());
+				sb.setLength(0);
+			} else {
+				sb.append(c);
+			}
+		}
+		retval.add(sb.toString());
+		return retval;
+	}
+
+	/**
+	 * Command line entry point.
+	 * 
+	 * @param args
+	 *            the baseline and candidate csv files.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: CompareResults baseline.csv candidate.csv");
+			System.exit(1);
+		}
+		Map<String, Row> baseline = read(args[0]);
+		Map<String, Row> candidate = read(args[1]);
+		System.out.println(String.format("%-90s %14s %14s %9s  %s", "Benchmark",
+				"Baseline", "Candidate", "Change", "Unit"));
+		for (Row b : baseline.values()) {
+			Row c = candidate.get(b.key);
+			if (c == null) {
+				continue;
+			}
+			System.out.println(String.format("%-90s %14.3f %14.3f %9s%s %s",
+					b.key, b.score, c.score, c.formatChange(b),
+					c.significant(b) ? "*" : " ", b.unit));
+		}
+	}
+}
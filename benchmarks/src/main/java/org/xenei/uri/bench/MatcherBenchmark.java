@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri.bench;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xenei.uri.PatternReplacer;
+import org.xenei.uri.URIMatchSession;
+
+/**
+ * Benchmarks URIMatcher matching and asRegEx() for one rule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+	// a power of two so the cursor can be masked.
+	static final int SIZE = 1024;
+
+	@Param({ "SHORT", "PATH", "FULL", "ENCODED" })
+	public Workload.Shape shape;
+
+	@Param({ "0.5" })
+	public double matchRatio;
+
+	private PatternReplacer rule;
+	private URIMatchSession session;
+	private URI[] uris;
+	private String[] strings;
+	private ByteBuffer[] buffers;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		rule = Workload.rule().build();
+		session = new URIMatchSession(rule);
+		uris = Workload.uris(shape, SIZE, matchRatio);
+		strings = Workload.strings(shape, SIZE, matchRatio);
+		buffers = new ByteBuffer[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			byte[] b = strings[i].getBytes(StandardCharsets.UTF_8);
+			buffers[i] = ByteBuffer.allocateDirect(b.length);
+			buffers[i].put(b).flip();
+		}
+	}
+
+	private int next() {
+		return cursor++ & (SIZE - 1);
+	}
+
+	@Benchmark
+	public boolean matchesURI() {
+		return rule.matches(uris[next()]);
+	}
+
+	@Benchmark
+	public boolean matchesString() {
+		return rule.matches(strings[next()]);
+	}
+
+	@Benchmark
+	public boolean sessionMatchesString() {
+		return session.matches(strings[next()]);
+	}
+
+	@Benchmark
+	public boolean sessionMatchesBuffer() {
+		return session.matches(buffers[next()]);
+	}
+
+	@Benchmark
+	public String asRegEx() {
+		return rule.asRegEx();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri.bench;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xenei.uri.PatternReplacer;
+import org.xenei.uri.URIMatch;
+import org.xenei.uri.URIMatchSession;
+
+/**
+ * Benchmarks PatternReplacer.populate() for URIs that match the rule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PopulateBenchmark {
+	@Param({ "SHORT", "PATH", "FULL", "ENCODED" })
+	public Workload.Shape shape;
+
+	private PatternReplacer rule;
+	private URIMatchSession session;
+	private URI[] uris;
+	private String[] strings;
+	private URIMatch[] matches;
+	private ByteBuffer[] buffers;
+	private ByteBuffer out;
+	private StringBuilder sb;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		rule = Workload.rule().build();
+		session = new URIMatchSession(rule);
+		uris = Workload.uris(shape, MatcherBenchmark.SIZE, 1.0);
+		strings = Workload.strings(shape, MatcherBenchmark.SIZE, 1.0);
+		matches = new URIMatch[MatcherBenchmark.SIZE];
+		buffers = new ByteBuffer[MatcherBenchmark.SIZE];
+		for (int i = 0; i < MatcherBenchmark.SIZE; i++) {
+			matches[i] = rule.match(uris[i]);
+			byte[] b = strings[i].getBytes(StandardCharsets.UTF_8);
+			buffers[i] = ByteBuffer.allocateDirect(b.length);
+			buffers[i].put(b).flip();
+		}
+		out = ByteBuffer.allocateDirect(1024);
+		sb = new StringBuilder(1024);
+	}
+
+	private int next() {
+		return cursor++ & (MatcherBenchmark.SIZE - 1);
+	}
+
+	@Benchmark
+	public String populateURI() {
+		return rule.populate(uris[next()]);
+	}
+
+	@Benchmark
+	public String populateString() {
+		return rule.populate(strings[next()]);
+	}
+
+	@Benchmark
+	public String populateMatch() {
+		return rule.populate(matches[next()]);
+	}
+
+	@Benchmark
+	public int sessionPopulate() {
+		sb.setLength(0);
+		session.populate(strings[next()], sb);
+		return sb.length();
+	}
+
+	@Benchmark
+	public int sessionRewriteBuffer() {
+		out.clear();
+		session.rewrite(buffers[next()], out);
+		return out.position();
+	}
+}
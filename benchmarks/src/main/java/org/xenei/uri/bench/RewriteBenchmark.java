@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri.bench;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xenei.uri.NegativeFilter;
+import org.xenei.uri.RewriteCache;
+import org.xenei.uri.URIRewriter;
+
+/**
+ * Benchmarks URIRewriter.rewrite() with and without a result cache.
+ * <p>
+ * The requested URIs are drawn from a small hot set with probability
+ * hotRatio and otherwise from a cold set that is much larger than the cache,
+ * so hotRatio approximates the cache hit ratio. The rewriter is shared by all
+ * benchmark threads, run with <code>-t</code> to measure contention.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewriteBenchmark {
+	static final int HOT = 256;
+	static final int COLD = 1 << 16;
+	static final int CACHE_SIZE = 1024;
+	// the length of the request sequence, a power of two.
+	static final int SEQUENCE = 1 << 16;
+
+	@Param({ "NONE", "LRU", "TINY_LFU" })
+	public String cache;
+
+	@Param({ "0.0", "0.5", "0.9", "1.0" })
+	public double hotRatio;
+
+	@Param({ "false", "true" })
+	public boolean negativeFilter;
+
+	@Param({ "PATH" })
+	public Workload.Shape shape;
+
+	private URIRewriter rewriter;
+	private URI[] sequence;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		RewriteCache rc = "NONE".equals(cache) ? null : new RewriteCache(
+				CACHE_SIZE, RewriteCache.Policy.valueOf(cache));
+		NegativeFilter nf = negativeFilter ? new NegativeFilter(COLD, 0.01)
+				: null;
+		rewriter = new URIRewriter(Workload.rule().build(), rc, nf);
+		URI[] hot = Workload.uris(shape, HOT, 0.5);
+		URI[] cold = Workload.uris(shape, COLD, 0.5);
+		Random random = new Random(SEQUENCE);
+		sequence = new URI[SEQUENCE];
+		int c = 0;
+		for (int i = 0; i < SEQUENCE; i++) {
+			sequence[i] = random.nextDouble() < hotRatio ? hot[random
+					.nextInt(HOT)] : cold[c++ & (COLD - 1)];
+		}
+	}
+
+	/**
+	 * The position of a thread in the request sequence.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int pos;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			// start the threads at different points in the sequence
+			pos = (int) (Thread.currentThread().getId() * 7919);
+		}
+
+		int next() {
+			return pos++ & (SEQUENCE - 1);
+		}
+	}
+
+	@Benchmark
+	public URI rewrite(Cursor cursor) throws URISyntaxException {
+		return rewriter.rewrite(sequence[cursor.next()]);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri.bench;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xenei.uri.URIMatch;
+import org.xenei.uri.URIRuleSet;
+
+/**
+ * Benchmarks URIRuleSet matching and rewriting for realistic rule counts and
+ * each engine. The rule set is shared by all benchmark threads, run with
+ * <code>-t</code> to measure contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleSetBenchmark {
+	@Param({ "10", "100", "1000" })
+	public int rules;
+
+	@Param({ "INDEX", "AUTOMATON", "ADAPTIVE" })
+	public URIRuleSet.Engine engine;
+
+	@Param({ "PATH" })
+	public Workload.Shape shape;
+
+	private URIRuleSet ruleSet;
+	private URI[] uris;
+	private String[] strings;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		ruleSet = Workload.rules(rules, engine);
+		uris = Workload.uris(shape, MatcherBenchmark.SIZE, 0.9);
+		strings = Workload.strings(shape, MatcherBenchmark.SIZE, 0.9);
+	}
+
+	/**
+	 * The position of a thread in the URIs.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int pos;
+
+		int next() {
+			return pos++ & (MatcherBenchmark.SIZE - 1);
+		}
+	}
+
+	@Benchmark
+	public URIMatch matchString(Cursor cursor) {
+		return ruleSet.match(strings[cursor.next()]);
+	}
+
+	@Benchmark
+	public URI rewrite(Cursor cursor) throws URISyntaxException {
+		return ruleSet.rewrite(uris[cursor.next()]);
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri.bench;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
+
+import org.xenei.uri.PatternReplacer;
+import org.xenei.uri.URIRuleSet;
+
+/**
+ * Generates the URIs and rules used by the benchmarks.
+ * <p>
+ * The generated data is deterministic so that runs can be compared.
+ * </p>
+ */
+public final class Workload {
+	/**
+	 * The host pattern used by the single rule benchmarks.
+	 */
+	public static final String HOST_PATTERN = "([^\\.]+)\\.example\\.com";
+	/**
+	 * The path pattern used by the single rule benchmarks.
+	 */
+	public static final String PATH_PATTERN = "^/([^/]+).*/(.*)$";
+	/**
+	 * The replacement pattern used by the single rule benchmarks.
+	 */
+	public static final String TEMPLATE = "{scheme}://{host:1}.example.org/{path:1}/{path:2}";
+
+	/**
+	 * The shapes of the generated URIs.
+	 */
+	public enum Shape {
+		/** A host and a short path. */
+		SHORT("http://h%s.%s/p/%s"),
+		/** A host, port and a deep path. */
+		PATH("http://h%s.%s:8080/api/v2/orders/%s/items/detail"),
+		/** User info, port, query and fragment. */
+		FULL("https://user@h%s.%s:8443/a/b/c/%s?q=1&sort=desc#frag"),
+		/** Percent encoded non-ASCII path segments. */
+		ENCODED("http://h%s.%s/caf%%C3%%A9/%%E2%%82%%AC/%s");
+
+		private final String format;
+
+		Shape(String format) {
+			this.format = format;
+		}
+
+		/**
+		 * Format a URI.
+		 * 
+		 * @param host
+		 *            the host number.
+		 * @param domain
+		 *            the domain of the host.
+		 * @param id
+		 *            the path id.
+		 * @return the URI text.
+		 */
+		public String format(int host, String domain, int id) {
+			return String.format(format, host, domain, id);
+		}
+	}
+
+	private Workload() {
+	}
+
+	/**
+	 * Generate URI strings.
+	 * 
+	 * @param shape
+	 *            the shape of the URIs.
+	 * @param count
+	 *            the number of URIs.
+	 * @param matchRatio
+	 *            the fraction of the URIs in example.com (that match the
+	 *            single rule patterns), the others are in example.net.
+	 * @return the URI strings.
+	 */
+	public static String[] strings(Shape shape, int count, double matchRatio) {
+		Random random = new Random(count);
+		String[] retval = new String[count];
+		for (int i = 0; i < count; i++) {
+			String domain = random.nextDouble() < matchRatio ? "example.com"
+					: "example.net";
+			retval[i] = shape.format(random.nextInt(1000), domain, i);
+		}
+		return retval;
+	}
+
+	/**
+	 * Generate URIs.
+	 * 
+	 * @param shape
+	 *            the shape of the URIs.
+	 * @param count
+	 *            the number of URIs.
+	 * @param matchRatio
+	 *            the fraction of the URIs that match the single rule
+	 *            patterns.
+	 * @return the URIs.
+	 * @see #strings(Shape, int, double)
+	 */
+	public static URI[] uris(Shape shape, int count, double matchRatio) {
+		String[] strings = strings(shape, count, matchRatio);
+		URI[] retval = new URI[count];
+		for (int i = 0; i < count; i++) {
+			try {
+				retval[i] = new URI(strings[i]);
+			} catch (URISyntaxException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Create the single rule used by the matcher, populate and rewrite
+	 * benchmarks.
+	 * 
+	 * @return the rule.
+	 */
+	public static PatternReplacer rule() {
+		return new PatternReplacer(TEMPLATE).setHost(HOST_PATTERN).setPath(
+				PATH_PATTERN);
+	}
+
+	/**
+	 * Create a rule set with a realistic mix of rules: literal hosts, domain
+	 * suffixes, path prefixes and rules with no literal text. Rule
+	 * <code>i</code> matches hosts <code>h&lt;i&gt;.example.com</code> in one
+	 * of those ways, so the URIs from strings() hit rules spread through the
+	 * set. The path prefix rules also require the
+	 * <code>/api/v2/orders/</code> path and so only match Shape.PATH URIs.
+	 * 
+	 * @param count
+	 *            the number of rules.
+	 * @param engine
+	 *            the engine of the rule set.
+	 * @return the rule set.
+	 */
+	public static URIRuleSet rules(int count, URIRuleSet.Engine engine) {
+		URIRuleSet retval = new URIRuleSet();
+		for (int i = 0; i < count; i++) {
+			PatternReplacer rule = new PatternReplacer(
+					"{scheme}://r" + i + ".example.org{path}");
+			switch (i % 4) {
+			case 0:
+				rule.setHost("h" + i + "\\.example\\.com");
+				break;
+			case 1:
+				rule.setHost("(?:.*\\.)?h" + i + "\\.example\\.com");
+				break;
+			case 2:
+				rule.setHost("h(" + i + ")\\.example\\.com").setPath(
+						"/api/v2/orders/(.*)");
+				break;
+			default:
+				rule.setHost("h(" + i + ")\\.[a-z]+\\.com");
+				break;
+			}
+			retval.add(rule);
+		}
+		return retval.setEngine(engine);
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Fork/join execution of batch operations.
+ * <p>
+ * The inputs are split into ranges that are processed in parallel. Each range
+ * is processed by a worker created for that range so that the match state
+ * held by the worker is reused for every input in the range without being
+ * shared between threads. Results are written by input index so the input
+ * order is preserved, and an exception thrown for one input is recorded
+ * against that input without affecting the others.
+ * </p>
+ */
+final class Batch {
+	/**
+	 * The number of inputs below which a range is not split.
+	 */
+	static final int THRESHOLD = 256;
+
+	private Batch() {
+	}
+
+	/**
+	 * Processes single inputs. A worker is only used by one thread.
+	 *
+	 * @param <T>
+	 *            the type of the result.
+	 */
+	interface Worker<T> {
+		/**
+		 * Process an input.
+		 *
+		 * @param uri
+		 *            the input, never null.
+		 * @return the result.
+		 * @throws Exception
+		 *             on error.
+		 */
+		T apply(URI uri) throws Exception;
+	}
+
+	/**
+	 * A worker that matches with a reusable match.
+	 * <p>
+	 * The regular expression matchers for each component are retained between
+	 * inputs.
+	 * </p>
+	 */
+	static class MatchWorker {
+		private final URIMatcher matcher;
+		private final ComponentSource.URISource source;
+		private final URIMatch match;
+
+		MatchWorker(URIMatcher matcher) {
+			this.matcher = matcher;
+			this.source = new ComponentSource.URISource(null);
+			this.match = new URIMatch(matcher, source, true);
+		}
+
+		/**
+		 * Match a URI.
+		 *
+		 * @param uri
+		 *            the URI to match.
+		 * @return the match, only valid until the next call, or null if the
+		 *         URI does not match.
+		 */
+		URIMatch match(URI uri) {
+			source.reset(uri);
+			match.reset(matcher);
+			return matcher.match(match) ? match : null;
+		}
+	}
+
+	/**
+	 * Process a list of inputs.
+	 *
+	 * @param uris
+	 *            the inputs.
+	 * @param results
+	 *            the array to write the results to, at least as long as the
+	 *            list.
+	 * @param factory
+	 *            creates the workers.
+	 * @return the results.
+	 */
+	static <T> BatchResult<T> run(List<URI> uris, T[] results,
+			Supplier<? extends Worker<T>> factory) {
+		return run(uris.toArray(new URI[uris.size()]), results, factory);
+	}
+
+	/**
+	 * Process an array of inputs.
+	 *
+	 * @param uris
+	 *            the inputs.
+	 * @param results
+	 *            the array to write the results to, at least as long as the
+	 *            inputs.
+	 * @param factory
+	 *            creates the workers.
+	 * @return the results.
+	 * @throws IllegalArgumentException
+	 *             if the results array is too short.
+	 */
+	static <T> BatchResult<T> run(URI[] uris, T[] results,
+			Supplier<? extends Worker<T>> factory) {
+		if (results.length < uris.length) {
+			throw new IllegalArgumentException(String.format(
+					"Output length %s is less than input length %s",
+					results.length, uris.length));
+		}
+		Exception[] errors = new Exception[uris.length];
+		Task<T> task = new Task<T>(uris, results, errors, factory, 0,
+				uris.length);
+		if (uris.length <= THRESHOLD || ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			ForkJoinPool.commonPool().invoke(task);
+		}
+		return new BatchResult<T>(results, errors);
+	}
+
+	/**
+	 * Create a parallel stream over a list of inputs.
+	 *
+	 * @param uris
+	 *            the inputs.
+	 * @param factory
+	 *            creates the workers.
+	 * @return a parallel ordered stream of the results.
+	 */
+	static <T> Stream<BatchResult.Item<T>> stream(List<URI> uris,
+			Supplier<? extends Worker<T>> factory) {
+		URI[] arr = uris.toArray(new URI[uris.size()]);
+		return StreamSupport.stream(new BatchSpliterator<T>(arr, factory, 0,
+				arr.length), true);
+	}
+
+	// process one input recording any error.
+	private static <T> BatchResult.Item<T> apply(Worker<T> worker, URI[] uris,
+			int idx) {
+		URI uri = uris[idx];
+		if (uri == null) {
+			return new BatchResult.Item<T>(idx, null,
+					new IllegalArgumentException(String.format(
+							"Input %s is null", idx)));
+		}
+		try {
+			return new BatchResult.Item<T>(idx, worker.apply(uri), null);
+		} catch (Exception e) {
+			return new BatchResult.Item<T>(idx, null, e);
+		}
+	}
+
+	/**
+	 * The fork/join task for a range of inputs.
+	 */
+	private static class Task<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final URI[] uris;
+		private final T[] results;
+		private final Exception[] errors;
+		private final Supplier<? extends Worker<T>> factory;
+		private final int start;
+		private final int end;
+
+		Task(URI[] uris, T[] results, Exception[] errors,
+				Supplier<? extends Worker<T>> factory, int start, int end) {
+			this.uris = uris;
+			this.results = results;
+			this.errors = errors;
+			this.factory = factory;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > THRESHOLD) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new Task<T>(uris, results, errors, factory, start,
+						mid), new Task<T>(uris, results, errors, factory, mid,
+						end));
+				return;
+			}
+			Worker<T> worker = factory.get();
+			for (int i = start; i < end; i++) {
+				BatchResult.Item<T> item = apply(worker, uris, i);
+				results[i] = item.getResult();
+				errors[i] = item.getError();
+			}
+		}
+	}
+
+	/**
+	 * A spliterator over a range of inputs that creates a worker for each
+	 * split.
+	 */
+	private static class BatchSpliterator<T> implements
+			Spliterator<BatchResult.Item<T>> {
+		private final URI[] uris;
+		private final Supplier<? extends Worker<T>> factory;
+		private int pos;
+		private final int end;
+		// created on first use so that splits do not create idle workers.
+		private Worker<T> worker;
+
+		BatchSpliterator(URI[] uris, Supplier<? extends Worker<T>> factory,
+				int pos, int end) {
+			this.uris = uris;
+			this.factory = factory;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		private Worker<T> worker() {
+			if (worker == null) {
+				worker = factory.get();
+			}
+			return worker;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super BatchResult.Item<T>> action) {
+			if (pos >= end) {
+				return false;
+			}
+			action.accept(apply(worker(), uris, pos++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(
+				Consumer<? super BatchResult.Item<T>> action) {
+			if (pos < end) {
+				Worker<T> w = worker();
+				while (pos < end) {
+					action.accept(apply(w, uris, pos++));
+				}
+			}
+		}
+
+		@Override
+		public Spliterator<BatchResult.Item<T>> trySplit() {
+			int mid = (pos + end) >>> 1;
+			if (mid - pos < THRESHOLD / 4) {
+				return null;
+			}
+			BatchSpliterator<T> prefix = new BatchSpliterator<T>(uris,
+					factory, pos, mid);
+			pos = mid;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - pos;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The results of a batch operation.
+ * <p>
+ * The results are in the order of the inputs. An input that caused an error
+ * has a null result and the error is available from getError(), the other
+ * inputs are unaffected.
+ * </p>
+ *
+ * @param <T>
+ *            the type of the results.
+ */
+public final class BatchResult<T> {
+	// the results in input order.
+	private final T[] results;
+	// the errors in input order, null where there was no error.
+	private final Exception[] errors;
+	// the number of inputs, the results array may be longer.
+	private final int size;
+	// the number of errors.
+	private final int errorCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param results
+	 *            the results, at least as long as the errors.
+	 * @param errors
+	 *            the errors, one for each input.
+	 */
+	BatchResult(T[] results, Exception[] errors) {
+		this.results = results;
+		this.errors = errors;
+		this.size = errors.length;
+		int count = 0;
+		for (Exception e : errors) {
+			if (e != null) {
+				count++;
+			}
+		}
+		this.errorCount = count;
+	}
+
+	/**
+	 * Get the number of inputs.
+	 *
+	 * @return the number of results.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get a result.
+	 *
+	 * @param idx
+	 *            the index of the input.
+	 * @return the result or null if the input caused an error.
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is not the index of an input.
+	 */
+	public T get(int idx) {
+		if (idx < 0 || idx >= size) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Index %s is not in [0, %s)", idx, size));
+		}
+		return results[idx];
+	}
+
+	/**
+	 * Get the error for an input.
+	 *
+	 * @param idx
+	 *            the index of the input.
+	 * @return the error or null if the input did not cause an error.
+	 */
+	public Exception getError(int idx) {
+		return errors[idx];
+	}
+
+	/**
+	 * Get the number of inputs that caused an error.
+	 *
+	 * @return the number of errors.
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Determine if any input caused an error.
+	 *
+	 * @return true if there were errors.
+	 */
+	public boolean hasErrors() {
+		return errorCount > 0;
+	}
+
+	/**
+	 * Get the results.
+	 *
+	 * @return an unmodifiable list of the results in input order.
+	 */
+	public List<T> getResults() {
+		return new AbstractList<T>() {
+			@Override
+			public T get(int index) {
+				return BatchResult.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Get the errors.
+	 *
+	 * @return an unmodifiable map of input index to error.
+	 */
+	public SortedMap<Integer, Exception> getErrors() {
+		SortedMap<Integer, Exception> retval = new TreeMap<Integer, Exception>();
+		for (int i = 0; i < errors.length && retval.size() < errorCount; i++) {
+			if (errors[i] != null) {
+				retval.put(i, errors[i]);
+			}
+		}
+		return Collections.unmodifiableSortedMap(retval);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BatchResult[ %s results %s errors ]",
+				results.length, errorCount);
+	}
+
+	/**
+	 * The result for one input of a streamed batch.
+	 *
+	 * @param <T>
+	 *            the type of the result.
+	 */
+	public static final class Item<T> {
+		private final int index;
+		private final T result;
+		private final Exception error;
+
+		Item(int index, T result, Exception error) {
+			this.index = index;
+			this.result = result;
+			this.error = error;
+		}
+
+		/**
+		 * Get the index of the input.
+		 *
+		 * @return the index.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Get the result.
+		 *
+		 * @return the result or null if the input caused an error.
+		 */
+		public T getResult() {
+			return result;
+		}
+
+		/**
+		 * Get the error.
+		 *
+		 * @return the error or null if the input did not cause an error.
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Item[ %s %s ]", index, error == null ? result
+					: error);
+		}
+	}
+}
@@ -0,0 +1,630 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rewrites or filters large newline delimited files of URIs, such as URI lists
+ * and access logs, in parallel.
+ * <p>
+ * The input file is memory mapped in line aligned chunks and the chunks are
+ * processed in parallel, each thread matching with its own URIMatchSession so
+ * that the lines are matched in place without decoding or allocating. The
+ * processed chunks are written to the output channel in input order. Output
+ * files whose name ends with <code>.gz</code> are gzip compressed.
+ * </p>
+ * <p>
+ * If the matcher is a PatternReplacer the URIs that match are replaced by the
+ * populated pattern, otherwise matching lines are copied unchanged. Lines
+ * that do not match are copied unchanged, or dropped in filter mode. By
+ * default the whole line is the URI. For access logs setField() selects the
+ * whitespace delimited field that holds the URI, the rest of the line is
+ * copied unchanged. For example the request path is field 6 of the Common
+ * and Combined Log Formats.
+ * </p>
+ * <p>
+ * Lines that are not valid UTF-8 are counted as errors and are copied
+ * unchanged in rewrite mode and dropped in filter mode. Any other exception,
+ * such as a replacement pattern that references a group the matcher does not
+ * have, stops processing and is thrown by process(). A carriage return
+ * before the newline is not part of the URI and is preserved. The input must
+ * be uncompressed as compressed files can not be memory mapped.
+ * </p>
+ */
+public final class BulkRewriter {
+	/**
+	 * The default chunk size.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+	// the matcher to match lines with.
+	private final URIMatcher matcher;
+	// true to write only matching lines.
+	private boolean filter;
+	// the whitespace delimited field that holds the URI or -1 for the line.
+	private int field = -1;
+	// the number of threads.
+	private int threads = Runtime.getRuntime().availableProcessors();
+	// the nominal size of a chunk.
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * If the matcher is a PatternReplacer lines are rewritten and lines that
+	 * do not match are copied, otherwise the matching lines are filtered.
+	 * </p>
+	 * 
+	 * @param matcher
+	 *            the matcher to match lines with.
+	 */
+	public BulkRewriter(URIMatcher matcher) {
+		this.matcher = matcher;
+		this.filter = !(matcher instanceof PatternReplacer);
+	}
+
+	/**
+	 * Set filter mode.
+	 * 
+	 * @param filter
+	 *            true to write only the lines that match, false to also copy
+	 *            the lines that do not match.
+	 * @return this BulkRewriter for chaining.
+	 * @throws IllegalArgumentException
+	 *             if filter mode is turned off and the matcher is not a
+	 *             PatternReplacer.
+	 */
+	public BulkRewriter setFilter(boolean filter) {
+		if (!filter && !(matcher instanceof PatternReplacer)) {
+			throw new IllegalArgumentException(
+					"Rewriting requires a PatternReplacer");
+		}
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * Set the field that holds the URI.
+	 * 
+	 * @param field
+	 *            the zero based index of the whitespace delimited field or -1
+	 *            if the whole line is the URI.
+	 * @return this BulkRewriter for chaining.
+	 */
+	public BulkRewriter setField(int field) {
+		if (field < -1) {
+			throw new IllegalArgumentException(String.format(
+					"Field %s must be -1 or greater", field));
+		}
+		this.field = field;
+		return this;
+	}
+
+	/**
+	 * Set the number of threads to process chunks with.
+	 * 
+	 * @param threads
+	 *            the number of threads.
+	 * @return this BulkRewriter for chaining.
+	 */
+	public BulkRewriter setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Threads %s must be at least 1", threads));
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Set the nominal size of the chunks. A chunk is extended to the end of
+	 * the line that crosses the chunk size.
+	 * 
+	 * @param chunkSize
+	 *            the chunk size in bytes.
+	 * @return this BulkRewriter for chaining.
+	 */
+	public BulkRewriter setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Chunk size %s must be at least 1", chunkSize));
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Process a file into another file.
+	 * 
+	 * @param in
+	 *            the input file.
+	 * @param out
+	 *            the output file, it is replaced if it exists and gzip
+	 *            compressed if the name ends with <code>.gz</code>.
+	 * @return the statistics for the run.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public Stats process(Path in, Path out) throws IOException {
+		if (out.getFileName().toString().endsWith(".gz")) {
+			OutputStream os = new GZIPOutputStream(Files.newOutputStream(out),
+					1 << 16);
+			try (WritableByteChannel channel = Channels.newChannel(os)) {
+				return process(in, channel);
+			}
+		}
+		try (WritableByteChannel channel = FileChannel.open(out,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			return process(in, channel);
+		}
+	}
+
+	/**
+	 * Process a file into a channel. The channel is not closed.
+	 * 
+	 * @param in
+	 *            the input file.
+	 * @param out
+	 *            the channel to write the output to.
+	 * @return the statistics for the run.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public Stats process(Path in, WritableByteChannel out) throws IOException {
+		Counts counts = new Counts();
+		ThreadLocal<URIMatchSession> sessions = ThreadLocal
+				.withInitial(() -> new URIMatchSession(matcher));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (FileChannel channel = FileChannel.open(in,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			// bound the chunks in memory to those being processed or queued.
+			Deque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+			long start = 0;
+			while (start < size || !pending.isEmpty()) {
+				while (start < size && pending.size() < threads * 2) {
+					long end = chunkEnd(channel, start, size);
+					final ByteBuffer chunk = channel.map(
+							FileChannel.MapMode.READ_ONLY, start, end - start);
+					pending.add(executor.submit(() -> process(chunk,
+							sessions.get(), counts)));
+					start = end;
+				}
+				ByteBuffer result = get(pending.remove());
+				counts.written.addAndGet(result.remaining());
+				while (result.hasRemaining()) {
+					out.write(result);
+				}
+			}
+			counts.read.set(size);
+		} finally {
+			executor.shutdownNow();
+		}
+		return counts.toStats();
+	}
+
+	// wait for a chunk result.
+	private static ByteBuffer get(Future<ByteBuffer> future)
+			throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Find the end of the chunk that starts at a position, that is the
+	 * position after the first newline at or after the nominal end.
+	 */
+	private long chunkEnd(FileChannel channel, long start, long size)
+			throws IOException {
+		long pos = Math.min(start + chunkSize, size) - 1;
+		ByteBuffer buf = ByteBuffer.allocate(8192);
+		while (pos < size) {
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == '\n') {
+					long end = pos + i + 1;
+					if (end - start > Integer.MAX_VALUE) {
+						throw new IOException(String.format(
+								"Line at %s is too long", start));
+					}
+					return end;
+				}
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	/**
+	 * Process the lines of a chunk.
+	 * 
+	 * @param chunk
+	 *            the chunk.
+	 * @param session
+	 *            the session of the current thread.
+	 * @param counts
+	 *            the counts to update.
+	 * @return the output for the chunk ready to be written.
+	 */
+	ByteBuffer process(ByteBuffer chunk, URIMatchSession session, Counts counts) {
+		int limit = chunk.limit();
+		ByteBuffer out = ByteBuffer.allocate(filter ? limit : limit + limit / 8
+				+ 64);
+		ByteBuffer uri = chunk.duplicate();
+		boolean rewrite = matcher instanceof PatternReplacer;
+		long lines = 0;
+		long matched = 0;
+		long errors = 0;
+		int pos = chunk.position();
+		while (pos < limit) {
+			int eol = pos;
+			while (eol < limit && chunk.get(eol) != '\n') {
+				eol++;
+			}
+			int next = eol < limit ? eol + 1 : limit;
+			if (eol > pos && chunk.get(eol - 1) == '\r') {
+				eol--;
+			}
+			lines++;
+			int start = pos;
+			int end = eol;
+			if (field >= 0) {
+				start = fieldStart(chunk, pos, eol, field);
+				end = start;
+				while (end < eol && !isSpace(chunk.get(end))) {
+					end++;
+				}
+			}
+			uri.limit(end).position(start);
+			int mark = out.position();
+			try {
+				if (rewrite) {
+					out = put(out, chunk, pos, start);
+					boolean rewritten;
+					while (true) {
+						try {
+							rewritten = session.rewrite(uri, out);
+							break;
+						} catch (BufferOverflowException e) {
+							out = grow(out, end - start);
+						}
+					}
+					out = put(out, chunk, end, next);
+					if (rewritten) {
+						matched++;
+					} else if (filter) {
+						out.position(mark);
+					}
+				} else if (session.matches(uri)) {
+					matched++;
+					out = put(out, chunk, pos, next);
+				}
+			} catch (InvalidEncodingException e) {
+				errors++;
+				if (filter) {
+					out.position(mark);
+				} else {
+					out = put(out, chunk, start, next);
+				}
+			}
+			uri.limit(uri.capacity());
+			pos = next;
+		}
+		counts.lines.addAndGet(lines);
+		counts.matched.addAndGet(matched);
+		counts.errors.addAndGet(errors);
+		out.flip();
+		return out;
+	}
+
+	// get the start of a field or the end of the line if there is no field.
+	private static int fieldStart(ByteBuffer chunk, int pos, int eol, int field) {
+		int f = -1;
+		boolean inField = false;
+		for (int i = pos; i < eol; i++) {
+			if (isSpace(chunk.get(i))) {
+				inField = false;
+			} else if (!inField) {
+				inField = true;
+				if (++f == field) {
+					return i;
+				}
+			}
+		}
+		return eol;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	// copy bytes from the chunk to the output growing it if necessary.
+	private static ByteBuffer put(ByteBuffer out, ByteBuffer chunk, int start,
+			int end) {
+		int len = end - start;
+		if (out.remaining() < len) {
+			out = grow(out, len);
+		}
+		ByteBuffer src = chunk.duplicate();
+		src.limit(end);
+		src.position(start);
+		out.put(src);
+		return out;
+	}
+
+	// replace the output with a larger one.
+	private static ByteBuffer grow(ByteBuffer out, int needed) {
+		int size = Math.max(out.capacity() * 2, out.position() + needed + 64);
+		ByteBuffer retval = ByteBuffer.allocate(size);
+		out.flip();
+		retval.put(out);
+		return retval;
+	}
+
+	/**
+	 * The counters updated by the chunk tasks.
+	 */
+	static final class Counts {
+		final AtomicLong lines = new AtomicLong();
+		final AtomicLong matched = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong read = new AtomicLong();
+		final AtomicLong written = new AtomicLong();
+
+		Stats toStats() {
+			return new Stats(lines.get(), matched.get(), errors.get(),
+					read.get(), written.get());
+		}
+	}
+
+	/**
+	 * The statistics for a run.
+	 */
+	public static final class Stats {
+		private final long lineCount;
+		private final long matchCount;
+		private final long errorCount;
+		private final long bytesRead;
+		private final long bytesWritten;
+
+		Stats(long lineCount, long matchCount, long errorCount,
+				long bytesRead, long bytesWritten) {
+			this.lineCount = lineCount;
+			this.matchCount = matchCount;
+			this.errorCount = errorCount;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+		}
+
+		/**
+		 * Get the number of lines read.
+		 * 
+		 * @return the line count.
+		 */
+		public long getLineCount() {
+			return lineCount;
+		}
+
+		/**
+		 * Get the number of lines that matched.
+		 * 
+		 * @return the match count.
+		 */
+		public long getMatchCount() {
+			return matchCount;
+		}
+
+		/**
+		 * Get the number of lines whose URI was not valid UTF-8. Other errors
+		 * are not counted, they stop processing.
+		 * 
+		 * @return the error count.
+		 */
+		public long getErrorCount() {
+			return errorCount;
+		}
+
+		/**
+		 * Get the number of bytes read.
+		 * 
+		 * @return the size of the input.
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		/**
+		 * Get the number of bytes written before any compression.
+		 * 
+		 * @return the size of the output.
+		 */
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"lines=%s matched=%s errors=%s read=%s written=%s",
+					lineCount, matchCount, errorCount, bytesRead, bytesWritten);
+		}
+	}
+
+	/**
+	 * Command line entry point.
+	 * <p>
+	 * Usage: <code>BulkRewriter [options] input output</code> where the
+	 * options are <code>-scheme regex</code>, <code>-host regex</code>,
+	 * <code>-port port</code>, <code>-path regex</code>,
+	 * <code>-query regex</code>, <code>-fragment regex</code>, <code>-template pattern</code>,
+	 * <code>-filter</code>, <code>-raw</code>, <code>-field index</code>,
+	 * <code>-threads count</code> and <code>-chunk bytes</code>. Without a
+	 * template the matching lines are filtered.
+	 * </p>
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public static void main(String[] args) throws IOException {
+		try {
+			BulkRewriter rewriter = parse(args);
+			int n = args.length;
+			Stats stats = rewriter.process(Paths.get(args[n - 2]),
+					Paths.get(args[n - 1]));
+			System.err.println(stats);
+		} catch (IllegalArgumentException e) {
+			usage(System.err, e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Create a BulkRewriter from command line arguments.
+	 * 
+	 * @param args
+	 *            the arguments, the last two are the input and output.
+	 * @return the configured BulkRewriter.
+	 * @throws IllegalArgumentException
+	 *             if the arguments are not valid.
+	 */
+	static BulkRewriter parse(String[] args) {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("input and output are required");
+		}
+		URIMatcher matcher = new URIMatcher();
+		String template = null;
+		boolean filter = false;
+		int field = -1;
+		Integer threads = null;
+		Integer chunk = null;
+		int last = args.length - 2;
+		for (int i = 0; i < last; i++) {
+			String opt = args[i];
+			if ("-filter".equals(opt)) {
+				filter = true;
+				continue;
+			}
+			if ("-raw".equals(opt)) {
+				matcher.setRawMatching(true);
+				continue;
+			}
+			if (i + 1 >= last) {
+				throw new IllegalArgumentException(String.format(
+						"%s requires a value", opt));
+			}
+			String value = args[++i];
+			if ("-scheme".equals(opt)) {
+				matcher.setScheme(value);
+			} else if ("-host".equals(opt)) {
+				matcher.setHost(value);
+			} else if ("-port".equals(opt)) {
+				matcher.setPort(Integer.valueOf(value));
+			} else if ("-path".equals(opt)) {
+				matcher.setPath(value);
+			} else if ("-query".equals(opt)) {
+				matcher.setQuery(value);
+			} else if ("-fragment".equals(opt)) {
+				matcher.setFragment(value);
+			} else if ("-template".equals(opt)) {
+				template = value;
+			} else if ("-field".equals(opt)) {
+				field = Integer.parseInt(value);
+			} else if ("-threads".equals(opt)) {
+				threads = Integer.valueOf(value);
+			} else if ("-chunk".equals(opt)) {
+				chunk = Integer.valueOf(value);
+			} else {
+				throw new IllegalArgumentException(String.format(
+						"Unknown option %s", opt));
+			}
+		}
+		BulkRewriter retval = new BulkRewriter(template == null ? matcher
+				: new PatternReplacer(template, matcher));
+		if (template != null) {
+			retval.setFilter(filter);
+		}
+		retval.setField(field);
+		if (threads != null) {
+			retval.setThreads(threads);
+		}
+		if (chunk != null) {
+			retval.setChunkSize(chunk);
+		}
+		return retval;
+	}
+
+	private static void usage(PrintStream out, String msg) {
+		out.println(msg);
+		out.println("Usage: BulkRewriter [options] input output");
+		out.println("  -scheme regex    scheme pattern");
+		out.println("  -host regex      host pattern");
+		out.println("  -port port       port");
+		out.println("  -path regex      path pattern");
+		out.println("  -query regex     raw query pattern");
+		out.println("  -fragment regex  fragment pattern");
+		out.println("  -template text   replacement pattern, without it matching lines are filtered");
+		out.println("  -filter          write only matching lines, rewritten if there is a template");
+		out.println("  -raw             match the path and fragment without decoding them");
+		out.println("  -field index     whitespace delimited field holding the URI (default whole line)");
+		out.println("  -threads count   number of threads (default available processors)");
+		out.println("  -chunk bytes     chunk size (default 32MB)");
+		out.println("An output name ending in .gz is gzip compressed.");
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BulkRewriter[ %s filter=%s field=%s ]", matcher,
+				filter, field);
+	}
+}
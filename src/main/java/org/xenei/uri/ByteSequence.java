@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A character sequence view of the ASCII bytes in a region of a ByteBuffer.
+ * <p>
+ * Each byte is one character so the bytes are neither decoded nor copied. The
+ * view reads the buffer with absolute gets and does not change its position or
+ * limit, the caller must not modify the region while the view is in use.
+ * </p>
+ */
+final class ByteSequence implements CharSequence {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the buffer that is viewed.
+	private ByteBuffer buffer;
+	// the index of the first byte in the buffer.
+	private int start;
+	// the number of bytes.
+	private int length;
+
+	/**
+	 * Create an empty view.
+	 */
+	ByteSequence() {
+		this.buffer = ByteBuffer.allocate(0);
+	}
+
+	// view a region of a buffer.
+	private ByteSequence(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.start = start;
+		this.length = end - start;
+	}
+
+	/**
+	 * Get the remaining bytes of a buffer as characters.
+	 * <p>
+	 * If the bytes are all ASCII a view of the buffer is returned, otherwise
+	 * the bytes are decoded as UTF-8. The position of the buffer is not
+	 * changed.
+	 * </p>
+	 *
+	 * @param buffer
+	 *            the UTF-8 encoded text.
+	 * @return the text.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 */
+	static CharSequence decode(ByteBuffer buffer) {
+		ByteSequence retval = new ByteSequence();
+		return retval.reset(buffer) ? retval : utf8(buffer);
+	}
+
+	/**
+	 * View the remaining bytes of a buffer.
+	 * <p>
+	 * The view is only changed if the bytes are all ASCII. The position of
+	 * the buffer is not changed.
+	 * </p>
+	 *
+	 * @param buffer
+	 *            the buffer to view.
+	 * @return true if the bytes are ASCII and are now viewed, false otherwise.
+	 */
+	boolean reset(ByteBuffer buffer) {
+		int begin = buffer.position();
+		int end = buffer.limit();
+		for (int i = begin; i < end; i++) {
+			if (buffer.get(i) < 0) {
+				return false;
+			}
+		}
+		this.buffer = buffer;
+		this.start = begin;
+		this.length = end - begin;
+		return true;
+	}
+
+	/**
+	 * Decode the remaining bytes of a buffer as UTF-8. The position of the
+	 * buffer is not changed.
+	 *
+	 * @param buffer
+	 *            the UTF-8 encoded text.
+	 * @return the text.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 */
+	static String utf8(ByteBuffer buffer) {
+		try {
+			return UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(buffer.duplicate()).toString();
+		} catch (CharacterCodingException e) {
+			throw new InvalidEncodingException(String.format(
+					"Invalid UTF-8: %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Copy the remaining bytes of a buffer to another buffer.
+	 *
+	 * @param in
+	 *            the buffer to copy, its position is not changed.
+	 * @param out
+	 *            the buffer to copy to, its position is advanced past the
+	 *            copied bytes.
+	 * @throws BufferOverflowException
+	 *             if the output does not have room for the bytes. The
+	 *             position of the output is unchanged.
+	 */
+	static void copy(ByteBuffer in, ByteBuffer out) {
+		if (out.remaining() < in.remaining()) {
+			throw new BufferOverflowException();
+		}
+		for (int i = in.position(); i < in.limit(); i++) {
+			out.put(in.get(i));
+		}
+	}
+
+	/**
+	 * Write text to a buffer as UTF-8.
+	 * <p>
+	 * The characters are encoded directly into the buffer. Unpaired surrogates
+	 * are written as '?'. The position of the buffer is advanced past the
+	 * written bytes.
+	 * </p>
+	 *
+	 * @param text
+	 *            the text to write.
+	 * @param buffer
+	 *            the buffer to write to.
+	 * @throws BufferOverflowException
+	 *             if the buffer does not have room for the text. The position
+	 *             of the buffer is unchanged.
+	 */
+	static void encode(CharSequence text, ByteBuffer buffer) {
+		int mark = buffer.position();
+		int len = text.length();
+		for (int i = 0; i < len; i++) {
+			int c = text.charAt(i);
+			if (Character.isHighSurrogate((char) c) && i + 1 < len
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, text.charAt(++i));
+			} else if (Character.isSurrogate((char) c)) {
+				c = '?';
+			}
+			int size = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+			if (buffer.remaining() < size) {
+				buffer.position(mark);
+				throw new BufferOverflowException();
+			}
+			switch (size) {
+			case 1:
+				buffer.put((byte) c);
+				break;
+			case 2:
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+				break;
+			case 3:
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+				break;
+			default:
+				buffer.put((byte) (0xF0 | (c >> 18)));
+				buffer.put((byte) (0x80 | ((c >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+				break;
+			}
+		}
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		return (char) buffer.get(start + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int begin, int end) {
+		if (begin < 0 || end < begin || end > length) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Region %s to %s of %s characters", begin, end, length));
+		}
+		return new ByteSequence(buffer, start + begin, start + end);
+	}
+
+	@Override
+	public String toString() {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) buffer.get(start + i);
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,757 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A lazily built deterministic automaton that matches one URI component value
+ * against the component patterns of many rules at once.
+ * <p>
+ * Each supported pattern is compiled to a nondeterministic automaton and the
+ * automata are joined under a common start state. Deterministic states (sets
+ * of nondeterministic states) are created on demand as values are scanned and
+ * cached, so a single linear scan of a value reports the set of rules whose
+ * pattern matches the entire value, independent of the number of rules.
+ * </p>
+ * <p>
+ * Only the regular subset of the java.util.regex syntax is supported:
+ * literals, escapes, character classes, the wildcard, groups, alternation and
+ * greedy or lazy quantifiers. Patterns that use flags, back references,
+ * lookaround, boundaries, possessive quantifiers or other constructs are
+ * rejected by add() and must be matched with their Pattern instead.
+ * </p>
+ */
+class ComponentAutomaton {
+	// maximum number of deterministic states cached.
+	private static final int MAX_STATES = 10000;
+	// maximum repetition count that is expanded.
+	private static final int MAX_REPEAT = 100;
+	// the line terminators that the wildcard does not match.
+	private static final int[] DOT = complement(new int[] { '\n', '\n',
+			'\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029' });
+	private static final int[] DIGIT = { '0', '9' };
+	private static final int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+	private static final int[] SPACE = { '\t', '\r', ' ', ' ' };
+
+	// the start state of the combined nondeterministic automaton.
+	private final NState start = new NState();
+	// the nondeterministic states in creation order.
+	private final List<NState> states = new ArrayList<NState>();
+	// the deterministic start state, created on first scan.
+	private volatile DState dstart;
+	// the cached deterministic states.
+	private final Map<Key, DState> dstates = new HashMap<Key, DState>();
+
+	/**
+	 * Thrown when a pattern uses a construct the automaton does not support.
+	 */
+	static class UnsupportedPatternException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedPatternException(String msg) {
+			super(msg);
+		}
+	}
+
+	ComponentAutomaton() {
+		register(start);
+	}
+
+	/**
+	 * Add a pattern that accepts for a rule. Patterns may not be added once
+	 * scanning has begun.
+	 *
+	 * @param pattern
+	 *            the pattern to add.
+	 * @param rank
+	 *            the rank of the rule the pattern belongs to.
+	 * @throws UnsupportedPatternException
+	 *             if the pattern can not be converted to an automaton.
+	 */
+	void add(Pattern pattern, int rank) throws UnsupportedPatternException {
+		if (pattern.flags() != 0) {
+			throw new UnsupportedPatternException("flags");
+		}
+		add(pattern.pattern(), rank);
+	}
+
+	/**
+	 * Add a regular expression, compiled without flags, that accepts for a
+	 * rule. The expression is not compiled to a Pattern.
+	 *
+	 * @param regex
+	 *            the regular expression to add.
+	 * @param rank
+	 *            the rank of the rule the expression belongs to.
+	 * @throws UnsupportedPatternException
+	 *             if the expression can not be converted to an automaton.
+	 * @see #add(Pattern, int)
+	 */
+	void add(String regex, int rank) throws UnsupportedPatternException {
+		if (dstart != null) {
+			throw new IllegalStateException("Automaton is already in use");
+		}
+		Node node = new Parser(regex).parse();
+		NState accept = new NState();
+		accept.accept = rank;
+		register(accept);
+		start.eps.add(node.compile(this, accept));
+	}
+
+	/**
+	 * Determine if a pattern can be converted to an automaton.
+	 *
+	 * @param pattern
+	 *            the pattern to check.
+	 * @return true if the pattern is supported.
+	 */
+	static boolean isSupported(Pattern pattern) {
+		try {
+			if (pattern.flags() != 0) {
+				return false;
+			}
+			new Parser(pattern.pattern()).parse();
+			return true;
+		} catch (UnsupportedPatternException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Scan a value.
+	 *
+	 * @param value
+	 *            the value to scan.
+	 * @return the ranks of the rules whose pattern matches the entire value or
+	 *         null if the value can not be scanned (it contains surrogate
+	 *         characters) and the patterns must be evaluated individually.
+	 */
+	BitSet scan(CharSequence value) {
+		DState state = dstart;
+		if (state == null) {
+			synchronized (dstates) {
+				if (dstart == null) {
+					dstart = intern(closure(Arrays.asList(start)));
+				}
+				state = dstart;
+			}
+		}
+		for (int i = 0; i < value.length() && !state.dead; i++) {
+			char c = value.charAt(i);
+			if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+				// java.util.regex matches code points, not chars.
+				return null;
+			}
+			state = state.next(this, c);
+		}
+		return state.accepts;
+	}
+
+	private NState register(NState state) {
+		state.id = states.size();
+		states.add(state);
+		return state;
+	}
+
+	// the set of char states and accept states reachable by epsilon moves.
+	private int[] closure(List<NState> from) {
+		BitSet seen = new BitSet(states.size());
+		BitSet retval = new BitSet(states.size());
+		List<NState> stack = new ArrayList<NState>(from);
+		while (!stack.isEmpty()) {
+			NState s = stack.remove(stack.size() - 1);
+			if (seen.get(s.id)) {
+				continue;
+			}
+			seen.set(s.id);
+			if (s.ranges != null || s.accept >= 0) {
+				retval.set(s.id);
+			}
+			stack.addAll(s.eps);
+		}
+		int[] ids = new int[retval.cardinality()];
+		int j = 0;
+		for (int i = retval.nextSetBit(0); i >= 0; i = retval.nextSetBit(i + 1)) {
+			ids[j++] = i;
+		}
+		return ids;
+	}
+
+	// get the cached state for a set of nondeterministic states. Caller must
+	// hold the dstates lock.
+	private DState intern(int[] ids) {
+		Key key = new Key(ids);
+		DState retval = dstates.get(key);
+		if (retval == null) {
+			BitSet accepts = new BitSet();
+			for (int id : ids) {
+				NState s = states.get(id);
+				if (s.accept >= 0) {
+					accepts.set(s.accept);
+				}
+			}
+			boolean cached = dstates.size() < MAX_STATES;
+			retval = new DState(ids, accepts, cached);
+			if (cached) {
+				dstates.put(key, retval);
+			}
+		}
+		return retval;
+	}
+
+	// compute the transition from a state on a character.
+	private DState step(DState from, char c) {
+		List<NState> next = new ArrayList<NState>();
+		for (int id : from.ids) {
+			NState s = states.get(id);
+			if (s.ranges != null && contains(s.ranges, c)) {
+				next.add(s.next);
+			}
+		}
+		synchronized (dstates) {
+			return intern(closure(next));
+		}
+	}
+
+	private static boolean contains(int[] ranges, char c) {
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (c < ranges[i]) {
+				return false;
+			}
+			if (c <= ranges[i + 1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// sort and merge ranges
+	private static int[] normalize(List<int[]> ranges) {
+		int[][] arr = ranges.toArray(new int[ranges.size()][]);
+		Arrays.sort(arr, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return a[0] - b[0];
+			}
+		});
+		List<int[]> merged = new ArrayList<int[]>();
+		for (int[] r : arr) {
+			if (!merged.isEmpty() && merged.get(merged.size() - 1)[1] + 1 >= r[0]) {
+				int[] last = merged.get(merged.size() - 1);
+				last[1] = Math.max(last[1], r[1]);
+			} else {
+				merged.add(new int[] { r[0], r[1] });
+			}
+		}
+		int[] retval = new int[merged.size() * 2];
+		for (int i = 0; i < merged.size(); i++) {
+			retval[i * 2] = merged.get(i)[0];
+			retval[i * 2 + 1] = merged.get(i)[1];
+		}
+		return retval;
+	}
+
+	// the complement of sorted, merged ranges over the char values.
+	private static int[] complement(int[] ranges) {
+		List<int[]> retval = new ArrayList<int[]>();
+		int low = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] > low) {
+				retval.add(new int[] { low, ranges[i] - 1 });
+			}
+			low = ranges[i + 1] + 1;
+		}
+		if (low <= Character.MAX_VALUE) {
+			retval.add(new int[] { low, Character.MAX_VALUE });
+		}
+		return normalize(retval);
+	}
+
+	/**
+	 * A nondeterministic state. A state either consumes a character in its
+	 * ranges and moves to next, moves to its epsilon states without consuming
+	 * or accepts for a rule.
+	 */
+	private static class NState {
+		int id;
+		int[] ranges;
+		NState next;
+		final List<NState> eps = new ArrayList<NState>(2);
+		int accept = -1;
+	}
+
+	// the key for a set of nondeterministic state ids.
+	private static class Key {
+		private final int[] ids;
+		private final int hash;
+
+		Key(int[] ids) {
+			this.ids = ids;
+			this.hash = Arrays.hashCode(ids);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(ids, ((Key) o).ids);
+		}
+	}
+
+	/**
+	 * A deterministic state. ASCII transitions are cached in an array, other
+	 * transitions in a map. Transitions to states that could not be cached
+	 * because the cache is full are computed on every use.
+	 */
+	private static class DState {
+		final int[] ids;
+		final BitSet accepts;
+		final boolean dead;
+		final boolean cached;
+		final DState[] ascii = new DState[128];
+		final Map<Character, DState> other = new ConcurrentHashMap<Character, DState>();
+
+		DState(int[] ids, BitSet accepts, boolean cached) {
+			this.ids = ids;
+			this.accepts = accepts;
+			this.dead = ids.length == 0;
+			this.cached = cached;
+		}
+
+		DState next(ComponentAutomaton automaton, char c) {
+			DState retval = c < 128 ? ascii[c] : other.get(c);
+			if (retval == null) {
+				retval = automaton.step(this, c);
+				if (retval.cached) {
+					if (c < 128) {
+						ascii[c] = retval;
+					} else {
+						other.put(c, retval);
+					}
+				}
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * A node of the parsed expression.
+	 */
+	private static abstract class Node {
+		/**
+		 * Compile the node to states that continue to out.
+		 *
+		 * @return the entry state.
+		 */
+		abstract NState compile(ComponentAutomaton automaton, NState out);
+	}
+
+	// matches one character in a set of ranges
+	private static class CharNode extends Node {
+		final int[] ranges;
+
+		CharNode(int[] ranges) {
+			this.ranges = ranges;
+		}
+
+		@Override
+		NState compile(ComponentAutomaton automaton, NState out) {
+			NState s = automaton.register(new NState());
+			s.ranges = ranges;
+			s.next = out;
+			return s;
+		}
+	}
+
+	// matches the children in sequence.
+	private static class ConcatNode extends Node {
+		final List<Node> children = new ArrayList<Node>();
+
+		@Override
+		NState compile(ComponentAutomaton automaton, NState out) {
+			NState retval = out;
+			for (int i = children.size() - 1; i >= 0; i--) {
+				retval = children.get(i).compile(automaton, retval);
+			}
+			return retval;
+		}
+	}
+
+	// matches any one of the children.
+	private static class AltNode extends Node {
+		final List<Node> children = new ArrayList<Node>();
+
+		@Override
+		NState compile(ComponentAutomaton automaton, NState out) {
+			NState s = automaton.register(new NState());
+			for (Node child : children) {
+				s.eps.add(child.compile(automaton, out));
+			}
+			return s;
+		}
+	}
+
+	// matches the child between min and max times, max of -1 is unbounded.
+	private static class RepeatNode extends Node {
+		final Node child;
+		final int min;
+		final int max;
+
+		RepeatNode(Node child, int min, int max) {
+			this.child = child;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		NState compile(ComponentAutomaton automaton, NState out) {
+			NState retval = out;
+			if (max == -1) {
+				NState loop = automaton.register(new NState());
+				loop.eps.add(child.compile(automaton, loop));
+				loop.eps.add(out);
+				retval = loop;
+			} else {
+				for (int i = min; i < max; i++) {
+					NState opt = automaton.register(new NState());
+					opt.eps.add(child.compile(automaton, retval));
+					opt.eps.add(out);
+					retval = opt;
+				}
+			}
+			for (int i = 0; i < min; i++) {
+				retval = child.compile(automaton, retval);
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * A recursive descent parser for the supported regular expression subset.
+	 */
+	private static class Parser {
+		private final String regex;
+		private int pos;
+
+		Parser(String regex) {
+			this.regex = regex;
+		}
+
+		Node parse() throws UnsupportedPatternException {
+			int end = regex.length();
+			if (end > 0 && regex.charAt(0) == '^') {
+				pos++;
+			}
+			Node retval = alternation();
+			if (pos == end - 1 && regex.charAt(pos) == '$') {
+				pos++;
+			}
+			if (pos != end) {
+				throw unsupported();
+			}
+			return retval;
+		}
+
+		private UnsupportedPatternException unsupported() {
+			return new UnsupportedPatternException(String.format(
+					"Unsupported construct at position %s in %s", pos, regex));
+		}
+
+		private boolean more() {
+			return pos < regex.length();
+		}
+
+		private char peek() {
+			return regex.charAt(pos);
+		}
+
+		private Node alternation() throws UnsupportedPatternException {
+			AltNode alt = new AltNode();
+			alt.children.add(concatenation());
+			while (more() && peek() == '|') {
+				pos++;
+				alt.children.add(concatenation());
+			}
+			return alt.children.size() == 1 ? alt.children.get(0) : alt;
+		}
+
+		private Node concatenation() throws UnsupportedPatternException {
+			ConcatNode concat = new ConcatNode();
+			while (more() && peek() != '|' && peek() != ')') {
+				if (peek() == '$' && pos == regex.length() - 1) {
+					break;
+				}
+				if (peek() == '\\' && pos + 1 < regex.length()
+						&& regex.charAt(pos + 1) == 'Q') {
+					quoted(concat);
+					continue;
+				}
+				concat.children.add(quantified(atom()));
+			}
+			return concat;
+		}
+
+		private void quoted(ConcatNode concat) {
+			int quoteEnd = regex.indexOf("\\E", pos + 2);
+			int stop = quoteEnd == -1 ? regex.length() : quoteEnd;
+			for (int i = pos + 2; i < stop; i++) {
+				char c = regex.charAt(i);
+				concat.children.add(new CharNode(new int[] { c, c }));
+			}
+			pos = quoteEnd == -1 ? stop : quoteEnd + 2;
+		}
+
+		private Node atom() throws UnsupportedPatternException {
+			char c = peek();
+			switch (c) {
+			case '(':
+				pos++;
+				if (more() && peek() == '?') {
+					if (regex.startsWith("?:", pos)) {
+						pos += 2;
+					} else if (regex.startsWith("?<", pos)
+							&& pos + 2 < regex.length()
+							&& Character.isLetter(regex.charAt(pos + 2))) {
+						// named group
+						int close = regex.indexOf('>', pos);
+						if (close == -1) {
+							throw unsupported();
+						}
+						pos = close + 1;
+					} else {
+						throw unsupported();
+					}
+				}
+				Node retval = alternation();
+				if (!more() || peek() != ')') {
+					throw unsupported();
+				}
+				pos++;
+				return retval;
+			case '[':
+				return new CharNode(charClass());
+			case '.':
+				pos++;
+				return new CharNode(DOT);
+			case '\\':
+				pos++;
+				return new CharNode(escape());
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+			case '^':
+			case '$':
+			case ')':
+			case ']':
+			case '}':
+				throw unsupported();
+			default:
+				pos++;
+				return new CharNode(new int[] { c, c });
+			}
+		}
+
+		private Node quantified(Node atom) throws UnsupportedPatternException {
+			if (!more()) {
+				return atom;
+			}
+			int min;
+			int max;
+			switch (peek()) {
+			case '*':
+				min = 0;
+				max = -1;
+				pos++;
+				break;
+			case '+':
+				min = 1;
+				max = -1;
+				pos++;
+				break;
+			case '?':
+				min = 0;
+				max = 1;
+				pos++;
+				break;
+			case '{':
+				int close = regex.indexOf('}', pos);
+				if (close == -1) {
+					throw unsupported();
+				}
+				String body = regex.substring(pos + 1, close);
+				int comma = body.indexOf(',');
+				try {
+					if (comma == -1) {
+						min = Integer.parseInt(body);
+						max = min;
+					} else {
+						min = Integer.parseInt(body.substring(0, comma));
+						String maxStr = body.substring(comma + 1);
+						max = maxStr.length() == 0 ? -1 : Integer
+								.parseInt(maxStr);
+					}
+				} catch (NumberFormatException e) {
+					throw unsupported();
+				}
+				if (min > MAX_REPEAT || max > MAX_REPEAT
+						|| (max != -1 && max < min)) {
+					throw unsupported();
+				}
+				pos = close + 1;
+				break;
+			default:
+				return atom;
+			}
+			if (more() && peek() == '?') {
+				// lazy quantifiers accept the same language.
+				pos++;
+			} else if (more() && peek() == '+') {
+				// possessive quantifiers do not.
+				throw unsupported();
+			}
+			if (more() && "*+?{".indexOf(peek()) != -1) {
+				throw unsupported();
+			}
+			return new RepeatNode(atom, min, max);
+		}
+
+		// parse an escape, pos is at the character following the backslash.
+		private int[] escape() throws UnsupportedPatternException {
+			if (!more()) {
+				throw unsupported();
+			}
+			char c = regex.charAt(pos++);
+			switch (c) {
+			case 'd':
+				return DIGIT;
+			case 'D':
+				return complement(DIGIT);
+			case 'w':
+				return WORD;
+			case 'W':
+				return complement(WORD);
+			case 's':
+				return SPACE;
+			case 'S':
+				return complement(SPACE);
+			case 't':
+				return single('\t');
+			case 'n':
+				return single('\n');
+			case 'r':
+				return single('\r');
+			case 'f':
+				return single('\f');
+			case 'a':
+				return single('\u0007');
+			case 'e':
+				return single('\u001B');
+			case 'x':
+				return single(hex(2));
+			case 'u':
+				return single(hex(4));
+			default:
+				if (Character.isLetterOrDigit(c)) {
+					pos--;
+					throw unsupported();
+				}
+				return single(c);
+			}
+		}
+
+		private char hex(int len) throws UnsupportedPatternException {
+			if (pos + len > regex.length()) {
+				throw unsupported();
+			}
+			try {
+				char retval = (char) Integer.parseInt(
+						regex.substring(pos, pos + len), 16);
+				pos += len;
+				return retval;
+			} catch (NumberFormatException e) {
+				throw unsupported();
+			}
+		}
+
+		private static int[] single(char c) {
+			return new int[] { c, c };
+		}
+
+		// parse a character class starting at the opening bracket.
+		private int[] charClass() throws UnsupportedPatternException {
+			pos++;
+			boolean negate = false;
+			if (more() && peek() == '^') {
+				negate = true;
+				pos++;
+			}
+			if (more() && peek() == ']') {
+				throw unsupported();
+			}
+			List<int[]> ranges = new ArrayList<int[]>();
+			while (more() && peek() != ']') {
+				if (peek() == '[' || regex.startsWith("&&", pos)) {
+					throw unsupported();
+				}
+				int[] low = classAtom();
+				if (low.length == 2 && low[0] == low[1] && more()
+						&& peek() == '-' && pos + 1 < regex.length()
+						&& regex.charAt(pos + 1) != ']') {
+					pos++;
+					int[] high = classAtom();
+					if (high.length != 2 || high[0] != high[1]
+							|| high[0] < low[0]) {
+						throw unsupported();
+					}
+					ranges.add(new int[] { low[0], high[0] });
+				} else {
+					for (int i = 0; i < low.length; i += 2) {
+						ranges.add(new int[] { low[i], low[i + 1] });
+					}
+				}
+			}
+			if (!more()) {
+				throw unsupported();
+			}
+			pos++;
+			int[] retval = normalize(ranges);
+			return negate ? complement(retval) : retval;
+		}
+
+		private int[] classAtom() throws UnsupportedPatternException {
+			char c = regex.charAt(pos++);
+			if (c == '\\') {
+				return escape();
+			}
+			return single(c);
+		}
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * The immutable set of component patterns that a URIMatcher matches with.
+ * <p>
+ * The patterns are replaced as a whole when a URIMatcher setter is called, so
+ * an instance is never modified after construction and may be shared between
+ * threads. The compiled patterns come from the PatternPool and are shared with
+ * every other matcher that uses the same expression.
+ * </p>
+ */
+final class ComponentPatterns {
+	private static final int COMPONENTS = URIComponent.values().length;
+	// the port value when the port is not constrained.
+	private static final int ANY_PORT = Integer.MIN_VALUE;
+
+	/**
+	 * The patterns that constrain nothing.
+	 */
+	static final ComponentPatterns EMPTY = new ComponentPatterns(
+			new PatternPool.Entry[COMPONENTS], ANY_PORT, new String[0],
+			new PatternPool.Entry[0], false);
+
+	// the pooled patterns indexed by component ordinal, the port entry is
+	// unused.
+	private final PatternPool.Entry[] entries;
+	// the port or ANY_PORT.
+	private final int port;
+	// the names of the constrained query parameters in sorted order.
+	private final String[] parameterNames;
+	// the pooled patterns of the query parameters, parallel to the names.
+	private final PatternPool.Entry[] parameterEntries;
+	// true if the path and fragment are matched without decoding.
+	private final boolean raw;
+	// the regular expression text, computed on first use.
+	private String regex;
+
+	private ComponentPatterns(PatternPool.Entry[] entries, int port,
+			String[] parameterNames, PatternPool.Entry[] parameterEntries,
+			boolean raw) {
+		this.entries = entries;
+		this.port = port;
+		this.parameterNames = parameterNames;
+		this.parameterEntries = parameterEntries;
+		this.raw = raw;
+	}
+
+	/**
+	 * Get the pattern for a component.
+	 *
+	 * @param component
+	 *            the component.
+	 * @return the pattern or null if the component is not constrained by a
+	 *         regular expression.
+	 */
+	Pattern get(URIComponent component) {
+		PatternPool.Entry entry = entries[component.ordinal()];
+		return entry == null ? null : entry.pattern();
+	}
+
+	/**
+	 * Get the regular expression for a component without compiling it.
+	 *
+	 * @param component
+	 *            the component.
+	 * @return the expression or null if the component is not constrained by
+	 *         a regular expression.
+	 */
+	String expression(URIComponent component) {
+		PatternPool.Entry entry = entries[component.ordinal()];
+		return entry == null ? null : entry.regex;
+	}
+
+	/**
+	 * Compile any component patterns that have not been compiled.
+	 *
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if a lazily compiled expression is not valid.
+	 */
+	void compile() {
+		for (PatternPool.Entry entry : entries) {
+			if (entry != null) {
+				entry.pattern();
+			}
+		}
+		for (PatternPool.Entry entry : parameterEntries) {
+			entry.pattern();
+		}
+	}
+
+	/**
+	 * Get the number of constrained query parameters.
+	 *
+	 * @return the number of parameters.
+	 */
+	int parameterCount() {
+		return parameterNames.length;
+	}
+
+	/**
+	 * Get the name of a constrained query parameter.
+	 *
+	 * @param idx
+	 *            the index of the parameter, names are in sorted order.
+	 * @return the name.
+	 */
+	String parameterName(int idx) {
+		return parameterNames[idx];
+	}
+
+	/**
+	 * Get the pooled pattern of a constrained query parameter.
+	 *
+	 * @param idx
+	 *            the index of the parameter.
+	 * @return the pattern entry.
+	 */
+	PatternPool.Entry parameter(int idx) {
+		return parameterEntries[idx];
+	}
+
+	/**
+	 * Find a constrained query parameter.
+	 *
+	 * @param name
+	 *            the parameter name.
+	 * @return the index of the parameter or -1 if it is not constrained.
+	 */
+	int parameterIndex(String name) {
+		int idx = Arrays.binarySearch(parameterNames, name);
+		return idx < 0 ? -1 : idx;
+	}
+
+	/**
+	 * Get the literal result for a component.
+	 *
+	 * @param component
+	 *            the component.
+	 * @return the result or null if the component pattern is not a literal.
+	 */
+	LiteralResult literal(URIComponent component) {
+		PatternPool.Entry entry = entries[component.ordinal()];
+		return entry == null ? null : entry.literal();
+	}
+
+	/**
+	 * Get the prefilter for a component.
+	 *
+	 * @param component
+	 *            the component.
+	 * @return the prefilter or null if the component pattern has none.
+	 */
+	Prefilter filter(URIComponent component) {
+		PatternPool.Entry entry = entries[component.ordinal()];
+		return entry == null ? null : entry.filter();
+	}
+
+	/**
+	 * Get the port.
+	 *
+	 * @return the port or null if the port is not constrained.
+	 */
+	Integer getPort() {
+		return port == ANY_PORT ? null : Integer.valueOf(port);
+	}
+
+	/**
+	 * Determine if the port is constrained.
+	 *
+	 * @return true if port() is the port to match.
+	 */
+	boolean hasPort() {
+		return port != ANY_PORT;
+	}
+
+	/**
+	 * Get the port without boxing it.
+	 *
+	 * @return the port, only meaningful if hasPort() is true.
+	 */
+	int port() {
+		return port;
+	}
+
+	/**
+	 * Determine if the path and fragment are matched without decoding.
+	 *
+	 * @return true for raw matching.
+	 */
+	boolean isRaw() {
+		return raw;
+	}
+
+	/**
+	 * Get the cached regular expression text of the matcher.
+	 *
+	 * @return the text or null if it has not been set.
+	 */
+	String getRegEx() {
+		return regex;
+	}
+
+	/**
+	 * Cache the regular expression text of the matcher. Strings are immutable
+	 * so a racing thread at worst computes the same text again.
+	 *
+	 * @param regex
+	 *            the text.
+	 */
+	void setRegEx(String regex) {
+		this.regex = regex;
+	}
+
+	/**
+	 * Create a copy with a different component pattern.
+	 *
+	 * @param component
+	 *            the component to change.
+	 * @param regex
+	 *            the new regular expression, may be null.
+	 * @return the new patterns.
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if the expression is not valid.
+	 */
+	ComponentPatterns with(URIComponent component, String regex) {
+		PatternPool.Entry[] copy = entries.clone();
+		copy[component.ordinal()] = regex == null ? null : PatternPool
+				.intern(regex);
+		return new ComponentPatterns(copy, port, parameterNames,
+				parameterEntries, raw);
+	}
+
+	/**
+	 * Create a copy with a different query parameter pattern.
+	 *
+	 * @param name
+	 *            the parameter name.
+	 * @param regex
+	 *            the new regular expression or null to remove the
+	 *            constraint.
+	 * @return the new patterns.
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if the expression is not valid.
+	 */
+	ComponentPatterns withParameter(String name, String regex) {
+		int idx = Arrays.binarySearch(parameterNames, name);
+		String[] names;
+		PatternPool.Entry[] params;
+		if (regex == null) {
+			if (idx < 0) {
+				return this;
+			}
+			names = new String[parameterNames.length - 1];
+			params = new PatternPool.Entry[names.length];
+			System.arraycopy(parameterNames, 0, names, 0, idx);
+			System.arraycopy(parameterNames, idx + 1, names, idx,
+					names.length - idx);
+			System.arraycopy(parameterEntries, 0, params, 0, idx);
+			System.arraycopy(parameterEntries, idx + 1, params, idx,
+					names.length - idx);
+		} else if (idx >= 0) {
+			names = parameterNames;
+			params = parameterEntries.clone();
+			params[idx] = PatternPool.intern(regex);
+		} else {
+			int ins = -idx - 1;
+			names = new String[parameterNames.length + 1];
+			params = new PatternPool.Entry[names.length];
+			System.arraycopy(parameterNames, 0, names, 0, ins);
+			System.arraycopy(parameterNames, ins, names, ins + 1,
+					parameterNames.length - ins);
+			System.arraycopy(parameterEntries, 0, params, 0, ins);
+			System.arraycopy(parameterEntries, ins, params, ins + 1,
+					parameterNames.length - ins);
+			names[ins] = name;
+			params[ins] = PatternPool.intern(regex);
+		}
+		return new ComponentPatterns(entries, port, names, params, raw);
+	}
+
+	/**
+	 * Create a copy with a different port.
+	 *
+	 * @param port
+	 *            the new port, URIMatcher.NO_PORT or larger, may be null.
+	 * @return the new patterns.
+	 * @throws IllegalArgumentException
+	 *             if the port is less than URIMatcher.NO_PORT, as the
+	 *             internal ANY_PORT value must not be reachable.
+	 */
+	ComponentPatterns withPort(Integer port) {
+		if (port != null && port < URIMatcher.NO_PORT) {
+			throw new IllegalArgumentException(String.format(
+					"Port %s is less than %s", port, URIMatcher.NO_PORT));
+		}
+		int value = port == null ? ANY_PORT : port.intValue();
+		return value == this.port ? this : new ComponentPatterns(entries,
+				value, parameterNames, parameterEntries, raw);
+	}
+
+	/**
+	 * Create a copy with a different matching mode.
+	 *
+	 * @param raw
+	 *            true to match the path and fragment without decoding them.
+	 * @return the new patterns.
+	 */
+	ComponentPatterns withRaw(boolean raw) {
+		return raw == this.raw ? this : new ComponentPatterns(entries, port,
+				parameterNames, parameterEntries, raw);
+	}
+}
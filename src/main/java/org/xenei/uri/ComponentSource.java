@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.net.URI;
+
+/**
+ * The source of the component values that are matched.
+ */
+abstract class ComponentSource {
+
+	/**
+	 * Get the value of a component.
+	 *
+	 * @param component
+	 *            the component to retrieve.
+	 * @return the value of the component, an empty sequence if the component
+	 *         is not present. The port is returned as its decimal digits.
+	 */
+	final CharSequence value(URIComponent component) {
+		return value(component, false);
+	}
+
+	/**
+	 * Get the value of a component, optionally without decoding percent
+	 * escapes.
+	 *
+	 * @param component
+	 *            the component to retrieve.
+	 * @param raw
+	 *            true to return the path and fragment as they appear in the
+	 *            URI text.
+	 * @return the value of the component as for value(URIComponent).
+	 * @see #value(URIComponent)
+	 */
+	abstract CharSequence value(URIComponent component, boolean raw);
+
+	/**
+	 * Get the port.
+	 *
+	 * @return the port or URIMatcher.NO_PORT if no port was specified.
+	 */
+	abstract int getPort();
+
+	/**
+	 * Get the entire URI as text.
+	 *
+	 * @return the text of the URI.
+	 */
+	abstract CharSequence text();
+
+	/**
+	 * Get the source as a URI.
+	 *
+	 * @return the URI.
+	 * @throws IllegalArgumentException
+	 *             if the source text is not a valid URI.
+	 */
+	abstract URI toURI();
+
+	/**
+	 * A source backed by a java.net.URI.
+	 */
+	static class URISource extends ComponentSource {
+		// the URI
+		private URI uri;
+
+		URISource(URI uri) {
+			this.uri = uri;
+		}
+
+		/**
+		 * Change the URI.
+		 *
+		 * @param uri
+		 *            the new URI.
+		 * @return this source.
+		 */
+		URISource reset(URI uri) {
+			this.uri = uri;
+			return this;
+		}
+
+		@Override
+		CharSequence value(URIComponent component, boolean raw) {
+			return raw ? URIMatch.rawValue(uri, component) : URIMatch.value(
+					uri, component);
+		}
+
+		@Override
+		int getPort() {
+			return uri.getPort();
+		}
+
+		@Override
+		CharSequence text() {
+			return uri.toString();
+		}
+
+		@Override
+		URI toURI() {
+			return uri;
+		}
+	}
+}
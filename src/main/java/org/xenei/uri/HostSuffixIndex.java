@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A trie of rules keyed by the reversed DNS labels of the literal domain
+ * suffix of their host patterns.
+ * <p>
+ * A host pattern such as <code>([^.]+)\.cdn\.example\.org</code> only matches
+ * hosts that end with <code>.cdn.example.org</code>. The rule is stored under
+ * the path org, example, cdn. A lookup walks the host label by label from the
+ * right and collects the rules stored at each node that the host passes
+ * through.
+ * </p>
+ */
+class HostSuffixIndex extends LabelTrie {
+
+	/**
+	 * Get the label aligned literal suffix of a host pattern.
+	 * <p>
+	 * The suffix starts at the first dot of the literal text that every match
+	 * of the pattern ends with. For example <code>(.*)\.example\.com</code>
+	 * and <code>(.*)example\.com</code> have the suffixes
+	 * <code>.example.com</code> and <code>.com</code> respectively.
+	 * </p>
+	 *
+	 * @param host
+	 *            the host pattern.
+	 * @return the labels of the suffix in reverse order or null if the pattern
+	 *         does not have a label aligned suffix.
+	 */
+	static String[] suffixLabels(Pattern host) {
+		return labels(PatternAnalyzer.suffix(host));
+	}
+
+	/**
+	 * Get the labels of a host regular expression without compiling it.
+	 *
+	 * @param host
+	 *            the host expression, may be null.
+	 * @return the labels as for suffixLabels(Pattern).
+	 * @see #suffixLabels(Pattern)
+	 */
+	static String[] suffixLabels(String host) {
+		return labels(PatternAnalyzer.suffix(host));
+	}
+
+	// split the literal suffix into labels.
+	private static String[] labels(String suffix) {
+		if (suffix == null) {
+			return null;
+		}
+		int dot = suffix.indexOf('.');
+		if (dot == -1 || dot == suffix.length() - 1) {
+			return null;
+		}
+		String[] labels = suffix.substring(dot + 1).split("\\.", -1);
+		String[] retval = new String[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i].length() == 0) {
+				return null;
+			}
+			retval[labels.length - 1 - i] = labels[i];
+		}
+		return retval;
+	}
+
+	/**
+	 * Collect the entries whose suffix the host ends with.
+	 *
+	 * @param host
+	 *            the host to look up.
+	 * @param result
+	 *            the list to add the arrays of matching entries to.
+	 */
+	@Override
+	void collect(String host, List<RuleIndex.Entry[]> result) {
+		Node node = root;
+		int end = host.length();
+		while (end > 0 && node.hasChildren()) {
+			int dot = host.lastIndexOf('.', end - 1);
+			node = node.child(host.substring(dot + 1, end));
+			if (node == null || dot == -1) {
+				// no node or the host was consumed without a preceding dot.
+				return;
+			}
+			if (node.entries() != null) {
+				result.add(node.entries());
+			}
+			end = dot;
+		}
+	}
+}
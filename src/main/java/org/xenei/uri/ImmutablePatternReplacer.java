@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * An immutable PatternReplacer.
+ * <p>
+ * The compiled replacement pattern and the component patterns are captured
+ * when the replacer is built and held in final fields, so an instance is
+ * safely published however it is shared and may be used by any number of
+ * threads, for example through a single URIRewriter, without
+ * synchronization. The setters throw UnsupportedOperationException.
+ * </p>
+ * 
+ * @see PatternReplacer#build()
+ */
+public final class ImmutablePatternReplacer extends PatternReplacer {
+	// the patterns captured from the builder.
+	private final ComponentPatterns frozen;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param builder
+	 *            the replacer to capture the patterns from.
+	 */
+	ImmutablePatternReplacer(PatternReplacer builder) {
+		super(builder.getTemplate());
+		this.frozen = builder.patterns();
+		setRecorder(builder.getRecorder());
+		setBudget(builder.getBudget());
+	}
+
+	@Override
+	ComponentPatterns patterns() {
+		return frozen;
+	}
+
+	/**
+	 * Returns this replacer as it is already immutable.
+	 * 
+	 * @return this replacer.
+	 */
+	@Override
+	public ImmutablePatternReplacer build() {
+		return this;
+	}
+
+	@Override
+	public PatternReplacer setScheme(String scheme) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setHost(String host) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setPort(Integer port) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setFragment(String fragment) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setPath(String path) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setQuery(String query) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setParameter(String name, String value) {
+		throw ImmutableURIMatcher.immutable();
+	}
+
+	@Override
+	public PatternReplacer setRawMatching(boolean raw) {
+		throw ImmutableURIMatcher.immutable();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * An immutable URIMatcher.
+ * <p>
+ * The component patterns are captured when the matcher is built and held in a
+ * final field, so an instance is safely published however it is shared and
+ * may be used by any number of threads without synchronization. The setters
+ * throw UnsupportedOperationException.
+ * </p>
+ * 
+ * @see URIMatcher#build()
+ */
+public final class ImmutableURIMatcher extends URIMatcher {
+	// the patterns captured from the builder.
+	private final ComponentPatterns frozen;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param builder
+	 *            the matcher to capture the patterns from.
+	 */
+	ImmutableURIMatcher(URIMatcher builder) {
+		super();
+		this.frozen = builder.patterns();
+		setRecorder(builder.getRecorder());
+		setBudget(builder.getBudget());
+	}
+
+	@Override
+	ComponentPatterns patterns() {
+		return frozen;
+	}
+
+	/**
+	 * Returns this matcher as it is already immutable.
+	 * 
+	 * @return this matcher.
+	 */
+	@Override
+	public ImmutableURIMatcher build() {
+		return this;
+	}
+
+	@Override
+	public URIMatcher setScheme(String scheme) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setHost(String host) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setPort(Integer port) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setFragment(String fragment) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setPath(String path) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setQuery(String query) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setParameter(String name, String value) {
+		throw immutable();
+	}
+
+	@Override
+	public URIMatcher setRawMatching(boolean raw) {
+		throw immutable();
+	}
+
+	/**
+	 * Create the exception thrown by the setters of an immutable matcher.
+	 * 
+	 * @return the exception.
+	 */
+	static UnsupportedOperationException immutable() {
+		return new UnsupportedOperationException(
+				"Immutable matchers may not be modified");
+	}
+}
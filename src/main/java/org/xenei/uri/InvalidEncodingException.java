@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * Thrown when a URI given as bytes is not valid UTF-8.
+ * <p>
+ * This is distinct from the other IllegalArgumentExceptions raised while
+ * matching or rewriting, such as a replacement pattern that references a group
+ * the matcher does not have: only the input is at fault.
+ * </p>
+ *
+ * @see URIMatchSession#match(java.nio.ByteBuffer)
+ */
+public class InvalidEncodingException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param message
+	 *            the description of the error.
+	 */
+	InvalidEncodingException(String message) {
+		super(message);
+	}
+}
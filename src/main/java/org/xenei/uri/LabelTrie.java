@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie of rule index entries keyed by a sequence of labels such as DNS
+ * labels or path segments.
+ * <p>
+ * Entries are added while the owning RuleIndex is built and the trie is then
+ * frozen. A frozen trie is not modified and may be read by multiple threads.
+ * </p>
+ */
+abstract class LabelTrie {
+	// the root of the trie.
+	protected final Node root = new Node();
+	// the number of entries in the trie.
+	private int size;
+
+	/**
+	 * A node in the trie.
+	 */
+	static class Node {
+		private Map<String, Node> children;
+		private List<RuleIndex.Entry> building;
+		private RuleIndex.Entry[] entries;
+
+		/**
+		 * Get a child node.
+		 *
+		 * @param label
+		 *            the label of the child.
+		 * @return the child or null if there is no such child.
+		 */
+		Node child(String label) {
+			return children == null ? null : children.get(label);
+		}
+
+		/**
+		 * Determine if the node has children.
+		 *
+		 * @return true if the node has children.
+		 */
+		boolean hasChildren() {
+			return children != null;
+		}
+
+		/**
+		 * Get the entries stored at this node.
+		 *
+		 * @return the entries in rule order or null if there are none.
+		 */
+		RuleIndex.Entry[] entries() {
+			return entries;
+		}
+	}
+
+	/**
+	 * Add an entry. Entries must be added in rule order.
+	 *
+	 * @param labels
+	 *            the labels to store the entry under.
+	 * @param entry
+	 *            the entry to add.
+	 */
+	void add(String[] labels, RuleIndex.Entry entry) {
+		Node node = root;
+		for (String label : labels) {
+			if (node.children == null) {
+				node.children = new HashMap<String, Node>();
+			}
+			Node child = node.children.get(label);
+			if (child == null) {
+				child = new Node();
+				node.children.put(label, child);
+			}
+			node = child;
+		}
+		if (node.building == null) {
+			node.building = new ArrayList<RuleIndex.Entry>();
+		}
+		node.building.add(entry);
+		size++;
+	}
+
+	/**
+	 * Complete the trie. No entries may be added after the trie is frozen.
+	 */
+	void freeze() {
+		freeze(root);
+	}
+
+	private void freeze(Node node) {
+		if (node.building != null) {
+			node.entries = node.building
+					.toArray(new RuleIndex.Entry[node.building.size()]);
+			node.building = null;
+		}
+		if (node.children != null) {
+			for (Node child : node.children.values()) {
+				freeze(child);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of entries in the trie.
+	 *
+	 * @return the number of entries.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Collect the entries that may match a component value.
+	 * <p>
+	 * Each array added to the result holds the entries of one node in rule
+	 * order.
+	 * </p>
+	 *
+	 * @param value
+	 *            the component value to look up.
+	 * @param result
+	 *            the list to add the arrays of candidate entries to.
+	 */
+	abstract void collect(String value, List<RuleIndex.Entry[]> result);
+}
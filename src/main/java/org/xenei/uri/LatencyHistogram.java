@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent log-linear histogram of latencies in nanoseconds.
+ * <p>
+ * Like an HdrHistogram, values are counted in buckets whose width grows with
+ * the value so that every value is recorded with a relative error of at most
+ * 1/16 (about 6%) in constant space. Values below 32 are exact and values
+ * above about 68 seconds are counted in the last bucket. Recording is lock
+ * free and does not allocate.
+ * </p>
+ */
+public final class LatencyHistogram {
+	// the number of bits of each value that are kept.
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	// the largest value that is recorded exactly in its bucket.
+	private static final int MAX_BIT = 36;
+	private static final int BUCKETS = (MAX_BIT - SUB_BITS + 2) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Get the bucket for a value.
+	 * 
+	 * @param value
+	 *            the value, not negative.
+	 * @return the bucket index.
+	 */
+	static int index(long value) {
+		if (value < 2 * SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int idx = (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+		return Math.min(idx, BUCKETS - 1);
+	}
+
+	/**
+	 * Get the smallest value counted in a bucket.
+	 * 
+	 * @param index
+	 *            the bucket index.
+	 * @return the lowest value of the bucket.
+	 */
+	static long lowest(int index) {
+		if (index < 2 * SUB_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		return (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+	}
+
+	/**
+	 * Get the largest value counted in a bucket.
+	 * 
+	 * @param index
+	 *            the bucket index.
+	 * @return the highest value of the bucket.
+	 */
+	static long highest(int index) {
+		return index == BUCKETS - 1 ? Long.MAX_VALUE : lowest(index + 1) - 1;
+	}
+
+	/**
+	 * Record a value.
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds, negative values are recorded as
+	 *            zero.
+	 */
+	public void record(long nanos) {
+		long v = nanos < 0 ? 0 : nanos;
+		counts.incrementAndGet(index(v));
+		total.increment();
+		sum.add(v);
+	}
+
+	/**
+	 * Clear the histogram.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+	}
+
+	/**
+	 * Get a point in time copy of the histogram. Values recorded while the
+	 * copy is made may or may not be included.
+	 * 
+	 * @return the snapshot.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, sum.sum());
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	/**
+	 * An immutable copy of a histogram.
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+
+		Snapshot(long[] counts, long count, long sum) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+		}
+
+		/**
+		 * Get the number of values recorded.
+		 * 
+		 * @return the count.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Get the mean value.
+		 * 
+		 * @return the mean in nanoseconds or 0 if no values were recorded.
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Get the smallest value recorded.
+		 * 
+		 * @return the lowest value of the lowest non-empty bucket or 0 if no
+		 *         values were recorded.
+		 */
+		public long getMin() {
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					return lowest(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Get the largest value recorded.
+		 * 
+		 * @return the highest value of the highest non-empty bucket or 0 if
+		 *         no values were recorded.
+		 */
+		public long getMax() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if (counts[i] > 0) {
+					return highest(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Get the value at a percentile.
+		 * 
+		 * @param percentile
+		 *            the percentile, from 0 to 100.
+		 * @return the highest value of the bucket that holds the percentile or
+		 *         0 if no values were recorded.
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException(String.format(
+						"Percentile %s must be between 0 and 100", percentile));
+			}
+			if (count == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(count * percentile
+					/ 100.0));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return highest(i);
+				}
+			}
+			return getMax();
+		}
+
+		/**
+		 * Get the median.
+		 * 
+		 * @return the 50th percentile.
+		 */
+		public long getP50() {
+			return getValueAtPercentile(50);
+		}
+
+		/**
+		 * Get the 90th percentile.
+		 * 
+		 * @return the 90th percentile.
+		 */
+		public long getP90() {
+			return getValueAtPercentile(90);
+		}
+
+		/**
+		 * Get the 99th percentile.
+		 * 
+		 * @return the 99th percentile.
+		 */
+		public long getP99() {
+			return getValueAtPercentile(99);
+		}
+
+		/**
+		 * Get the 99.9th percentile.
+		 * 
+		 * @return the 99.9th percentile.
+		 */
+		public long getP999() {
+			return getValueAtPercentile(99.9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"count=%s mean=%.1f p50=%s p99=%s p999=%s max=%s", count,
+					getMean(), getP50(), getP99(), getP999(), getMax());
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * The result of matching a component against a literal pattern. The result
+ * has no groups other than group 0, which is the literal. Results are
+ * immutable and shared by all matches of the pattern.
+ */
+final class LiteralResult implements MatchResult {
+	// the matched literal.
+	private final String literal;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param literal
+	 *            the literal that was matched.
+	 */
+	LiteralResult(String literal) {
+		this.literal = literal;
+	}
+
+	/**
+	 * Create the result for a pattern that is a literal.
+	 *
+	 * @param pattern
+	 *            the pattern, may be null.
+	 * @return the result or null if the pattern is not a literal.
+	 */
+	static LiteralResult of(Pattern pattern) {
+		String literal = PatternAnalyzer.literal(pattern);
+		return literal == null ? null : new LiteralResult(literal);
+	}
+
+	@Override
+	public int start() {
+		return 0;
+	}
+
+	@Override
+	public int start(int group) {
+		check(group);
+		return 0;
+	}
+
+	@Override
+	public int end() {
+		return literal.length();
+	}
+
+	@Override
+	public int end(int group) {
+		check(group);
+		return literal.length();
+	}
+
+	@Override
+	public String group() {
+		return literal;
+	}
+
+	@Override
+	public String group(int group) {
+		check(group);
+		return literal;
+	}
+
+	@Override
+	public int groupCount() {
+		return 0;
+	}
+
+	private void check(int group) {
+		if (group != 0) {
+			throw new IndexOutOfBoundsException("No group " + group);
+		}
+	}
+}
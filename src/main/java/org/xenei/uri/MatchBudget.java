@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An execution budget for matching a URI.
+ * <p>
+ * Regular expressions with nested quantifiers, such as <code>(a+)+b</code>,
+ * can backtrack exponentially on a hostile input and spin the matching thread
+ * for seconds. A matcher with a budget gives each component regular
+ * expression a view of the component value that counts the characters the
+ * regular expression engine reads. Once the reads for one URI exceed the step
+ * limit, or the deadline passes, matching stops with a MatchTimeoutException
+ * rather than returning a match or null.
+ * </p>
+ * <p>
+ * A well behaved pattern reads each character a small number of times, so a
+ * step limit of a few thousand times the longest expected URI only stops
+ * runaway matches. The deadline is checked every 1024 steps.
+ * </p>
+ *
+ * @see URIMatcher#setBudget(MatchBudget)
+ * @see URIMatcher#getBacktrackingRisks()
+ */
+public final class MatchBudget {
+	// the number of steps between deadline checks, a power of two.
+	static final int CHECK_INTERVAL = 1024;
+
+	private final long maxSteps;
+	private final long timeoutNanos;
+
+	/**
+	 * Create a budget limited by steps.
+	 *
+	 * @param maxSteps
+	 *            the maximum number of characters the regular expressions may
+	 *            read while matching one URI.
+	 */
+	public MatchBudget(long maxSteps) {
+		this(maxSteps, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Create a budget limited by steps and time.
+	 *
+	 * @param maxSteps
+	 *            the maximum number of characters the regular expressions may
+	 *            read while matching one URI.
+	 * @param timeout
+	 *            the maximum time to match one URI, 0 for no time limit.
+	 * @param unit
+	 *            the unit of the timeout.
+	 */
+	public MatchBudget(long maxSteps, long timeout, TimeUnit unit) {
+		if (maxSteps < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Max steps %s must be at least 1", maxSteps));
+		}
+		if (timeout < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Timeout %s may not be negative", timeout));
+		}
+		this.maxSteps = maxSteps;
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Get the step limit.
+	 *
+	 * @return the maximum number of characters read while matching one URI.
+	 */
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * Get the time limit.
+	 *
+	 * @param unit
+	 *            the unit to return the limit in.
+	 * @return the maximum time to match one URI, 0 if there is no time limit.
+	 */
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Start tracking the budget for one URI.
+	 *
+	 * @param matcher
+	 *            the matcher matching the URI.
+	 * @return the tracker.
+	 */
+	Tracker start(URIMatcher matcher) {
+		return new Tracker(matcher, maxSteps,
+				timeoutNanos == 0 ? 0 : System.nanoTime() + timeoutNanos);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MatchBudget[ steps=%s timeout=%sns ]", maxSteps,
+				timeoutNanos);
+	}
+
+	/**
+	 * The budget remaining for one URI. A tracker is confined to the thread
+	 * matching the URI.
+	 */
+	static final class Tracker {
+		private final URIMatcher matcher;
+		private final long maxSteps;
+		// the nanoTime the match must finish by or 0 for no deadline.
+		private final long deadline;
+		private long steps;
+
+		Tracker(URIMatcher matcher, long maxSteps, long deadline) {
+			this.matcher = matcher;
+			this.maxSteps = maxSteps;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Count one step.
+		 *
+		 * @param component
+		 *            the component being matched.
+		 * @throws MatchTimeoutException
+		 *             if the budget is exhausted.
+		 */
+		void step(URIComponent component) {
+			if (++steps > maxSteps) {
+				throw new MatchTimeoutException(matcher, component, steps,
+						"step limit");
+			}
+			if (deadline != 0 && (steps & (CHECK_INTERVAL - 1)) == 0
+					&& System.nanoTime() - deadline > 0) {
+				throw new MatchTimeoutException(matcher, component, steps,
+						"deadline");
+			}
+		}
+
+		/**
+		 * Get a view of a component value that counts steps.
+		 *
+		 * @param component
+		 *            the component.
+		 * @param value
+		 *            the value of the component.
+		 * @return the budgeted view.
+		 */
+		CharSequence wrap(URIComponent component, CharSequence value) {
+			return new BudgetedSequence(this, component, value);
+		}
+	}
+
+	/**
+	 * A view of a component value that counts every character read.
+	 */
+	private static final class BudgetedSequence implements CharSequence {
+		private final Tracker tracker;
+		private final URIComponent component;
+		private final CharSequence value;
+
+		BudgetedSequence(Tracker tracker, URIComponent component,
+				CharSequence value) {
+			this.tracker = tracker;
+			this.component = component;
+			this.value = value;
+		}
+
+		@Override
+		public int length() {
+			return value.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			tracker.step(component);
+			return value.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			// used to extract groups after the match, not counted.
+			return value.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return value.toString();
+		}
+	}
+}
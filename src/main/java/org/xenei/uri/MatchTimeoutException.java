@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * Thrown when matching a URI exceeds the MatchBudget of the matcher.
+ * <p>
+ * This is distinct from a URI that does not match: the pattern may or may not
+ * match the URI, it could not be determined within the budget.
+ * </p>
+ *
+ * @see URIMatcher#setBudget(MatchBudget)
+ */
+public class MatchTimeoutException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final transient URIMatcher matcher;
+	private final URIComponent component;
+	private final long steps;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param matcher
+	 *            the matcher whose budget was exceeded.
+	 * @param component
+	 *            the component being matched.
+	 * @param steps
+	 *            the number of steps taken.
+	 * @param limit
+	 *            the limit that was exceeded.
+	 */
+	MatchTimeoutException(URIMatcher matcher, URIComponent component,
+			long steps, String limit) {
+		super(String.format("Match exceeded the %s after %s steps in %s %s",
+				limit, steps, component, matcher.getPattern(component)));
+		this.matcher = matcher;
+		this.component = component;
+		this.steps = steps;
+	}
+
+	/**
+	 * Get the matcher whose budget was exceeded.
+	 *
+	 * @return the matcher.
+	 */
+	public URIMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Get the component that was being matched.
+	 *
+	 * @return the component.
+	 */
+	public URIComponent getComponent() {
+		return component;
+	}
+
+	/**
+	 * Get the number of characters read before matching was stopped.
+	 *
+	 * @return the steps.
+	 */
+	public long getSteps() {
+		return steps;
+	}
+}
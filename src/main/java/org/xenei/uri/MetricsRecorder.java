@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * Receives the outcome of each match and rewrite made by a URIMatcher.
+ * <p>
+ * A recorder is attached to a matcher with URIMatcher.setRecorder() or to all
+ * the rules of a URIRuleSet with URIRuleSet.setRecorder(). Recorders are
+ * called concurrently by every thread that uses the matcher and must be
+ * thread safe. Matchers use NOOP by default, in which case the time is not
+ * read and no recorder method is called.
+ * </p>
+ * 
+ * @see RuleMetrics
+ */
+public interface MetricsRecorder {
+	/**
+	 * The recorder that records nothing.
+	 */
+	MetricsRecorder NOOP = new MetricsRecorder() {
+		@Override
+		public void matched(URIMatcher rule, long nanos) {
+		}
+
+		@Override
+		public void missed(URIMatcher rule, URIComponent component, long nanos) {
+		}
+
+		@Override
+		public void rewritten(URIMatcher rule, long nanos) {
+		}
+
+		@Override
+		public void rewriteFailed(URIMatcher rule) {
+		}
+
+		@Override
+		public String toString() {
+			return "MetricsRecorder.NOOP";
+		}
+	};
+
+	/**
+	 * Record a URI that matched.
+	 * 
+	 * @param rule
+	 *            the matcher.
+	 * @param nanos
+	 *            the time taken to match in nanoseconds.
+	 */
+	void matched(URIMatcher rule, long nanos);
+
+	/**
+	 * Record a URI that did not match.
+	 * 
+	 * @param rule
+	 *            the matcher.
+	 * @param component
+	 *            the first component that did not match.
+	 * @param nanos
+	 *            the time taken to match in nanoseconds.
+	 */
+	void missed(URIMatcher rule, URIComponent component, long nanos);
+
+	/**
+	 * Record a URI whose match exceeded the MatchBudget of the matcher.
+	 * <p>
+	 * By default the timeout is recorded as a miss of the component.
+	 * </p>
+	 * 
+	 * @param rule
+	 *            the matcher.
+	 * @param component
+	 *            the component being matched when the budget was exceeded.
+	 * @param nanos
+	 *            the time taken before matching stopped in nanoseconds.
+	 */
+	default void timedOut(URIMatcher rule, URIComponent component, long nanos) {
+		missed(rule, component, nanos);
+	}
+
+	/**
+	 * Record a matched URI that was rewritten.
+	 * 
+	 * @param rule
+	 *            the PatternReplacer.
+	 * @param nanos
+	 *            the time taken to populate the pattern and create the result
+	 *            in nanoseconds.
+	 */
+	void rewritten(URIMatcher rule, long nanos);
+
+	/**
+	 * Record a matched URI whose rewritten form was not a valid URI.
+	 * 
+	 * @param rule
+	 *            the PatternReplacer.
+	 */
+	void rewriteFailed(URIMatcher rule);
+
+	/**
+	 * Forget a rule that will no longer be used, for example one removed from
+	 * a URIRuleSet, so that the recorder does not keep it reachable.
+	 * <p>
+	 * By default nothing is done.
+	 * </p>
+	 * 
+	 * @param rule
+	 *            the matcher.
+	 */
+	default void removed(URIMatcher rule) {
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of URIs that are known not to match the rules of a rewriter
+ * or rule set.
+ * <p>
+ * A rewriter with a negative filter records each URI that no rule matches.
+ * A URI that the filter reports as recorded is returned unchanged without
+ * being matched. The filter takes a few bits per URI, far less than a
+ * RewriteCache entry, so it suits a long tail of unique URIs that do not
+ * match.
+ * </p>
+ * <p>
+ * The filter is probabilistic: with the configured false positive
+ * probability a URI that was never recorded is reported as recorded, and so a
+ * URI that matches a rule is returned unchanged. Choose the probability to
+ * suit the cost of a missed rewrite. To keep the probability bounded the
+ * filter is cleared when the number of recorded URIs reaches the expected
+ * number of insertions. It is also cleared when the rules change, so a filter
+ * should only be used by one rewriter or rule set.
+ * </p>
+ */
+public final class NegativeFilter {
+	// the number of bits per word.
+	private static final int WORD = 64;
+
+	// the number of URIs the filter is sized for.
+	private final int expectedInsertions;
+	// the false positive probability at the expected insertions.
+	private final double falsePositiveProbability;
+	// the number of bits.
+	private final long bitCount;
+	// the number of hash functions.
+	private final int hashCount;
+	// the current bits and the version of the rules they were recorded for.
+	private volatile Generation generation;
+	// the number of lookups that skipped matching.
+	private final AtomicLong skips = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param expectedInsertions
+	 *            the number of non-matching URIs to hold before the filter is
+	 *            cleared.
+	 * @param falsePositiveProbability
+	 *            the probability that a URI that was not recorded is reported
+	 *            as recorded, when the filter is full.
+	 * @throws IllegalArgumentException
+	 *             if the insertions are less than 1 or the probability is not
+	 *             between 0 and 1 exclusive.
+	 */
+	public NegativeFilter(int expectedInsertions,
+			double falsePositiveProbability) {
+		if (expectedInsertions < 1) {
+			throw new IllegalArgumentException(
+					"Expected insertions must be at least 1");
+		}
+		if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1)) {
+			throw new IllegalArgumentException(
+					"False positive probability must be between 0 and 1");
+		}
+		this.expectedInsertions = expectedInsertions;
+		this.falsePositiveProbability = falsePositiveProbability;
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-expectedInsertions
+				* Math.log(falsePositiveProbability) / (ln2 * ln2));
+		long words = Math.max(1, (bits + WORD - 1) / WORD);
+		if (words > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Filter is too large");
+		}
+		this.bitCount = words * WORD;
+		this.hashCount = Math.max(1,
+				(int) Math.round((double) bitCount / expectedInsertions * ln2));
+		this.generation = new Generation(null, (int) words);
+	}
+
+	/**
+	 * Get the number of bits in the filter.
+	 *
+	 * @return the number of bits.
+	 */
+	public long getBitCount() {
+		return bitCount;
+	}
+
+	/**
+	 * Get the number of hash functions.
+	 *
+	 * @return the number of hash functions.
+	 */
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * Get the false positive probability the filter was sized for.
+	 *
+	 * @return the false positive probability.
+	 */
+	public double getFalsePositiveProbability() {
+		return falsePositiveProbability;
+	}
+
+	/**
+	 * Get the number of URIs recorded since the filter was last cleared.
+	 *
+	 * @return the number of recorded URIs.
+	 */
+	public long size() {
+		return generation.count.get();
+	}
+
+	/**
+	 * Get the number of lookups that reported a URI as recorded.
+	 *
+	 * @return the number of times matching was skipped.
+	 */
+	public long getSkipCount() {
+		return skips.get();
+	}
+
+	/**
+	 * Remove all the recorded URIs.
+	 */
+	public void clear() {
+		Generation current = generation;
+		generation = new Generation(current.version, current.bits.length());
+	}
+
+	/**
+	 * Determine if a URI has been recorded.
+	 *
+	 * @param uri
+	 *            the URI text.
+	 * @param version
+	 *            the version of the rules, if it differs from the version
+	 *            the URIs were recorded for the filter is cleared.
+	 * @return true if the URI was probably recorded, false if it was not.
+	 */
+	boolean mightContain(CharSequence uri, Object version) {
+		Generation gen = current(version);
+		long hash = hash(uri);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashCount; i++) {
+			long bit = index(h1 + i * h2);
+			if ((gen.bits.get((int) (bit / WORD)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		skips.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Record a URI that does not match.
+	 *
+	 * @param uri
+	 *            the URI text.
+	 * @param version
+	 *            the version of the rules the URI was matched against.
+	 */
+	void add(CharSequence uri, Object version) {
+		Generation gen = current(version);
+		if (gen.version != version) {
+			// the rules changed while the URI was matched.
+			return;
+		}
+		if (gen.count.incrementAndGet() > expectedInsertions) {
+			clear();
+			gen = generation;
+			gen.count.incrementAndGet();
+		}
+		long hash = hash(uri);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashCount; i++) {
+			long bit = index(h1 + i * h2);
+			int word = (int) (bit / WORD);
+			long mask = 1L << bit;
+			long old;
+			do {
+				old = gen.bits.get(word);
+			} while ((old & mask) == 0
+					&& !gen.bits.compareAndSet(word, old, old | mask));
+		}
+	}
+
+	// get the generation for the version, starting a new one if the version
+	// changed.
+	private Generation current(Object version) {
+		Generation gen = generation;
+		if (gen.version != version) {
+			synchronized (this) {
+				gen = generation;
+				if (gen.version != version) {
+					gen = new Generation(version, gen.bits.length());
+					generation = gen;
+				}
+			}
+		}
+		return gen;
+	}
+
+	private long index(int combined) {
+		return (combined & 0x7FFFFFFFL) % bitCount;
+	}
+
+	// a 64 bit hash of the characters.
+	private static long hash(CharSequence text) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			h ^= text.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		// finalize to spread the bits.
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("NegativeFilter[ %s bits %s hashes %s URIs ]",
+				bitCount, hashCount, size());
+	}
+
+	// the bits recorded for one version of the rules.
+	private static final class Generation {
+		final Object version;
+		final AtomicLongArray bits;
+		final AtomicLong count = new AtomicLong();
+
+		Generation(Object version, int words) {
+			this.version = version;
+			this.bits = new AtomicLongArray(words);
+		}
+	}
+}
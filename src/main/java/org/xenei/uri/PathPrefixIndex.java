@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A trie of rules keyed by the complete path segments of the literal prefix of
+ * their path patterns.
+ * <p>
+ * A path pattern such as <code>/api/v2/orders/(\d+)</code> only matches paths
+ * that start with <code>/api/v2/orders/</code>. The rule is stored under the
+ * segments api, v2, orders. A partial trailing segment of the prefix, for
+ * example <code>ord</code> in <code>/api/v2/ord.*</code>, is left to the
+ * regular expression. A lookup walks the path segment by segment and collects
+ * the rules stored along the chain of matching segments.
+ * </p>
+ */
+class PathPrefixIndex extends LabelTrie {
+
+	/**
+	 * Get the complete segments of the literal prefix of a path pattern.
+	 *
+	 * @param path
+	 *            the path pattern.
+	 * @return the segments in order or null if the prefix does not start with
+	 *         a slash and contain at least one complete segment.
+	 */
+	static String[] prefixSegments(Pattern path) {
+		return segments(PatternAnalyzer.prefix(path));
+	}
+
+	/**
+	 * Get the segments of a path regular expression without compiling it.
+	 *
+	 * @param path
+	 *            the path expression, may be null.
+	 * @return the segments as for prefixSegments(Pattern).
+	 * @see #prefixSegments(Pattern)
+	 */
+	static String[] prefixSegments(String path) {
+		return segments(PatternAnalyzer.prefix(path));
+	}
+
+	// split the literal prefix into segments.
+	private static String[] segments(String prefix) {
+		if (prefix == null || !prefix.startsWith("/")) {
+			return null;
+		}
+		int last = prefix.lastIndexOf('/');
+		if (last == 0) {
+			return null;
+		}
+		return prefix.substring(1, last).split("/", -1);
+	}
+
+	/**
+	 * Collect the entries whose prefix segments the path starts with.
+	 *
+	 * @param path
+	 *            the path to look up.
+	 * @param result
+	 *            the list to add the arrays of matching entries to.
+	 */
+	@Override
+	void collect(String path, List<RuleIndex.Entry[]> result) {
+		if (!path.startsWith("/")) {
+			return;
+		}
+		Node node = root;
+		int start = 1;
+		while (node.hasChildren()) {
+			int slash = path.indexOf('/', start);
+			if (slash == -1) {
+				// the last segment is not followed by a slash so it can not
+				// be a complete segment of a prefix.
+				return;
+			}
+			node = node.child(path.substring(start, slash));
+			if (node == null) {
+				return;
+			}
+			if (node.entries() != null) {
+				result.add(node.entries());
+			}
+			start = slash + 1;
+		}
+	}
+}
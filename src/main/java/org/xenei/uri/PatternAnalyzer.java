@@ -0,0 +1,849 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Static analysis of component regular expressions.
+ * <p>
+ * The expression is split into top level items. An item is either a single
+ * literal character or a construct that may match something other than a
+ * fixed character (a character class, group, wildcard or quantified item). The
+ * literal runs at the start and end of the expression are the text that every
+ * matching string must start and end with.
+ * </p>
+ * <p>
+ * The analysis is conservative, expressions that it does not understand (top
+ * level alternation or embedded flags) yield no literal information.
+ * </p>
+ */
+final class PatternAnalyzer {
+	// marker for an item that is not a literal character.
+	private static final Character OTHER = null;
+	// marker for an unquantified . when dots are requested.
+	static final char DOT = '\uFFFF';
+	// characters that have special meaning outside of a character class.
+	private static final String META = "[](){}.*+?^$|";
+	// embedded flag characters.
+	private static final String FLAGS = "idmsuxU-";
+
+	private PatternAnalyzer() {
+	}
+
+	/**
+	 * Get the literal string matched by a pattern.
+	 * <p>
+	 * A pattern is a literal if it contains only plain characters, escaped
+	 * punctuation, <code>\Q...\E</code> quoted sections and optionally a
+	 * leading <code>^</code> and trailing <code>$</code> anchor. Patterns
+	 * compiled with flags other than LITERAL are never considered literals.
+	 * </p>
+	 *
+	 * @param pattern
+	 *            the pattern to analyze.
+	 * @return the literal string the pattern matches or null if the pattern is
+	 *         not a literal.
+	 */
+	static String literal(Pattern pattern) {
+		if (pattern == null) {
+			return null;
+		}
+		if (pattern.flags() == Pattern.LITERAL) {
+			return pattern.pattern();
+		}
+		if (pattern.flags() != 0) {
+			return null;
+		}
+		return literal(pattern.pattern());
+	}
+
+	/**
+	 * Get the literal string matched by a regular expression.
+	 *
+	 * @param regex
+	 *            the regular expression to analyze.
+	 * @return the literal string the expression matches or null if the
+	 *         expression is not a literal.
+	 * @see #literal(Pattern)
+	 */
+	static String literal(String regex) {
+		List<Character> items = regex == null ? null : items(regex);
+		if (items == null || items.contains(OTHER)) {
+			return null;
+		}
+		return run(items, 0, items.size());
+	}
+
+	/**
+	 * Get the literal text that every string matched by the pattern starts
+	 * with.
+	 *
+	 * @param pattern
+	 *            the pattern to analyze.
+	 * @return the literal prefix, possibly empty, or null if the pattern can
+	 *         not be analyzed.
+	 */
+	static String prefix(Pattern pattern) {
+		if (pattern == null) {
+			return null;
+		}
+		if (pattern.flags() == Pattern.LITERAL) {
+			return pattern.pattern();
+		}
+		if (pattern.flags() != 0) {
+			return null;
+		}
+		return prefix(pattern.pattern());
+	}
+
+	/**
+	 * Get the literal text that every string matched by a regular expression
+	 * starts with.
+	 *
+	 * @param regex
+	 *            the regular expression to analyze, may be null.
+	 * @return the literal prefix, possibly empty, or null if the expression can
+	 *         not be analyzed.
+	 * @see #prefix(Pattern)
+	 */
+	static String prefix(String regex) {
+		List<Character> items = regex == null ? null : items(regex);
+		if (items == null) {
+			return null;
+		}
+		int end = items.indexOf(OTHER);
+		return run(items, 0, end == -1 ? items.size() : end);
+	}
+
+	/**
+	 * Get the literal text that every string matched by the pattern ends with.
+	 *
+	 * @param pattern
+	 *            the pattern to analyze.
+	 * @return the literal suffix, possibly empty, or null if the pattern can
+	 *         not be analyzed.
+	 */
+	static String suffix(Pattern pattern) {
+		if (pattern == null) {
+			return null;
+		}
+		if (pattern.flags() == Pattern.LITERAL) {
+			return pattern.pattern();
+		}
+		if (pattern.flags() != 0) {
+			return null;
+		}
+		return suffix(pattern.pattern());
+	}
+
+	/**
+	 * Get the literal text that every string matched by a regular expression
+	 * ends with.
+	 *
+	 * @param regex
+	 *            the regular expression to analyze, may be null.
+	 * @return the literal suffix, possibly empty, or null if the expression can
+	 *         not be analyzed.
+	 * @see #suffix(Pattern)
+	 */
+	static String suffix(String regex) {
+		List<Character> items = regex == null ? null : items(regex);
+		if (items == null) {
+			return null;
+		}
+		return run(items, items.lastIndexOf(OTHER) + 1, items.size());
+	}
+
+	/**
+	 * Get the longest run of literal text that every string matched by the
+	 * pattern contains.
+	 *
+	 * @param pattern
+	 *            the pattern to analyze.
+	 * @return the longest literal run, possibly empty, or null if the pattern
+	 *         can not be analyzed.
+	 */
+	static String infix(Pattern pattern) {
+		List<Character> items = analyzable(pattern);
+		if (items == null) {
+			return null;
+		}
+		String retval = "";
+		int start = 0;
+		for (int i = 0; i <= items.size(); i++) {
+			if (i == items.size() || items.get(i) == OTHER) {
+				if (i - start > retval.length()) {
+					retval = run(items, start, i);
+				}
+				start = i + 1;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the minimum length of a string matched by the pattern, counting
+	 * only the literal characters.
+	 *
+	 * @param pattern
+	 *            the pattern to analyze.
+	 * @return the number of literal characters every match contains, 0 if the
+	 *         pattern can not be analyzed.
+	 */
+	static int minLength(Pattern pattern) {
+		List<Character> items = analyzable(pattern);
+		if (items == null) {
+			return 0;
+		}
+		int retval = 0;
+		for (Character c : items) {
+			if (c != OTHER) {
+				retval++;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the fixed length template matched by a pattern that contains only
+	 * literal characters and unquantified <code>.</code> wildcards, such as
+	 * <code>www.example.com</code> where the dots were not escaped.
+	 *
+	 * @param pattern
+	 *            the pattern to analyze.
+	 * @return the template with DOT at each wildcard position or null if the
+	 *         pattern is not such a template.
+	 */
+	static String dotLiteral(Pattern pattern) {
+		// the marker can not also be a literal.
+		if (pattern == null || pattern.flags() != 0
+				|| pattern.pattern().indexOf(DOT) != -1) {
+			return null;
+		}
+		List<Character> items = items(pattern.pattern(), true);
+		if (items == null || items.contains(OTHER)
+				|| !items.contains(Character.valueOf(DOT))) {
+			return null;
+		}
+		return run(items, 0, items.size());
+	}
+
+	// the items of a pattern without flags, null if it can not be analyzed.
+	private static List<Character> analyzable(Pattern pattern) {
+		if (pattern == null || pattern.flags() != 0) {
+			return null;
+		}
+		return items(pattern.pattern());
+	}
+
+	/**
+	 * Determine if two patterns can not match the same string.
+	 * <p>
+	 * The patterns are disjoint if their literal prefixes differ before one
+	 * of them ends, or their literal suffixes differ before one of them
+	 * starts. The test is conservative, patterns that can not be analyzed are
+	 * never disjoint.
+	 * </p>
+	 *
+	 * @param a
+	 *            the first pattern, may be null.
+	 * @param b
+	 *            the second pattern, may be null.
+	 * @return true if no string matches both patterns.
+	 */
+	static boolean disjoint(Pattern a, Pattern b) {
+		if (a == null || b == null) {
+			return false;
+		}
+		return disjoint(prefix(a), prefix(b), suffix(a), suffix(b));
+	}
+
+	/**
+	 * Determine if two regular expressions can not match the same string
+	 * without compiling them.
+	 *
+	 * @param a
+	 *            the first expression, may be null.
+	 * @param b
+	 *            the second expression, may be null.
+	 * @return true if no string matches both expressions.
+	 * @see #disjoint(Pattern, Pattern)
+	 */
+	static boolean disjoint(String a, String b) {
+		if (a == null || b == null) {
+			return false;
+		}
+		return disjoint(prefix(a), prefix(b), suffix(a), suffix(b));
+	}
+
+	// compare the literal prefixes and suffixes of two patterns.
+	private static boolean disjoint(String prefixA, String prefixB,
+			String suffixA, String suffixB) {
+		if (prefixA != null && prefixB != null && !prefixA.startsWith(prefixB)
+				&& !prefixB.startsWith(prefixA)) {
+			return true;
+		}
+		return suffixA != null && suffixB != null && !suffixA.endsWith(suffixB)
+				&& !suffixB.endsWith(suffixA);
+	}
+
+	/**
+	 * Check the structure of a regular expression without compiling it.
+	 * <p>
+	 * The check finds unbalanced groups, unterminated character classes,
+	 * counted quantifiers and escapes, and quantifiers that do not follow an
+	 * item. It is much cheaper than compiling the expression but not
+	 * exhaustive, Pattern.compile() may still reject an expression that
+	 * passes.
+	 * </p>
+	 *
+	 * @param regex
+	 *            the regular expression to check.
+	 * @throws PatternSyntaxException
+	 *             if the expression is not valid.
+	 */
+	static void validate(String regex) {
+		int depth = 0;
+		int end = regex.length();
+		// true if a quantifier may follow the previous item.
+		boolean item = false;
+		int pos = 0;
+		while (pos < end) {
+			char c = regex.charAt(pos);
+			switch (c) {
+			case '\\':
+				if (pos + 1 >= end) {
+					throw syntaxError("Unexpected internal error", regex, pos);
+				}
+				if (regex.charAt(pos + 1) == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", pos + 2);
+					pos = quoteEnd == -1 ? end : quoteEnd + 2;
+				} else {
+					pos = skipEscape(regex, pos + 1);
+					if (pos < 0 || pos > end) {
+						throw syntaxError("Illegal escape sequence", regex,
+								end - 1);
+					}
+				}
+				item = true;
+				break;
+			case '[':
+				int close = skipClass(regex, pos);
+				if (close < 0) {
+					throw syntaxError("Unclosed character class", regex,
+							end - 1);
+				}
+				pos = close;
+				item = true;
+				break;
+			case '(':
+				depth++;
+				pos = skipGroupPrefix(regex, pos);
+				item = false;
+				break;
+			case ')':
+				if (--depth < 0) {
+					throw syntaxError("Unmatched closing ')'", regex, pos);
+				}
+				pos++;
+				item = true;
+				break;
+			case '|':
+				pos++;
+				item = false;
+				break;
+			case '{':
+				// counted quantifiers may repeat and may start an expression.
+				pos = skipQuantifier(regex, pos);
+				if (pos < 0) {
+					throw syntaxError("Unclosed counted closure", regex,
+							end - 1);
+				}
+				item = true;
+				break;
+			case '*':
+			case '+':
+			case '?':
+				if (!item) {
+					throw syntaxError("Dangling meta character '" + c + "'",
+							regex, pos);
+				}
+				pos = skipQuantifier(regex, pos);
+				item = false;
+				break;
+			default:
+				pos++;
+				item = true;
+				break;
+			}
+		}
+		if (depth != 0) {
+			throw syntaxError("Unclosed group", regex, end);
+		}
+	}
+
+	private static PatternSyntaxException syntaxError(String desc,
+			String regex, int index) {
+		return new PatternSyntaxException(desc, regex, index);
+	}
+
+	/**
+	 * Find a nested repetition that can cause catastrophic backtracking.
+	 * <p>
+	 * A group that is repeated (by <code>*</code>, <code>+</code> or a
+	 * counted quantifier with a maximum above one) and contains a repeated
+	 * item can match the same text in exponentially many ways, for example
+	 * <code>(a+)+</code> or <code>(\w*\.)*</code>. Possessive quantifiers
+	 * and atomic groups do not backtrack and are not reported.
+	 * </p>
+	 *
+	 * @param regex
+	 *            the regular expression to analyze.
+	 * @return the position of the start of the risky group or -1 if there is
+	 *         none.
+	 */
+	static int backtrackingRisk(String regex) {
+		// for each open group: its start and whether it contains a repetition
+		List<int[]> groups = new ArrayList<int[]>();
+		groups.add(new int[] { -1, 0 });
+		int end = regex.length();
+		int pos = 0;
+		while (pos < end) {
+			char c = regex.charAt(pos);
+			switch (c) {
+			case '\\':
+				if (pos + 1 < end && regex.charAt(pos + 1) == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", pos + 2);
+					pos = quoteEnd == -1 ? end : quoteEnd + 2;
+				} else {
+					pos += 2;
+				}
+				pos = quantifier(regex, pos, groups);
+				break;
+			case '[':
+				pos = skipClass(regex, pos);
+				if (pos < 0) {
+					return -1;
+				}
+				pos = quantifier(regex, pos, groups);
+				break;
+			case '(':
+				// atomic groups never backtrack into their content.
+				boolean atomic = regex.startsWith("(?>", pos);
+				groups.add(new int[] { pos, atomic ? -1 : 0 });
+				pos = skipGroupPrefix(regex, pos);
+				break;
+			case ')':
+				if (groups.size() == 1) {
+					return -1;
+				}
+				int[] group = groups.remove(groups.size() - 1);
+				int q = repetition(regex, pos + 1);
+				if (q == REPEATED && group[1] == 1) {
+					return group[0];
+				}
+				pos = quantifier(regex, pos + 1, groups);
+				if (group[1] == 1) {
+					markRepeated(groups);
+				}
+				break;
+			default:
+				pos = quantifier(regex, pos + 1, groups);
+				break;
+			}
+		}
+		return -1;
+	}
+
+	// results of repetition()
+	private static final int NONE = 0;
+	private static final int REPEATED = 1;
+	private static final int POSSESSIVE = 2;
+
+	// classify the quantifier, if any, at pos.
+	private static int repetition(String regex, int pos) {
+		if (pos >= regex.length()) {
+			return NONE;
+		}
+		char c = regex.charAt(pos);
+		int next;
+		boolean repeats;
+		if (c == '*' || c == '+') {
+			repeats = true;
+			next = pos + 1;
+		} else if (c == '?') {
+			repeats = false;
+			next = pos + 1;
+		} else if (c == '{') {
+			int close = regex.indexOf('}', pos);
+			if (close == -1) {
+				return NONE;
+			}
+			String body = regex.substring(pos + 1, close);
+			int comma = body.indexOf(',');
+			try {
+				if (comma == -1) {
+					repeats = Integer.parseInt(body.trim()) > 1;
+				} else {
+					String max = body.substring(comma + 1).trim();
+					repeats = max.isEmpty() || Integer.parseInt(max) > 1;
+				}
+			} catch (NumberFormatException e) {
+				return NONE;
+			}
+			next = close + 1;
+		} else {
+			return NONE;
+		}
+		if (next < regex.length() && regex.charAt(next) == '+') {
+			return POSSESSIVE;
+		}
+		return repeats ? REPEATED : NONE;
+	}
+
+	// skip the quantifier at pos marking the enclosing group if it repeats.
+	private static int quantifier(String regex, int pos, List<int[]> groups) {
+		if (repetition(regex, pos) == REPEATED) {
+			markRepeated(groups);
+		}
+		return pos < regex.length() && "*+?{".indexOf(regex.charAt(pos)) != -1 ? skipQuantifier(
+				regex, pos) : pos;
+	}
+
+	// record that the innermost group contains a repetition.
+	private static void markRepeated(List<int[]> groups) {
+		int[] group = groups.get(groups.size() - 1);
+		if (group[1] == 0) {
+			group[1] = 1;
+		}
+	}
+
+	// skip the ( and any (?: (?= (?! (?<= (?<! (?<name> or (?> prefix.
+	private static int skipGroupPrefix(String regex, int pos) {
+		pos++;
+		if (pos >= regex.length() || regex.charAt(pos) != '?') {
+			return pos;
+		}
+		pos++;
+		while (pos < regex.length()) {
+			char c = regex.charAt(pos++);
+			if (c == ':' || c == '=' || c == '!' || c == '>' || c == ')') {
+				return c == ')' ? pos - 1 : pos;
+			}
+		}
+		return pos;
+	}
+
+	// build the string from the literal items between start and end.
+	private static String run(List<Character> items, int start, int end) {
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			sb.append(items.get(i).charValue());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Split the expression into top level items.
+	 *
+	 * @param regex
+	 *            the regular expression.
+	 * @return the items, literal characters or OTHER, or null if the
+	 *         expression can not be analyzed.
+	 */
+	private static List<Character> items(String regex) {
+		return items(regex, false);
+	}
+
+	/**
+	 * Split the expression into top level items.
+	 *
+	 * @param regex
+	 *            the regular expression.
+	 * @param dots
+	 *            if true an unquantified <code>.</code> is returned as DOT
+	 *            rather than OTHER.
+	 * @return the items, literal characters, DOT or OTHER, or null if the
+	 *         expression can not be analyzed.
+	 */
+	private static List<Character> items(String regex, boolean dots) {
+		List<Character> items = new ArrayList<Character>(regex.length());
+		int end = regex.length();
+		int pos = 0;
+		if (end > 0 && regex.charAt(0) == '^') {
+			pos++;
+		}
+		while (pos < end) {
+			char c = regex.charAt(pos);
+			switch (c) {
+			case '\\':
+				if (pos + 1 >= end) {
+					return null;
+				}
+				char n = regex.charAt(pos + 1);
+				if (n == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", pos + 2);
+					int stop = quoteEnd == -1 ? end : quoteEnd;
+					for (int i = pos + 2; i < stop; i++) {
+						items.add(Character.valueOf(regex.charAt(i)));
+					}
+					pos = quoteEnd == -1 ? end : quoteEnd + 2;
+				} else if (Character.isLetterOrDigit(n)) {
+					// character classes, back references and control escapes
+					items.add(OTHER);
+					pos = skipEscape(regex, pos + 1);
+				} else {
+					items.add(Character.valueOf(n));
+					pos += 2;
+				}
+				break;
+			case '[':
+				items.add(OTHER);
+				pos = skipClass(regex, pos);
+				break;
+			case '(':
+				if (isFlagGroup(regex, pos)) {
+					return null;
+				}
+				items.add(OTHER);
+				pos = skipGroup(regex, pos);
+				break;
+			case '|':
+				return null;
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				// a quantified item is not a literal character.
+				if (!items.isEmpty()) {
+					items.set(items.size() - 1, OTHER);
+				}
+				pos = skipQuantifier(regex, pos);
+				break;
+			case '$':
+				if (pos != end - 1) {
+					items.add(OTHER);
+				}
+				pos++;
+				break;
+			default:
+				if (c == '.' && dots) {
+					items.add(Character.valueOf(DOT));
+				} else {
+					items.add(META.indexOf(c) == -1 ? Character.valueOf(c)
+							: OTHER);
+				}
+				pos++;
+				break;
+			}
+			if (pos < 0) {
+				return null;
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Convert the capturing groups of a regular expression to non-capturing
+	 * groups so that it may be embedded in another expression without
+	 * shifting its group numbers.
+	 *
+	 * @param regex
+	 *            the regular expression.
+	 * @return the expression without capturing groups, or the expression
+	 *         unchanged if it uses back references, which need the groups.
+	 */
+	static String nonCapturing(String regex) {
+		StringBuilder sb = new StringBuilder(regex.length() + 8);
+		int end = regex.length();
+		int pos = 0;
+		while (pos < end) {
+			char c = regex.charAt(pos);
+			int next;
+			if (c == '\\' && pos + 1 < end) {
+				char e = regex.charAt(pos + 1);
+				if (e == 'k' || (e >= '1' && e <= '9')) {
+					return regex;
+				}
+				if (e == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", pos + 2);
+					next = quoteEnd == -1 ? end : quoteEnd + 2;
+				} else {
+					next = skipEscape(regex, pos + 1);
+				}
+			} else if (c == '[') {
+				next = skipClass(regex, pos);
+			} else if (c == '(' && (pos + 1 >= end || regex.charAt(pos + 1) != '?')) {
+				sb.append("(?:");
+				pos++;
+				continue;
+			} else if (c == '(' && regex.startsWith("?<", pos + 1)
+					&& pos + 3 < end && Character.isLetter(regex.charAt(pos + 3))) {
+				int close = regex.indexOf('>', pos);
+				if (close == -1) {
+					return regex;
+				}
+				sb.append("(?:");
+				pos = close + 1;
+				continue;
+			} else {
+				next = pos + 1;
+			}
+			if (next == -1 || next > end) {
+				return regex;
+			}
+			sb.append(regex, pos, next);
+			pos = next;
+		}
+		return sb.toString();
+	}
+
+	// skip an escape where pos is the character following the backslash.
+	private static int skipEscape(String regex, int pos) {
+		char c = regex.charAt(pos++);
+		switch (c) {
+		case 'c':
+			return pos + 1;
+		case 'x':
+		case 'p':
+		case 'P':
+		case 'N':
+			if (pos < regex.length() && regex.charAt(pos) == '{') {
+				int close = regex.indexOf('}', pos);
+				return close == -1 ? -1 : close + 1;
+			}
+			return c == 'x' ? pos + 2 : pos + 1;
+		case 'u':
+			return pos + 4;
+		case 'k':
+			int close = regex.indexOf('>', pos);
+			return close == -1 ? -1 : close + 1;
+		default:
+			// octal escapes and back references
+			if (Character.isDigit(c)) {
+				while (pos < regex.length()
+						&& Character.isDigit(regex.charAt(pos))) {
+					pos++;
+				}
+			}
+			return pos;
+		}
+	}
+
+	// skip a character class starting at pos.
+	private static int skipClass(String regex, int pos) {
+		int depth = 0;
+		int end = regex.length();
+		while (pos < end) {
+			char c = regex.charAt(pos);
+			if (c == '\\') {
+				pos += 2;
+				continue;
+			}
+			if (c == '[') {
+				depth++;
+				// a leading ] (or ^]) is a literal
+				if (pos + 1 < end && regex.charAt(pos + 1) == '^') {
+					pos++;
+				}
+				if (pos + 1 < end && regex.charAt(pos + 1) == ']') {
+					pos++;
+				}
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) {
+					return pos + 1;
+				}
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	// skip a group starting at pos.
+	private static int skipGroup(String regex, int pos) {
+		int depth = 0;
+		int end = regex.length();
+		while (pos < end) {
+			char c = regex.charAt(pos);
+			if (c == '\\') {
+				if (pos + 1 < end && regex.charAt(pos + 1) == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", pos + 2);
+					if (quoteEnd == -1) {
+						return -1;
+					}
+					pos = quoteEnd + 2;
+				} else {
+					pos += 2;
+				}
+				continue;
+			}
+			if (c == '[') {
+				pos = skipClass(regex, pos);
+				if (pos < 0) {
+					return -1;
+				}
+				continue;
+			}
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0) {
+					return pos + 1;
+				}
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	// skip a quantifier and any lazy or possessive modifier.
+	private static int skipQuantifier(String regex, int pos) {
+		if (regex.charAt(pos) == '{') {
+			int close = regex.indexOf('}', pos);
+			if (close == -1) {
+				return -1;
+			}
+			pos = close;
+		}
+		pos++;
+		if (pos < regex.length()
+				&& (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+			pos++;
+		}
+		return pos;
+	}
+
+	// true if the group at pos is an embedded flag expression such as (?i)
+	private static boolean isFlagGroup(String regex, int pos) {
+		if (pos + 2 >= regex.length() || regex.charAt(pos + 1) != '?') {
+			return false;
+		}
+		int i = pos + 2;
+		while (i < regex.length() && FLAGS.indexOf(regex.charAt(i)) != -1) {
+			i++;
+		}
+		return i > pos + 2 && i < regex.length()
+				&& regex.charAt(i) == ')';
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The canonical pool of compiled component patterns.
+ * <p>
+ * Large rule sets repeat the same scheme, host and path expressions many
+ * times. Each distinct expression is compiled and analyzed once and the
+ * resulting entry is shared by every matcher that sets it. Entries are weakly
+ * referenced, so an expression that is no longer used by any matcher is
+ * released.
+ * </p>
+ */
+final class PatternPool {
+	// entries keyed by their expression.
+	private static final Map<String, WeakReference<Entry>> POOL = new WeakHashMap<String, WeakReference<Entry>>();
+	// if true new expressions are validated but not compiled until used.
+	private static volatile boolean lazy = Boolean
+			.getBoolean("org.xenei.uri.lazyCompile");
+
+	private PatternPool() {
+	}
+
+	/**
+	 * A regular expression, its compiled pattern and the results of its
+	 * analysis. The pattern is compiled and analyzed once, either when the
+	 * entry is created or, in lazy mode, when it is first used.
+	 */
+	static final class Entry {
+		final String regex;
+		// the compiled pattern, null until compiled.
+		private volatile Pattern pattern;
+		// the result if the pattern is a literal, else null. Written before
+		// pattern.
+		private LiteralResult literal;
+		// the prefilter if the pattern has one, else null. Written before
+		// pattern.
+		private Prefilter filter;
+
+		private Entry(String regex) {
+			this.regex = regex;
+		}
+
+		/**
+		 * Get the compiled pattern, compiling it if necessary.
+		 *
+		 * @return the pattern.
+		 * @throws java.util.regex.PatternSyntaxException
+		 *             if a lazily compiled expression is not valid.
+		 */
+		Pattern pattern() {
+			Pattern retval = pattern;
+			return retval == null ? compile() : retval;
+		}
+
+		/**
+		 * Get the literal result.
+		 *
+		 * @return the result or null if the pattern is not a literal.
+		 */
+		LiteralResult literal() {
+			pattern();
+			return literal;
+		}
+
+		/**
+		 * Get the prefilter.
+		 *
+		 * @return the prefilter or null if the pattern has none.
+		 */
+		Prefilter filter() {
+			pattern();
+			return filter;
+		}
+
+		/**
+		 * Determine if the pattern has been compiled.
+		 *
+		 * @return true if the pattern is compiled.
+		 */
+		boolean isCompiled() {
+			return pattern != null;
+		}
+
+		private synchronized Pattern compile() {
+			if (pattern == null) {
+				Pattern p = Pattern.compile(regex);
+				literal = LiteralResult.of(p);
+				filter = Prefilter.of(p);
+				pattern = p;
+			}
+			return pattern;
+		}
+	}
+
+	/**
+	 * Get the canonical entry for an expression.
+	 * <p>
+	 * A new expression is compiled immediately unless lazy compilation is
+	 * enabled, in which case it is only checked by
+	 * PatternAnalyzer.validate().
+	 * </p>
+	 *
+	 * @param regex
+	 *            the regular expression.
+	 * @return the shared entry.
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if the expression is not valid.
+	 */
+	static Entry intern(String regex) {
+		Entry retval;
+		synchronized (POOL) {
+			WeakReference<Entry> ref = POOL.get(regex);
+			retval = ref == null ? null : ref.get();
+		}
+		if (retval != null) {
+			return retval;
+		}
+		// compile outside of the lock, a racing thread may compile the same
+		// expression but only one entry is pooled.
+		Entry entry = new Entry(regex);
+		if (lazy) {
+			PatternAnalyzer.validate(regex);
+		} else {
+			entry.compile();
+		}
+		synchronized (POOL) {
+			WeakReference<Entry> ref = POOL.get(regex);
+			retval = ref == null ? null : ref.get();
+			if (retval == null) {
+				// the key is the expression held by the entry so that it
+				// remains reachable while the entry is, so replace any stale
+				// key.
+				POOL.remove(regex);
+				POOL.put(entry.regex, new WeakReference<Entry>(entry));
+				retval = entry;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Enable or disable lazy compilation of new expressions. The default is
+	 * taken from the <code>org.xenei.uri.lazyCompile</code> system property.
+	 *
+	 * @param lazy
+	 *            true to defer compilation until first use.
+	 */
+	static void setLazy(boolean lazy) {
+		PatternPool.lazy = lazy;
+	}
+
+	/**
+	 * Determine if new expressions are compiled lazily.
+	 *
+	 * @return true if compilation is deferred until first use.
+	 */
+	static boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Get the number of expressions in the pool.
+	 *
+	 * @return the number of pooled expressions, including any that are no
+	 *         longer referenced but have not yet been collected.
+	 */
+	static int size() {
+		synchronized (POOL) {
+			return POOL.size();
+		}
+	}
+}
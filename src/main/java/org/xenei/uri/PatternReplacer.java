@@ -17,9 +17,10 @@
  */
 package org.xenei.uri;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Extends the URIMatcher class with pattern replacement capabilities.
@@ -27,19 +28,21 @@ import java.util.regex.Pattern;
  * Provides the ability to insert URI sections into a string.
  */
 public class PatternReplacer extends URIMatcher {
-	// the string that describes the output pattern.
-	private String pattern;
+	// the compiled form of the string that describes the output pattern.
+	private final ReplacementTemplate template;
 
 	/**
 	 * The constructor.
 	 * <p>
 	 * The pattern specifies how to output the matching portions of the URI.
-	 * The special tokens {scheme}, {host}, {port}, {path}, {fragment} and {uri} are 
+	 * The special tokens {scheme}, {host}, {port}, {path}, {query}, {fragment} and {uri} are 
 	 * used in the pattern to identify where the matching portions of the URI or the entire
 	 * URI are to be 
 	 * inserted in the resulting string.  If the token is specified as noted above the entire
 	 * portion will be inserted. However, if the token is followed by a colon and a number prior
 	 * to the closing brace, the matching group from that section will be inserted.
+	 * The token {param:name} inserts the raw value of the named query parameter, or nothing
+	 * if the query does not contain it; only as much of the query as needed is tokenized.
 	 * </p><p>
 	 * For example: 
 	 * <ul>
@@ -49,21 +52,73 @@ public class PatternReplacer extends URIMatcher {
 	 * </ul>
 	 * would yield the string <code>"com has the www server"</code>
 	 * 
+	 * </p><p>
+	 * The pattern is compiled when the PatternReplacer is constructed.
+	 * </p>
+	 * 
 	 * @param pattern The pattern to change the URI to.
+	 * @throws IllegalArgumentException if the pattern contains a malformed token.
 	 */
 	public PatternReplacer(String pattern) {
 		super();
-		this.pattern = pattern;
+		this.template = new ReplacementTemplate(pattern);
 	}
 
 	/**
 	 * A constructor that takes both a pattern and an existing URIMatcher.
 	 * @param pattern The pattern to use for replacement.
 	 * @param copy THe URIMatcher to use for matching.
+	 * @throws IllegalArgumentException if the pattern contains a malformed token.
 	 */
 	public PatternReplacer(String pattern, URIMatcher copy) {
 		super(copy);
-		this.pattern = pattern;
+		this.template = new ReplacementTemplate(pattern);
+	}
+
+	/**
+	 * A constructor that uses an already compiled pattern.
+	 * @param template The compiled pattern.
+	 */
+	PatternReplacer(ReplacementTemplate template) {
+		super();
+		this.template = template;
+	}
+
+	/**
+	 * Get the compiled pattern.
+	 * @return the compiled pattern.
+	 */
+	ReplacementTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Build an immutable replacer from the pattern and the component
+	 * patterns currently set on this replacer.
+	 * @return the immutable replacer.
+	 * @see URIMatcher#build()
+	 */
+	@Override
+	public PatternReplacer build() {
+		return new ImmutablePatternReplacer(this);
+	}
+
+	@Override
+	public PatternReplacer setRecorder(MetricsRecorder recorder) {
+		super.setRecorder(recorder);
+		return this;
+	}
+
+	@Override
+	public PatternReplacer setBudget(MatchBudget budget) {
+		super.setBudget(budget);
+		return this;
+	}
+
+	@Override
+	public PatternReplacer precompile() {
+		super.precompile();
+		return this;
 	}
 
 	@Override
@@ -96,6 +151,24 @@ public class PatternReplacer extends URIMatcher {
 		return this;
 	}
 
+	@Override
+	public PatternReplacer setQuery(String query) {
+		super.setQuery(query);
+		return this;
+	}
+
+	@Override
+	public PatternReplacer setParameter(String name, String value) {
+		super.setParameter(name, value);
+		return this;
+	}
+
+	@Override
+	public PatternReplacer setRawMatching(boolean raw) {
+		super.setRawMatching(raw);
+		return this;
+	}
+
 	/**
 	 * Populate the pattern with the portions of the URI.
 	 * @param uri The uri to populate the pattern with.
@@ -103,82 +176,139 @@ public class PatternReplacer extends URIMatcher {
 	 */
 	public String populate(URI uri) {
 
-		if ( ! this.matches(uri))
+		URIMatch match = this.match(uri);
+		if ( match == null)
 		{
 			throw new IllegalArgumentException( "URI does not match regular expression");
 		}
-		
-		String retval = pattern;
+		return template.populate(match);
+	}
 
-		while (retval.contains("{scheme")) {
-			retval = subEdit(retval, "{scheme", uri.getScheme(), getScheme());
-		}
-		while (retval.contains("{host")) {
-			retval = subEdit(retval, "{host", uri.getHost(), getHost());
-		}
-		while (retval.contains("{port}")) {
-			if (uri.getPort() == URIMatcher.NO_PORT)
-			{
-				retval = retval.replace("{port}", "");	
-			}
-			else
-			{
-				retval = retval.replace("{port}", Integer.toString(uri.getPort()));	
-			}
+	/**
+	 * Populate the pattern with the portions of a URI string.
+	 * <p>
+	 * The string is matched without constructing a java.net.URI.
+	 * </p>
+	 * @param uri The uri text to populate the pattern with.
+	 * @return the pattern with the tags replaced
+	 * @see URIMatcher#matches(CharSequence)
+	 */
+	public String populate(CharSequence uri) {
+		URIMatch match = this.match(uri);
+		if ( match == null)
+		{
+			throw new IllegalArgumentException( "URI does not match regular expression");
 		}
+		return template.populate(match);
+	}
 
-		while (retval.contains("{path")) {
-			retval = subEdit(retval, "{path", uri.getPath(), getPath());
-		}
-		while (retval.contains("{fragment")) {
-			retval = subEdit(retval, "{fragment", uri.getFragment(), getFragment());
-		}
-		while (retval.contains("{uri}")) {
-			retval = retval.replace("{uri}", uri.toString());
-		}
-		return retval;
+	/**
+	 * Populate the pattern with the portions of each URI in a list.
+	 * <p>
+	 * Large lists are split and processed in parallel on the common fork/join
+	 * pool. A URI that does not match, or is null, is reported as an error for
+	 * that index and does not stop the other URIs from being processed.
+	 * </p>
+	 * @param uris The uris to populate the pattern with.
+	 * @return the populated patterns in the order of the list.
+	 * @see URIMatcher#matchesAll(List)
+	 */
+	public BatchResult<String> populateAll(List<URI> uris) {
+		return Batch.run(uris, new String[uris.size()], populateWorker());
 	}
-	
-	private String valueOf( String value )
-	{
-		return value==null?"":value;
+
+	/**
+	 * Populate the pattern with the portions of each URI in an array.
+	 * @param uris The uris to populate the pattern with.
+	 * @return the populated patterns in the order of the array.
+	 * @see #populateAll(List)
+	 */
+	public BatchResult<String> populateAll(URI[] uris) {
+		return Batch.run(uris, new String[uris.length], populateWorker());
 	}
 
-	// Performs the replacement on a sub section of the pattern
-	private String subEdit(String retval, String pattern, String value,
-			Pattern p) {
-		int pos = retval.indexOf(pattern) + pattern.length();
-		if (retval.charAt(pos) == '}') {
-			return retval.replace(pattern + "}", valueOf( value ));
+	private Supplier<Batch.Worker<String>> populateWorker() {
+		return () -> {
+			Batch.MatchWorker w = new Batch.MatchWorker(this);
+			return uri -> {
+				URIMatch match = w.match(uri);
+				if (match == null) {
+					throw new IllegalArgumentException(
+							"URI does not match regular expression");
+				}
+				return template.populate(match);
+			};
+		};
+	}
+
+	/**
+	 * Populate the pattern with the portions of a previously matched URI.
+	 * <p>
+	 * The component regular expressions are not evaluated again, the groups
+	 * are taken from the match.
+	 * </p>
+	 * @param match The match to populate the pattern with.
+	 * @return the pattern with the tags replaced
+	 * @throws IllegalArgumentException if the match was not produced by this replacer.
+	 */
+	public String populate(URIMatch match) {
+		return template.populate(checkMatch(match));
+	}
 
+	// verify that the groups of the match come from the patterns of this
+	// replacer.
+	private URIMatch checkMatch(URIMatch match) {
+		URIMatcher matcher = match.getMatcher();
+		if (matcher != this && matcher.patterns() != patterns()) {
+			throw new IllegalArgumentException(String.format(
+					"%s was not produced by %s", match, this));
 		}
-		if (retval.charAt(pos) == ':') {
-			int endpos = retval.indexOf('}', pos);
-			String idxStr = retval.substring(pos + 1, endpos);
-			int patternIdx = Integer.valueOf(idxStr);
-			try {
-				Matcher m = p.matcher( valueOf( value ));
-				m.find();
-				if (m.groupCount() < patternIdx)
-				{
-					throw new IllegalArgumentException( String.format("Subpattern %s does not exist in %s matching %s", patternIdx, p, valueOf( value )) );
-				}
-				return retval.replace(
-						retval.substring(retval.indexOf(pattern), endpos + 1),
-						m.group(patternIdx));
-			} catch (Exception e) {
-				e.printStackTrace();
-				throw new IllegalArgumentException(e.getMessage(), e);
-			}
+		return match;
+	}
+
+	/**
+	 * Populate the pattern with the portions of a previously matched URI
+	 * into a buffer.
+	 * <p>
+	 * The values are appended directly from the matched text so no
+	 * intermediate strings are created.
+	 * </p>
+	 * @param match The match to populate the pattern with.
+	 * @param sb The buffer to append the pattern with the tags replaced to.
+	 * @throws IllegalArgumentException if the match was not produced by this replacer, or
+	 * if a group referenced by the pattern does not exist, the buffer may then hold part of 
+	 * the result.
+	 */
+	public void populate(URIMatch match, StringBuilder sb) {
+		template.populate(checkMatch(match), sb);
+	}
+
+	/**
+	 * Populate the pattern with the portions of a previously matched URI
+	 * into an Appendable such as a Writer.
+	 * <p>
+	 * A StringBuilder is populated directly, any other Appendable receives the 
+	 * complete result in a single append.
+	 * </p>
+	 * @param match The match to populate the pattern with.
+	 * @param out The Appendable to append the pattern with the tags replaced to.
+	 * @throws IOException if the Appendable throws it.
+	 * @throws IllegalArgumentException if the match was not produced by this replacer or 
+	 * a group referenced by the pattern does not exist.
+	 * @see #populate(URIMatch, StringBuilder)
+	 */
+	public void populate(URIMatch match, Appendable out) throws IOException {
+		if (out instanceof StringBuilder) {
+			populate(match, (StringBuilder) out);
+		} else {
+			out.append(populate(match));
 		}
-		throw new IllegalArgumentException(String.format(
-				"Bad pattern string: %s", pattern));
 	}
 
 	@Override
 	public String toString() {
 		return String.format("URIEditor[ regEx=%s  pattern=%s]",
-				super.toString(), pattern);
+				super.toString(), template);
 	}
 
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.regex.Pattern;
+
+/**
+ * A cheap test, derived from a component pattern when it is set, that rejects
+ * most values the pattern can not match without running the regular
+ * expression.
+ * <p>
+ * Every value the pattern matches starts with its literal prefix, ends with
+ * its literal suffix, contains its longest literal run and is at least as long
+ * as its literal characters. Values that fail any of these tests can not match.
+ * Patterns made only of literal characters and unquantified <code>.</code>
+ * wildcards, as produced by <code>new URIMatcher(URI)</code>, are matched
+ * exactly without the regular expression.
+ * </p>
+ */
+final class Prefilter {
+	/** the pattern can not match the value. */
+	static final int MISS = 0;
+	/** the pattern matches the value. */
+	static final int MATCH = 1;
+	/** the pattern must be evaluated to decide. */
+	static final int UNKNOWN = 2;
+
+	private final String prefix;
+	private final String suffix;
+	// the longest literal run when it is not the prefix or suffix, else null.
+	private final String infix;
+	private final int minLength;
+	// the wildcard template or null if the pattern is not one.
+	private final String template;
+
+	private Prefilter(String prefix, String suffix, String infix,
+			int minLength, String template) {
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.infix = infix;
+		this.minLength = minLength;
+		this.template = template;
+	}
+
+	/**
+	 * Create the prefilter for a pattern.
+	 *
+	 * @param pattern
+	 *            the pattern, may be null.
+	 * @return the prefilter or null if the pattern has no literal text to
+	 *         filter on.
+	 */
+	static Prefilter of(Pattern pattern) {
+		if (pattern == null || PatternAnalyzer.literal(pattern) != null) {
+			// literals are compared directly.
+			return null;
+		}
+		String template = PatternAnalyzer.dotLiteral(pattern);
+		if (template != null) {
+			return new Prefilter("", "", null, template.length(), template);
+		}
+		String prefix = nullToEmpty(PatternAnalyzer.prefix(pattern));
+		String suffix = nullToEmpty(PatternAnalyzer.suffix(pattern));
+		String infix = nullToEmpty(PatternAnalyzer.infix(pattern));
+		int minLength = PatternAnalyzer.minLength(pattern);
+		if (infix.equals(prefix) || infix.equals(suffix)) {
+			infix = "";
+		}
+		if (prefix.isEmpty() && suffix.isEmpty() && infix.isEmpty()) {
+			return null;
+		}
+		return new Prefilter(prefix, suffix, infix.isEmpty() ? null : infix,
+				minLength, null);
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * Test a value.
+	 *
+	 * @param value
+	 *            the component value.
+	 * @return MISS if the pattern can not match the value, MATCH if the pattern
+	 *         matches the value or UNKNOWN if the pattern must be evaluated.
+	 */
+	int test(CharSequence value) {
+		int len = value.length();
+		if (len < minLength) {
+			return MISS;
+		}
+		if (template != null) {
+			// a wildcard may match a surrogate pair, so only equal lengths
+			// are decided here.
+			return len == minLength ? matchTemplate(value) : UNKNOWN;
+		}
+		if (!regionMatches(value, 0, prefix)
+				|| !regionMatches(value, len - suffix.length(), suffix)) {
+			return MISS;
+		}
+		return infix == null
+				|| contains(value, infix, prefix.length(),
+						len - suffix.length()) ? UNKNOWN : MISS;
+	}
+
+	// compare the value to the template, DOT matches any non line terminator.
+	private int matchTemplate(CharSequence value) {
+		for (int i = 0; i < minLength; i++) {
+			char t = template.charAt(i);
+			char c = value.charAt(i);
+			if (t == PatternAnalyzer.DOT) {
+				if (Character.isSurrogate(c)) {
+					return UNKNOWN;
+				}
+				if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+						|| c == '\u2029') {
+					return MISS;
+				}
+			} else if (t != c) {
+				return MISS;
+			}
+		}
+		return MATCH;
+	}
+
+	// true if the value holds the text at the offset.
+	private static boolean regionMatches(CharSequence value, int offset,
+			String text) {
+		int len = text.length();
+		if (offset < 0 || offset + len > value.length()) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (value.charAt(offset + i) != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// true if the text occurs in the value between from and to.
+	private static boolean contains(CharSequence value, String text, int from,
+			int to) {
+		int last = to - text.length();
+		char first = text.charAt(0);
+		for (int i = from; i <= last; i++) {
+			if (value.charAt(i) == first && regionMatches(value, i, text)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return template != null ? String.format("Prefilter[ template=%s ]",
+				template.replace(PatternAnalyzer.DOT, '.')) : String.format(
+				"Prefilter[ prefix=%s infix=%s suffix=%s min=%s ]", prefix,
+				infix, suffix, minLength);
+	}
+}
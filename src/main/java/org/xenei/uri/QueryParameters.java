@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * The parameters of a raw query string, tokenized on demand.
+ * <p>
+ * The query is split on <code>&amp;</code> (and <code>;</code>) into
+ * <code>name=value</code> pairs only as far as needed to find the requested
+ * parameter. The pairs found are remembered so later lookups continue where
+ * the scan stopped, and a query is never scanned more than once. Names and
+ * values are not decoded.
+ * </p>
+ */
+final class QueryParameters {
+	// the query being tokenized.
+	private CharSequence query;
+	// the position in the query where tokenizing resumes.
+	private int scanned;
+	// the name start, name end, value start and value end of each pair.
+	private int[] pairs = new int[16];
+	// the number of pairs found.
+	private int count;
+
+	/**
+	 * Start tokenizing a new query.
+	 *
+	 * @param query
+	 *            the raw query string, without the leading '?'.
+	 * @return this.
+	 */
+	QueryParameters reset(CharSequence query) {
+		this.query = query;
+		this.scanned = 0;
+		this.count = 0;
+		return this;
+	}
+
+	/**
+	 * Get the value of the first parameter with a name.
+	 *
+	 * @param name
+	 *            the parameter name.
+	 * @return the raw value, empty if the parameter has no '=', or null if
+	 *         the query does not contain the parameter.
+	 */
+	CharSequence get(String name) {
+		for (int i = 0; i < count; i++) {
+			if (nameEquals(i, name)) {
+				return value(i);
+			}
+		}
+		while (scanned < query.length()) {
+			int i = next();
+			if (i != -1 && nameEquals(i, name)) {
+				return value(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the number of pairs tokenized so far.
+	 *
+	 * @return the number of pairs found.
+	 */
+	int scannedCount() {
+		return count;
+	}
+
+	// tokenize the next pair, returns its index or -1 if it was empty.
+	private int next() {
+		int len = query.length();
+		int start = scanned;
+		int end = start;
+		int eq = -1;
+		while (end < len) {
+			char c = query.charAt(end);
+			if (c == '&' || c == ';') {
+				break;
+			}
+			if (c == '=' && eq == -1) {
+				eq = end;
+			}
+			end++;
+		}
+		scanned = end + 1;
+		if (end == start) {
+			return -1;
+		}
+		if (count * 4 == pairs.length) {
+			int[] grown = new int[pairs.length * 2];
+			System.arraycopy(pairs, 0, grown, 0, pairs.length);
+			pairs = grown;
+		}
+		int base = count * 4;
+		pairs[base] = start;
+		pairs[base + 1] = eq == -1 ? end : eq;
+		pairs[base + 2] = eq == -1 ? end : eq + 1;
+		pairs[base + 3] = end;
+		return count++;
+	}
+
+	private boolean nameEquals(int i, String name) {
+		int start = pairs[i * 4];
+		int len = pairs[i * 4 + 1] - start;
+		if (len != name.length()) {
+			return false;
+		}
+		for (int j = 0; j < len; j++) {
+			if (query.charAt(start + j) != name.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private CharSequence value(int i) {
+		return new SubSequence(query, pairs[i * 4 + 2], pairs[i * 4 + 3]);
+	}
+}
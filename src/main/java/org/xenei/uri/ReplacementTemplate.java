@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A PatternReplacer output pattern compiled into literal text and references
+ * to the URI components.
+ * <p>
+ * The pattern is parsed once when the template is created. Malformed tokens
+ * are rejected at that point and populating the template is a single pass over
+ * the compiled segments.
+ * </p>
+ */
+class ReplacementTemplate {
+	// the components that support group references.
+	private static final URIComponent[] GROUP_COMPONENTS = {
+			URIComponent.SCHEME, URIComponent.HOST, URIComponent.PATH,
+			URIComponent.FRAGMENT, URIComponent.QUERY };
+	// the start of a query parameter token.
+	private static final String PARAM = "{param:";
+
+	// the pattern the template was compiled from.
+	private final String pattern;
+	// the compiled segments in output order.
+	private final Segment[] segments;
+
+	/**
+	 * Compile the pattern.
+	 *
+	 * @param pattern
+	 *            the pattern to compile.
+	 * @throws IllegalArgumentException
+	 *             if the pattern contains a malformed token.
+	 */
+	ReplacementTemplate(String pattern) {
+		if (pattern == null) {
+			throw new IllegalArgumentException("Pattern may not be null");
+		}
+		this.pattern = pattern;
+		List<Segment> lst = new ArrayList<Segment>();
+		int literalStart = 0;
+		int pos = pattern.indexOf('{');
+		while (pos > -1) {
+			int end = pattern.indexOf('}', pos);
+			Segment token = parseToken(pos, end);
+			if (token == null) {
+				pos = pattern.indexOf('{', pos + 1);
+			} else {
+				if (literalStart < pos) {
+					lst.add(new Literal(pattern.substring(literalStart, pos)));
+				}
+				lst.add(token);
+				literalStart = end + 1;
+				pos = pattern.indexOf('{', literalStart);
+			}
+		}
+		if (literalStart < pattern.length()) {
+			lst.add(new Literal(pattern.substring(literalStart)));
+		}
+		segments = lst.toArray(new Segment[lst.size()]);
+	}
+
+	// parse the token starting at pos. returns null if the brace does not
+	// start a token.
+	private Segment parseToken(int pos, int end) {
+		if (pattern.startsWith("{port}", pos)) {
+			return new Port();
+		}
+		if (pattern.startsWith("{uri}", pos)) {
+			return new WholeURI();
+		}
+		if (pattern.startsWith(PARAM, pos)) {
+			if (end <= pos + PARAM.length()) {
+				throw new IllegalArgumentException(String.format(
+						"Bad token at position %s in pattern string: %s", pos,
+						pattern));
+			}
+			return new Parameter(pattern.substring(pos + PARAM.length(), end));
+		}
+		for (URIComponent component : GROUP_COMPONENTS) {
+			String name = component.tokenName();
+			if (pattern.startsWith(name, pos + 1)) {
+				int idx = pos + 1 + name.length();
+				if (idx < pattern.length()) {
+					if (pattern.charAt(idx) == '}') {
+						return new ComponentValue(component);
+					}
+					if (pattern.charAt(idx) == ':' && end > idx + 1) {
+						return new Group(component, parseGroup(pos, idx + 1,
+								end));
+					}
+				}
+				throw new IllegalArgumentException(String.format(
+						"Bad token at position %s in pattern string: %s", pos,
+						pattern));
+			}
+		}
+		return null;
+	}
+
+	// parse the group number between start and end.
+	private int parseGroup(int pos, int start, int end) {
+		int retval = 0;
+		for (int i = start; i < end; i++) {
+			char c = pattern.charAt(i);
+			if (c < '0' || c > '9' || retval > (Integer.MAX_VALUE - 9) / 10) {
+				throw new IllegalArgumentException(String.format(
+						"Bad token at position %s in pattern string: %s",
+						pos, pattern));
+			}
+			retval = retval * 10 + (c - '0');
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the pattern the template was compiled from.
+	 *
+	 * @return the pattern string.
+	 */
+	String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * Populate the template from a match.
+	 *
+	 * @param match
+	 *            the match to take the values from.
+	 * @return the populated template.
+	 * @throws IllegalArgumentException
+	 *             if a group referenced by the template does not exist.
+	 */
+	String populate(URIMatch match) {
+		StringBuilder sb = new StringBuilder(pattern.length() + 32);
+		populate(match, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Populate the template from a match into a buffer.
+	 * <p>
+	 * The values are appended directly from the matched text so no
+	 * intermediate strings are created.
+	 * </p>
+	 *
+	 * @param match
+	 *            the match to take the values from.
+	 * @param sb
+	 *            the buffer to append the populated template to.
+	 * @throws IllegalArgumentException
+	 *             if a group referenced by the template does not exist.
+	 */
+	void populate(URIMatch match, StringBuilder sb) {
+		for (Segment segment : segments) {
+			segment.append(sb, match);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	/**
+	 * A compiled portion of the template.
+	 */
+	private static abstract class Segment {
+		abstract void append(StringBuilder sb, URIMatch match);
+	}
+
+	// literal text copied to the output.
+	private static class Literal extends Segment {
+		private final String text;
+
+		Literal(String text) {
+			this.text = text;
+		}
+
+		@Override
+		void append(StringBuilder sb, URIMatch match) {
+			sb.append(text);
+		}
+	}
+
+	// an entire component value
+	private static class ComponentValue extends Segment {
+		private final URIComponent component;
+
+		ComponentValue(URIComponent component) {
+			this.component = component;
+		}
+
+		@Override
+		void append(StringBuilder sb, URIMatch match) {
+			sb.append(match.value(component));
+		}
+	}
+
+	// a matching group within a component value.
+	private static class Group extends Segment {
+		private final URIComponent component;
+		private final int idx;
+
+		Group(URIComponent component, int idx) {
+			this.component = component;
+			this.idx = idx;
+		}
+
+		@Override
+		void append(StringBuilder sb, URIMatch match) {
+			match.appendGroup(sb, component, idx);
+		}
+	}
+
+	// the port or nothing if there is no port.
+	private static class Port extends Segment {
+		@Override
+		void append(StringBuilder sb, URIMatch match) {
+			int port = match.getPort();
+			if (port != URIMatcher.NO_PORT) {
+				sb.append(port);
+			}
+		}
+	}
+
+	// the raw value of a query parameter or nothing if it is not present.
+	private static class Parameter extends Segment {
+		private final String name;
+
+		Parameter(String name) {
+			this.name = name;
+		}
+
+		@Override
+		void append(StringBuilder sb, URIMatch match) {
+			CharSequence value = match.parameter(name);
+			if (value != null) {
+				sb.append(value);
+			}
+		}
+	}
+
+	// the entire URI.
+	private static class WholeURI extends Segment {
+		@Override
+		void append(StringBuilder sb, URIMatch match) {
+			sb.append(match.getText());
+		}
+	}
+}
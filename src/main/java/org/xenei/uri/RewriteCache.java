@@ -0,0 +1,611 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A concurrent, size bounded cache of rewrite results.
+ * <p>
+ * A URIRewriter or URIRuleSet that is given a cache looks up each incoming URI
+ * in the cache before matching it, so a repeated URI costs one hash lookup.
+ * The cache is split into independently locked segments to limit contention.
+ * </p>
+ * <p>
+ * Two eviction policies are supported. LRU evicts the least recently used
+ * entry. TINY_LFU is a W-TinyLFU style policy: new entries enter a small LRU
+ * window and, when they leave the window, are only admitted to the main
+ * segmented LRU area if they have been requested more often than the entry
+ * they would replace. Request frequencies are estimated with a count-min
+ * sketch that is periodically halved so that old popularity decays. TINY_LFU
+ * resists being flushed by a burst of URIs that are only seen once.
+ * </p>
+ * <p>
+ * Entries may optionally expire a fixed time after they are written. The
+ * cache records hit, miss and eviction counts (expired entries count as
+ * evictions).
+ * </p>
+ * <p>
+ * The results are tagged with the version of the rules that produced them.
+ * When the rules of the owning rewriter or rule set change the cache is
+ * cleared on the next lookup, so a cache should only be used by one rewriter
+ * or rule set.
+ * </p>
+ */
+public final class RewriteCache {
+	/**
+	 * The eviction policies.
+	 */
+	public enum Policy {
+		/**
+		 * Evict the least recently used entry.
+		 */
+		LRU,
+		/**
+		 * Admit entries by estimated frequency, see the class description.
+		 */
+		TINY_LFU
+	}
+
+	// the maximum number of segments.
+	private static final int MAX_SEGMENTS = 16;
+	// the minimum number of entries per segment before a cache is segmented.
+	private static final int MIN_SEGMENT_SIZE = 32;
+
+	// the maximum number of entries.
+	private final int maximumSize;
+	// the eviction policy.
+	private final Policy policy;
+	// the time to live in nanoseconds or 0 if entries do not expire.
+	private final long expireNanos;
+	// the segments.
+	private final Segment[] segments;
+	// the version of the rules that the cached results were produced by.
+	private final AtomicReference<Object> version = new AtomicReference<Object>();
+
+	/**
+	 * Create an LRU cache whose entries do not expire.
+	 *
+	 * @param maximumSize
+	 *            the maximum number of entries.
+	 */
+	public RewriteCache(int maximumSize) {
+		this(maximumSize, Policy.LRU);
+	}
+
+	/**
+	 * Create a cache whose entries do not expire.
+	 *
+	 * @param maximumSize
+	 *            the maximum number of entries.
+	 * @param policy
+	 *            the eviction policy.
+	 */
+	public RewriteCache(int maximumSize, Policy policy) {
+		this(maximumSize, policy, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param maximumSize
+	 *            the maximum number of entries.
+	 * @param policy
+	 *            the eviction policy.
+	 * @param expireAfterWrite
+	 *            the time after which an entry expires, 0 if entries do not
+	 *            expire.
+	 * @param unit
+	 *            the unit of expireAfterWrite.
+	 * @throws IllegalArgumentException
+	 *             if the size is less than 1, the policy is null or the
+	 *             expiry time is negative.
+	 */
+	public RewriteCache(int maximumSize, Policy policy, long expireAfterWrite,
+			TimeUnit unit) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException(
+					"Maximum size must be at least 1");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("Policy may not be null");
+		}
+		if (expireAfterWrite < 0) {
+			throw new IllegalArgumentException(
+					"Expiry time may not be negative");
+		}
+		this.maximumSize = maximumSize;
+		this.policy = policy;
+		this.expireNanos = unit.toNanos(expireAfterWrite);
+		int count = 1;
+		while (count < MAX_SEGMENTS
+				&& maximumSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+			count *= 2;
+		}
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			// spread the remainder over the first segments.
+			int size = maximumSize / count + (i < maximumSize % count ? 1 : 0);
+			segments[i] = policy == Policy.LRU ? new LruSegment(size)
+					: new TinyLfuSegment(size);
+		}
+	}
+
+	/**
+	 * Get the maximum number of entries.
+	 *
+	 * @return the maximum size.
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Get the eviction policy.
+	 *
+	 * @return the policy.
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Get the number of entries in the cache.
+	 *
+	 * @return the number of entries.
+	 */
+	public int size() {
+		int retval = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				retval += segment.size();
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Remove all the entries. The statistics are not reset.
+	 */
+	public void invalidateAll() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get a snapshot of the cache statistics.
+	 *
+	 * @return the statistics.
+	 */
+	public Stats getStats() {
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+				misses += segment.misses;
+				evictions += segment.evictions;
+			}
+		}
+		return new Stats(hits, misses, evictions);
+	}
+
+	/**
+	 * Get a cached result.
+	 *
+	 * @param key
+	 *            the input.
+	 * @param rules
+	 *            the version of the rules, if it differs from the version of
+	 *            the cached results the cache is cleared.
+	 * @return the result or null if the input is not cached.
+	 */
+	Object get(Object key, Object rules) {
+		checkVersion(rules);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			Entry entry = segment.get(key);
+			if (entry != null && entry.rules != rules) {
+				// stored by a put that raced with a change of the rules.
+				segment.remove(key);
+				entry = null;
+			} else if (entry != null && entry.expires != 0
+					&& entry.expires - System.nanoTime() <= 0) {
+				segment.remove(key);
+				segment.evictions++;
+				entry = null;
+			}
+			if (entry == null) {
+				segment.misses++;
+				return null;
+			}
+			segment.hits++;
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Cache a result.
+	 *
+	 * @param key
+	 *            the input.
+	 * @param value
+	 *            the result.
+	 * @param rules
+	 *            the version of the rules that produced the result.
+	 */
+	void put(Object key, Object value, Object rules) {
+		if (version.get() != rules) {
+			// the rules changed while the result was computed.
+			return;
+		}
+		long expires = 0;
+		if (expireNanos > 0) {
+			expires = System.nanoTime() + expireNanos;
+			if (expires == 0) {
+				expires = 1;
+			}
+		}
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, new Entry(value, rules, expires));
+		}
+	}
+
+	// clear the cache if the rules have changed.
+	private void checkVersion(Object rules) {
+		Object current = version.get();
+		if (current != rules && version.compareAndSet(current, rules)) {
+			invalidateAll();
+		}
+	}
+
+	private Segment segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85EBCA6B;
+		h ^= (h >>> 13);
+		return segments[h & (segments.length - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RewriteCache[ %s %s %s ]", policy, maximumSize,
+				getStats());
+	}
+
+	/**
+	 * A snapshot of the cache statistics.
+	 */
+	public static final class Stats {
+		private final long hitCount;
+		private final long missCount;
+		private final long evictionCount;
+
+		Stats(long hitCount, long missCount, long evictionCount) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.evictionCount = evictionCount;
+		}
+
+		/**
+		 * Get the number of lookups that found a result.
+		 *
+		 * @return the hit count.
+		 */
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		/**
+		 * Get the number of lookups that did not find a result.
+		 *
+		 * @return the miss count.
+		 */
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/**
+		 * Get the number of entries removed to bound the size or because
+		 * they expired.
+		 *
+		 * @return the eviction count.
+		 */
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		/**
+		 * Get the fraction of lookups that found a result.
+		 *
+		 * @return the hit rate or 1.0 if there have been no lookups.
+		 */
+		public double getHitRate() {
+			long total = hitCount + missCount;
+			return total == 0 ? 1.0 : (double) hitCount / total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("hits=%s misses=%s evictions=%s", hitCount,
+					missCount, evictionCount);
+		}
+	}
+
+	// a cached value.
+	private static final class Entry {
+		final Object value;
+		// the version of the rules that produced the value.
+		final Object rules;
+		// the nanoTime the entry expires at or 0 if it does not expire.
+		final long expires;
+
+		Entry(Object value, Object rules, long expires) {
+			this.value = value;
+			this.rules = rules;
+			this.expires = expires;
+		}
+	}
+
+	// a map in access order.
+	private static final class AccessMap extends LinkedHashMap<Object, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		AccessMap(int capacity) {
+			super(Math.min(capacity, 1024) * 4 / 3 + 1, 0.75f, true);
+		}
+
+		// remove and return the least recently used key.
+		Object removeEldest() {
+			Iterator<Object> iter = keySet().iterator();
+			Object retval = iter.next();
+			iter.remove();
+			return retval;
+		}
+
+		Object eldest() {
+			return keySet().iterator().next();
+		}
+	}
+
+	/**
+	 * A portion of the cache guarded by its own lock. All methods are called
+	 * with the segment locked.
+	 */
+	private static abstract class Segment {
+		long hits;
+		long misses;
+		long evictions;
+
+		abstract Entry get(Object key);
+
+		abstract void put(Object key, Entry entry);
+
+		abstract void remove(Object key);
+
+		abstract int size();
+
+		abstract void clear();
+	}
+
+	// a least recently used segment.
+	private static final class LruSegment extends Segment {
+		private final int capacity;
+		private final AccessMap map;
+
+		LruSegment(int capacity) {
+			this.capacity = capacity;
+			this.map = new AccessMap(capacity);
+		}
+
+		@Override
+		Entry get(Object key) {
+			return map.get(key);
+		}
+
+		@Override
+		void put(Object key, Entry entry) {
+			map.put(key, entry);
+			while (map.size() > capacity) {
+				map.removeEldest();
+				evictions++;
+			}
+		}
+
+		@Override
+		void remove(Object key) {
+			map.remove(key);
+		}
+
+		@Override
+		int size() {
+			return map.size();
+		}
+
+		@Override
+		void clear() {
+			map.clear();
+		}
+	}
+
+	// a window TinyLFU segment.
+	private static final class TinyLfuSegment extends Segment {
+		private final int windowCapacity;
+		private final int protectedCapacity;
+		private final int mainCapacity;
+		private final AccessMap window;
+		private final AccessMap probation;
+		private final AccessMap protect;
+		private final FrequencySketch sketch;
+
+		TinyLfuSegment(int capacity) {
+			windowCapacity = Math.max(1, capacity / 100);
+			mainCapacity = capacity - windowCapacity;
+			protectedCapacity = mainCapacity * 4 / 5;
+			window = new AccessMap(windowCapacity);
+			probation = new AccessMap(mainCapacity);
+			protect = new AccessMap(protectedCapacity);
+			sketch = new FrequencySketch(capacity);
+		}
+
+		@Override
+		Entry get(Object key) {
+			sketch.increment(key);
+			Entry retval = window.get(key);
+			if (retval != null) {
+				return retval;
+			}
+			retval = protect.get(key);
+			if (retval != null) {
+				return retval;
+			}
+			retval = probation.remove(key);
+			if (retval != null) {
+				// promote to the protected area.
+				protect.put(key, retval);
+				if (protect.size() > protectedCapacity) {
+					Object demoted = protect.eldest();
+					probation.put(demoted, protect.remove(demoted));
+				}
+			}
+			return retval;
+		}
+
+		@Override
+		void put(Object key, Entry entry) {
+			if (window.containsKey(key)) {
+				window.put(key, entry);
+				return;
+			}
+			if (protect.containsKey(key)) {
+				protect.put(key, entry);
+				return;
+			}
+			if (probation.containsKey(key)) {
+				probation.put(key, entry);
+				return;
+			}
+			window.put(key, entry);
+			if (window.size() <= windowCapacity) {
+				return;
+			}
+			Object candidate = window.eldest();
+			Entry candidateEntry = window.remove(candidate);
+			if (probation.size() + protect.size() < mainCapacity) {
+				probation.put(candidate, candidateEntry);
+				return;
+			}
+			AccessMap victims = probation.isEmpty() ? protect : probation;
+			if (victims.isEmpty()) {
+				// no main area, the window is the whole segment.
+				evictions++;
+				return;
+			}
+			Object victim = victims.eldest();
+			if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+				victims.remove(victim);
+				probation.put(candidate, candidateEntry);
+			}
+			evictions++;
+		}
+
+		@Override
+		void remove(Object key) {
+			if (window.remove(key) == null && protect.remove(key) == null) {
+				probation.remove(key);
+			}
+		}
+
+		@Override
+		int size() {
+			return window.size() + probation.size() + protect.size();
+		}
+
+		@Override
+		void clear() {
+			window.clear();
+			probation.clear();
+			protect.clear();
+		}
+	}
+
+	/**
+	 * A count-min sketch of small counters estimating how often keys are
+	 * requested. The counters are halved once the number of increments
+	 * reaches ten times the capacity, so the estimates follow recent traffic.
+	 */
+	private static final class FrequencySketch {
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = { 0x97CB3127, 0x2C1B3C6D,
+				0x297A2D39, 0x0DE5E2A5 };
+		private final byte[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int capacity) {
+			int size = 16;
+			while (size < capacity * 2 && size < (1 << 24)) {
+				size <<= 1;
+			}
+			table = new byte[size];
+			mask = size - 1;
+			sampleSize = Math.max(10 * capacity, 10);
+		}
+
+		void increment(Object key) {
+			int h = key.hashCode();
+			boolean added = false;
+			for (int seed : SEEDS) {
+				int idx = index(h, seed);
+				if (table[idx] < MAX_COUNT) {
+					table[idx]++;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] >>= 1;
+				}
+				additions /= 2;
+			}
+		}
+
+		int frequency(Object key) {
+			int h = key.hashCode();
+			int retval = MAX_COUNT;
+			for (int seed : SEEDS) {
+				retval = Math.min(retval, table[index(h, seed)]);
+			}
+			return retval;
+		}
+
+		private int index(int h, int seed) {
+			int x = (h ^ seed) * 0x9E3779B9;
+			return (x ^ (x >>> 15)) & mask;
+		}
+	}
+}
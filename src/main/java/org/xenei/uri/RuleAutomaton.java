@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A rule engine that matches each component of a URI against the component
+ * patterns of all the rules in one scan.
+ * <p>
+ * For every regular expression component a ComponentAutomaton is built from
+ * the supported patterns of the rules. A rule is a candidate if every
+ * automaton accepts for it. Rules that do not constrain a component or whose
+ * pattern is not supported by the automaton are candidates for that component
+ * and are checked by their Pattern. The candidates are then matched in rule
+ * order to produce the groups for the first one that matches.
+ * </p>
+ */
+class RuleAutomaton extends RuleEngine {
+	// the components that are matched by regular expressions.
+	private static final URIComponent[] COMPONENTS = { URIComponent.SCHEME,
+			URIComponent.HOST, URIComponent.PATH, URIComponent.FRAGMENT,
+			URIComponent.QUERY };
+
+	// the rules in evaluation order.
+	private final PatternReplacer[] rules;
+	// the automaton for each component, null if no rule is supported.
+	private final ComponentAutomaton[] automata = new ComponentAutomaton[COMPONENTS.length];
+	// the rules that must be checked by Pattern for each component.
+	private final BitSet[] unconstrained = new BitSet[COMPONENTS.length];
+
+	/**
+	 * Build the engine.
+	 *
+	 * @param rules
+	 *            the rules in evaluation order.
+	 */
+	RuleAutomaton(List<PatternReplacer> rules) {
+		this.rules = rules.toArray(new PatternReplacer[rules.size()]);
+		for (int c = 0; c < COMPONENTS.length; c++) {
+			ComponentAutomaton automaton = new ComponentAutomaton();
+			BitSet other = new BitSet(this.rules.length);
+			boolean used = false;
+			for (int rank = 0; rank < this.rules.length; rank++) {
+				String p = this.rules[rank].getExpression(COMPONENTS[c]);
+				if (p == null || (this.rules[rank].isRawMatching()
+						&& decoded(COMPONENTS[c]))) {
+					// raw values are checked by the rule.
+					other.set(rank);
+					continue;
+				}
+				try {
+					automaton.add(p, rank);
+					used = true;
+				} catch (ComponentAutomaton.UnsupportedPatternException e) {
+					other.set(rank);
+				}
+			}
+			automata[c] = used ? automaton : null;
+			unconstrained[c] = other;
+		}
+	}
+
+	// true if the automaton scans the decoded value of the component.
+	private static boolean decoded(URIComponent component) {
+		return component == URIComponent.PATH
+				|| component == URIComponent.FRAGMENT;
+	}
+
+	@Override
+	int size() {
+		return rules.length;
+	}
+
+	@Override
+	URIMatch match(ComponentSource source) {
+		BitSet candidates = candidates(source);
+		if (candidates == null) {
+			for (PatternReplacer rule : rules) {
+				URIMatch match = rule.match(source);
+				if (match != null) {
+					return match;
+				}
+			}
+			return null;
+		}
+		for (int rank = candidates.nextSetBit(0); rank >= 0; rank = candidates
+				.nextSetBit(rank + 1)) {
+			URIMatch match = rules[rank].match(source);
+			if (match != null) {
+				return match;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the ranks of the rules that may match the URI components.
+	 *
+	 * @param source
+	 *            the source of the URI components to check.
+	 * @return the ranks of the candidate rules or null if every rule is a
+	 *         candidate.
+	 */
+	BitSet candidates(ComponentSource source) {
+		BitSet retval = null;
+		for (int c = 0; c < COMPONENTS.length; c++) {
+			if (automata[c] == null) {
+				continue;
+			}
+			BitSet accepted = automata[c].scan(source
+					.value(COMPONENTS[c]));
+			if (accepted == null) {
+				continue;
+			}
+			if (retval == null) {
+				retval = (BitSet) accepted.clone();
+				retval.or(unconstrained[c]);
+			} else {
+				BitSet allowed = (BitSet) accepted.clone();
+				allowed.or(unconstrained[c]);
+				retval.and(allowed);
+			}
+		}
+		return retval;
+	}
+}
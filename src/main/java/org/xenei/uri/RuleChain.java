@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A rule engine that evaluates the rules one after another in an order that
+ * adapts to the traffic.
+ * <p>
+ * The engine counts how often each rule matches and periodically reorders the
+ * rules so that the rules that match most often are evaluated first. A rule is
+ * only moved ahead of an earlier rule when both have the same priority and
+ * their patterns are disjoint, that is they can not both match the same URI,
+ * so rules are never moved across priorities.
+ * As a consequence the first matching rule is always the rule that the
+ * priority order selects.
+ * </p>
+ * <p>
+ * The counts decay at each reordering so that the order follows changes in
+ * the traffic.
+ * </p>
+ */
+class RuleChain extends RuleEngine {
+	/**
+	 * The number of matches a thread performs between attempts to reorder.
+	 */
+	static final int REORDER_INTERVAL = 4096;
+
+	// the rules in priority order.
+	private final PatternReplacer[] rules;
+	// the priority group of each rule, groups are numbered in priority order.
+	private final int[] groups;
+	// the ranks of the earlier rules in the same group that each rule must
+	// follow.
+	private final int[][] predecessors;
+	// the number of matches of each rule, the last counter counts attempts.
+	private final StripedCounters hits;
+	// the decayed match counts used to order the rules.
+	private final double[] scores;
+	// the match counts at the last reordering.
+	private final long[] previous;
+	// true while a thread is reordering.
+	private final AtomicBoolean reordering = new AtomicBoolean();
+	// the ranks of the rules in evaluation order.
+	private volatile int[] order;
+
+	/**
+	 * Build the chain.
+	 *
+	 * @param rules
+	 *            the rules in priority order.
+	 * @param priorities
+	 *            the priority of each rule.
+	 */
+	RuleChain(List<PatternReplacer> rules, int[] priorities) {
+		this.rules = rules.toArray(new PatternReplacer[rules.size()]);
+		this.groups = new int[this.rules.length];
+		this.predecessors = new int[this.rules.length][];
+		this.hits = new StripedCounters(this.rules.length + 1);
+		this.scores = new double[this.rules.length];
+		this.previous = new long[this.rules.length];
+		int[] initial = new int[this.rules.length];
+		List<Integer> lst = new ArrayList<Integer>();
+		for (int j = 0; j < this.rules.length; j++) {
+			initial[j] = j;
+			if (j > 0) {
+				groups[j] = groups[j - 1]
+						+ (priorities[j] == priorities[j - 1] ? 0 : 1);
+			}
+			lst.clear();
+			for (int i = j - 1; i >= 0 && groups[i] == groups[j]; i--) {
+				if (!disjoint(this.rules[i], this.rules[j])) {
+					lst.add(i);
+				}
+			}
+			predecessors[j] = new int[lst.size()];
+			for (int k = 0; k < predecessors[j].length; k++) {
+				predecessors[j][k] = lst.get(k);
+			}
+		}
+		this.order = initial;
+	}
+
+	/**
+	 * Determine if two rules can not match the same URI.
+	 *
+	 * @param a
+	 *            the first rule.
+	 * @param b
+	 *            the second rule.
+	 * @return true if no URI matches both rules.
+	 */
+	static boolean disjoint(URIMatcher a, URIMatcher b) {
+		if (a.getPort() != null && b.getPort() != null
+				&& !a.getPort().equals(b.getPort())) {
+			return true;
+		}
+		boolean sameMode = a.isRawMatching() == b.isRawMatching();
+		for (URIComponent component : URIComponent.values()) {
+			if (!sameMode
+					&& (component == URIComponent.PATH || component == URIComponent.FRAGMENT)) {
+				// a raw and a decoded expression are not comparable.
+				continue;
+			}
+			if (PatternAnalyzer.disjoint(a.getExpression(component),
+					b.getExpression(component))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	int size() {
+		return rules.length;
+	}
+
+	@Override
+	URIMatch match(ComponentSource source) {
+		if (hits.increment(rules.length) % REORDER_INTERVAL == 0) {
+			reorder();
+		}
+		for (int rank : order) {
+			URIMatch match = rules[rank].match(source);
+			if (match != null) {
+				hits.increment(rank);
+				return match;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the ranks of the rules in the current evaluation order.
+	 *
+	 * @return the evaluation order.
+	 */
+	int[] getOrder() {
+		return order.clone();
+	}
+
+	/**
+	 * Reorder the rules by their recent match counts. If another thread is
+	 * reordering the call returns immediately.
+	 */
+	void reorder() {
+		if (!reordering.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			for (int i = 0; i < rules.length; i++) {
+				long count = hits.get(i);
+				scores[i] = scores[i] / 2 + (count - previous[i]);
+				previous[i] = count;
+			}
+			order = sort();
+		} finally {
+			reordering.set(false);
+		}
+	}
+
+	// order the rules by group and then score while keeping each rule after
+	// its predecessors. Since every unplaced rule of a group depends on a
+	// ready rule of the same group, no rule is placed before the rules of
+	// the earlier groups.
+	private int[] sort() {
+		int[] waiting = new int[rules.length];
+		List<List<Integer>> followers = new ArrayList<List<Integer>>(
+				rules.length);
+		for (int j = 0; j < rules.length; j++) {
+			followers.add(new ArrayList<Integer>());
+		}
+		PriorityQueue<Integer> ready = new PriorityQueue<Integer>(Math.max(1,
+				rules.length), new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (groups[a] != groups[b]) {
+					return groups[a] < groups[b] ? -1 : 1;
+				}
+				int cmp = Double.compare(scores[b], scores[a]);
+				return cmp != 0 ? cmp : a.compareTo(b);
+			}
+		});
+		for (int j = 0; j < rules.length; j++) {
+			waiting[j] = predecessors[j].length;
+			for (int i : predecessors[j]) {
+				followers.get(i).add(j);
+			}
+			if (waiting[j] == 0) {
+				ready.add(j);
+			}
+		}
+		int[] retval = new int[rules.length];
+		int pos = 0;
+		while (!ready.isEmpty()) {
+			int rank = ready.poll();
+			retval[pos++] = rank;
+			for (int j : followers.get(rank)) {
+				if (--waiting[j] == 0) {
+					ready.add(j);
+				}
+			}
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * An immutable structure built over an ordered list of rules that finds the
+ * first rule matching a URI.
+ */
+abstract class RuleEngine {
+
+	/**
+	 * Get the number of rules in the engine.
+	 *
+	 * @return the number of rules.
+	 */
+	abstract int size();
+
+	/**
+	 * Find the first rule that matches the URI components.
+	 *
+	 * @param source
+	 *            the source of the URI components to match.
+	 * @return the match from the first matching rule or null if no rule
+	 *         matches.
+	 */
+	abstract URIMatch match(ComponentSource source);
+}
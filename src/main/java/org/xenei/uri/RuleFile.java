@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Reads and writes rules in the declarative rule file format.
+ * <p>
+ * A rule file is UTF-8 text. Each rule starts with a <code>[rule]</code> line
+ * followed by <code>key = value</code> lines. Blank lines and lines starting
+ * with <code>#</code> are ignored. Values are trimmed, an empty value sets the
+ * component to the empty expression (matching URIs without that component).
+ * </p>
+ *
+ * <pre>
+ * # route the v2 API to the new cluster
+ * [rule]
+ * priority = 10
+ * scheme = https?
+ * host = (.+)\.example\.com
+ * port = 8080
+ * path = /api/v2/(.*)
+ * replace = https://api.example.com/{host:1}/{path:1}
+ * </pre>
+ * <p>
+ * The keys are <code>scheme</code>, <code>host</code>, <code>port</code>,
+ * <code>path</code>, <code>query</code> and <code>fragment</code> for the
+ * URIMatcher settings, <code>param.<i>name</i></code> for the expression of
+ * the query parameter <i>name</i>, <code>raw</code> (true or false) for
+ * URIMatcher.setRawMatching(), <code>replace</code> for the PatternReplacer
+ * template, which is required, and <code>priority</code>, which defaults to
+ * 0. Omitted components are not constrained.
+ * </p>
+ * <p>
+ * The file is read as a stream, each rule is passed on as soon as it is
+ * complete so the file is never held in memory. Combined with
+ * URIMatcher.setLazyCompilation() no pattern is compiled while loading.
+ * </p>
+ *
+ * @see RuleSetSnapshot
+ */
+public final class RuleFile {
+	private static final String HEADER = "[rule]";
+	// the key prefix of a query parameter expression.
+	private static final String PARAM = "param.";
+
+	private RuleFile() {
+	}
+
+	/**
+	 * Load a rule file into a new rule set.
+	 *
+	 * @param path
+	 *            the file to load.
+	 * @return the rule set.
+	 * @throws IOException
+	 *             on read error.
+	 * @throws IllegalArgumentException
+	 *             if the file is not a valid rule file.
+	 */
+	public static URIRuleSet load(Path path) throws IOException {
+		URIRuleSet retval = new URIRuleSet();
+		try (Reader reader = Files.newBufferedReader(path,
+				StandardCharsets.UTF_8)) {
+			load(reader, retval);
+		}
+		return retval;
+	}
+
+	/**
+	 * Load rules into a rule set.
+	 *
+	 * @param reader
+	 *            the reader to read the rules from.
+	 * @param ruleSet
+	 *            the rule set to add the rules to.
+	 * @return the number of rules added.
+	 * @throws IOException
+	 *             on read error.
+	 * @throws IllegalArgumentException
+	 *             if the text is not a valid rule file.
+	 */
+	public static int load(Reader reader, URIRuleSet ruleSet)
+			throws IOException {
+		return read(reader, ruleSet::add);
+	}
+
+	/**
+	 * Read rules, passing each one to a consumer as soon as it is complete.
+	 *
+	 * @param reader
+	 *            the reader to read the rules from.
+	 * @param consumer
+	 *            receives each rule and its priority.
+	 * @return the number of rules read.
+	 * @throws IOException
+	 *             on read error.
+	 * @throws IllegalArgumentException
+	 *             if the text is not a valid rule file. The message includes
+	 *             the line number.
+	 */
+	public static int read(Reader reader,
+			ObjIntConsumer<PatternReplacer> consumer) throws IOException {
+		BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+		Block block = null;
+		int count = 0;
+		int lineNo = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			lineNo++;
+			line = line.trim();
+			if (line.isEmpty() || line.charAt(0) == '#') {
+				continue;
+			}
+			if (line.equals(HEADER)) {
+				if (block != null) {
+					block.accept(consumer);
+					count++;
+				}
+				block = new Block(lineNo);
+				continue;
+			}
+			if (block == null) {
+				throw error(lineNo, "Expected %s", HEADER);
+			}
+			int eq = line.indexOf('=');
+			if (eq == -1) {
+				throw error(lineNo, "Expected key = value");
+			}
+			block.set(lineNo, line.substring(0, eq).trim(),
+					line.substring(eq + 1).trim());
+		}
+		if (block != null) {
+			block.accept(consumer);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Write the rules of a rule set in the rule file format.
+	 *
+	 * @param ruleSet
+	 *            the rule set to write.
+	 * @param writer
+	 *            the writer to write to.
+	 * @throws IOException
+	 *             on write error.
+	 */
+	public static void write(URIRuleSet ruleSet, Writer writer)
+			throws IOException {
+		List<PatternReplacer> rules;
+		int[] priorities;
+		synchronized (ruleSet) {
+			rules = ruleSet.getRules();
+			priorities = ruleSet.getPriorities();
+		}
+		for (int i = 0; i < priorities.length; i++) {
+			PatternReplacer rule = rules.get(i);
+			writer.write(HEADER);
+			writer.write('\n');
+			if (priorities[i] != 0) {
+				line(writer, "priority", Integer.toString(priorities[i]));
+			}
+			line(writer, "scheme", rule.getExpression(URIComponent.SCHEME));
+			line(writer, "host", rule.getExpression(URIComponent.HOST));
+			Integer port = rule.getPort();
+			line(writer, "port", port == null ? null : port.toString());
+			line(writer, "path", rule.getExpression(URIComponent.PATH));
+			line(writer, "query", rule.getExpression(URIComponent.QUERY));
+			for (String name : rule.getParameterNames()) {
+				line(writer, PARAM + name, rule.getParameterExpression(name));
+			}
+			line(writer, "fragment",
+					rule.getExpression(URIComponent.FRAGMENT));
+			if (rule.isRawMatching()) {
+				line(writer, "raw", "true");
+			}
+			line(writer, "replace", rule.getTemplate().getPattern());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	private static void line(Writer writer, String key, String value)
+			throws IOException {
+		if (value == null) {
+			return;
+		}
+		if (!value.equals(value.trim()) || value.indexOf('\n') != -1
+				|| value.indexOf('\r') != -1) {
+			throw new IllegalArgumentException(String.format(
+					"The %s value '%s' can not be written to a rule file", key,
+					value));
+		}
+		writer.write(key);
+		writer.write(" = ");
+		writer.write(value);
+		writer.write('\n');
+	}
+
+	private static IllegalArgumentException error(int lineNo, String fmt,
+			Object... args) {
+		return new IllegalArgumentException(String.format("Line %s: %s",
+				lineNo, String.format(fmt, args)));
+	}
+
+	// the settings of one rule.
+	private static class Block {
+		private final int start;
+		private final String[] components = new String[URIComponent.values().length];
+		private final Map<String, String> parameters = new LinkedHashMap<String, String>();
+		private Integer port;
+		private Integer priority;
+		private Boolean raw;
+		private String replace;
+
+		Block(int start) {
+			this.start = start;
+		}
+
+		void set(int lineNo, String key, String value) {
+			switch (key) {
+			case "scheme":
+				component(lineNo, URIComponent.SCHEME, key, value);
+				break;
+			case "host":
+				component(lineNo, URIComponent.HOST, key, value);
+				break;
+			case "path":
+				component(lineNo, URIComponent.PATH, key, value);
+				break;
+			case "query":
+				component(lineNo, URIComponent.QUERY, key, value);
+				break;
+			case "fragment":
+				component(lineNo, URIComponent.FRAGMENT, key, value);
+				break;
+			case "port":
+				check(lineNo, key, port);
+				port = number(lineNo, key, value);
+				break;
+			case "priority":
+				check(lineNo, key, priority);
+				priority = number(lineNo, key, value);
+				break;
+			case "raw":
+				check(lineNo, key, raw);
+				if (!"true".equals(value) && !"false".equals(value)) {
+					throw error(lineNo, "The raw value '%s' is not true or false",
+							value);
+				}
+				raw = Boolean.valueOf(value);
+				break;
+			case "replace":
+				check(lineNo, key, replace);
+				replace = value;
+				break;
+			default:
+				if (key.startsWith(PARAM) && key.length() > PARAM.length()) {
+					String name = key.substring(PARAM.length());
+					check(lineNo, key, parameters.get(name));
+					parameters.put(name, value);
+					break;
+				}
+				throw error(lineNo, "Unknown key '%s'", key);
+			}
+		}
+
+		private void component(int lineNo, URIComponent component, String key,
+				String value) {
+			check(lineNo, key, components[component.ordinal()]);
+			components[component.ordinal()] = value;
+		}
+
+		private static void check(int lineNo, String key, Object current) {
+			if (current != null) {
+				throw error(lineNo, "Duplicate key '%s'", key);
+			}
+		}
+
+		private static Integer number(int lineNo, String key, String value) {
+			try {
+				return Integer.valueOf(value);
+			} catch (NumberFormatException e) {
+				throw error(lineNo, "The %s '%s' is not a number", key, value);
+			}
+		}
+
+		// build the rule and pass it on.
+		void accept(ObjIntConsumer<PatternReplacer> consumer) {
+			if (replace == null) {
+				throw error(start, "Rule has no replace key");
+			}
+			PatternReplacer rule;
+			try {
+				rule = new PatternReplacer(replace)
+						.setScheme(components[URIComponent.SCHEME.ordinal()])
+						.setHost(components[URIComponent.HOST.ordinal()])
+						.setPort(port)
+						.setPath(components[URIComponent.PATH.ordinal()])
+						.setQuery(components[URIComponent.QUERY.ordinal()])
+						.setRawMatching(raw != null && raw)
+						.setFragment(
+								components[URIComponent.FRAGMENT.ordinal()]);
+				for (Map.Entry<String, String> e : parameters.entrySet()) {
+					rule.setParameter(e.getKey(), e.getValue());
+				}
+			} catch (IllegalArgumentException e) {
+				IllegalArgumentException err = error(start, "%s",
+						e.getMessage());
+				err.initCause(e);
+				throw err;
+			}
+			consumer.accept(rule, priority == null ? 0 : priority);
+		}
+	}
+}
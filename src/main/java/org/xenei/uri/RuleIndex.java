@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index over an ordered list of rules.
+ * <p>
+ * Each rule is placed in exactly one bucket keyed by the most selective literal
+ * component it requires: the host, then the longer of the domain suffix of the
+ * host and the path prefix, then the port, then the scheme. Rules without a
+ * literal component are placed in the unindexed bucket. Since a rule can only
+ * match a URI that has its key, the candidates for a URI are the contents of
+ * the buckets for the URI's host, host suffixes, path prefixes, port and
+ * scheme plus the unindexed rules. The candidates are evaluated in rule order.
+ * </p>
+ */
+class RuleIndex extends RuleEngine {
+	/**
+	 * The version of the key selection made by key(). It must be incremented
+	 * whenever key() may select a different key for a rule, so that keys
+	 * stored by RuleSetSnapshot with an older selection are not used.
+	 */
+	static final int KEY_VERSION = 1;
+
+	private static final Entry[] EMPTY = new Entry[0];
+
+	// the rules in evaluation order.
+	private final Entry[] entries;
+	// rules keyed by literal host.
+	private final Map<String, Entry[]> hosts;
+	// rules keyed by the domain suffix of the host.
+	private final HostSuffixIndex hostSuffixes = new HostSuffixIndex();
+	// rules keyed by the segments of the path prefix.
+	private final PathPrefixIndex pathPrefixes = new PathPrefixIndex();
+	// rules keyed by port.
+	private final Map<Integer, Entry[]> ports;
+	// rules keyed by literal scheme.
+	private final Map<String, Entry[]> schemes;
+	// rules that have no literal component.
+	private final Entry[] unindexed;
+
+	/**
+	 * A rule and its position in the evaluation order.
+	 */
+	static final class Entry {
+		final PatternReplacer rule;
+		final int rank;
+
+		Entry(PatternReplacer rule, int rank) {
+			this.rule = rule;
+			this.rank = rank;
+		}
+	}
+
+	/**
+	 * The bucket a rule is placed in: the kind of bucket and its key.
+	 */
+	static final class Key {
+		/** the rule has no literal component. */
+		static final int NONE = 0;
+		/** keyed by the literal host. */
+		static final int HOST = 1;
+		/** keyed by the path prefix segments. */
+		static final int PATH = 2;
+		/** keyed by the reversed host suffix labels. */
+		static final int SUFFIX = 3;
+		/** keyed by the port. */
+		static final int PORT = 4;
+		/** keyed by the literal scheme. */
+		static final int SCHEME = 5;
+
+		final int kind;
+		// the host, scheme, labels or segments, empty for NONE and PORT.
+		final String[] values;
+		// the port for PORT.
+		final int port;
+
+		Key(int kind, String[] values, int port) {
+			if (kind < NONE || kind > SCHEME) {
+				throw new IllegalArgumentException(String.format(
+						"Unknown index key kind %s", kind));
+			}
+			if ((kind == HOST || kind == SCHEME) && values.length != 1) {
+				throw new IllegalArgumentException(String.format(
+						"Index key kind %s requires one value", kind));
+			}
+			this.kind = kind;
+			this.values = values;
+			this.port = port;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return kind == other.kind && port == other.port
+					&& Arrays.equals(values, other.values);
+		}
+
+		@Override
+		public int hashCode() {
+			return (kind * 31 + port) * 31 + Arrays.hashCode(values);
+		}
+	}
+
+	/**
+	 * Build the index.
+	 *
+	 * @param rules
+	 *            the rules in evaluation order.
+	 */
+	RuleIndex(List<PatternReplacer> rules) {
+		this(rules, keys(rules));
+	}
+
+	/**
+	 * Build the index from keys computed earlier, for example read from a
+	 * snapshot.
+	 *
+	 * @param rules
+	 *            the rules in evaluation order.
+	 * @param keys
+	 *            the key of each rule.
+	 */
+	RuleIndex(List<PatternReplacer> rules, Key[] keys) {
+		if (keys.length != rules.size()) {
+			throw new IllegalArgumentException(String.format(
+					"%s keys for %s rules", keys.length, rules.size()));
+		}
+		Map<String, List<Entry>> hostLst = new HashMap<String, List<Entry>>();
+		Map<Integer, List<Entry>> portLst = new HashMap<Integer, List<Entry>>();
+		Map<String, List<Entry>> schemeLst = new HashMap<String, List<Entry>>();
+		List<Entry> unindexedLst = new ArrayList<Entry>();
+		entries = new Entry[rules.size()];
+		for (int i = 0; i < entries.length; i++) {
+			Entry entry = new Entry(rules.get(i), i);
+			entries[i] = entry;
+			Key key = keys[i];
+			switch (key.kind) {
+			case Key.HOST:
+				add(hostLst, key.values[0], entry);
+				break;
+			case Key.PATH:
+				pathPrefixes.add(key.values, entry);
+				break;
+			case Key.SUFFIX:
+				hostSuffixes.add(key.values, entry);
+				break;
+			case Key.PORT:
+				add(portLst, key.port, entry);
+				break;
+			case Key.SCHEME:
+				add(schemeLst, key.values[0], entry);
+				break;
+			default:
+				unindexedLst.add(entry);
+				break;
+			}
+		}
+		hosts = freeze(hostLst);
+		ports = freeze(portLst);
+		schemes = freeze(schemeLst);
+		unindexed = unindexedLst.toArray(EMPTY);
+		hostSuffixes.freeze();
+		pathPrefixes.freeze();
+	}
+
+	private static Key[] keys(List<PatternReplacer> rules) {
+		Key[] retval = new Key[rules.size()];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = key(rules.get(i));
+		}
+		return retval;
+	}
+
+	/**
+	 * Select the bucket for a rule: the most selective literal component it
+	 * requires.
+	 *
+	 * @param rule
+	 *            the rule.
+	 * @return the key of the bucket.
+	 */
+	static Key key(URIMatcher rule) {
+		String host = PatternAnalyzer.literal(rule
+				.getExpression(URIComponent.HOST));
+		if (host != null) {
+			return new Key(Key.HOST, new String[] { host }, 0);
+		}
+		String[] labels = HostSuffixIndex.suffixLabels(rule
+				.getExpression(URIComponent.HOST));
+		// the index is looked up with the decoded path.
+		String[] segments = rule.isRawMatching() ? null : PathPrefixIndex
+				.prefixSegments(rule.getExpression(URIComponent.PATH));
+		if (segments != null
+				&& (labels == null || segments.length >= labels.length)) {
+			return new Key(Key.PATH, segments, 0);
+		}
+		if (labels != null) {
+			return new Key(Key.SUFFIX, labels, 0);
+		}
+		if (rule.getPort() != null) {
+			return new Key(Key.PORT, new String[0], rule.getPort());
+		}
+		String scheme = PatternAnalyzer.literal(rule
+				.getExpression(URIComponent.SCHEME));
+		if (scheme != null) {
+			return new Key(Key.SCHEME, new String[] { scheme }, 0);
+		}
+		return new Key(Key.NONE, new String[0], 0);
+	}
+
+	private static <K> void add(Map<K, List<Entry>> map, K key, Entry entry) {
+		List<Entry> lst = map.get(key);
+		if (lst == null) {
+			lst = new ArrayList<Entry>();
+			map.put(key, lst);
+		}
+		lst.add(entry);
+	}
+
+	private static <K> Map<K, Entry[]> freeze(Map<K, List<Entry>> map) {
+		Map<K, Entry[]> retval = new HashMap<K, Entry[]>(map.size() * 2);
+		for (Map.Entry<K, List<Entry>> e : map.entrySet()) {
+			retval.put(e.getKey(), e.getValue().toArray(EMPTY));
+		}
+		return retval;
+	}
+
+	@Override
+	int size() {
+		return entries.length;
+	}
+
+	@Override
+	URIMatch match(ComponentSource source) {
+		List<Entry[]> buckets = candidates(source);
+		int[] cursor = new int[buckets.size()];
+		while (true) {
+			// select the lowest ranked candidate across the buckets.
+			int selected = -1;
+			int rank = Integer.MAX_VALUE;
+			for (int i = 0; i < cursor.length; i++) {
+				Entry[] bucket = buckets.get(i);
+				if (cursor[i] < bucket.length && bucket[cursor[i]].rank < rank) {
+					selected = i;
+					rank = bucket[cursor[i]].rank;
+				}
+			}
+			if (selected == -1) {
+				return null;
+			}
+			URIMatch match = buckets.get(selected)[cursor[selected]++].rule
+					.match(source);
+			if (match != null) {
+				return match;
+			}
+		}
+	}
+
+	/**
+	 * Get the buckets of candidate rules for the URI components.
+	 *
+	 * @param source
+	 *            the source of the URI components to get the candidates for.
+	 * @return the candidate buckets, each in rule order.
+	 */
+	List<Entry[]> candidates(ComponentSource source) {
+		String host = source.value(URIComponent.HOST).toString();
+		List<Entry[]> retval = new ArrayList<Entry[]>();
+		add(retval, hosts.get(host));
+		hostSuffixes.collect(host, retval);
+		pathPrefixes.collect(source.value(URIComponent.PATH).toString(),
+				retval);
+		add(retval, ports.get(source.getPort()));
+		add(retval, schemes.get(source.value(URIComponent.SCHEME).toString()));
+		add(retval, unindexed);
+		return retval;
+	}
+
+	private static void add(List<Entry[]> buckets, Entry[] bucket) {
+		if (bucket != null && bucket.length > 0) {
+			buckets.add(bucket);
+		}
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A MetricsRecorder that counts matches, misses and rewrites per rule and
+ * records their latency distributions.
+ * <p>
+ * For each rule the recorder keeps the number of matches, the number of misses
+ * by the first component that did not match, the number of matches that
+ * exceeded the MatchBudget, the number of rewrites and rewrite failures, and
+ * LatencyHistograms of the match and rewrite times.
+ * Rules are identified by instance, two equal rules are recorded separately.
+ * Recording is lock free once a rule has been seen. Rules removed from a
+ * URIRuleSet are discarded.
+ * </p>
+ * <p>
+ * The metrics may be polled with snapshot() or exposed through JMX with
+ * register().
+ * </p>
+ */
+public final class RuleMetrics implements MetricsRecorder, RuleMetricsMXBean {
+	// the statistics by rule, replaced when a rule is first seen.
+	private volatile Map<URIMatcher, RuleStats> rules = new IdentityHashMap<URIMatcher, RuleStats>();
+	// the name the metrics are registered under.
+	private ObjectName registered;
+
+	/**
+	 * The statistics of one rule.
+	 */
+	private static final class RuleStats {
+		final URIMatcher rule;
+		final LongAdder matches = new LongAdder();
+		final LongAdder[] misses = new LongAdder[URIComponent.values().length];
+		final LongAdder rewrites = new LongAdder();
+		final LongAdder failures = new LongAdder();
+		final LongAdder timeouts = new LongAdder();
+		final LatencyHistogram matchLatency = new LatencyHistogram();
+		final LatencyHistogram rewriteLatency = new LatencyHistogram();
+
+		RuleStats(URIMatcher rule) {
+			this.rule = rule;
+			for (int i = 0; i < misses.length; i++) {
+				misses[i] = new LongAdder();
+			}
+		}
+
+		long missCount() {
+			long retval = 0;
+			for (LongAdder a : misses) {
+				retval += a.sum();
+			}
+			return retval;
+		}
+
+		void reset() {
+			matches.reset();
+			for (LongAdder a : misses) {
+				a.reset();
+			}
+			rewrites.reset();
+			failures.reset();
+			timeouts.reset();
+			matchLatency.reset();
+			rewriteLatency.reset();
+		}
+	}
+
+	// get the statistics for a rule, creating them on first use.
+	private RuleStats stats(URIMatcher rule) {
+		RuleStats retval = rules.get(rule);
+		if (retval == null) {
+			synchronized (this) {
+				retval = rules.get(rule);
+				if (retval == null) {
+					Map<URIMatcher, RuleStats> copy = new IdentityHashMap<URIMatcher, RuleStats>(
+							rules);
+					retval = new RuleStats(rule);
+					copy.put(rule, retval);
+					rules = copy;
+				}
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public void matched(URIMatcher rule, long nanos) {
+		RuleStats s = stats(rule);
+		s.matches.increment();
+		s.matchLatency.record(nanos);
+	}
+
+	@Override
+	public void missed(URIMatcher rule, URIComponent component, long nanos) {
+		RuleStats s = stats(rule);
+		s.misses[component.ordinal()].increment();
+		s.matchLatency.record(nanos);
+	}
+
+	@Override
+	public void timedOut(URIMatcher rule, URIComponent component, long nanos) {
+		RuleStats s = stats(rule);
+		s.timeouts.increment();
+		s.matchLatency.record(nanos);
+	}
+
+	@Override
+	public void rewritten(URIMatcher rule, long nanos) {
+		RuleStats s = stats(rule);
+		s.rewrites.increment();
+		s.rewriteLatency.record(nanos);
+	}
+
+	@Override
+	public void rewriteFailed(URIMatcher rule) {
+		stats(rule).failures.increment();
+	}
+
+	/**
+	 * Discard the statistics of a rule so that the rule may be garbage
+	 * collected. The rule is recorded afresh if it is used again.
+	 * 
+	 * @param rule
+	 *            the rule.
+	 */
+	@Override
+	public void removed(URIMatcher rule) {
+		if (rules.containsKey(rule)) {
+			synchronized (this) {
+				if (rules.containsKey(rule)) {
+					Map<URIMatcher, RuleStats> copy = new IdentityHashMap<URIMatcher, RuleStats>(
+							rules);
+					copy.remove(rule);
+					rules = copy;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get a snapshot of one rule.
+	 * 
+	 * @param rule
+	 *            the rule.
+	 * @return the snapshot or null if nothing has been recorded for the rule.
+	 */
+	public RuleSnapshot snapshot(URIMatcher rule) {
+		RuleStats s = rules.get(rule);
+		return s == null ? null : new RuleSnapshot(s);
+	}
+
+	/**
+	 * Get a snapshot of every rule.
+	 * 
+	 * @return the rule snapshots, most frequently matched first.
+	 */
+	public List<RuleSnapshot> snapshot() {
+		List<RuleSnapshot> retval = new ArrayList<RuleSnapshot>();
+		for (RuleStats s : rules.values()) {
+			retval.add(new RuleSnapshot(s));
+		}
+		Collections.sort(retval, new Comparator<RuleSnapshot>() {
+			@Override
+			public int compare(RuleSnapshot a, RuleSnapshot b) {
+				return Long.compare(b.getMatchCount(), a.getMatchCount());
+			}
+		});
+		return retval;
+	}
+
+	@Override
+	public List<RuleSnapshot> getRules() {
+		return snapshot();
+	}
+
+	@Override
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	@Override
+	public long getMatchCount() {
+		long retval = 0;
+		for (RuleStats s : rules.values()) {
+			retval += s.matches.sum();
+		}
+		return retval;
+	}
+
+	@Override
+	public long getMissCount() {
+		long retval = 0;
+		for (RuleStats s : rules.values()) {
+			retval += s.missCount();
+		}
+		return retval;
+	}
+
+	@Override
+	public long getRewriteFailureCount() {
+		long retval = 0;
+		for (RuleStats s : rules.values()) {
+			retval += s.failures.sum();
+		}
+		return retval;
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		long retval = 0;
+		for (RuleStats s : rules.values()) {
+			retval += s.timeouts.sum();
+		}
+		return retval;
+	}
+
+	@Override
+	public void reset() {
+		for (RuleStats s : rules.values()) {
+			s.reset();
+		}
+	}
+
+	/**
+	 * Register the metrics with the platform MBeanServer under the name
+	 * <code>org.xenei.uri:type=RuleMetrics,name=&lt;name&gt;</code>.
+	 * 
+	 * @param name
+	 *            the name of the metrics.
+	 * @return the object name the metrics were registered under.
+	 * @throws IllegalStateException
+	 *             if the metrics are already registered or can not be
+	 *             registered.
+	 */
+	public synchronized ObjectName register(String name) {
+		if (registered != null) {
+			throw new IllegalStateException(String.format(
+					"Already registered as %s", registered));
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = new ObjectName("org.xenei.uri",
+					keys(name));
+			server.registerMBean(this, objectName);
+			registered = objectName;
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException(String.format(
+					"Unable to register %s: %s", name, e.getMessage()), e);
+		}
+	}
+
+	private static Hashtable<String, String> keys(String name) {
+		Hashtable<String, String> retval = new Hashtable<String, String>();
+		retval.put("type", "RuleMetrics");
+		retval.put("name", ObjectName.quote(name));
+		return retval;
+	}
+
+	/**
+	 * Remove the metrics from the platform MBeanServer. Does nothing if the
+	 * metrics are not registered.
+	 */
+	public synchronized void unregister() {
+		if (registered == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					registered);
+		} catch (JMException e) {
+			throw new IllegalStateException(String.format(
+					"Unable to unregister %s: %s", registered, e.getMessage()),
+					e);
+		} finally {
+			registered = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RuleMetrics[ rules=%s matches=%s misses=%s ]",
+				getRuleCount(), getMatchCount(), getMissCount());
+	}
+
+	/**
+	 * A point in time copy of the metrics of one rule.
+	 */
+	public static final class RuleSnapshot {
+		private final String name;
+		private final long matchCount;
+		private final Map<URIComponent, Long> missCounts;
+		private final long missCount;
+		private final long rewriteCount;
+		private final long rewriteFailureCount;
+		private final long timeoutCount;
+		private final LatencyHistogram.Snapshot matchLatency;
+		private final LatencyHistogram.Snapshot rewriteLatency;
+
+		private RuleSnapshot(RuleStats s) {
+			this.name = s.rule instanceof PatternReplacer ? s.rule.toString()
+					: String.format("URIMatcher[ %s ]", s.rule);
+			this.matchCount = s.matches.sum();
+			Map<URIComponent, Long> m = new EnumMap<URIComponent, Long>(
+					URIComponent.class);
+			long total = 0;
+			for (URIComponent c : URIComponent.values()) {
+				long n = s.misses[c.ordinal()].sum();
+				m.put(c, n);
+				total += n;
+			}
+			this.missCounts = Collections.unmodifiableMap(m);
+			this.missCount = total;
+			this.rewriteCount = s.rewrites.sum();
+			this.rewriteFailureCount = s.failures.sum();
+			this.timeoutCount = s.timeouts.sum();
+			this.matchLatency = s.matchLatency.snapshot();
+			this.rewriteLatency = s.rewriteLatency.snapshot();
+		}
+
+		/**
+		 * Get the description of the rule.
+		 * 
+		 * @return the toString() of the rule.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Get the number of URIs the rule matched.
+		 * 
+		 * @return the match count.
+		 */
+		public long getMatchCount() {
+			return matchCount;
+		}
+
+		/**
+		 * Get the number of URIs the rule did not match.
+		 * 
+		 * @return the miss count.
+		 */
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/**
+		 * Get the number of misses by the first component that did not match.
+		 * 
+		 * @return the miss counts by component.
+		 */
+		public Map<URIComponent, Long> getMissCounts() {
+			return missCounts;
+		}
+
+		/**
+		 * Get the number of matched URIs that were rewritten.
+		 * 
+		 * @return the rewrite count.
+		 */
+		public long getRewriteCount() {
+			return rewriteCount;
+		}
+
+		/**
+		 * Get the number of matched URIs whose rewritten form was not a valid
+		 * URI.
+		 * 
+		 * @return the rewrite failure count.
+		 */
+		public long getRewriteFailureCount() {
+			return rewriteFailureCount;
+		}
+
+		/**
+		 * Get the number of URIs whose match exceeded the MatchBudget of the
+		 * rule. These are not included in the miss count.
+		 * 
+		 * @return the timeout count.
+		 */
+		public long getTimeoutCount() {
+			return timeoutCount;
+		}
+
+		/**
+		 * Get the distribution of the time taken to match, whether the rule
+		 * matched or not.
+		 * 
+		 * @return the match latency in nanoseconds.
+		 */
+		public LatencyHistogram.Snapshot getMatchLatency() {
+			return matchLatency;
+		}
+
+		/**
+		 * Get the distribution of the time taken to rewrite matched URIs.
+		 * 
+		 * @return the rewrite latency in nanoseconds.
+		 */
+		public LatencyHistogram.Snapshot getRewriteLatency() {
+			return rewriteLatency;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%s matches=%s misses=%s rewrites=%s failures=%s latency[%s]",
+					name, matchCount, missCount, rewriteCount,
+					rewriteFailureCount, matchLatency);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.List;
+
+/**
+ * The JMX management interface of RuleMetrics.
+ * <p>
+ * Register a RuleMetrics with RuleMetrics.register() or with any MBeanServer.
+ * The per-rule snapshots are exposed as composite data.
+ * </p>
+ */
+public interface RuleMetricsMXBean {
+	/**
+	 * Get the number of rules that have been recorded.
+	 * 
+	 * @return the rule count.
+	 */
+	int getRuleCount();
+
+	/**
+	 * Get the total number of matches across all rules.
+	 * 
+	 * @return the match count.
+	 */
+	long getMatchCount();
+
+	/**
+	 * Get the total number of misses across all rules.
+	 * 
+	 * @return the miss count.
+	 */
+	long getMissCount();
+
+	/**
+	 * Get the total number of rewrite failures across all rules.
+	 * 
+	 * @return the rewrite failure count.
+	 */
+	long getRewriteFailureCount();
+
+	/**
+	 * Get the total number of matches that exceeded their MatchBudget across
+	 * all rules.
+	 * 
+	 * @return the timeout count.
+	 */
+	long getTimeoutCount();
+
+	/**
+	 * Get a snapshot of every rule.
+	 * 
+	 * @return the rule snapshots, most frequently matched first.
+	 */
+	List<RuleMetrics.RuleSnapshot> getRules();
+
+	/**
+	 * Clear all the counters and histograms.
+	 */
+	void reset();
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary image of a rule set and its index.
+ * <p>
+ * The snapshot holds the expressions, port, template and priority of each
+ * rule in evaluation order together with the index key that the INDEX engine
+ * assigns to the rule. Reading a snapshot maps the file and rebuilds the rule
+ * set from the image without parsing a rule file. When the INDEX engine is
+ * restored its buckets are filled from the stored keys, so no expression is
+ * analyzed to select a key. Combined with URIMatcher.setLazyCompilation() no
+ * pattern is compiled until it is used.
+ * </p>
+ * <p>
+ * The stored keys are trusted, they are not checked against the rules. The
+ * image records the version of the INDEX engine key selection; if it differs
+ * from the running version the stored keys are ignored and the index is built
+ * from the rules when it is first used.
+ * </p>
+ * <p>
+ * The image is big endian. Strings are an int byte count, -1 for null,
+ * followed by UTF-8 bytes.
+ * </p>
+ *
+ * <pre>
+ * int    magic 'URIS'
+ * int    version
+ * int    index key selection version
+ * string engine name
+ * int    rule count
+ * per rule:
+ *   int    priority
+ *   string scheme, host, path, query, fragment expressions
+ *   int    query parameter count, followed by name and expression strings
+ *   int    port, Integer.MIN_VALUE if not constrained
+ *   byte   1 if the rule matches raw values, otherwise 0
+ *   string replacement template
+ *   int    index key kind
+ *   int    index key port
+ *   int    index key value count, followed by the value strings
+ * </pre>
+ *
+ * @see RuleFile
+ */
+public final class RuleSetSnapshot {
+	private static final int MAGIC = 0x55524953;
+	private static final int VERSION = 4;
+	private static final int ANY_PORT = Integer.MIN_VALUE;
+	private static final URIComponent[] EXPRESSIONS = {
+			URIComponent.SCHEME, URIComponent.HOST, URIComponent.PATH,
+			URIComponent.QUERY, URIComponent.FRAGMENT };
+
+	private RuleSetSnapshot() {
+	}
+
+	/**
+	 * Write a snapshot of a rule set to a file.
+	 *
+	 * @param ruleSet
+	 *            the rule set.
+	 * @param path
+	 *            the file to write.
+	 * @throws IOException
+	 *             on write error.
+	 */
+	public static void write(URIRuleSet ruleSet, Path path) throws IOException {
+		try (OutputStream out = Files.newOutputStream(path)) {
+			write(ruleSet, out);
+		}
+	}
+
+	/**
+	 * Write a snapshot of a rule set to a stream.
+	 *
+	 * @param ruleSet
+	 *            the rule set.
+	 * @param stream
+	 *            the stream to write to, it is flushed but not closed.
+	 * @throws IOException
+	 *             on write error.
+	 */
+	public static void write(URIRuleSet ruleSet, OutputStream stream)
+			throws IOException {
+		List<PatternReplacer> rules;
+		int[] priorities;
+		URIRuleSet.Engine engine;
+		synchronized (ruleSet) {
+			rules = ruleSet.getRules();
+			priorities = ruleSet.getPriorities();
+			engine = ruleSet.getEngine();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				stream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(RuleIndex.KEY_VERSION);
+		writeString(out, engine.name());
+		out.writeInt(rules.size());
+		for (int i = 0; i < priorities.length; i++) {
+			PatternReplacer rule = rules.get(i);
+			out.writeInt(priorities[i]);
+			for (URIComponent component : EXPRESSIONS) {
+				writeString(out, rule.getExpression(component));
+			}
+			List<String> names = rule.getParameterNames();
+			out.writeInt(names.size());
+			for (String name : names) {
+				writeString(out, name);
+				writeString(out, rule.getParameterExpression(name));
+			}
+			Integer port = rule.getPort();
+			out.writeInt(port == null ? ANY_PORT : port);
+			out.writeByte(rule.isRawMatching() ? 1 : 0);
+			writeString(out, rule.getTemplate().getPattern());
+			RuleIndex.Key key = RuleIndex.key(rule);
+			out.writeInt(key.kind);
+			out.writeInt(key.port);
+			out.writeInt(key.values.length);
+			for (String value : key.values) {
+				writeString(out, value);
+			}
+		}
+		out.flush();
+	}
+
+	private static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Read a snapshot file by memory mapping it.
+	 *
+	 * @param path
+	 *            the snapshot file.
+	 * @return a new rule set holding the rules of the snapshot.
+	 * @throws IOException
+	 *             on read error.
+	 * @throws IllegalArgumentException
+	 *             if the file is not a valid snapshot.
+	 */
+	public static URIRuleSet read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		}
+	}
+
+	/**
+	 * Read a snapshot from a buffer. The buffer position is advanced past the
+	 * snapshot.
+	 *
+	 * @param buffer
+	 *            the buffer holding the snapshot.
+	 * @return a new rule set holding the rules of the snapshot.
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not hold a valid snapshot.
+	 */
+	public static URIRuleSet read(ByteBuffer buffer) {
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw invalid("bad magic number");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw invalid("unsupported version %s", version);
+			}
+			// keys selected by another version of the INDEX engine are ignored.
+			boolean currentKeys = buffer.getInt() == RuleIndex.KEY_VERSION;
+			URIRuleSet.Engine engine;
+			try {
+				engine = URIRuleSet.Engine.valueOf(readString(buffer));
+			} catch (IllegalArgumentException | NullPointerException e) {
+				throw invalid("unknown engine");
+			}
+			int count = buffer.getInt();
+			if (count < 0) {
+				throw invalid("negative rule count");
+			}
+			URIRuleSet retval = new URIRuleSet().setEngine(engine);
+			List<RuleIndex.Key> keys = new ArrayList<RuleIndex.Key>(
+					Math.min(count, buffer.remaining()));
+			for (int i = 0; i < count; i++) {
+				int priority = buffer.getInt();
+				String[] expressions = new String[EXPRESSIONS.length];
+				for (int j = 0; j < expressions.length; j++) {
+					expressions[j] = readString(buffer);
+				}
+				int paramCount = buffer.getInt();
+				if (paramCount < 0) {
+					throw invalid("bad parameter count");
+				}
+				if (paramCount > buffer.remaining() / 8) {
+					throw new BufferUnderflowException();
+				}
+				String[] params = new String[paramCount * 2];
+				for (int j = 0; j < params.length; j++) {
+					params[j] = readString(buffer);
+				}
+				int port = buffer.getInt();
+				byte raw = buffer.get();
+				if (raw != 0 && raw != 1) {
+					throw invalid("bad raw flag");
+				}
+				PatternReplacer rule = new PatternReplacer(readString(buffer));
+				for (int j = 0; j < expressions.length; j++) {
+					set(rule, EXPRESSIONS[j], expressions[j]);
+				}
+				rule.setPort(port == ANY_PORT ? null : port).setRawMatching(
+						raw == 1);
+				for (int j = 0; j < params.length; j += 2) {
+					if (params[j] == null || params[j + 1] == null) {
+						throw invalid("bad parameter");
+					}
+					rule.setParameter(params[j], params[j + 1]);
+				}
+				int kind = buffer.getInt();
+				int keyPort = buffer.getInt();
+				int valueCount = buffer.getInt();
+				if (valueCount < 0) {
+					throw invalid("bad index key");
+				}
+				if (valueCount > buffer.remaining() / 4) {
+					throw new BufferUnderflowException();
+				}
+				String[] values = new String[valueCount];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = readString(buffer);
+				}
+				try {
+					keys.add(new RuleIndex.Key(kind, values, keyPort));
+				} catch (IllegalArgumentException e) {
+					throw invalid("bad index key");
+				}
+				retval.add(rule, priority);
+			}
+			if (engine == URIRuleSet.Engine.INDEX && currentKeys) {
+				synchronized (retval) {
+					retval.setRuleEngine(new RuleIndex(retval.getRules(), keys
+							.toArray(new RuleIndex.Key[keys.size()])));
+				}
+			}
+			return retval;
+		} catch (BufferUnderflowException e) {
+			throw invalid("truncated");
+		}
+	}
+
+	private static void set(PatternReplacer rule, URIComponent component,
+			String expression) {
+		switch (component) {
+		case SCHEME:
+			rule.setScheme(expression);
+			break;
+		case HOST:
+			rule.setHost(expression);
+			break;
+		case PATH:
+			rule.setPath(expression);
+			break;
+		case QUERY:
+			rule.setQuery(expression);
+			break;
+		default:
+			rule.setFragment(expression);
+			break;
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int len = buffer.getInt();
+		if (len == -1) {
+			return null;
+		}
+		if (len < 0 || len > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		if (buffer.hasArray()) {
+			String retval = new String(buffer.array(), buffer.arrayOffset()
+					+ buffer.position(), len, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + len);
+			return retval;
+		}
+		byte[] bytes = new byte[len];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static IllegalArgumentException invalid(String fmt, Object... args) {
+		return new IllegalArgumentException("Invalid rule set snapshot: "
+				+ String.format(fmt, args));
+	}
+}
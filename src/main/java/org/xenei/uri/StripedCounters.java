@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of counters that many threads may increment with little contention.
+ * <p>
+ * Each thread increments the counters in one of several stripes selected by
+ * its thread id. The stripes are padded so that threads using different
+ * stripes do not share cache lines. Reading a counter sums the stripes, so
+ * the value is only a snapshot while the counters are being incremented.
+ * </p>
+ */
+final class StripedCounters {
+	// the number of longs in a cache line.
+	private static final int LINE = 8;
+	// the maximum number of stripes.
+	private static final int MAX_STRIPES = 64;
+
+	// the number of counters.
+	private final int size;
+	// the number of longs between the start of each stripe.
+	private final int row;
+	// the mask selecting a stripe.
+	private final int mask;
+	// the counters, stripe by stripe.
+	private final AtomicLongArray counts;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size
+	 *            the number of counters.
+	 */
+	StripedCounters(int size) {
+		int stripes = 1;
+		int target = Math.min(MAX_STRIPES, Runtime.getRuntime()
+				.availableProcessors() * 2);
+		while (stripes < target) {
+			stripes <<= 1;
+		}
+		this.size = size;
+		this.mask = stripes - 1;
+		// round up to a whole number of lines and add a line of padding.
+		this.row = ((size + LINE - 1) / LINE + 1) * LINE;
+		this.counts = new AtomicLongArray(row * stripes);
+	}
+
+	/**
+	 * Get the number of counters.
+	 *
+	 * @return the number of counters.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Increment a counter.
+	 *
+	 * @param idx
+	 *            the counter to increment.
+	 * @return the new value of the counter in the stripe of the calling
+	 *         thread.
+	 */
+	long increment(int idx) {
+		return counts.incrementAndGet(stripe() * row + idx);
+	}
+
+	/**
+	 * Get the value of a counter.
+	 *
+	 * @param idx
+	 *            the counter to read.
+	 * @return the sum of the counter across all stripes.
+	 */
+	long get(int idx) {
+		long retval = 0;
+		for (int offset = idx; offset < counts.length(); offset += row) {
+			retval += counts.get(offset);
+		}
+		return retval;
+	}
+
+	// select the stripe for the calling thread.
+	private int stripe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+/**
+ * A view of a region of another character sequence. The characters are not
+ * copied.
+ */
+final class SubSequence implements CharSequence {
+	// the sequence that is viewed.
+	private CharSequence text;
+	// the start of the region in text.
+	private int start;
+	// the length of the region.
+	private int length;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text
+	 *            the sequence to view.
+	 * @param start
+	 *            the start of the region, inclusive.
+	 * @param end
+	 *            the end of the region, exclusive.
+	 */
+	SubSequence(CharSequence text, int start, int end) {
+		reset(text, start, end);
+	}
+
+	/**
+	 * Change the region viewed.
+	 *
+	 * @param text
+	 *            the sequence to view.
+	 * @param start
+	 *            the start of the region, inclusive.
+	 * @param end
+	 *            the end of the region, exclusive.
+	 * @return this view.
+	 */
+	SubSequence reset(CharSequence text, int start, int end) {
+		if (start < 0 || end < start || end > text.length()) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Region %s to %s of %s characters", start, end,
+					text.length()));
+		}
+		this.text = text;
+		this.start = start;
+		this.length = end - start;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		return text.charAt(start + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int begin, int end) {
+		if (begin < 0 || end < begin || end > length) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Region %s to %s of %s characters", begin, end, length));
+		}
+		return new SubSequence(text, start + begin, start + end);
+	}
+
+	@Override
+	public String toString() {
+		return text.subSequence(start, start + length).toString();
+	}
+}
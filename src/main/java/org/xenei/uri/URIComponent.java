@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.util.Locale;
+
+/**
+ * The URI components that a URIMatcher matches.
+ * <p>
+ * The query is matched as raw text, its percent escapes are not decoded, so
+ * that its parameters can be told apart and copied to a rewritten URI
+ * unchanged.
+ * </p>
+ */
+public enum URIComponent {
+	SCHEME, HOST, PORT, PATH, FRAGMENT, QUERY;
+
+	/**
+	 * Get the name of the component as used in PatternReplacer tokens.
+	 * 
+	 * @return the lower case name of the component.
+	 */
+	public String tokenName() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+}
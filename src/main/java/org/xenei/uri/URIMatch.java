@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.net.URI;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The result of successfully matching a URI with a URIMatcher.
+ * <p>
+ * The match holds the component values extracted from the URI and the regular
+ * expression match result for each component that the matcher constrains. It
+ * may be passed to PatternReplacer.populate() so that the component regular
+ * expressions are not evaluated again.
+ * </p>
+ */
+public class URIMatch {
+	private static final int COMPONENTS = URIComponent.values().length;
+
+	// the matcher that produced this match.
+	private URIMatcher matcher;
+	// the source of the component values.
+	private final ComponentSource source;
+	// the component values as strings, converted on first use.
+	private final String[] values = new String[COMPONENTS];
+	// the match results for the constrained components.
+	private final MatchResult[] results = new MatchResult[COMPONENTS];
+	// the regular expression matchers to reuse, null if they are not reused.
+	private final Matcher[] matchers;
+	// the query parameters, created and tokenized on first use.
+	private QueryParameters parameters;
+	// true if parameters is tokenizing the current query.
+	private boolean parametersValid;
+	// true if the path and fragment are not decoded.
+	private boolean raw;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param matcher
+	 *            the matcher that produced the match.
+	 * @param source
+	 *            the source of the component values.
+	 */
+	URIMatch(URIMatcher matcher, ComponentSource source) {
+		this(matcher, source, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param matcher
+	 *            the matcher that produced the match.
+	 * @param source
+	 *            the source of the component values.
+	 * @param reuse
+	 *            if true the regular expression matchers are retained and
+	 *            reset for each match.
+	 * @see #reset(URIMatcher)
+	 */
+	URIMatch(URIMatcher matcher, ComponentSource source, boolean reuse) {
+		this.matcher = matcher;
+		this.source = source;
+		this.matchers = reuse ? new Matcher[COMPONENTS] : null;
+	}
+
+	/**
+	 * Clear the match so that it may be reused for the current content of the
+	 * source.
+	 *
+	 * @param matcher
+	 *            the matcher that will produce the match.
+	 * @return this match.
+	 */
+	URIMatch reset(URIMatcher matcher) {
+		this.matcher = matcher;
+		for (int i = 0; i < COMPONENTS; i++) {
+			values[i] = null;
+			results[i] = null;
+		}
+		parametersValid = false;
+		return this;
+	}
+
+	/**
+	 * Get a regular expression matcher for a component value.
+	 * <p>
+	 * If the match reuses matchers the previous matcher for the component is
+	 * reset, otherwise a new matcher is created.
+	 * </p>
+	 *
+	 * @param component
+	 *            the component that is matched.
+	 * @param pattern
+	 *            the pattern to match with.
+	 * @param value
+	 *            the value to match.
+	 * @return the matcher.
+	 */
+	Matcher matcher(URIComponent component, Pattern pattern, CharSequence value) {
+		if (matchers == null) {
+			return pattern.matcher(value);
+		}
+		Matcher m = matchers[component.ordinal()];
+		if (m == null || m.pattern() != pattern) {
+			m = pattern.matcher(value);
+			matchers[component.ordinal()] = m;
+			return m;
+		}
+		return m.reset(value);
+	}
+
+	/**
+	 * Set the mode the component values are retrieved in. Must be called
+	 * before any value is retrieved.
+	 *
+	 * @param raw
+	 *            true if the path and fragment are not decoded.
+	 */
+	void setRaw(boolean raw) {
+		this.raw = raw;
+	}
+
+	/**
+	 * Get the value of a component in the mode of the matcher without
+	 * copying it.
+	 *
+	 * @param component
+	 *            the component to retrieve.
+	 * @return the value.
+	 */
+	CharSequence value(URIComponent component) {
+		return source.value(component, raw);
+	}
+
+	/**
+	 * Get the matcher that produced this match.
+	 *
+	 * @return the URIMatcher.
+	 */
+	public URIMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Get the URI that was matched.
+	 * <p>
+	 * If the match was made against a character sequence the URI is parsed
+	 * from the sequence.
+	 * </p>
+	 *
+	 * @return the matched URI.
+	 * @throws IllegalArgumentException
+	 *             if a matched character sequence is not a valid URI.
+	 */
+	public URI getURI() {
+		return source.toURI();
+	}
+
+	/**
+	 * Get the text of the URI that was matched.
+	 *
+	 * @return the matched URI as text.
+	 */
+	public CharSequence getText() {
+		return source.text();
+	}
+
+	/**
+	 * Get the source of the component values.
+	 *
+	 * @return the component source.
+	 */
+	ComponentSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Get the value of a component. Components that are not present in the
+	 * URI are returned as an empty string. The port is returned as a string or
+	 * as an empty string if the URI does not specify a port. If the matcher
+	 * matches raw values the path and fragment are not decoded.
+	 *
+	 * @param component
+	 *            the component to retrieve.
+	 * @return the value of the component.
+	 */
+	public String getValue(URIComponent component) {
+		int idx = component.ordinal();
+		if (values[idx] == null) {
+			values[idx] = value(component).toString();
+		}
+		return values[idx];
+	}
+
+	/**
+	 * Extract the value of a component from a URI.
+	 *
+	 * @param uri
+	 *            the URI to extract the value from.
+	 * @param component
+	 *            the component to extract.
+	 * @return the value of the component or an empty string if the component
+	 *         is not present.
+	 * @see #getValue(URIComponent)
+	 */
+	static String value(URI uri, URIComponent component) {
+		String s;
+		switch (component) {
+		case SCHEME:
+			s = uri.getScheme();
+			break;
+		case HOST:
+			s = uri.getHost();
+			break;
+		case PORT:
+			s = uri.getPort() == URIMatcher.NO_PORT ? null : Integer
+					.toString(uri.getPort());
+			break;
+		case PATH:
+			s = uri.getPath();
+			break;
+		case QUERY:
+			s = uri.getRawQuery();
+			break;
+		default:
+			s = uri.getFragment();
+			break;
+		}
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * Extract the value of a component from a URI without decoding the path
+	 * and fragment.
+	 *
+	 * @param uri
+	 *            the URI to extract the value from.
+	 * @param component
+	 *            the component to extract.
+	 * @return the value of the component or an empty string if the component
+	 *         is not present.
+	 * @see #value(URI, URIComponent)
+	 */
+	static String rawValue(URI uri, URIComponent component) {
+		String s;
+		switch (component) {
+		case PATH:
+			s = uri.getRawPath();
+			break;
+		case FRAGMENT:
+			s = uri.getRawFragment();
+			break;
+		default:
+			return value(uri, component);
+		}
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * Get the raw value of a query parameter.
+	 * <p>
+	 * The query is only tokenized as far as needed to find the parameter.
+	 * </p>
+	 *
+	 * @param name
+	 *            the parameter name.
+	 * @return the raw (not decoded) value of the first parameter with the
+	 *         name, empty if it has no value, or null if the query does not
+	 *         contain the parameter.
+	 */
+	public String getParameter(String name) {
+		CharSequence value = parameter(name);
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * Get the raw value of a query parameter without copying it.
+	 *
+	 * @param name
+	 *            the parameter name.
+	 * @return the value or null if the query does not contain the parameter.
+	 * @see #getParameter(String)
+	 */
+	CharSequence parameter(String name) {
+		if (!parametersValid) {
+			if (parameters == null) {
+				parameters = new QueryParameters();
+			}
+			parameters.reset(source.value(URIComponent.QUERY));
+			parametersValid = true;
+		}
+		return parameters.get(name);
+	}
+
+	/**
+	 * Get the port of the matched URI.
+	 *
+	 * @return the port or URIMatcher.NO_PORT if no port was specified.
+	 */
+	public int getPort() {
+		return source.getPort();
+	}
+
+	/**
+	 * Get the regular expression match result for a component.
+	 *
+	 * @param component
+	 *            the component to retrieve the result for.
+	 * @return the match result or null if the matcher does not constrain the
+	 *         component with a regular expression.
+	 */
+	public MatchResult getResult(URIComponent component) {
+		return results[component.ordinal()];
+	}
+
+	void setResult(URIComponent component, MatchResult result) {
+		results[component.ordinal()] = result;
+	}
+
+	/**
+	 * Get a matching group within a component.
+	 * <p>
+	 * If the matcher does not constrain the component, group 0 is the entire
+	 * value and no other groups exist.
+	 * </p>
+	 *
+	 * @param component
+	 *            the component to retrieve the group from.
+	 * @param idx
+	 *            the group index.
+	 * @return the matching group or null if the group did not participate in
+	 *         the match.
+	 * @throws IllegalArgumentException
+	 *             if the group does not exist in the component pattern.
+	 */
+	public String group(URIComponent component, int idx) {
+		MatchResult result = results[component.ordinal()];
+		if (result == null) {
+			if (idx == 0) {
+				return getValue(component);
+			}
+		} else if (result.groupCount() >= idx) {
+			return result.group(idx);
+		}
+		throw new IllegalArgumentException(String.format(
+				"Subpattern %s does not exist in %s matching %s", idx,
+				matcher.getPattern(component), getValue(component)));
+	}
+
+	/**
+	 * Append a matching group within a component to a buffer without
+	 * creating an intermediate string.
+	 *
+	 * @param sb
+	 *            the buffer to append to.
+	 * @param component
+	 *            the component to retrieve the group from.
+	 * @param idx
+	 *            the group index.
+	 * @throws IllegalArgumentException
+	 *             if the group does not exist in the component pattern.
+	 * @see #group(URIComponent, int)
+	 */
+	void appendGroup(StringBuilder sb, URIComponent component, int idx) {
+		MatchResult result = results[component.ordinal()];
+		if (result == null) {
+			if (idx == 0) {
+				sb.append(value(component));
+				return;
+			}
+		} else if (result.groupCount() >= idx) {
+			int start = result.start(idx);
+			if (start != -1) {
+				sb.append(value(component), start, result.end(idx));
+			}
+			return;
+		}
+		group(component, idx);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("URIMatch[ %s matched %s ]", source.text(),
+				matcher);
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A thread confined session that matches URIs with a URIMatcher without
+ * allocating.
+ * <p>
+ * The session owns the scanner, the regular expression matchers and the
+ * URIMatch that are used for each URI and resets them rather than creating new
+ * ones. As a result the URIMatch returned by the session is only valid until
+ * the next URI is matched by the session, and a session must not be shared
+ * between threads. Create one session per thread (for example in a
+ * ThreadLocal) and reuse it for every URI that thread processes.
+ * </p>
+ * <p>
+ * Once the session has warmed up, matching a URI string or an ASCII
+ * ByteBuffer, populating a StringBuilder and rewriting into a ByteBuffer do
+ * not allocate, other than to percent decode a longer component or to grow a
+ * buffer the first time a larger value is seen.
+ * </p>
+ */
+public final class URIMatchSession {
+	// the matcher the session matches with.
+	private final URIMatcher matcher;
+	// the scanner reset for each URI.
+	private final URIScanner scanner = new URIScanner("");
+	// the view of ASCII buffers.
+	private final ByteSequence bytes = new ByteSequence();
+	// the match reset for each URI.
+	private final URIMatch match;
+	// the buffer for the rewritten URI.
+	private final StringBuilder rewritten = new StringBuilder();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param matcher
+	 *            the matcher to match URIs with. If the matcher is modified
+	 *            after the session is created the session uses the modified
+	 *            patterns.
+	 */
+	public URIMatchSession(URIMatcher matcher) {
+		this.matcher = matcher;
+		this.match = new URIMatch(matcher, scanner, true);
+	}
+
+	/**
+	 * Get the matcher the session matches with.
+	 * 
+	 * @return the URIMatcher.
+	 */
+	public URIMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Determines if a URI string matches the pattern.
+	 * 
+	 * @param uri
+	 *            the URI text to test.
+	 * @return true if the URI matches the pattern, false otherwise.
+	 * @see URIMatcher#matches(CharSequence)
+	 */
+	public boolean matches(CharSequence uri) {
+		return match(uri) != null;
+	}
+
+	/**
+	 * Match a URI string against the pattern.
+	 * 
+	 * @param uri
+	 *            the URI text to match.
+	 * @return the match or null if the URI does not match the pattern. The
+	 *         match is reused by the next call to the session.
+	 * @see URIMatcher#match(CharSequence)
+	 */
+	public URIMatch match(CharSequence uri) {
+		scanner.reset(uri);
+		return matcher.match(match.reset(matcher)) ? match : null;
+	}
+
+	/**
+	 * Determines if a UTF-8 encoded URI matches the pattern.
+	 * 
+	 * @param uri
+	 *            the buffer holding the URI.
+	 * @return true if the URI matches the pattern, false otherwise.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 * @see URIMatcher#matches(ByteBuffer)
+	 */
+	public boolean matches(ByteBuffer uri) {
+		return match(uri) != null;
+	}
+
+	/**
+	 * Match a UTF-8 encoded URI against the pattern.
+	 * 
+	 * @param uri
+	 *            the buffer holding the URI.
+	 * @return the match or null if the URI does not match the pattern. The
+	 *         match is reused by the next call to the session.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 * @see URIMatcher#match(ByteBuffer)
+	 */
+	public URIMatch match(ByteBuffer uri) {
+		return match(bytes.reset(uri) ? bytes : ByteSequence.utf8(uri));
+	}
+
+	/**
+	 * Populate the PatternReplacer pattern with the portions of a URI string.
+	 * 
+	 * @param uri
+	 *            the URI text to populate the pattern with.
+	 * @param sb
+	 *            the buffer to append the populated pattern to.
+	 * @return true if the URI matched and the pattern was appended, false if
+	 *         the URI did not match.
+	 * @throws IllegalStateException
+	 *             if the session matcher is not a PatternReplacer.
+	 * @see PatternReplacer#populate(CharSequence)
+	 */
+	public boolean populate(CharSequence uri, StringBuilder sb) {
+		PatternReplacer replacer = replacer();
+		URIMatch m = match(uri);
+		if (m == null) {
+			return false;
+		}
+		replacer.populate(m, sb);
+		return true;
+	}
+
+	/**
+	 * Rewrite a UTF-8 encoded URI into a buffer.
+	 * 
+	 * @param in
+	 *            The buffer holding the URI to edit.
+	 * @param out
+	 *            The buffer to write the resulting URI to.
+	 * @return true if the URI was rewritten, false if it was copied unchanged.
+	 * @throws BufferOverflowException
+	 *             if the output does not have room for the result.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 * @throws IllegalStateException
+	 *             if the session matcher is not a PatternReplacer.
+	 * @see URIRewriter#rewrite(ByteBuffer, ByteBuffer)
+	 */
+	public boolean rewrite(ByteBuffer in, ByteBuffer out) {
+		PatternReplacer replacer = replacer();
+		URIMatch m = match(in);
+		if (m == null) {
+			ByteSequence.copy(in, out);
+			return false;
+		}
+		rewritten.setLength(0);
+		replacer.populate(m, rewritten);
+		ByteSequence.encode(rewritten, out);
+		return true;
+	}
+
+	private PatternReplacer replacer() {
+		if (matcher instanceof PatternReplacer) {
+			return (PatternReplacer) matcher;
+		}
+		throw new IllegalStateException(String.format(
+				"%s is not a PatternReplacer", matcher));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("URIMatchSession[ %s ]", matcher);
+	}
+}
@@ -18,6 +18,11 @@
 package org.xenei.uri;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -48,16 +53,14 @@ public class URIMatcher {
 			XPALPHA, XPALPHA);
 	public static final String FRAGMENT_REGEX = String.format("(#([%s]+))?",
 			XALPHA);
-	// the pattern for the URI scheme
-	private Pattern scheme;
-	// the pattern for the URI host
-	private Pattern host;
-	// the integer for the port.
-	private Integer port;
-	// the pattern for the fragment
-	private Pattern fragment;
-	// the pattern for the path.
-	private Pattern path;
+	// the query matched when only parameters are constrained.
+	private static final String QUERY_REGEX = "[^#]*";
+	// the component patterns, replaced as a whole by the setters.
+	private ComponentPatterns patterns = ComponentPatterns.EMPTY;
+	// the recorder of match outcomes, not part of the patterns.
+	private volatile MetricsRecorder recorder = MetricsRecorder.NOOP;
+	// the execution budget for each match, null for no budget.
+	private volatile MatchBudget budget;
 
 	/**
 	 * Construct a URI matcher from a another matcher.
@@ -66,11 +69,9 @@ public class URIMatcher {
 	 *            the matcher to copy.
 	 */
 	protected URIMatcher(URIMatcher copy) {
-		this.scheme = copy.scheme;
-		this.host = copy.host;
-		this.port = copy.port;
-		this.fragment = copy.fragment;
-		this.path = copy.path;
+		this.patterns = copy.patterns();
+		this.recorder = copy.getRecorder();
+		this.budget = copy.getBudget();
 	}
 
 	/**
@@ -91,17 +92,17 @@ public class URIMatcher {
 		setFragment( uri.getFragment() );
 	}
 	
-	private String pattern(Pattern patt, String dflt, String fmt) {
+	private String pattern(String patt, String dflt, String fmt) {
 		return pattern(patt, dflt, fmt, "");
 	}
 
-	private String pattern(Pattern patt, String dflt, String fmt,
+	private String pattern(String patt, String dflt, String fmt,
 			String emptyVal) {
 		if (patt == null) {
 			return dflt;
 		}
-		if (patt.pattern().length() != 0) {
-			return String.format(fmt, patt.pattern());
+		if (patt.length() != 0) {
+			return String.format(fmt, patt);
 		}
 		return emptyVal;
 	}
@@ -112,47 +113,96 @@ public class URIMatcher {
 	 * @return the regular expression used to match the URIs.
 	 */
 	public String asRegEx() {
+		ComponentPatterns p = patterns();
+		String retval = p.getRegEx();
+		if (retval == null) {
+			retval = buildRegEx();
+			p.setRegEx(retval);
+		}
+		return retval;
+	}
+
+	// build the regular expression from the component patterns.
+	private String buildRegEx() {
+		String scheme = getExpression(URIComponent.SCHEME);
+		String host = getExpression(URIComponent.HOST);
+		Integer port = getPort();
+		String path = getExpression(URIComponent.PATH);
+		String fragment = getExpression(URIComponent.FRAGMENT);
 
 		StringBuilder sb = new StringBuilder().append("^")
 				.append(pattern(scheme, SCHEME_REGEX, "(%s):"))
 				.append(pattern(host, HOST_REGEX, "//(%s)"));
-		if (host == null || host.pattern().length() > 0) {
+		if (host == null || host.length() > 0) {
 			sb.append(port == null ? PORT_REGEX : ((port < 0) ? ""
 					: (":" + port)));
 		}
 
-		if (path != null && path.pattern().startsWith("/")) {
+		if (path != null && path.startsWith("/")) {
 			sb.append(pattern(path, PATH_REGEX, "((%s))"));
 		} else {
 			sb.append(pattern(path, PATH_REGEX, "(/?(%s))"));
 		}
+		appendQuery(sb);
 		sb.append(pattern(fragment, FRAGMENT_REGEX, "(#(%s))"));
 		return sb.append("$").toString();
 	}
 	
-	private int hasPresence( Pattern p )
+	// append the query group, if the query or a parameter is constrained,
+	// with a lookahead for each parameter. The parameter expressions are made
+	// non-capturing so they do not shift the groups of later components.
+	private void appendQuery(StringBuilder sb) {
+		ComponentPatterns p = patterns();
+		String query = p.expression(URIComponent.QUERY);
+		if (hasQueryPresence() == 0) {
+			return;
+		}
+		sb.append("(\\?");
+		for (int i = 0; i < p.parameterCount(); i++) {
+			// skip the pairs with other names, then match the first pair
+			// with the name as parametersMatch() does.
+			String name = Pattern.quote(p.parameterName(i));
+			String value = PatternAnalyzer.nonCapturing(p.parameter(i).regex);
+			sb.append("(?=(?:(?!").append(name)
+					.append("(?:[=&;#]|$))[^&;#]*[&;])*").append(name)
+					.append("(?:=(?:").append(value)
+					.append(")|(?=[&;#]|$)(?:").append(value)
+					.append("))(?:[&;#]|$))");
+		}
+		sb.append(query == null ? QUERY_REGEX : "(?:" + query + ")").append(")");
+	}
+
+	// 1 if the regular expression has a query group, else 0.
+	private int hasQueryPresence()
+	{
+		String query = getExpression( URIComponent.QUERY );
+		return patterns().parameterCount() > 0 || (query != null && query.length() > 0) ? 1 : 0;
+	}
+
+	private int hasPresence( String p )
 	{
-		return p == null || p.pattern().length()>0 ? 1 : 0;
+		return p == null || p.length()>0 ? 1 : 0;
 	}
 	
 	public int getSchemePosition()
 	{
-		return hasPresence( scheme );
+		return hasPresence( getExpression( URIComponent.SCHEME ) );
 	}
 	
 	public int getHostPosition()
 	{
 		
-		int retval = hasPresence( host );
+		int retval = hasPresence( getExpression( URIComponent.HOST ) );
 		if (retval > 0) {
-			retval += hasPresence(scheme);
+			retval += hasPresence( getExpression( URIComponent.SCHEME ) );
 		}
 		return retval;
 	}
 	
 	private int hasPresencePort()
 	{
-		return (port == null || port > NO_PORT) ? hasPresence(host) : 0;
+		Integer port = getPort();
+		return (port == null || port > NO_PORT) ? hasPresence( getExpression( URIComponent.HOST ) ) : 0;
 	}
 
 	public int getPortPosition()
@@ -160,7 +210,7 @@ public class URIMatcher {
 		int retval = hasPresencePort();
 		if (retval > 0)
 		{
-			retval += hasPresence( scheme );
+			retval += hasPresence( getExpression( URIComponent.SCHEME ) );
 			retval ++; // host
 		}
 		return retval;
@@ -168,11 +218,11 @@ public class URIMatcher {
 	
 	public int getPathPosition()
 	{
-		int retval = hasPresence( path );
+		int retval = hasPresence( getExpression( URIComponent.PATH ) );
 		if ( retval > 0)
 		{
-			retval += hasPresence( scheme );
-			retval += hasPresence( host );
+			retval += hasPresence( getExpression( URIComponent.SCHEME ) );
+			retval += hasPresence( getExpression( URIComponent.HOST ) );
 			retval += hasPresencePort();
 		}
 		return retval;
@@ -180,13 +230,27 @@ public class URIMatcher {
 
 	public int getFragmentPosition()
 	{
-		int retval = hasPresence( fragment );
+		int retval = hasPresence( getExpression( URIComponent.FRAGMENT ) );
 		if ( retval > 0)
 		{
-			retval += hasPresence( scheme );
-			retval += hasPresence( host );
+			retval += hasPresence( getExpression( URIComponent.SCHEME ) );
+			retval += hasPresence( getExpression( URIComponent.HOST ) );
 			retval += hasPresencePort();
-			retval += hasPresence( path );
+			retval += hasPresence( getExpression( URIComponent.PATH ) );
+			retval += hasQueryPresence();
+		}
+		return retval;
+	}
+
+	public int getQueryPosition()
+	{
+		int retval = hasQueryPresence();
+		if ( retval > 0)
+		{
+			retval += hasPresence( getExpression( URIComponent.SCHEME ) );
+			retval += hasPresence( getExpression( URIComponent.HOST ) );
+			retval += hasPresencePort();
+			retval += hasPresence( getExpression( URIComponent.PATH ) );
 		}
 		return retval;
 	}
@@ -199,7 +263,8 @@ public class URIMatcher {
 	@Override
 	public boolean equals( Object o )
 	{
-		return (o != null && o instanceof URIMatcher) ? toString().equals( o.toString() ) : false; 
+		return (o != null && o instanceof URIMatcher) ? toString().equals( o.toString() ) 
+				&& isRawMatching() == ((URIMatcher) o).isRawMatching() : false; 
 	}
 	
 	@Override
@@ -220,12 +285,12 @@ public class URIMatcher {
 	 * @return this matcher to facilitate chaining.
 	 */
 	public URIMatcher setScheme(String scheme) {
-		this.scheme = scheme==null?null:Pattern.compile(scheme);
+		patterns = patterns.with(URIComponent.SCHEME, scheme);
 		return this;
 	}
 
 	protected Pattern getScheme() {
-		return scheme;
+		return patterns().get(URIComponent.SCHEME);
 	}
 
 	/**
@@ -239,12 +304,12 @@ public class URIMatcher {
 	 * @return this matcher to facilitate chaining.
 	 */
 	public URIMatcher setHost(String host) {
-		this.host = host==null?null:Pattern.compile(host);
+		patterns = patterns.with(URIComponent.HOST, host);
 		return this;
 	}
 
 	protected Pattern getHost() {
-		return host;
+		return patterns().get(URIComponent.HOST);
 	}
 
 	/**
@@ -258,12 +323,13 @@ public class URIMatcher {
 	 */
 
 	public URIMatcher setPort(Integer port) {
-		this.port = port==null?null:(port <= NO_PORT ? NO_PORT : port);
+		patterns = patterns.withPort(port == null ? null
+				: (port <= NO_PORT ? NO_PORT : port));
 		return this;
 	}
 
 	protected Integer getPort() {
-		return port;
+		return patterns().getPort();
 	}
 
 	/**
@@ -276,12 +342,12 @@ public class URIMatcher {
 	 * @return this matcher to facilitate chaining.
 	 */
 	public URIMatcher setFragment(String fragment) {
-		this.fragment = fragment==null?null:Pattern.compile(fragment);
+		patterns = patterns.with(URIComponent.FRAGMENT, fragment);
 		return this;
 	}
 
 	protected Pattern getFragment() {
-		return this.fragment;
+		return patterns().get(URIComponent.FRAGMENT);
 	}
 
 	/**
@@ -294,16 +360,299 @@ public class URIMatcher {
 	 * @return this matcher to facilitate chaining.
 	 */
 	public URIMatcher setPath(String path) {
-		this.path = path==null?null:Pattern.compile(path);
+		patterns = patterns.with(URIComponent.PATH, path);
 		return this;
 	}
 
 	protected Pattern getPath() {
-		return this.path;
+		return patterns().get(URIComponent.PATH);
+	}
+
+	/**
+	 * Set the pattern the raw query string must match. If not set the query
+	 * is not constrained. An empty string "" matches URIs without a query or
+	 * with an empty query. The query is matched without the leading '?' and
+	 * its percent escapes are not decoded.
+	 * 
+	 * @param query
+	 *            The regular expression to use to match the query portion of
+	 *            the URI.
+	 * @return this matcher to facilitate chaining.
+	 */
+	public URIMatcher setQuery(String query) {
+		patterns = patterns.with(URIComponent.QUERY, query);
+		return this;
+	}
+
+	protected Pattern getQuery() {
+		return patterns().get(URIComponent.QUERY);
+	}
+
+	/**
+	 * Set whether the path and fragment are matched as they appear in the URI
+	 * text rather than percent decoded. Raw matching does not decode or copy
+	 * the values, and the {path} and {fragment} tokens of a PatternReplacer
+	 * then insert the raw text so the result needs no re-encoding. Patterns
+	 * must be written for the encoded form, e.g. "/a%20b" rather than "/a b".
+	 * The scheme, host, port and query are always raw.
+	 * 
+	 * @param raw
+	 *            true to match raw values, false (the default) to match
+	 *            decoded values.
+	 * @return this matcher to facilitate chaining.
+	 */
+	public URIMatcher setRawMatching(boolean raw) {
+		patterns = patterns.withRaw(raw);
+		return this;
+	}
+
+	/**
+	 * Determine if the path and fragment are matched without decoding.
+	 * 
+	 * @return true for raw matching.
+	 * @see #setRawMatching(boolean)
+	 */
+	public boolean isRawMatching() {
+		return patterns().isRaw();
+	}
+
+	/**
+	 * Set the pattern that a query parameter must match. A URI only matches
+	 * if its query contains the parameter and the raw value of the first
+	 * parameter with the name matches the pattern. A parameter without a '='
+	 * has an empty value. The query is only tokenized as far as needed to
+	 * find the parameters the matcher constrains.
+	 * 
+	 * @param name
+	 *            the parameter name, compared with the raw name in the query.
+	 * @param value
+	 *            The regular expression the value must match or null to
+	 *            remove the constraint.
+	 * @return this matcher to facilitate chaining.
+	 * @throws IllegalArgumentException
+	 *             if the name is null or empty.
+	 */
+	public URIMatcher setParameter(String name, String value) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException(
+					"Parameter name may not be null or empty");
+		}
+		patterns = patterns.withParameter(name, value);
+		return this;
+	}
+
+	protected Pattern getParameter(String name) {
+		ComponentPatterns p = patterns();
+		int idx = p.parameterIndex(name);
+		return idx == -1 ? null : p.parameter(idx).pattern();
+	}
+
+	/**
+	 * Get the names of the constrained query parameters.
+	 * 
+	 * @return the names in sorted order.
+	 */
+	List<String> getParameterNames() {
+		ComponentPatterns p = patterns();
+		List<String> retval = new ArrayList<String>(p.parameterCount());
+		for (int i = 0; i < p.parameterCount(); i++) {
+			retval.add(p.parameterName(i));
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the regular expression for a query parameter without compiling
+	 * it.
+	 * 
+	 * @param name
+	 *            the parameter name.
+	 * @return the expression or null if the parameter is not constrained.
+	 */
+	String getParameterExpression(String name) {
+		ComponentPatterns p = patterns();
+		int idx = p.parameterIndex(name);
+		return idx == -1 ? null : p.parameter(idx).regex;
+	}
+
+	/**
+	 * Build an immutable matcher from the patterns currently set on this
+	 * matcher.
+	 * <p>
+	 * The setters of this class may be used as a builder. The matcher they
+	 * produce is not safe to share between threads, while the built matcher
+	 * is immutable and may be shared by any number of threads without
+	 * synchronization. Later changes to this matcher do not affect the built
+	 * matcher.
+	 * </p>
+	 * 
+	 * @return the immutable matcher.
+	 */
+	public URIMatcher build() {
+		return new ImmutableURIMatcher(this);
+	}
+
+	/**
+	 * Enable or disable lazy compilation of component patterns.
+	 * <p>
+	 * When enabled the setters only check the structure of new regular
+	 * expressions and each expression is compiled the first time a matcher
+	 * uses it, so loading a large rule set does not wait for every pattern to
+	 * be compiled. The structural check is not exhaustive, an invalid
+	 * expression that passes it throws PatternSyntaxException when it is first
+	 * used. Use precompile() or URIRuleSet.precompile() to compile the
+	 * patterns ahead of use. The default is taken from the
+	 * <code>org.xenei.uri.lazyCompile</code> system property. Expressions that
+	 * were already compiled are not affected.
+	 * </p>
+	 * 
+	 * @param lazy
+	 *            true to compile patterns on first use.
+	 */
+	public static void setLazyCompilation(boolean lazy) {
+		PatternPool.setLazy(lazy);
+	}
+
+	/**
+	 * Determine if component patterns are compiled on first use.
+	 * 
+	 * @return true if lazy compilation is enabled.
+	 * @see #setLazyCompilation(boolean)
+	 */
+	public static boolean isLazyCompilation() {
+		return PatternPool.isLazy();
+	}
+
+	/**
+	 * Compile any component patterns of this matcher that have not been
+	 * compiled.
+	 * 
+	 * @return this URIMatcher for chaining
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if a lazily compiled expression is not valid.
+	 * @see #setLazyCompilation(boolean)
+	 */
+	public URIMatcher precompile() {
+		patterns().compile();
+		return this;
+	}
+
+	/**
+	 * Set the recorder that receives the outcome of each match and rewrite
+	 * made with this matcher.
+	 * <p>
+	 * The recorder is not part of the patterns, it may be set on a built
+	 * matcher and is copied by build(). With the default,
+	 * MetricsRecorder.NOOP, the time is not read and matching is not slowed.
+	 * </p>
+	 * 
+	 * @param recorder
+	 *            the recorder or null for MetricsRecorder.NOOP.
+	 * @return this URIMatcher for chaining
+	 * @see RuleMetrics
+	 */
+	public URIMatcher setRecorder(MetricsRecorder recorder) {
+		this.recorder = recorder == null ? MetricsRecorder.NOOP : recorder;
+		return this;
+	}
+
+	/**
+	 * Get the recorder of match outcomes.
+	 * 
+	 * @return the recorder, MetricsRecorder.NOOP if none is set.
+	 */
+	public MetricsRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Set the execution budget for each match made with this matcher.
+	 * <p>
+	 * Like the recorder, the budget is not part of the patterns, it may be
+	 * set on a built matcher and is copied by build(). A match that exceeds
+	 * the budget throws MatchTimeoutException.
+	 * </p>
+	 * 
+	 * @param budget
+	 *            the budget or null for no budget.
+	 * @return this URIMatcher for chaining
+	 * @see MatchBudget
+	 */
+	public URIMatcher setBudget(MatchBudget budget) {
+		this.budget = budget;
+		return this;
+	}
+
+	/**
+	 * Get the execution budget for each match.
+	 * 
+	 * @return the budget or null if there is no budget.
+	 */
+	public MatchBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Find the component patterns that are prone to catastrophic
+	 * backtracking.
+	 * <p>
+	 * A pattern is reported if it repeats a group that itself contains a
+	 * repetition, such as <code>(a+)+</code> or <code>(\w*\.)*</code>,
+	 * unless the outer or inner repetition is possessive or atomic. Such
+	 * patterns can take exponential time on URIs that almost match. Use this
+	 * when loading rules to reject them or to set a MatchBudget.
+	 * </p>
+	 * 
+	 * @return a description of each risky pattern, empty if there are none.
+	 */
+	public List<String> getBacktrackingRisks() {
+		List<String> retval = new ArrayList<String>();
+		for (URIComponent component : URIComponent.values()) {
+			Pattern p = getPattern(component);
+			if (p != null && (p.flags() & Pattern.LITERAL) == 0) {
+				int pos = PatternAnalyzer.backtrackingRisk(p.pattern());
+				if (pos != -1) {
+					retval.add(String.format(
+							"%s pattern %s has a nested repetition at %s",
+							component, p.pattern(), pos));
+				}
+			}
+		}
+		return retval;
 	}
 
-	private String value(String s) {
-		return s == null ? "" : s;
+	/**
+	 * Get the component patterns.
+	 * 
+	 * @return the current component patterns.
+	 */
+	ComponentPatterns patterns() {
+		return patterns;
+	}
+
+	/**
+	 * Get the regular expression for a component without compiling it.
+	 * 
+	 * @param component
+	 *            the component to get the expression for.
+	 * @return the expression or null if the component is not constrained by a
+	 *         regular expression.
+	 */
+	String getExpression(URIComponent component) {
+		return patterns().expression(component);
+	}
+
+	/**
+	 * Get the pattern for a component.
+	 * 
+	 * @param component
+	 *            the component to get the pattern for.
+	 * @return the pattern or null if the component is not constrained by a
+	 *         regular expression. The port is never constrained by a regular
+	 *         expression.
+	 */
+	protected Pattern getPattern(URIComponent component) {
+		return patterns().get(component);
 	}
 
 	/**
@@ -314,28 +663,284 @@ public class URIMatcher {
 	 * @return true if the URI matches the pattern, false otherwise.
 	 */
 	public boolean matches(URI uri) {
-		if (scheme != null) {
-			if (!scheme.matcher(value(uri.getScheme())).matches()) {
+		return match(uri) != null;
+	}
+
+	/**
+	 * Match a URI against the pattern.
+	 * <p>
+	 * Each component regular expression is evaluated at most once. The
+	 * returned match retains the results so that they may be used by
+	 * PatternReplacer.populate() without matching again.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            the URI to match.
+	 * @return the match or null if the URI does not match the pattern.
+	 */
+	public URIMatch match(URI uri) {
+		return match(new ComponentSource.URISource(uri));
+	}
+
+	/**
+	 * Determines if a URI string matches the pattern.
+	 * <p>
+	 * The string is not parsed as a java.net.URI, instead a lightweight
+	 * scanner locates the component boundaries and the components are matched
+	 * against views of the original text. The scanner does not validate the
+	 * URI.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            the URI text to test.
+	 * @return true if the URI matches the pattern, false otherwise.
+	 */
+	public boolean matches(CharSequence uri) {
+		return match(uri) != null;
+	}
+
+	/**
+	 * Match a URI string against the pattern.
+	 * 
+	 * @param uri
+	 *            the URI text to match.
+	 * @return the match or null if the URI does not match the pattern.
+	 * @see #matches(CharSequence)
+	 */
+	public URIMatch match(CharSequence uri) {
+		return match(new URIScanner(uri));
+	}
+
+	/**
+	 * Determines if a UTF-8 encoded URI matches the pattern.
+	 * <p>
+	 * The remaining bytes of the buffer are matched as with
+	 * matches(CharSequence). If the bytes are all ASCII, as a URI on the wire
+	 * normally is, the bytes are matched in place without decoding or copying
+	 * them. The position of the buffer is not changed.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            the buffer holding the URI.
+	 * @return true if the URI matches the pattern, false otherwise.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 */
+	public boolean matches(ByteBuffer uri) {
+		return match(uri) != null;
+	}
+
+	/**
+	 * Match a UTF-8 encoded URI against the pattern.
+	 * <p>
+	 * The returned match may be a view of the buffer, the bytes must not be
+	 * modified while the match is in use.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            the buffer holding the URI.
+	 * @return the match or null if the URI does not match the pattern.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 * @see #matches(ByteBuffer)
+	 */
+	public URIMatch match(ByteBuffer uri) {
+		return match(ByteSequence.decode(uri));
+	}
+
+	/**
+	 * Determine which of a list of URIs match the pattern.
+	 * <p>
+	 * Large lists are split and matched in parallel on the common fork/join
+	 * pool. Each parallel task reuses its regular expression matchers for all
+	 * the URIs it processes. A null URI is reported as an error for that
+	 * index.
+	 * </p>
+	 * 
+	 * @param uris
+	 *            the URIs to test.
+	 * @return the results in the order of the list.
+	 */
+	public BatchResult<Boolean> matchesAll(List<URI> uris) {
+		return Batch.run(uris, new Boolean[uris.size()], matchesWorker());
+	}
+
+	/**
+	 * Determine which of an array of URIs match the pattern.
+	 * 
+	 * @param uris
+	 *            the URIs to test.
+	 * @return the results in the order of the array.
+	 * @see #matchesAll(List)
+	 */
+	public BatchResult<Boolean> matchesAll(URI[] uris) {
+		return Batch.run(uris, new Boolean[uris.length], matchesWorker());
+	}
+
+	private Supplier<Batch.Worker<Boolean>> matchesWorker() {
+		return () -> {
+			Batch.MatchWorker w = new Batch.MatchWorker(this);
+			return uri -> w.match(uri) != null;
+		};
+	}
+
+	/**
+	 * Match the components from a source against the pattern.
+	 * 
+	 * @param source
+	 *            the source of the component values.
+	 * @return the match or null if the components do not match.
+	 */
+	URIMatch match(ComponentSource source) {
+		URIMatch retval = new URIMatch(this, source);
+		return match(retval) ? retval : null;
+	}
+
+	/**
+	 * Match the components from the source of a match against the pattern and
+	 * record the results in the match.
+	 * 
+	 * @param match
+	 *            the match to populate, it must be empty.
+	 * @return true if the components match.
+	 */
+	boolean match(URIMatch match) {
+		MetricsRecorder r = recorder;
+		MatchBudget b = budget;
+		MatchBudget.Tracker tracker = b == null ? null : b.start(this);
+		if (r == MetricsRecorder.NOOP) {
+			return mismatch(match, patterns(), tracker) == null;
+		}
+		long start = System.nanoTime();
+		URIComponent failed;
+		try {
+			failed = mismatch(match, patterns(), tracker);
+		} catch (MatchTimeoutException e) {
+			r.timedOut(this, e.getComponent(), System.nanoTime() - start);
+			throw e;
+		}
+		long nanos = System.nanoTime() - start;
+		if (failed == null) {
+			r.matched(this, nanos);
+			return true;
+		}
+		r.missed(this, failed, nanos);
+		return false;
+	}
+
+	/**
+	 * Match the components and record the results in the match.
+	 * 
+	 * @param match
+	 *            the match to populate, it must be empty.
+	 * @param p
+	 *            the patterns to match with.
+	 * @param tracker
+	 *            the budget for the match or null if there is no budget.
+	 * @return the first component that does not match or null if they all
+	 *         match.
+	 * @throws MatchTimeoutException
+	 *             if the budget is exhausted.
+	 */
+	private static URIComponent mismatch(URIMatch match, ComponentPatterns p,
+			MatchBudget.Tracker tracker) {
+		match.setRaw(p.isRaw());
+		if (!matches(match, URIComponent.SCHEME, p, tracker)) {
+			return URIComponent.SCHEME;
+		}
+		if (!matches(match, URIComponent.HOST, p, tracker)) {
+			return URIComponent.HOST;
+		}
+		if (p.hasPort() && match.getSource().getPort() != p.port()) {
+			return URIComponent.PORT;
+		}
+		if (!matches(match, URIComponent.PATH, p, tracker)) {
+			return URIComponent.PATH;
+		}
+		if (!matches(match, URIComponent.QUERY, p, tracker)
+				|| !parametersMatch(match, p, tracker)) {
+			return URIComponent.QUERY;
+		}
+		return matches(match, URIComponent.FRAGMENT, p, tracker) ? null
+				: URIComponent.FRAGMENT;
+	}
+
+	// match the constrained query parameters.
+	private static boolean parametersMatch(URIMatch match,
+			ComponentPatterns patterns, MatchBudget.Tracker tracker) {
+		for (int i = 0; i < patterns.parameterCount(); i++) {
+			CharSequence value = match.parameter(patterns.parameterName(i));
+			if (value == null) {
 				return false;
 			}
-		}
-		if (host != null) {
-			if (!host.matcher(value(uri.getHost())).matches()) {
+			PatternPool.Entry entry = patterns.parameter(i);
+			LiteralResult literal = entry.literal();
+			if (literal != null) {
+				if (!contentEquals(literal.group(), value)) {
+					return false;
+				}
+				continue;
+			}
+			Prefilter filter = entry.filter();
+			int test = filter == null ? Prefilter.UNKNOWN : filter.test(value);
+			if (test == Prefilter.MISS) {
 				return false;
 			}
-		}
-		if (port != null) {
-			if (uri.getPort() != port) {
+			if (test == Prefilter.UNKNOWN
+					&& !entry.pattern()
+							.matcher(tracker == null ? value : tracker.wrap(
+									URIComponent.QUERY, value)).matches()) {
 				return false;
 			}
 		}
-		if (path != null) {
-			if (!path.matcher(value(uri.getPath())).matches()) {
+		return true;
+	}
+
+	// match one component and record the result.
+	private static boolean matches(URIMatch match, URIComponent component,
+			ComponentPatterns patterns, MatchBudget.Tracker tracker) {
+		Pattern p = patterns.get(component);
+		if (p == null) {
+			return true;
+		}
+		CharSequence value = match.value(component);
+		LiteralResult literal = patterns.literal(component);
+		if (literal != null) {
+			// literal patterns are compared without the regular expression.
+			if (contentEquals(literal.group(), value)) {
+				match.setResult(component, literal);
+				return true;
+			}
+			return false;
+		}
+		Prefilter filter = patterns.filter(component);
+		if (filter != null) {
+			// reject on the literal text before running the regular expression.
+			int test = filter.test(value);
+			if (test == Prefilter.MISS) {
 				return false;
 			}
+			if (test == Prefilter.MATCH) {
+				match.setResult(component, new LiteralResult(value.toString()));
+				return true;
+			}
+		}
+		Matcher m = match.matcher(component, p, tracker == null ? value
+				: tracker.wrap(component, value));
+		if (m.matches()) {
+			match.setResult(component, m);
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean contentEquals(String literal, CharSequence value) {
+		int len = literal.length();
+		if (value.length() != len) {
+			return false;
 		}
-		if (fragment != null) {
-			if (!fragment.matcher(value(uri.getFragment())).matches()) {
+		for (int i = 0; i < len; i++) {
+			if (literal.charAt(i) != value.charAt(i)) {
 				return false;
 			}
 		}
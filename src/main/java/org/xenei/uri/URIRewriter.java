@@ -17,15 +17,30 @@
  */
 package org.xenei.uri;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * A class to rewrite URIs using regular expressions and pattern strings.
+ * <p>
+ * A rewriter constructed with an immutable PatternReplacer, see
+ * PatternReplacer.build(), is itself immutable and may be shared by any number
+ * of threads without synchronization.
+ * </p>
  */
 public class URIRewriter {
 	// the editor to use.
-	private PatternReplacer editor;
+	private final PatternReplacer editor;
+	// the cache of results, may be null.
+	private final RewriteCache cache;
+	// the filter of URIs that do not match, may be null.
+	private final NegativeFilter negative;
 
 	/**
 	 * Constructor.
@@ -36,7 +51,57 @@ public class URIRewriter {
 	 * @param editor The PatternReplacer the replacer to use. 
 	 */
 	public URIRewriter(PatternReplacer editor) {
+		this(editor, null);
+	}
+
+	/**
+	 * Constructor with a result cache.
+	 * 
+	 * The results of rewrite(URI) are cached.  The cache is cleared automatically
+	 * if the patterns of the PatternReplacer are changed.
+	 * 
+	 * @param editor The PatternReplacer the replacer to use. 
+	 * @param cache The cache for the results or null for no cache.  The cache must not be 
+	 * used by another rewriter.
+	 */
+	public URIRewriter(PatternReplacer editor, RewriteCache cache) {
+		this(editor, cache, null);
+	}
+
+	/**
+	 * Constructor with a result cache and a negative filter.
+	 * 
+	 * URIs that do not match are recorded in the negative filter and later requests for them are 
+	 * returned unchanged without matching.  The filter is cleared automatically if the patterns 
+	 * of the PatternReplacer are changed.
+	 * 
+	 * @param editor The PatternReplacer the replacer to use. 
+	 * @param cache The cache for the results or null for no cache.  The cache must not be 
+	 * used by another rewriter.
+	 * @param negative The filter of URIs that do not match or null for no filter.  The filter
+	 * must not be used by another rewriter.
+	 * @see NegativeFilter
+	 */
+	public URIRewriter(PatternReplacer editor, RewriteCache cache, NegativeFilter negative) {
 		this.editor = editor;
+		this.cache = cache;
+		this.negative = negative;
+	}
+
+	/**
+	 * Get the result cache.
+	 * @return the cache or null if results are not cached.
+	 */
+	public RewriteCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Get the negative filter.
+	 * @return the filter or null if non-matching URIs are not recorded.
+	 */
+	public NegativeFilter getNegativeFilter() {
+		return negative;
 	}
 
 	/**
@@ -51,17 +116,326 @@ public class URIRewriter {
 	 * @throws URISyntaxException if the PatternMatcher does not generate a valid URI.
 	 */
 	public URI rewrite(URI uri) throws URISyntaxException {
-		if (editor.matches(uri)) {
-			try {
-			return new URI(editor.populate(uri));
+		Object version = editor.patterns();
+		if (cache == null) {
+			return rewriteUncached(uri, version);
+		}
+		URI retval = (URI) cache.get(uri, version);
+		if (retval == null) {
+			retval = rewriteUncached(uri, version);
+			cache.put(uri, retval, version);
+		}
+		return retval;
+	}
+
+	private URI rewriteUncached(URI uri, Object version) throws URISyntaxException {
+		if (negative != null && negative.mightContain(uri.toString(), version)) {
+			return uri;
+		}
+		URIMatch match = editor.match(uri);
+		if (match != null) {
+			return rewrite(editor, match);
+		}
+		if (negative != null) {
+			negative.add(uri.toString(), version);
+		}
+		return uri;
+	}
+
+	/**
+	 * Rewrite the URI as per the PatternReplacer and return the result as text.
+	 * <p>
+	 * The result is not parsed into a java.net.URI, it is checked by a single pass
+	 * structural validation instead, see rewriteTo(CharSequence, Appendable, boolean).
+	 * If the PatternReplacer does <em>not</em> match the text of the input URI is returned.
+	 * The negative filter, if any, is used.  The cache is not used as it holds URIs.
+	 * </p>
+	 * @param uri The uri to edit
+	 * @return The resulting uri text.
+	 * @throws URISyntaxException if the PatternReplacer generates text that fails validation.
+	 */
+	public String rewriteToString(URI uri) throws URISyntaxException {
+		StringBuilder sb = new StringBuilder();
+		rewriteTo(uri, uri.toString(), sb, true);
+		return sb.toString();
+	}
+
+	/**
+	 * Rewrite URI text as per the PatternReplacer and return the result as text.
+	 * <p>
+	 * Neither the input nor the result is parsed into a java.net.URI.
+	 * </p>
+	 * @param uri The uri text to edit
+	 * @return The resulting uri text.
+	 * @throws URISyntaxException if the PatternReplacer generates text that fails validation.
+	 * @see #rewriteToString(URI)
+	 */
+	public String rewriteToString(CharSequence uri) throws URISyntaxException {
+		StringBuilder sb = new StringBuilder();
+		rewriteTo(null, uri, sb, true);
+		return sb.toString();
+	}
+
+	/**
+	 * Rewrite the URI as per the PatternReplacer into an Appendable.
+	 * @param uri The uri to edit
+	 * @param out The Appendable to append the resulting uri text to.
+	 * @param validate true to check the result with the structural validation.
+	 * @return true if the URI was rewritten, false if its text was appended unchanged.
+	 * @throws IOException if the Appendable throws it.
+	 * @throws URISyntaxException if the result fails validation or the PatternReplacer
+	 * references a group that does not exist, nothing is appended.
+	 * @see #rewriteTo(CharSequence, Appendable, boolean)
+	 */
+	public boolean rewriteTo(URI uri, Appendable out, boolean validate)
+			throws IOException, URISyntaxException {
+		return rewriteTo(uri, uri.toString(), out, validate);
+	}
+
+	/**
+	 * Rewrite URI text as per the PatternReplacer into an Appendable.
+	 * <p>
+	 * The result is populated directly into a StringBuilder, any other Appendable, 
+	 * such as a Writer, receives the complete result in a single append.  If the
+	 * PatternReplacer does <em>not</em> match the input text is appended unchanged.
+	 * The negative filter, if any, is used.
+	 * </p><p>
+	 * The validation rejects characters that may not appear in a URI, malformed
+	 * percent escapes, an invalid or empty scheme, a scheme without a scheme
+	 * specific part and a second '#'.  It does not check the authority, so it is cheaper but more
+	 * lenient than java.net.URI.
+	 * </p>
+	 * @param uri The uri text to edit
+	 * @param out The Appendable to append the resulting uri text to.
+	 * @param validate true to check the result with the structural validation.
+	 * @return true if the URI was rewritten, false if its text was appended unchanged.
+	 * @throws IOException if the Appendable throws it.
+	 * @throws URISyntaxException if the result fails validation or the PatternReplacer
+	 * references a group that does not exist, nothing is appended.
+	 */
+	public boolean rewriteTo(CharSequence uri, Appendable out, boolean validate)
+			throws IOException, URISyntaxException {
+		return rewriteTo(null, uri, out, validate);
+	}
+
+	private boolean rewriteTo(URI uri, CharSequence text, Appendable out,
+			boolean validate) throws IOException, URISyntaxException {
+		if (out instanceof StringBuilder) {
+			return rewriteTo(uri, text, (StringBuilder) out, validate);
+		}
+		StringBuilder sb = new StringBuilder();
+		boolean retval = rewriteTo(uri, text, sb, validate);
+		out.append(sb);
+		return retval;
+	}
+
+	// match the URI, or the text if the URI is null, and append the result.
+	private boolean rewriteTo(URI uri, CharSequence text, StringBuilder sb,
+			boolean validate) throws URISyntaxException {
+		Object version = editor.patterns();
+		if (negative != null && negative.mightContain(text, version)) {
+			sb.append(text);
+			return false;
+		}
+		URIMatch match = uri == null ? editor.match(text) : editor.match(uri);
+		if (match == null) {
+			if (negative != null) {
+				negative.add(text, version);
 			}
-			catch (IllegalArgumentException e)
-			{
-				throw new URISyntaxException( uri.toString(), e.getMessage() );
+			sb.append(text);
+			return false;
+		}
+		rewrite(editor, match, sb, validate);
+		return true;
+	}
+
+	/**
+	 * Rewrite a list of URIs as per the PatternReplacer.
+	 * <p>
+	 * Large lists are split and rewritten in parallel on the common fork/join
+	 * pool. Each parallel task reuses its regular expression matchers for all
+	 * the URIs it processes. A URI that can not be rewritten, or is null, is
+	 * reported as an error for that index and does not stop the other URIs
+	 * from being rewritten. The cache and negative filter, if any, are used.
+	 * </p>
+	 * @param uris The uris to edit.
+	 * @return the resulting uris in the order of the list.
+	 * @see #rewrite(URI)
+	 */
+	public BatchResult<URI> rewriteAll(List<URI> uris) {
+		return Batch.run(uris, new URI[uris.size()], rewriteWorker());
+	}
+
+	/**
+	 * Rewrite an array of URIs as per the PatternReplacer.
+	 * @param uris The uris to edit.
+	 * @return the resulting uris in the order of the array.
+	 * @see #rewriteAll(List)
+	 */
+	public BatchResult<URI> rewriteAll(URI[] uris) {
+		return rewriteAll(uris, new URI[uris.length]);
+	}
+
+	/**
+	 * Rewrite an array of URIs into an output array.
+	 * <p>
+	 * The result for <code>in[i]</code> is written to <code>out[i]</code>, an
+	 * input that can not be rewritten leaves null in the output. The output
+	 * may be the input array.
+	 * </p>
+	 * @param in The uris to edit.
+	 * @param out The array to write the resulting uris to.
+	 * @return the results, backed by the output array.
+	 * @throws IllegalArgumentException if the output is shorter than the input.
+	 * @see #rewriteAll(List)
+	 */
+	public BatchResult<URI> rewriteAll(URI[] in, URI[] out) {
+		return Batch.run(in, out, rewriteWorker());
+	}
+
+	/**
+	 * Rewrite a list of URIs as a parallel stream.
+	 * <p>
+	 * The stream is ordered, each item carries the index of its input and
+	 * either the resulting uri or the error for that input.
+	 * </p>
+	 * @param uris The uris to edit.
+	 * @return a parallel stream of the results.
+	 * @see #rewriteAll(List)
+	 */
+	public Stream<BatchResult.Item<URI>> rewriteStream(List<URI> uris) {
+		return Batch.stream(uris, rewriteWorker());
+	}
+
+	private Supplier<Batch.Worker<URI>> rewriteWorker() {
+		if (cache != null || negative != null) {
+			return () -> this::rewrite;
+		}
+		return () -> {
+			Batch.MatchWorker w = new Batch.MatchWorker(editor);
+			return uri -> {
+				URIMatch match = w.match(uri);
+				return match == null ? uri : rewrite(editor, match);
+			};
+		};
+	}
+
+	/**
+	 * Rewrite a UTF-8 encoded URI into a buffer.
+	 * <p>
+	 * The remaining bytes of the input are matched in place as with
+	 * URIMatcher.matches(ByteBuffer). If the PatternReplacer matches, the
+	 * result of the populate() method is written to the output as UTF-8,
+	 * otherwise the input bytes are copied to the output unchanged. The
+	 * position of the input is not changed and the position of the output
+	 * is advanced past the written bytes. The result is not validated as a
+	 * URI.
+	 * </p>
+	 * 
+	 * @param in
+	 *            The buffer holding the URI to edit.
+	 * @param out
+	 *            The buffer to write the resulting URI to.
+	 * @return true if the URI was rewritten, false if it was copied unchanged.
+	 * @throws BufferOverflowException
+	 *             if the output does not have room for the result, the
+	 *             position of the output is not changed.
+	 * @throws InvalidEncodingException
+	 *             if the input is not valid UTF-8.
+	 */
+	public boolean rewrite(ByteBuffer in, ByteBuffer out) {
+		return rewrite(editor, editor.match(in), in, out);
+	}
+
+	/**
+	 * Write the result of a match, or the input if there is no match, into a
+	 * buffer.
+	 * 
+	 * @param editor The PatternReplacer that produced the match.
+	 * @param match The match or null if there is no match.
+	 * @param in The buffer holding the matched URI.
+	 * @param out The buffer to write the resulting URI to.
+	 * @return true if the URI was rewritten, false if it was copied unchanged.
+	 * @see #rewrite(ByteBuffer, ByteBuffer)
+	 */
+	static boolean rewrite(PatternReplacer editor, URIMatch match,
+			ByteBuffer in, ByteBuffer out) {
+		if (match == null) {
+			ByteSequence.copy(in, out);
+			return false;
+		}
+		MetricsRecorder recorder = editor.getRecorder();
+		long start = recorder == MetricsRecorder.NOOP ? 0 : System.nanoTime();
+		ByteSequence.encode(editor.populate(match), out);
+		if (recorder != MetricsRecorder.NOOP) {
+			recorder.rewritten(editor, System.nanoTime() - start);
+		}
+		return true;
+	}
+
+	/**
+	 * Append the result for a match to a buffer.
+	 * @param editor The PatternReplacer that produced the match.
+	 * @param match The match to populate the editor with.
+	 * @param sb The buffer to append the resulting uri text to.
+	 * @param validate true to check the result with the structural validation.
+	 * @throws URISyntaxException if the result is not valid, the buffer is not changed.
+	 */
+	static void rewrite(PatternReplacer editor, URIMatch match, StringBuilder sb,
+			boolean validate) throws URISyntaxException {
+		MetricsRecorder recorder = editor.getRecorder();
+		long start = recorder == MetricsRecorder.NOOP ? 0 : System.nanoTime();
+		int begin = sb.length();
+		try {
+			editor.populate(match, sb);
+			if (validate) {
+				URIValidator.validate(sb, begin, sb.length());
 			}
 		}
-		return uri;
+		catch (URISyntaxException e)
+		{
+			sb.setLength(begin);
+			recorder.rewriteFailed(editor);
+			throw e;
+		}
+		catch (IllegalArgumentException e)
+		{
+			sb.setLength(begin);
+			recorder.rewriteFailed(editor);
+			throw new URISyntaxException( match.getText().toString(), e.getMessage() );
+		}
+		if (recorder != MetricsRecorder.NOOP) {
+			recorder.rewritten(editor, System.nanoTime() - start);
+		}
+	}
 
+	/**
+	 * Construct the URI for a match.
+	 * @param editor The PatternReplacer that produced the match.
+	 * @param match The match to populate the editor with.
+	 * @return The resulting uri.
+	 * @throws URISyntaxException if the PatternReplacer does not generate a valid URI.
+	 */
+	static URI rewrite(PatternReplacer editor, URIMatch match) throws URISyntaxException {
+		MetricsRecorder recorder = editor.getRecorder();
+		long start = recorder == MetricsRecorder.NOOP ? 0 : System.nanoTime();
+		try {
+			URI retval = new URI(editor.populate(match));
+			if (recorder != MetricsRecorder.NOOP) {
+				recorder.rewritten(editor, System.nanoTime() - start);
+			}
+			return retval;
+		}
+		catch (URISyntaxException e)
+		{
+			recorder.rewriteFailed(editor);
+			throw e;
+		}
+		catch (IllegalArgumentException e)
+		{
+			recorder.rewriteFailed(editor);
+			throw new URISyntaxException( match.getText().toString(), e.getMessage() );
+		}
 	}
 
 	@Override
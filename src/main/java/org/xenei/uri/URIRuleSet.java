@@ -0,0 +1,545 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A set of PatternReplacer rules that rewrites URIs with the first matching
+ * rule.
+ * <p>
+ * Rules are evaluated in priority order, rules with a lower priority value are
+ * evaluated first and rules with the same priority are evaluated in the order
+ * they were added. Rather than evaluating every rule, the rules are indexed by
+ * their literal host, port and scheme patterns so that only the rules that can
+ * match an incoming URI are evaluated.
+ * </p>
+ * <p>
+ * With the AUTOMATON engine the component patterns of all the rules are
+ * instead combined into one lazily built deterministic automaton per
+ * component, so that a single scan of each component value selects the
+ * candidate rules. Patterns that the automaton does not support are checked
+ * individually.
+ * </p>
+ * <p>
+ * With the ADAPTIVE engine the rules are evaluated one after another but
+ * striped counters record how often each rule matches and the rules are
+ * periodically reordered so that the most frequently matched rules are tried
+ * first. A rule is only moved ahead of another rule with the same priority and
+ * only if their patterns can not match the same URI, so the result is
+ * unchanged. This suits a modest number of rules with skewed traffic.
+ * </p>
+ * <p>
+ * A RewriteCache may be set to cache the results of rewrite(URI). It is
+ * cleared when the rules change.
+ * </p>
+ * <p>
+ * The index is rebuilt on the first match after the set is modified. Rules must
+ * not be modified after they are added to the set unless reindex() is called
+ * afterwards.
+ * </p>
+ */
+public class URIRuleSet {
+	/**
+	 * The strategies for selecting the candidate rules for a URI.
+	 */
+	public enum Engine {
+		/**
+		 * Hash and trie indexes over the literal host, host suffix, path
+		 * prefix, port and scheme of the rules.
+		 */
+		INDEX,
+		/**
+		 * One deterministic automaton per component built from the component
+		 * patterns of all the rules.
+		 */
+		AUTOMATON,
+		/**
+		 * The rules are evaluated one after another, periodically reordered
+		 * so that the rules that match most often are evaluated first. Only
+		 * rules with the same priority that can not match the same URI are
+		 * reordered.
+		 */
+		ADAPTIVE
+	}
+
+	// the rules in the order they were added.
+	private final List<Rule> rules = new ArrayList<Rule>();
+	// the strategy used to select candidate rules.
+	private Engine engineType = Engine.INDEX;
+	// the index of the rules, null when the rules have changed.
+	private volatile RuleEngine index;
+	// the number of rules added, used to preserve insertion order.
+	private long sequence;
+	// the cache of rewrite results, may be null.
+	private volatile RewriteCache cache;
+	// the filter of URIs that do not match, may be null.
+	private volatile NegativeFilter negative;
+	// the recorder applied to the rules, null if the rules keep their own.
+	private MetricsRecorder recorder;
+
+	// a rule and its priority.
+	private static class Rule implements Comparable<Rule> {
+		final PatternReplacer replacer;
+		final int priority;
+		final long sequence;
+
+		Rule(PatternReplacer replacer, int priority, long sequence) {
+			this.replacer = replacer;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Rule other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1
+					: (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Add a rule with priority 0.
+	 *
+	 * @param rule
+	 *            the rule to add.
+	 * @return this rule set to facilitate chaining.
+	 */
+	public URIRuleSet add(PatternReplacer rule) {
+		return add(rule, 0);
+	}
+
+	/**
+	 * Add a rule.
+	 *
+	 * @param rule
+	 *            the rule to add.
+	 * @param priority
+	 *            the priority of the rule. Lower values are evaluated first.
+	 * @return this rule set to facilitate chaining.
+	 */
+	public synchronized URIRuleSet add(PatternReplacer rule, int priority) {
+		if (rule == null) {
+			throw new IllegalArgumentException("Rule may not be null");
+		}
+		if (recorder != null) {
+			rule.setRecorder(recorder);
+		}
+		rules.add(new Rule(rule, priority, sequence++));
+		index = null;
+		return this;
+	}
+
+	/**
+	 * Remove a rule.
+	 *
+	 * @param rule
+	 *            the rule to remove.
+	 * @return true if the rule was in the set.
+	 */
+	public synchronized boolean remove(PatternReplacer rule) {
+		Iterator<Rule> iter = rules.iterator();
+		while (iter.hasNext()) {
+			if (iter.next().replacer == rule) {
+				iter.remove();
+				index = null;
+				if (recorder != null) {
+					recorder.removed(rule);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all the rules.
+	 */
+	public synchronized void clear() {
+		if (recorder != null) {
+			for (Rule rule : rules) {
+				recorder.removed(rule.replacer);
+			}
+		}
+		rules.clear();
+		index = null;
+	}
+
+	/**
+	 * Get the number of rules in the set.
+	 *
+	 * @return the number of rules.
+	 */
+	public synchronized int size() {
+		return rules.size();
+	}
+
+	/**
+	 * Get the rules in evaluation order.
+	 *
+	 * @return an unmodifiable list of the rules.
+	 */
+	public synchronized List<PatternReplacer> getRules() {
+		return Collections.unmodifiableList(orderedRules());
+	}
+
+	/**
+	 * Get the priorities of the rules in evaluation order.
+	 *
+	 * @return the priority of each rule returned by getRules().
+	 */
+	synchronized int[] getPriorities() {
+		return orderedPriorities();
+	}
+
+	/**
+	 * Install an engine built for the current rules, for example from a
+	 * snapshot, so that it is not rebuilt on the first match.
+	 *
+	 * @param engine
+	 *            the engine for the current rules and engine type.
+	 */
+	synchronized void setRuleEngine(RuleEngine engine) {
+		index = engine;
+	}
+
+	/**
+	 * Rebuild the index. Must be called if a rule is modified after it has
+	 * been added to the set.
+	 */
+	public synchronized void reindex() {
+		index = null;
+	}
+
+	/**
+	 * Compile the patterns of the rules in the background.
+	 * <p>
+	 * With lazy compilation enabled each pattern is compiled when it is first
+	 * used. This warms the rules that have not been used yet so that the first
+	 * URI to reach a cold rule does not pay for its compilation. Rules added
+	 * after the call are not compiled.
+	 * </p>
+	 *
+	 * @param executor
+	 *            the executor to compile the patterns on.
+	 * @return a future that completes when the patterns are compiled, or
+	 *         completes exceptionally with the PatternSyntaxException of the
+	 *         first invalid pattern after the other rules are compiled.
+	 * @see URIMatcher#setLazyCompilation(boolean)
+	 */
+	public CompletableFuture<Void> precompile(Executor executor) {
+		List<PatternReplacer> snapshot = getRules();
+		return CompletableFuture.runAsync(() -> {
+			RuntimeException error = null;
+			for (PatternReplacer rule : snapshot) {
+				try {
+					rule.precompile();
+				} catch (RuntimeException e) {
+					if (error == null) {
+						error = e;
+					} else {
+						error.addSuppressed(e);
+					}
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+		}, executor);
+	}
+
+	/**
+	 * Set the strategy used to select the candidate rules for a URI.
+	 *
+	 * @param engine
+	 *            the engine to use.
+	 * @return this rule set to facilitate chaining.
+	 */
+	public synchronized URIRuleSet setEngine(Engine engine) {
+		if (engine == null) {
+			throw new IllegalArgumentException("Engine may not be null");
+		}
+		this.engineType = engine;
+		index = null;
+		return this;
+	}
+
+	/**
+	 * Set the cache for the results of rewrite(URI).
+	 * <p>
+	 * The cache is cleared automatically when the rules change.
+	 * </p>
+	 *
+	 * @param cache
+	 *            the cache or null to stop caching. The cache must not be used
+	 *            by another rule set or rewriter.
+	 * @return this rule set to facilitate chaining.
+	 */
+	public URIRuleSet setCache(RewriteCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Get the cache for the results of rewrite(URI).
+	 *
+	 * @return the cache or null if results are not cached.
+	 */
+	public RewriteCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set the filter that records the URIs that no rule matches.
+	 * <p>
+	 * URIs recorded in the filter are returned unchanged by rewrite(URI)
+	 * without matching. The filter is cleared automatically when the rules
+	 * change.
+	 * </p>
+	 *
+	 * @param negative
+	 *            the filter or null to stop recording. The filter must not be
+	 *            used by another rule set or rewriter.
+	 * @return this rule set to facilitate chaining.
+	 * @see NegativeFilter
+	 */
+	public URIRuleSet setNegativeFilter(NegativeFilter negative) {
+		this.negative = negative;
+		return this;
+	}
+
+	/**
+	 * Get the filter that records the URIs that no rule matches.
+	 *
+	 * @return the filter or null if non-matching URIs are not recorded.
+	 */
+	public NegativeFilter getNegativeFilter() {
+		return negative;
+	}
+
+	/**
+	 * Set the recorder of every rule in the set, including rules added later.
+	 * <p>
+	 * Sharing one RuleMetrics between the rules records the matches, misses
+	 * and rewrites of each rule in one place.
+	 * </p>
+	 *
+	 * @param recorder
+	 *            the recorder or null for MetricsRecorder.NOOP.
+	 * @return this rule set to facilitate chaining.
+	 * @see URIMatcher#setRecorder(MetricsRecorder)
+	 */
+	public synchronized URIRuleSet setRecorder(MetricsRecorder recorder) {
+		this.recorder = recorder == null ? MetricsRecorder.NOOP : recorder;
+		for (Rule rule : rules) {
+			rule.replacer.setRecorder(this.recorder);
+		}
+		return this;
+	}
+
+	/**
+	 * Get the recorder set on the rules.
+	 *
+	 * @return the recorder or null if setRecorder() has not been called.
+	 */
+	public synchronized MetricsRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Get the strategy used to select the candidate rules for a URI.
+	 *
+	 * @return the engine.
+	 */
+	public synchronized Engine getEngine() {
+		return engineType;
+	}
+
+	// the rules in evaluation order.
+	private List<PatternReplacer> orderedRules() {
+		List<Rule> sorted = new ArrayList<Rule>(rules);
+		Collections.sort(sorted);
+		List<PatternReplacer> retval = new ArrayList<PatternReplacer>(
+				sorted.size());
+		for (Rule rule : sorted) {
+			retval.add(rule.replacer);
+		}
+		return retval;
+	}
+
+	// the priorities of the rules in evaluation order.
+	private int[] orderedPriorities() {
+		List<Rule> sorted = new ArrayList<Rule>(rules);
+		Collections.sort(sorted);
+		int[] retval = new int[sorted.size()];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = sorted.get(i).priority;
+		}
+		return retval;
+	}
+
+	// create the engine for the current rules.
+	private RuleEngine createEngine() {
+		switch (engineType) {
+		case AUTOMATON:
+			return new RuleAutomaton(orderedRules());
+		case ADAPTIVE:
+			return new RuleChain(orderedRules(), orderedPriorities());
+		default:
+			return new RuleIndex(orderedRules());
+		}
+	}
+
+	// get the current rule engine building it if necessary.
+	RuleEngine getRuleEngine() {
+		RuleEngine retval = index;
+		if (retval == null) {
+			synchronized (this) {
+				retval = index;
+				if (retval == null) {
+					retval = createEngine();
+					index = retval;
+				}
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Find the first rule that matches the URI.
+	 *
+	 * @param uri
+	 *            the URI to match.
+	 * @return the match from the first matching rule or null if no rule
+	 *         matches. The matcher of the match is the matching rule.
+	 */
+	public URIMatch match(URI uri) {
+		return getRuleEngine().match(new ComponentSource.URISource(uri));
+	}
+
+	/**
+	 * Find the first rule that matches the URI string.
+	 * <p>
+	 * The string is not parsed as a java.net.URI.
+	 * </p>
+	 *
+	 * @param uri
+	 *            the URI text to match.
+	 * @return the match from the first matching rule or null if no rule
+	 *         matches. The matcher of the match is the matching rule.
+	 * @see URIMatcher#matches(CharSequence)
+	 */
+	public URIMatch match(CharSequence uri) {
+		return getRuleEngine().match(new URIScanner(uri));
+	}
+
+	/**
+	 * Find the first rule that matches the UTF-8 encoded URI.
+	 *
+	 * @param uri
+	 *            the buffer holding the URI.
+	 * @return the match from the first matching rule or null if no rule
+	 *         matches. The matcher of the match is the matching rule.
+	 * @throws InvalidEncodingException
+	 *             if the bytes are not valid UTF-8.
+	 * @see URIMatcher#matches(ByteBuffer)
+	 */
+	public URIMatch match(ByteBuffer uri) {
+		return match(ByteSequence.decode(uri));
+	}
+
+	/**
+	 * Rewrite the URI with the first matching rule.
+	 *
+	 * If no rule matches the input URI the original URI is returned unchanged.
+	 *
+	 * @param uri
+	 *            The uri to edit
+	 * @return The resulting uri.
+	 * @throws URISyntaxException
+	 *             if the matching rule does not generate a valid URI.
+	 */
+	public URI rewrite(URI uri) throws URISyntaxException {
+		RewriteCache c = cache;
+		RuleEngine engine = getRuleEngine();
+		if (c == null) {
+			return rewrite(engine, uri);
+		}
+		// the engine is rebuilt whenever the rules change.
+		URI retval = (URI) c.get(uri, engine);
+		if (retval == null) {
+			retval = rewrite(engine, uri);
+			c.put(uri, retval, engine);
+		}
+		return retval;
+	}
+
+	private URI rewrite(RuleEngine engine, URI uri) throws URISyntaxException {
+		NegativeFilter n = negative;
+		if (n != null && n.mightContain(uri.toString(), engine)) {
+			return uri;
+		}
+		URIMatch match = engine.match(new ComponentSource.URISource(uri));
+		if (match != null) {
+			// the matcher is always the PatternReplacer rule that matched.
+			return URIRewriter.rewrite((PatternReplacer) match.getMatcher(),
+					match);
+		}
+		if (n != null) {
+			n.add(uri.toString(), engine);
+		}
+		return uri;
+	}
+
+	/**
+	 * Rewrite a UTF-8 encoded URI into a buffer with the first matching rule.
+	 *
+	 * If no rule matches the input bytes are copied to the output unchanged.
+	 *
+	 * @param in
+	 *            The buffer holding the URI to edit.
+	 * @param out
+	 *            The buffer to write the resulting URI to.
+	 * @return true if the URI was rewritten, false if it was copied unchanged.
+	 * @throws BufferOverflowException
+	 *             if the output does not have room for the result.
+	 * @see URIRewriter#rewrite(ByteBuffer, ByteBuffer)
+	 */
+	public boolean rewrite(ByteBuffer in, ByteBuffer out) {
+		URIMatch match = match(in);
+		return URIRewriter.rewrite(
+				match == null ? null : (PatternReplacer) match.getMatcher(),
+				match, in, out);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("URIRuleSet[ %s rules ]", size());
+	}
+}
@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.net.URI;
+
+/**
+ * A lightweight scanner that locates the components of a URI string.
+ * <p>
+ * The scanner follows the generic syntax of RFC 3986 and only records the
+ * offsets of the components. Component values are views of the original text
+ * and are only copied when they contain percent escapes that must be decoded.
+ * The views and decoded values are reused when the scanner is reset, so a
+ * scanner that is reset for each URI does not allocate.
+ * Unlike java.net.URI the scanner does not validate the characters of each
+ * component. Like java.net.URI it treats an authority that is not a valid
+ * server authority, for example a host name with an underscore, as registry
+ * based: the URI has no host and no port.
+ * </p>
+ */
+class URIScanner extends ComponentSource {
+	private static final SubSequence EMPTY = new SubSequence("", 0, 0);
+	private static final char REPLACEMENT = '\uFFFD';
+	private static final int COMPONENTS = URIComponent.values().length;
+
+	// the text being scanned.
+	private CharSequence text;
+	private int schemeEnd;
+	private int hostStart;
+	private int hostEnd;
+	private int portStart;
+	private int portEnd;
+	private int pathStart;
+	private int pathEnd;
+	private int fragmentStart;
+	// the position of the '?' that starts the query or -1.
+	private int queryStart;
+	private int port;
+	// the views of the component values, reused after a reset.
+	private final SubSequence[] views = new SubSequence[COMPONENTS];
+	// the decoded component values, reused after a reset.
+	private final StringBuilder[] decoded = new StringBuilder[COMPONENTS];
+	// true if the decoded value is for the current text.
+	private final boolean[] decodedValid = new boolean[COMPONENTS];
+
+	/**
+	 * Scan a URI.
+	 *
+	 * @param text
+	 *            the URI text to scan.
+	 */
+	URIScanner(CharSequence text) {
+		reset(text);
+	}
+
+	/**
+	 * Scan a new URI.
+	 *
+	 * @param text
+	 *            the URI text to scan.
+	 * @return this scanner.
+	 */
+	URIScanner reset(CharSequence text) {
+		this.text = text;
+		for (int i = 0; i < COMPONENTS; i++) {
+			decodedValid[i] = false;
+		}
+		int len = text.length();
+		int pos = scanScheme();
+		schemeEnd = pos;
+		if (pos > 0) {
+			pos++; // skip the colon
+		}
+		hostStart = hostEnd = portStart = portEnd = -1;
+		port = URIMatcher.NO_PORT;
+		queryStart = -1;
+		fragmentStart = indexOf('#', pos, len);
+		int end = fragmentStart == -1 ? len : fragmentStart;
+		if (schemeEnd > 0 && (pos >= end || text.charAt(pos) != '/')) {
+			// opaque URI, no authority or path.
+			pathStart = pathEnd = -1;
+			return this;
+		}
+		if (pos + 1 < end && text.charAt(pos) == '/'
+				&& text.charAt(pos + 1) == '/') {
+			pos = scanAuthority(pos + 2, end);
+		}
+		pathStart = pos;
+		queryStart = indexOf('?', pos, end);
+		pathEnd = queryStart == -1 ? end : queryStart;
+		return this;
+	}
+
+	// return the end of the scheme or 0 if there is no scheme.
+	private int scanScheme() {
+		int len = text.length();
+		for (int i = 0; i < len; i++) {
+			char c = text.charAt(i);
+			if (c == ':') {
+				return i;
+			}
+			boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| (i > 0 && ((c >= '0' && c <= '9') || c == '+'
+							|| c == '-' || c == '.'));
+			if (!valid) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	// scan the authority starting at pos, returns the end of the authority.
+	private int scanAuthority(int pos, int end) {
+		int authorityEnd = pos;
+		while (authorityEnd < end) {
+			char c = text.charAt(authorityEnd);
+			if (c == '/' || c == '?') {
+				break;
+			}
+			authorityEnd++;
+		}
+		hostStart = pos;
+		for (int i = authorityEnd - 1; i >= pos; i--) {
+			if (text.charAt(i) == '@') {
+				hostStart = i + 1;
+				break;
+			}
+		}
+		hostEnd = authorityEnd;
+		int search = hostStart;
+		boolean literal = search < authorityEnd && text.charAt(search) == '[';
+		if (literal) {
+			int close = indexOf(']', search, authorityEnd);
+			search = close == -1 ? authorityEnd : close;
+		}
+		int colon = indexOf(':', search, authorityEnd);
+		if (colon != -1) {
+			hostEnd = colon;
+			portStart = colon + 1;
+			portEnd = authorityEnd;
+			port = parsePort();
+		}
+		// as java.net.URI does, treat an authority that is not a valid server
+		// authority as registry based, without a host or port. An authority
+		// with an IPv6 literal is either a server authority or not a URI.
+		if (!literal && !serverAuthority(pos)) {
+			hostStart = hostEnd = portStart = portEnd = -1;
+			port = URIMatcher.NO_PORT;
+		} else if (port != URIMatcher.NO_PORT) {
+			// the port value is the number without leading zeros.
+			while (portStart < portEnd - 1 && text.charAt(portStart) == '0') {
+				portStart++;
+			}
+		}
+		return authorityEnd;
+	}
+
+	// true if the authority starting at pos has a user info without '@', a
+	// host name or IPv4 address and a valid port.
+	private boolean serverAuthority(int pos) {
+		if (hostStart > pos && indexOf('@', pos, hostStart - 1) != -1) {
+			return false;
+		}
+		if (portStart != -1 && portStart != portEnd
+				&& port == URIMatcher.NO_PORT) {
+			return false;
+		}
+		return ipv4(hostStart, hostEnd) || hostName(hostStart, hostEnd);
+	}
+
+	// true if the text is four dot separated numbers no greater than 255.
+	private boolean ipv4(int start, int end) {
+		int pos = start;
+		for (int octet = 0; octet < 4; octet++) {
+			if (octet > 0) {
+				if (pos == end || text.charAt(pos) != '.') {
+					return false;
+				}
+				pos++;
+			}
+			int value = 0;
+			int digits = pos;
+			while (pos < end && isDigit(text.charAt(pos))) {
+				value = Math.min(value * 10 + text.charAt(pos) - '0', 256);
+				pos++;
+			}
+			if (pos == digits || value > 255) {
+				return false;
+			}
+		}
+		return pos == end;
+	}
+
+	// true if the text is a host name: dot separated labels of letters,
+	// digits and '-' that do not start or end with '-', the last label
+	// starting with a letter if there is more than one, and an optional
+	// trailing dot.
+	private boolean hostName(int start, int end) {
+		int pos = start;
+		int last = -1;
+		while (pos < end) {
+			int label = pos;
+			while (pos < end && (isAlphaNum(text.charAt(pos))
+					|| (pos > label && text.charAt(pos) == '-'))) {
+				pos++;
+			}
+			if (pos == label || text.charAt(pos - 1) == '-') {
+				return false;
+			}
+			last = label;
+			if (pos < end) {
+				if (text.charAt(pos) != '.') {
+					return false;
+				}
+				pos++;
+			}
+		}
+		return last == start
+				|| (last != -1 && !isDigit(text.charAt(last)));
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isAlphaNum(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	// parse the port, NO_PORT if it is empty, not a number or too large.
+	private int parsePort() {
+		if (portStart == portEnd) {
+			return URIMatcher.NO_PORT;
+		}
+		long retval = 0;
+		for (int i = portStart; i < portEnd; i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c)) {
+				return URIMatcher.NO_PORT;
+			}
+			retval = retval * 10 + (c - '0');
+			if (retval > Integer.MAX_VALUE) {
+				return URIMatcher.NO_PORT;
+			}
+		}
+		return (int) retval;
+	}
+
+	private int indexOf(char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (text.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	CharSequence value(URIComponent component, boolean raw) {
+		switch (component) {
+		case SCHEME:
+			return view(component, 0, schemeEnd);
+		case HOST:
+			return hostStart == -1 ? EMPTY : view(component, hostStart,
+					hostEnd);
+		case PORT:
+			return port == URIMatcher.NO_PORT ? EMPTY : view(component,
+					portStart, portEnd);
+		case PATH:
+			if (pathStart == -1) {
+				return EMPTY;
+			}
+			return raw ? view(component, pathStart, pathEnd) : decode(
+					component, pathStart, pathEnd);
+		case QUERY:
+			// the query is not decoded.
+			return queryStart == -1 ? EMPTY : view(component, queryStart + 1,
+					fragmentStart == -1 ? text.length() : fragmentStart);
+		default:
+			if (fragmentStart == -1) {
+				return EMPTY;
+			}
+			return raw ? view(component, fragmentStart + 1, text.length())
+					: decode(component, fragmentStart + 1, text.length());
+		}
+	}
+
+	// get the view of a component, the view is reused after a reset.
+	private CharSequence view(URIComponent component, int start, int end) {
+		if (start == end) {
+			return EMPTY;
+		}
+		SubSequence view = views[component.ordinal()];
+		if (view == null) {
+			view = new SubSequence(text, start, end);
+			views[component.ordinal()] = view;
+			return view;
+		}
+		return view.reset(text, start, end);
+	}
+
+	// decode percent escapes if there are any.
+	private CharSequence decode(URIComponent component, int start, int end) {
+		if (indexOf('%', start, end) == -1) {
+			return view(component, start, end);
+		}
+		int idx = component.ordinal();
+		if (decoded[idx] == null) {
+			decoded[idx] = new StringBuilder(end - start);
+		} else if (decodedValid[idx]) {
+			return decoded[idx];
+		}
+		StringBuilder sb = decoded[idx];
+		sb.setLength(0);
+		int i = start;
+		while (i < end) {
+			int b = escaped(i, end);
+			if (b == -1) {
+				sb.append(text.charAt(i));
+				i++;
+				continue;
+			}
+			i += 3;
+			// decode the UTF-8 sequence started by the escaped byte. As the
+			// JDK decoder does, each malformed byte, truncated sequence or
+			// encoded surrogate is replaced by one REPLACEMENT and decoding
+			// resumes at the byte that did not fit.
+			int extra = b < 0x80 ? 0 : b < 0xC2 ? -1 : b < 0xE0 ? 1
+					: b < 0xF0 ? 2 : b < 0xF5 ? 3 : -1;
+			if (extra == -1) {
+				sb.append(REPLACEMENT);
+				continue;
+			}
+			int cp = extra == 0 ? b : b & (0x3F >> extra);
+			int n = 0;
+			while (n < extra) {
+				int cb = escaped(i, end);
+				int low = n == 0 ? secondLow(b) : 0x80;
+				int high = n == 0 ? secondHigh(b) : 0xBF;
+				if (cb < low || cb > high) {
+					break;
+				}
+				cp = (cp << 6) | (cb & 0x3F);
+				i += 3;
+				n++;
+			}
+			if (n < extra || (cp >= 0xD800 && cp <= 0xDFFF)) {
+				sb.append(REPLACEMENT);
+			} else {
+				sb.appendCodePoint(cp);
+			}
+		}
+		decodedValid[idx] = true;
+		return sb;
+	}
+
+	// the smallest second byte of the UTF-8 sequence started by lead, larger
+	// than 0x80 where smaller values would be overlong.
+	private static int secondLow(int lead) {
+		return lead == 0xE0 ? 0xA0 : lead == 0xF0 ? 0x90 : 0x80;
+	}
+
+	// the largest second byte of the UTF-8 sequence started by lead, smaller
+	// than 0xBF where larger values would be above U+10FFFF.
+	private static int secondHigh(int lead) {
+		return lead == 0xF4 ? 0x8F : 0xBF;
+	}
+
+	// get the byte value of the percent escape at i or -1 if there is none.
+	private int escaped(int i, int end) {
+		if (i + 2 >= end || text.charAt(i) != '%') {
+			return -1;
+		}
+		int hi = Character.digit(text.charAt(i + 1), 16);
+		int lo = Character.digit(text.charAt(i + 2), 16);
+		return hi == -1 || lo == -1 ? -1 : (hi << 4) + lo;
+	}
+
+	@Override
+	int getPort() {
+		return port;
+	}
+
+	@Override
+	CharSequence text() {
+		return text;
+	}
+
+	@Override
+	URI toURI() {
+		return URI.create(text.toString());
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.uri;
+
+import java.net.URISyntaxException;
+
+/**
+ * A single pass structural check of URI text.
+ * <p>
+ * The check rejects text that java.net.URI would certainly reject: characters
+ * that may not appear in a URI, malformed percent escapes outside an IPv6
+ * literal (where '%' starts the scope id), an invalid scheme, a scheme
+ * without a scheme specific part and a second '#'. It does not check the
+ * authority, the port or the host, so text that passes may still be rejected
+ * by java.net.URI. The check does not allocate.
+ * </p>
+ */
+final class URIValidator {
+	// the ASCII characters that may appear in a URI other than '%'.
+	private static final boolean[] LEGAL = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			LEGAL[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			LEGAL[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			LEGAL[c] = true;
+		}
+		for (char c : "-._~:/?#[]@!$&'()*+,;=".toCharArray()) {
+			LEGAL[c] = true;
+		}
+	}
+
+	private URIValidator() {
+	}
+
+	/**
+	 * Check a region of text.
+	 *
+	 * @param text
+	 *            the text holding the URI.
+	 * @param start
+	 *            the start of the URI, inclusive.
+	 * @param end
+	 *            the end of the URI, exclusive.
+	 * @throws URISyntaxException
+	 *             if the URI is not valid, the index is relative to start.
+	 */
+	static void validate(CharSequence text, int start, int end)
+			throws URISyntaxException {
+		int schemeEnd = scheme(text, start, end);
+		if (schemeEnd == start) {
+			throw error(text, start, end, "Expected scheme name", 0);
+		}
+		if (schemeEnd != -1 && schemeEnd == end - 1) {
+			throw error(text, start, end, "Expected scheme-specific part",
+					end - start);
+		}
+		int pos = schemeEnd == -1 ? start : schemeEnd + 1;
+		boolean fragment = false;
+		// true inside an IPv6 literal, where '%' starts a scope id.
+		boolean literal = false;
+		for (int i = pos; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == '[' || c == ']') {
+				literal = c == '[';
+			} else if (c == '%') {
+				if (literal) {
+					// the scope id of an IPv6 address is not escaped.
+					continue;
+				}
+				if (i + 2 >= end || Character.digit(text.charAt(i + 1), 16) == -1
+						|| Character.digit(text.charAt(i + 2), 16) == -1) {
+					throw error(text, start, end, "Malformed escape pair", i
+							- start);
+				}
+				i += 2;
+			} else if (c >= 128) {
+				// java.net.URI accepts other characters except spaces and
+				// controls.
+				if (Character.isISOControl(c) || Character.isSpaceChar(c)) {
+					throw error(text, start, end, "Illegal character", i
+							- start);
+				}
+			} else if (!LEGAL[c]) {
+				throw error(text, start, end, "Illegal character", i - start);
+			} else if (c == '#') {
+				if (fragment) {
+					throw error(text, start, end, "Illegal character in fragment",
+							i - start);
+				}
+				fragment = true;
+			}
+		}
+	}
+
+	// the position of the colon that ends the scheme, start if the colon has
+	// no valid scheme before it, or -1 if there is no scheme.
+	private static int scheme(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == ':') {
+				return i;
+			}
+			if (c == '/' || c == '?' || c == '#') {
+				return -1;
+			}
+			boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| (i > start && ((c >= '0' && c <= '9') || c == '+'
+							|| c == '-' || c == '.'));
+			if (!valid) {
+				// a relative path whose first segment holds a colon is also
+				// rejected.
+				return colon(text, i, end) ? start : -1;
+			}
+		}
+		return -1;
+	}
+
+	// true if a colon appears before the end of the first segment.
+	private static boolean colon(CharSequence text, int from, int end) {
+		for (int i = from; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == ':') {
+				return true;
+			}
+			if (c == '/' || c == '?' || c == '#') {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static URISyntaxException error(CharSequence text, int start,
+			int end, String reason, int index) {
+		return new URISyntaxException(text.subSequence(start, end).toString(),
+				reason, index);
+	}
+}
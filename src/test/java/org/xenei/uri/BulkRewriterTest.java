@@ -0,0 +1,185 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkRewriterTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static String HOST_PATTERN = "([^\\.]*)?.example.([^\\.]+)";
+	private static String PATH_PATTERN = "^/([^/]+).*/(.*)$";
+
+	private Path dir;
+	private PatternReplacer replacer;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("bulk");
+		replacer = new PatternReplacer("{scheme}://{host:1}.{host:2}/{path:2}")
+				.setHost(HOST_PATTERN).setPath(PATH_PATTERN);
+	}
+
+	@After
+	public void teardown() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path p : files) {
+				Files.delete(p);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	private Path write(String name, byte[] content) throws IOException {
+		Path p = dir.resolve(name);
+		Files.write(p, content);
+		return p;
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			baos.write(buf, 0, n);
+		}
+		in.close();
+		return baos.toByteArray();
+	}
+
+	@Test
+	public void testRewrite() throws IOException {
+		StringBuilder in = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			if (i % 3 == 0) {
+				in.append(String.format("http://example.org/%s\n", i));
+				expected.append(String.format("http://example.org/%s\n", i));
+			} else {
+				String eol = i % 5 == 0 ? "\r\n" : "\n";
+				in.append(String.format("http://h%s.example.com/a/b%s%s", i,
+						i, eol));
+				expected.append(String.format("http://h%s.com/b%s%s", i, i,
+						eol));
+			}
+		}
+		// no trailing newline
+		in.append("http://last.example.com/a/z");
+		expected.append("http://last.com/z");
+		Path input = write("in.txt", in.toString().getBytes(UTF8));
+		Path output = dir.resolve("out.txt");
+		BulkRewriter.Stats stats = new BulkRewriter(replacer).setThreads(3)
+				.setChunkSize(100).process(input, output);
+		assertEquals(expected.toString(),
+				new String(Files.readAllBytes(output), UTF8));
+		assertEquals(501, stats.getLineCount());
+		assertEquals(334, stats.getMatchCount());
+		assertEquals(0, stats.getErrorCount());
+		assertEquals(Files.size(input), stats.getBytesRead());
+		assertEquals(Files.size(output), stats.getBytesWritten());
+	}
+
+	@Test
+	public void testFilterGzip() throws IOException {
+		Path input = write("in.txt",
+				"http://a.example.com/x/1\nhttp://example.org/x/2\nhttp://b.example.com/x/3\n"
+						.getBytes(UTF8));
+		Path output = dir.resolve("out.txt.gz");
+		new BulkRewriter(replacer).setFilter(true).process(input, output);
+		assertEquals("http://a.com/1\nhttp://b.com/3\n", new String(
+				read(new GZIPInputStream(Files.newInputStream(output))), UTF8));
+
+		// a plain matcher filters lines unchanged
+		URIMatcher matcher = new URIMatcher().setHost(HOST_PATTERN);
+		new BulkRewriter(matcher).process(input, output);
+		assertEquals("http://a.example.com/x/1\nhttp://b.example.com/x/3\n",
+				new String(read(new GZIPInputStream(Files
+						.newInputStream(output))), UTF8));
+		try {
+			new BulkRewriter(matcher).setFilter(false);
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAccessLogField() throws IOException {
+		PatternReplacer path = new PatternReplacer("/v2/{path:1}")
+				.setPath("/v1/(.*)");
+		String log = "10.0.0.1 - - [10/Oct/2026:13:55:36 -0700] \"GET /v1/items HTTP/1.1\" 200 2326\n"
+				+ "10.0.0.2 - - [10/Oct/2026:13:55:37 -0700] \"GET /other HTTP/1.1\" 404 12\n";
+		Path input = write("access.log", log.getBytes(UTF8));
+		Path output = dir.resolve("out.log");
+		BulkRewriter.Stats stats = new BulkRewriter(path).setField(6)
+				.process(input, output);
+		assertEquals(log.replace("/v1/items", "/v2/items"), new String(
+				Files.readAllBytes(output), UTF8));
+		assertEquals(1, stats.getMatchCount());
+	}
+
+	@Test
+	public void testInvalidUTF8() throws IOException {
+		byte[] bad = { 'h', 't', 't', 'p', ':', '/', '/', (byte) 0xff, '\n' };
+		byte[] good = "http://a.example.com/x/1\n".getBytes(UTF8);
+		byte[] content = new byte[bad.length + good.length];
+		System.arraycopy(bad, 0, content, 0, bad.length);
+		System.arraycopy(good, 0, content, bad.length, good.length);
+		Path input = write("in.txt", content);
+		Path output = dir.resolve("out.txt");
+		BulkRewriter.Stats stats = new BulkRewriter(replacer).process(input,
+				output);
+		assertEquals(1, stats.getErrorCount());
+		byte[] result = Files.readAllBytes(output);
+		byte[] expected = new byte[bad.length + 15];
+		System.arraycopy(bad, 0, expected, 0, bad.length);
+		System.arraycopy("http://a.com/1\n".getBytes(UTF8), 0, expected,
+				bad.length, 15);
+		assertArrayEquals(expected, result);
+	}
+
+	@Test
+	public void testTemplateError() throws IOException {
+		// the host pattern has one group, the template references two.
+		PatternReplacer bad = new PatternReplacer("https://x/{host:2}")
+				.setHost("([^.]+)\\.example\\.com");
+		Path input = write("in.txt",
+				"http://a.example.com/x/1\n".getBytes(UTF8));
+		try {
+			new BulkRewriter(bad).process(input, dir.resolve("out.txt"));
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			assertFalse(expected instanceof InvalidEncodingException);
+		}
+	}
+
+	@Test
+	public void testParse() {
+		BulkRewriter rewriter = BulkRewriter.parse(new String[] { "-host",
+				HOST_PATTERN, "-template", "{host:1}", "-field", "2",
+				"-threads", "2", "in", "out" });
+		assertTrue(rewriter.toString().contains("filter=false field=2"));
+		try {
+			BulkRewriter.parse(new String[] { "-bogus", "x", "in", "out" });
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+		try {
+			BulkRewriter.parse(new String[] { "-host", "in", "out" });
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+}
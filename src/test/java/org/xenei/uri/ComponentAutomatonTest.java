@@ -0,0 +1,62 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class ComponentAutomatonTest {
+
+	private static final String[] PATTERNS = { "http", "https?", "^ftp$",
+			"(.*)\\.example\\.com", "([^.]+)\\.cdn\\.example\\.org",
+			"/api/v2/orders/(\\d+)", "/api/(?:v1|v2)/.*", "[a-c]{2,3}x?",
+			"\\Q.*\\E", "\\w+\\s\\W", "(?<name>ab)+c*?", "a{3}", "[^/]*",
+			".", "", "\\x41\\u0042", "[a\\-z]" };
+
+	private static final String[] VALUES = { "http", "https", "ftp",
+			"www.example.com", "a.b.example.com", "example.com",
+			"x.cdn.example.org", "x.y.cdn.example.org", "/api/v2/orders/12",
+			"/api/v2/orders/", "/api/v1/foo", "/api/v3/foo", "ab", "abcx",
+			"abcd", ".*", "a_1 !", "ababcc", "aaa", "aaaa", "", "x", "\n",
+			"AB", "-", "z", "b" };
+
+	@Test
+	public void testMatchesPattern() throws Exception {
+		ComponentAutomaton automaton = new ComponentAutomaton();
+		for (int i = 0; i < PATTERNS.length; i++) {
+			automaton.add(Pattern.compile(PATTERNS[i]), i);
+		}
+		for (String value : VALUES) {
+			BitSet accepted = automaton.scan(value);
+			for (int i = 0; i < PATTERNS.length; i++) {
+				assertEquals(PATTERNS[i] + " matching '" + value + "'",
+						Pattern.matches(PATTERNS[i], value), accepted.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		String[] unsupported = { "(a)\\1", "(?=a)a", "(?i)http", "a++",
+				"\\bword", "[a&&[b]]", "\\p{Alpha}", "a{1000}" };
+		for (String regex : unsupported) {
+			assertFalse(regex,
+					ComponentAutomaton.isSupported(Pattern.compile(regex)));
+		}
+		assertFalse(ComponentAutomaton.isSupported(Pattern.compile("http",
+				Pattern.CASE_INSENSITIVE)));
+		for (String regex : PATTERNS) {
+			assertTrue(regex,
+					ComponentAutomaton.isSupported(Pattern.compile(regex)));
+		}
+	}
+
+	@Test
+	public void testSurrogates() throws Exception {
+		ComponentAutomaton automaton = new ComponentAutomaton();
+		automaton.add(Pattern.compile("."), 0);
+		assertNull(automaton.scan("\uD83D\uDE00"));
+	}
+}
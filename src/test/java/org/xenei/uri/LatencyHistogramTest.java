@@ -0,0 +1,57 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789L,
+				1L << 36 };
+		for (long v : values) {
+			int idx = LatencyHistogram.index(v);
+			assertTrue(v + " below bucket", LatencyHistogram.lowest(idx) <= v);
+			assertTrue(v + " above bucket", LatencyHistogram.highest(idx) >= v);
+			// relative error of at most 1/16
+			assertTrue(v + " imprecise", LatencyHistogram.highest(idx)
+					- LatencyHistogram.lowest(idx) <= Math.max(0, v / 16));
+		}
+		// every bucket follows the previous one
+		for (int i = 1; i < LatencyHistogram.index(1L << 36); i++) {
+			assertEquals(LatencyHistogram.highest(i - 1) + 1,
+					LatencyHistogram.lowest(i));
+		}
+		// large values are clamped to the last bucket
+		assertEquals(LatencyHistogram.index(1L << 40),
+				LatencyHistogram.index(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		LatencyHistogram.Snapshot empty = h.snapshot();
+		assertEquals(0, empty.getCount());
+		assertEquals(0, empty.getP99());
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i * 1000);
+		}
+		h.record(-5);
+		LatencyHistogram.Snapshot s = h.snapshot();
+		assertEquals(1001, s.getCount());
+		assertEquals(0, s.getMin());
+		assertEquals(500 * 1000, s.getP50(), 500 * 1000 / 16);
+		assertEquals(990 * 1000, s.getP99(), 990 * 1000 / 16);
+		assertEquals(1000 * 1000, s.getMax(), 1000 * 1000 / 16);
+		assertEquals(500.5 * 1000 * 1000 / 1001, s.getMean(), 0.01);
+		try {
+			s.getValueAtPercentile(101);
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+		h.reset();
+		assertEquals(0, h.snapshot().getCount());
+	}
+}
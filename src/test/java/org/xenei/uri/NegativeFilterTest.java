@@ -0,0 +1,94 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.junit.Test;
+
+public class NegativeFilterTest {
+	private static final Object VERSION = new Object();
+
+	@Test
+	public void testSizing() {
+		NegativeFilter filter = new NegativeFilter(1000, 0.01);
+		// about 9.6 bits and 7 hashes per entry
+		assertTrue(filter.getBitCount() >= 9585);
+		assertTrue(filter.getBitCount() < 9585 + 64);
+		assertEquals(7, filter.getHashCount());
+		try {
+			new NegativeFilter(10, 1.0);
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNoFalseNegatives() {
+		NegativeFilter filter = new NegativeFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add("http://example.com/" + i, VERSION);
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain("http://example.com/" + i, VERSION));
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain("http://example.org/" + i, VERSION)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives " + falsePositives, falsePositives < 200);
+	}
+
+	@Test
+	public void testClearedWhenFullOrVersionChanges() {
+		NegativeFilter filter = new NegativeFilter(10, 0.01);
+		filter.add("a", VERSION);
+		assertTrue(filter.mightContain("a", VERSION));
+		assertFalse(filter.mightContain("a", new Object()));
+		assertEquals(0, filter.size());
+
+		for (int i = 0; i < 11; i++) {
+			filter.add("k" + i, VERSION);
+		}
+		assertEquals(1, filter.size());
+		assertTrue(filter.mightContain("k10", VERSION));
+	}
+
+	@Test
+	public void testRuleSetSkipsKnownMisses() throws URISyntaxException {
+		NegativeFilter filter = new NegativeFilter(1000, 0.0001);
+		URIRuleSet ruleSet = new URIRuleSet().setNegativeFilter(filter);
+		ruleSet.add(new PatternReplacer("a:{path}").setHost("a\\.example\\.com"));
+		URI miss = new URI("http://b.example.com/x");
+		assertSame(miss, ruleSet.rewrite(miss));
+		assertEquals(1, filter.size());
+		assertSame(miss, ruleSet.rewrite(miss));
+		assertEquals(1, filter.getSkipCount());
+		assertEquals(new URI("a:/x"),
+				ruleSet.rewrite(new URI("http://a.example.com/x")));
+
+		// a new rule clears the filter
+		ruleSet.add(new PatternReplacer("b:{path}").setHost("b\\.example\\.com"));
+		assertEquals(new URI("b:/x"), ruleSet.rewrite(miss));
+	}
+
+	@Test
+	public void testRewriterSkipsKnownMisses() throws URISyntaxException {
+		NegativeFilter filter = new NegativeFilter(1000, 0.0001);
+		PatternReplacer replacer = new PatternReplacer("a:{path}")
+				.setHost("a\\.example\\.com");
+		URIRewriter rewriter = new URIRewriter(replacer, null, filter);
+		URI miss = new URI("http://b.example.com/x");
+		assertSame(miss, rewriter.rewrite(miss));
+		assertSame(miss, rewriter.rewrite(miss));
+		assertEquals(1, filter.getSkipCount());
+
+		// changing the replacer clears the filter
+		replacer.setHost("b\\.example\\.com");
+		assertEquals(new URI("a:/x"), rewriter.rewrite(miss));
+	}
+}
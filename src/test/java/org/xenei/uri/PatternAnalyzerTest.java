@@ -0,0 +1,185 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class PatternAnalyzerTest {
+
+	@Test
+	public void testLiteral() {
+		assertEquals("http", PatternAnalyzer.literal("http"));
+		assertEquals("http", PatternAnalyzer.literal("^http$"));
+		assertEquals("www.example.com",
+				PatternAnalyzer.literal("www\\.example\\.com"));
+		assertEquals("a.b", PatternAnalyzer.literal("\\Qa.b\\E"));
+		assertEquals("cost$", PatternAnalyzer.literal("cost\\$"));
+		assertEquals("", PatternAnalyzer.literal(""));
+		assertEquals("a.b",
+				PatternAnalyzer.literal(Pattern.compile("a.b", Pattern.LITERAL)));
+	}
+
+	@Test
+	public void testNotLiteral() {
+		assertNull(PatternAnalyzer.literal("www.example.com"));
+		assertNull(PatternAnalyzer.literal("(.*)\\.example\\.com"));
+		assertNull(PatternAnalyzer.literal("https?"));
+		assertNull(PatternAnalyzer.literal("a|b"));
+		assertNull(PatternAnalyzer.literal("\\d+"));
+		assertNull(PatternAnalyzer.literal(Pattern.compile("http",
+				Pattern.CASE_INSENSITIVE)));
+		assertNull(PatternAnalyzer.literal((Pattern) null));
+	}
+
+	@Test
+	public void testPrefixAndSuffix() {
+		Pattern p = Pattern.compile("/api/v2/orders/(\\d+)");
+		assertEquals("/api/v2/orders/", PatternAnalyzer.prefix(p));
+		assertEquals("", PatternAnalyzer.suffix(p));
+
+		p = Pattern.compile("([^.]+)\\.cdn\\.example\\.org$");
+		assertEquals("", PatternAnalyzer.prefix(p));
+		assertEquals(".cdn.example.org", PatternAnalyzer.suffix(p));
+
+		p = Pattern.compile("^https?");
+		assertEquals("http", PatternAnalyzer.prefix(p));
+		assertEquals("", PatternAnalyzer.suffix(p));
+
+		p = Pattern.compile("a[x\\]]*\\Q.b\\E");
+		assertEquals("a", PatternAnalyzer.prefix(p));
+		assertEquals(".b", PatternAnalyzer.suffix(p));
+
+		assertNull(PatternAnalyzer.prefix(Pattern.compile("a|b")));
+		assertNull(PatternAnalyzer.suffix(Pattern.compile("(?i)abc")));
+		assertEquals("abc", PatternAnalyzer.suffix(Pattern.compile("(?i:x)abc")));
+	}
+
+	@Test
+	public void testSuffixLabels() {
+		assertArrayEquals(new String[] { "com", "example" },
+				HostSuffixIndex.suffixLabels(Pattern
+						.compile("(.*)\\.example\\.com")));
+		assertArrayEquals(new String[] { "com" },
+				HostSuffixIndex.suffixLabels(Pattern
+						.compile("(.*)example\\.com")));
+		assertNull(HostSuffixIndex.suffixLabels(Pattern.compile("(.*)com")));
+		assertNull(HostSuffixIndex.suffixLabels(Pattern.compile("(.*)\\.")));
+	}
+
+	@Test
+	public void testPrefixSegments() {
+		assertArrayEquals(new String[] { "api", "v2", "orders" },
+				PathPrefixIndex.prefixSegments(Pattern
+						.compile("/api/v2/orders/(\\d+)")));
+		assertArrayEquals(new String[] { "api", "v2" },
+				PathPrefixIndex.prefixSegments(Pattern
+						.compile("/api/v2/ord.*")));
+		assertNull(PathPrefixIndex.prefixSegments(Pattern.compile("/api.*")));
+		assertNull(PathPrefixIndex.prefixSegments(Pattern.compile("api/.*")));
+	}
+
+	@Test
+	public void testDisjoint() {
+		assertTrue(PatternAnalyzer.disjoint(Pattern.compile("/api/.*"),
+				Pattern.compile("/static/.*")));
+		assertTrue(PatternAnalyzer.disjoint(Pattern.compile("abc"),
+				Pattern.compile("abcd")));
+		assertTrue(PatternAnalyzer.disjoint(Pattern.compile("(.*)\\.com"),
+				Pattern.compile("(.*)\\.org")));
+		assertFalse(PatternAnalyzer.disjoint(Pattern.compile("/api/.*"),
+				Pattern.compile("/api/v2/.*")));
+		assertFalse(PatternAnalyzer.disjoint(Pattern.compile("(.*)\\.com"),
+				Pattern.compile("/api/.*")));
+		assertFalse(PatternAnalyzer.disjoint(Pattern.compile("a|b"),
+				Pattern.compile("c")));
+		assertFalse(PatternAnalyzer.disjoint(null, Pattern.compile("c")));
+	}
+
+	@Test
+	public void testBacktrackingRisk() {
+		assertEquals(0, PatternAnalyzer.backtrackingRisk("(a+)+b"));
+		assertEquals(1, PatternAnalyzer.backtrackingRisk("/(a*)*"));
+		assertEquals(0, PatternAnalyzer.backtrackingRisk("(\\w*\\.)*example"));
+		assertEquals(0, PatternAnalyzer.backtrackingRisk("((ab)*c)+"));
+		assertEquals(0, PatternAnalyzer.backtrackingRisk("(?:[a-z]+/){2,}"));
+		assertEquals(0, PatternAnalyzer.backtrackingRisk("(.*)+"));
+		// the inner group is reported when it is the nested repetition
+		assertEquals(1, PatternAnalyzer.backtrackingRisk("((a+)*)"));
+
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(a+)"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("a+b+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(ab)+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(a+)?"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(a+){1}"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(?>a+)+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(a++)+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(a+)++"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("[(a+)]+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("\\(a+\\)+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("\\Q(a+)+\\E"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk("(?i)(ab)+\\p{L}+"));
+		assertEquals(-1, PatternAnalyzer.backtrackingRisk(URIMatcher.PATH_REGEX));
+	}
+
+	@Test
+	public void testInfixAndMinLength() {
+		Pattern p = Pattern.compile("/(\\w+)/orders/(\\d+)\\.json");
+		assertEquals("/orders/", PatternAnalyzer.infix(p));
+		assertEquals(14, PatternAnalyzer.minLength(p));
+		assertEquals("", PatternAnalyzer.infix(Pattern.compile("\\d+")));
+		assertEquals(0, PatternAnalyzer.minLength(Pattern.compile("\\d+")));
+		assertNull(PatternAnalyzer.infix(Pattern.compile("a|b")));
+		assertEquals(0, PatternAnalyzer.minLength(Pattern.compile("(?i)abc")));
+	}
+
+	@Test
+	public void testDotLiteral() {
+		char d = PatternAnalyzer.DOT;
+		assertEquals("www" + d + "example" + d + "com",
+				PatternAnalyzer.dotLiteral(Pattern.compile("www.example.com")));
+		assertEquals("a" + d + ".b", PatternAnalyzer.dotLiteral(Pattern
+				.compile("^a.\\.b$")));
+		assertNull(PatternAnalyzer.dotLiteral(Pattern.compile("abc")));
+		assertNull(PatternAnalyzer.dotLiteral(Pattern.compile("a.*b")));
+		assertNull(PatternAnalyzer.dotLiteral(Pattern.compile("a.[bc]")));
+		assertNull(PatternAnalyzer.dotLiteral(Pattern.compile("a.b",
+				Pattern.DOTALL)));
+		assertNull(PatternAnalyzer.dotLiteral(Pattern.compile("a.\uFFFF")));
+	}
+
+	@Test
+	public void testValidate() {
+		String[] valid = { "", "abc", "(a|b)*c", "[]a]+", "\\Q(\\E", "{2}",
+				"a{2}{3}", "(?<name>x)\\k<name>", "(?i)abc", "\\p{L}+",
+				URIMatcher.PATH_REGEX };
+		for (String regex : valid) {
+			Pattern.compile(regex);
+			PatternAnalyzer.validate(regex);
+		}
+		String[] invalid = { "(abc", "abc)", "[abc", "*a", "a|+b", "(?:*a)",
+				"a**", "a{2", "abc\\", "\\u00" };
+		for (String regex : invalid) {
+			try {
+				PatternAnalyzer.validate(regex);
+				fail("Should have rejected " + regex);
+			} catch (PatternSyntaxException expected) {
+				assertEquals(regex, expected.getPattern());
+			}
+		}
+	}
+
+	@Test
+	public void testNonCapturing() {
+		assertEquals("(?:a)(?:b(?:c))", PatternAnalyzer.nonCapturing("(a)(b(c))"));
+		assertEquals("(?:x)(?=y)", PatternAnalyzer.nonCapturing("(?<n>x)(?=y)"));
+		assertEquals("[(]\\(\\Q(\\E(?:z)",
+				PatternAnalyzer.nonCapturing("[(]\\(\\Q(\\E(z)"));
+		// back references need the groups
+		assertEquals("(a)\\1", PatternAnalyzer.nonCapturing("(a)\\1"));
+		assertEquals("(?<n>a)\\k<n>",
+				PatternAnalyzer.nonCapturing("(?<n>a)\\k<n>"));
+	}
+}
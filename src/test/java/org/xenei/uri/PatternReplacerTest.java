@@ -4,6 +4,13 @@ import static org.junit.Assert.*;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -227,6 +234,128 @@ public class PatternReplacerTest {
 		}
 	}
 
+	@Test
+	public void malformedTokenTest() {
+		String[] patterns = { "{scheme", "{host:}", "{path:x}",
+				"{fragment:1", "{hostname}" };
+		for (String pattern : patterns) {
+			try {
+				new PatternReplacer(pattern);
+				fail("Should have thrown IllegalArgumentException for "
+						+ pattern);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().startsWith("Bad token at position 0"));
+			}
+		}
+	}
+
+	@Test
+	public void repeatedTokenReplacementTest() throws URISyntaxException {
+		patternReplacer = new PatternReplacer(
+				"{host:1}-{host:1} {port}{port} {other} {uri}").setHost(
+				HOST_PATTERN);
+		passTest("bax-bax 8080 {other} " + PATTERN_MATCH_URI,
+				PATTERN_MATCH_URI);
+	}
+
+	@Test
+	public void tokenInValueReplacementTest() throws URISyntaxException {
+		patternReplacer = new PatternReplacer("{fragment} {host}");
+		passTest("{host} example.com",
+				new URI("http", "example.com", "/foo", "{host}"));
+	}
+
+	@Test
+	public void matchReplacementTest() throws URISyntaxException {
+		patternReplacer = new PatternReplacer("{host:1} {path:2}").setHost(
+				HOST_PATTERN).setPath(PATH_PATTERN);
+		URIMatch match = patternReplacer.match(PATTERN_MATCH_URI);
+		assertNotNull(match);
+		assertEquals("bax foo2", patternReplacer.populate(match));
+	}
+
+	@Test
+	public void buildTest() {
+		PatternReplacer builder = new PatternReplacer("{host:1} {path:2}")
+				.setHost(HOST_PATTERN).setPath(PATH_PATTERN);
+		PatternReplacer built = builder.build();
+		assertTrue(built instanceof ImmutablePatternReplacer);
+		assertSame(built, built.build());
+		assertEquals(builder, built);
+		assertEquals("bax foo2", built.populate(PATTERN_MATCH_URI));
+
+		// changing the builder does not change the built replacer
+		builder.setHost("nomatch");
+		assertFalse(builder.matches(PATTERN_MATCH_URI));
+		assertTrue(built.matches(PATTERN_MATCH_URI));
+		try {
+			built.setHost("nomatch");
+			fail("Should have thrown UnsupportedOperationException");
+		} catch (UnsupportedOperationException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void sharedBuildTest() throws Exception {
+		final URIRewriter rewriter = new URIRewriter(new PatternReplacer(
+				"http://{host:1}.example.org{path}").setHost(HOST_PATTERN)
+				.build());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++) {
+				final int thread = t;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						for (int i = 0; i < 1000; i++) {
+							String host = "h" + thread + "x" + i;
+							URI uri = rewriter.rewrite(new URI("http://" + host
+									+ ".example.com/p" + i));
+							if (!uri.toString().equals(
+									"http://" + host + ".example.org/p" + i)) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void populateAllTest() throws URISyntaxException {
+		patternReplacer = new PatternReplacer("{host:1} {path:2}").setHost(
+				HOST_PATTERN).setPath(PATH_PATTERN);
+		URI[] uris = { PATTERN_MATCH_URI, new URI("http://example.com/nomatch") };
+		BatchResult<String> result = patternReplacer.populateAll(uris);
+		assertEquals("bax foo2", result.get(0));
+		assertNull(result.get(1));
+		assertTrue(result.getError(1) instanceof IllegalArgumentException);
+		assertEquals(1, result.getErrorCount());
+	}
+
+	@Test
+	public void charSequenceReplacementTest() {
+		patternReplacer = new PatternReplacer("{host:1} {path:2} {uri}").setHost(
+				HOST_PATTERN).setPath(PATH_PATTERN);
+		String uri = PATTERN_MATCH_URI.toString();
+		assertEquals("bax foo2 " + uri, patternReplacer.populate(uri));
+		try {
+			patternReplacer.populate("http://example.com/nomatch");
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
 	//	@Test
 //	public void emptyHostReplacementTest() throws URISyntaxException {
 //
@@ -286,4 +415,64 @@ public class PatternReplacerTest {
 //		passTest("http example.com 80  bar", NO_PATH);
 //		failTest(NO_FRAGMENT);
 //	}
+
+	@Test
+	public void queryReplacementTest() throws URISyntaxException {
+		patternReplacer = new PatternReplacer(
+				"http://new.example.com{path}?id={param:id}&{query}");
+		patternReplacer.setParameter("id", "\\d+");
+		assertEquals("http://new.example.com/item?id=42&x=a%20b&id=42",
+				patternReplacer.populate(new URI(
+						"http://example.com/item?x=a%20b&id=42")));
+		// missing parameters are replaced with nothing
+		patternReplacer = new PatternReplacer("{param:id}|{query:1}");
+		patternReplacer.setQuery("x=(.*)");
+		assertEquals("|a%20b", patternReplacer.populate(new URI(
+				"http://example.com/item?x=a%20b")));
+		try {
+			new PatternReplacer("{param:}");
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rawReplacementTest() throws URISyntaxException {
+		URI uri = new URI("http://example.com/docs/a%20b%3Fc#s%201");
+		patternReplacer = new PatternReplacer(
+				"http://new.example.com/{path:1}#{fragment}");
+		patternReplacer.setPath("/docs/(.*)");
+		// decoded values can not be re-parsed as a URI
+		assertEquals("http://new.example.com/a b?c#s 1",
+				patternReplacer.populate(uri));
+		patternReplacer.setRawMatching(true);
+		assertEquals("http://new.example.com/a%20b%3Fc#s%201",
+				patternReplacer.populate(uri));
+		assertEquals(new URI("http://new.example.com/a%20b%3Fc#s%201"),
+				new URIRewriter(patternReplacer).rewrite(uri));
+	}
+
+	@Test
+	public void foreignMatchTest() throws URISyntaxException {
+		patternReplacer = new PatternReplacer("{host:1}")
+				.setHost("(.*)\\.example\\.com");
+		URI uri = new URI("http://www.example.com/a");
+		// a built copy shares the patterns
+		assertEquals("www", patternReplacer.populate(patternReplacer.build()
+				.match(uri)));
+		URIMatch other = new PatternReplacer("{host}").match(uri);
+		try {
+			patternReplacer.populate(other);
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+		try {
+			patternReplacer.populate(other, new StringBuilder());
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
 }
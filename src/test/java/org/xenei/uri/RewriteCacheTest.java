@@ -0,0 +1,138 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RewriteCacheTest {
+	private static final Object VERSION = new Object();
+
+	@Test
+	public void testLru() {
+		RewriteCache cache = new RewriteCache(3);
+		cache.put("a", "A", null);
+		assertNull("Put before the first lookup is ignored", cache.get("a",
+				VERSION));
+		cache.put("a", "A", VERSION);
+		cache.put("b", "B", VERSION);
+		cache.put("c", "C", VERSION);
+		assertEquals("A", cache.get("a", VERSION));
+		cache.put("d", "D", VERSION);
+		// b was the least recently used
+		assertNull(cache.get("b", VERSION));
+		assertEquals("A", cache.get("a", VERSION));
+		assertEquals("C", cache.get("c", VERSION));
+		assertEquals("D", cache.get("d", VERSION));
+		assertEquals(3, cache.size());
+
+		RewriteCache.Stats stats = cache.getStats();
+		assertEquals(4, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(1, stats.getEvictionCount());
+	}
+
+	@Test
+	public void testVersionChangeClears() {
+		RewriteCache cache = new RewriteCache(10);
+		cache.get("a", VERSION);
+		cache.put("a", "A", VERSION);
+		assertEquals("A", cache.get("a", VERSION));
+		Object other = new Object();
+		assertNull(cache.get("a", other));
+		assertEquals(0, cache.size());
+		// a result computed with the old rules is not cached
+		cache.put("a", "A", VERSION);
+		assertNull(cache.get("a", other));
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException {
+		RewriteCache cache = new RewriteCache(10, RewriteCache.Policy.LRU, 20,
+				TimeUnit.MILLISECONDS);
+		cache.get("a", VERSION);
+		cache.put("a", "A", VERSION);
+		assertEquals("A", cache.get("a", VERSION));
+		Thread.sleep(50);
+		assertNull(cache.get("a", VERSION));
+		assertEquals(1, cache.getStats().getEvictionCount());
+	}
+
+	@Test
+	public void testTinyLfuResistsScan() {
+		RewriteCache lru = new RewriteCache(100);
+		RewriteCache lfu = new RewriteCache(100, RewriteCache.Policy.TINY_LFU);
+		for (RewriteCache cache : new RewriteCache[] { lru, lfu }) {
+			cache.get("warm", VERSION);
+			for (int round = 0; round < 20; round++) {
+				// a hot set of 50 keys
+				for (int i = 0; i < 50; i++) {
+					request(cache, "hot" + i);
+				}
+				// followed by a scan of keys that are never seen again
+				for (int i = 0; i < 200; i++) {
+					request(cache, "scan" + round + "-" + i);
+				}
+			}
+			assertTrue(cache.size() <= 100);
+		}
+		// the LRU cache is flushed by every scan, TinyLFU keeps the hot set
+		assertTrue(lru.getStats().toString(),
+				lru.getStats().getHitCount() == 0);
+		assertTrue(lfu.getStats().toString(),
+				lfu.getStats().getHitCount() > 50 * 15);
+	}
+
+	private static void request(RewriteCache cache, String key) {
+		if (cache.get(key, VERSION) == null) {
+			cache.put(key, key.toUpperCase(), VERSION);
+		}
+	}
+
+	@Test
+	public void testSegmentedSize() {
+		RewriteCache cache = new RewriteCache(1000,
+				RewriteCache.Policy.TINY_LFU);
+		cache.get("x", VERSION);
+		for (int i = 0; i < 5000; i++) {
+			request(cache, "k" + i);
+		}
+		assertTrue(cache.size() <= 1000);
+		assertEquals(1000, cache.getMaximumSize());
+	}
+
+	@Test
+	public void testRewriterCache() throws URISyntaxException {
+		PatternReplacer replacer = new PatternReplacer("http://{host:1}.example.org{path}")
+				.setHost("([^.]+)\\.example\\.com");
+		RewriteCache cache = new RewriteCache(10);
+		URIRewriter rewriter = new URIRewriter(replacer, cache);
+		URI uri = new URI("http://www.example.com/foo");
+		URI result = rewriter.rewrite(uri);
+		assertEquals(new URI("http://www.example.org/foo"), result);
+		assertSame(result, rewriter.rewrite(uri));
+		assertEquals(1, cache.getStats().getHitCount());
+
+		// changing the replacer invalidates the cache
+		replacer.setHost("nomatch");
+		assertSame(uri, rewriter.rewrite(uri));
+	}
+
+	@Test
+	public void testRuleSetCache() throws URISyntaxException {
+		RewriteCache cache = new RewriteCache(10);
+		URIRuleSet ruleSet = new URIRuleSet().setCache(cache);
+		ruleSet.add(new PatternReplacer("a:{path}").setHost("a\\.example\\.com"));
+		URI uri = new URI("http://a.example.com/x");
+		assertEquals(new URI("a:/x"), ruleSet.rewrite(uri));
+		assertEquals(new URI("a:/x"), ruleSet.rewrite(uri));
+		assertEquals(1, cache.getStats().getHitCount());
+
+		// adding a rule invalidates the cache
+		ruleSet.add(new PatternReplacer("first:{path}").setPath("/x"), -1);
+		assertEquals(new URI("first:/x"), ruleSet.rewrite(uri));
+	}
+}
@@ -0,0 +1,118 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RuleFileTest {
+
+	private static final String RULES = "# sample rules\n"
+			+ "[rule]\n"
+			+ "priority = 10\n"
+			+ "scheme = https?\n"
+			+ "host = (.+)\\.example\\.com\n"
+			+ "path = /api/v2/(.*)\n"
+			+ "replace = https://api.example.com/{host:1}/{path:1}\n"
+			+ "\n"
+			+ "[rule]\n"
+			+ "host = example\\.org\n"
+			+ "port = 8080\n"
+			+ "fragment =\n"
+			+ "replace = http://example.net{path}\n";
+
+	@Test
+	public void testLoad() throws Exception {
+		URIRuleSet ruleSet = new URIRuleSet();
+		assertEquals(2, RuleFile.load(new StringReader(RULES), ruleSet));
+		assertEquals(new URI("https://api.example.com/www/orders"),
+				ruleSet.rewrite(new URI("http://www.example.com/api/v2/orders")));
+		assertEquals(new URI("http://example.net/a"),
+				ruleSet.rewrite(new URI("http://example.org:8080/a")));
+		// the empty fragment expression matches URIs without a fragment
+		assertNull(ruleSet.match(new URI("http://example.org:8080/a#b")));
+		assertNull(ruleSet.match(new URI("http://example.org/a")));
+		assertArrayEquals(new int[] { 0, 10 }, ruleSet.getPriorities());
+	}
+
+	@Test
+	public void testStreaming() throws IOException {
+		final List<String> seen = new ArrayList<String>();
+		int count = RuleFile.read(new StringReader(RULES), (rule, priority) -> {
+			seen.add(priority + " " + rule.getExpression(URIComponent.HOST));
+		});
+		assertEquals(2, count);
+		assertEquals("10 (.+)\\.example\\.com", seen.get(0));
+		assertEquals("0 example\\.org", seen.get(1));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		URIRuleSet ruleSet = new URIRuleSet();
+		RuleFile.load(new StringReader(RULES), ruleSet);
+		StringWriter writer = new StringWriter();
+		RuleFile.write(ruleSet, writer);
+		URIRuleSet copy = new URIRuleSet();
+		RuleFile.load(new StringReader(writer.toString()), copy);
+		assertEquals(ruleSet.getRules(), copy.getRules());
+		assertArrayEquals(ruleSet.getPriorities(), copy.getPriorities());
+	}
+
+	@Test
+	public void testErrors() throws IOException {
+		assertError("host = a\n", "Line 1: Expected [rule]");
+		assertError("[rule]\nhost\n", "Line 2: Expected key = value");
+		assertError("[rule]\nhots = a\n", "Line 2: Unknown key 'hots'");
+		assertError("[rule]\nhost = a\nhost = b\n",
+				"Line 3: Duplicate key 'host'");
+		assertError("[rule]\nport = http\n",
+				"Line 2: The port 'http' is not a number");
+		assertError("[rule]\nhost = a\n\n[rule]\nreplace = x\n",
+				"Line 1: Rule has no replace key");
+		assertError("[rule]\n\npath = /(a\nreplace = x\n", "Line 1: ");
+	}
+
+	private void assertError(String text, String message) throws IOException {
+		try {
+			RuleFile.read(new StringReader(text), (rule, priority) -> {
+			});
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage()
+					.startsWith(message));
+		}
+	}
+
+	@Test
+	public void testQuery() throws Exception {
+		String rules = "[rule]\n"
+				+ "path = /search\n"
+				+ "query = .*q=.*\n"
+				+ "param.page = \\d+\n"
+				+ "param.q = (.+)\n"
+				+ "raw = true\n"
+				+ "replace = http://search.example.com/?q={param:q}&p={param:page}\n";
+		URIRuleSet ruleSet = new URIRuleSet();
+		RuleFile.load(new StringReader(rules), ruleSet);
+		assertEquals(new URI("http://search.example.com/?q=a+b&p=3"),
+				ruleSet.rewrite(new URI("http://example.com/search?q=a+b&page=3")));
+		assertNull(ruleSet.match(new URI("http://example.com/search?q=a&page=x")));
+
+		StringWriter writer = new StringWriter();
+		RuleFile.write(ruleSet, writer);
+		URIRuleSet copy = new URIRuleSet();
+		RuleFile.load(new StringReader(writer.toString()), copy);
+		assertEquals(ruleSet.getRules(), copy.getRules());
+		assertTrue(copy.getRules().get(0).isRawMatching());
+		assertError("[rule]\nraw = yes\n",
+				"Line 2: The raw value 'yes' is not true or false");
+		assertError("[rule]\nparam.q = a\nparam.q = b\n",
+				"Line 3: Duplicate key 'param.q'");
+	}
+}
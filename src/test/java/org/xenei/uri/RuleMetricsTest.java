@@ -0,0 +1,163 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+public class RuleMetricsTest {
+	private static String HOST_PATTERN = "([^\\.]*)?.example.([^\\.]+)";
+
+	@Test
+	public void testRewriterMetrics() throws URISyntaxException {
+		RuleMetrics metrics = new RuleMetrics();
+		PatternReplacer replacer = new PatternReplacer(
+				"{scheme}://{host:1}.{host:2}/{fragment}").setHost(HOST_PATTERN)
+				.setPort(80).setRecorder(metrics);
+		URIRewriter rewriter = new URIRewriter(replacer);
+		rewriter.rewrite(new URI("http://a.example.com:80/x"));
+		rewriter.rewrite(new URI("http://b.example.com:80/y"));
+		rewriter.rewrite(new URI("http://example.org:80/z"));
+		rewriter.rewrite(new URI("http://a.example.com:81/x"));
+		try {
+			rewriter.rewrite(new URI("http", null, "c.example.com", 80, "/",
+					null, "a b"));
+			fail("Should have thrown URISyntaxException");
+		} catch (URISyntaxException expected) {
+			// expected
+		}
+
+		RuleMetrics.RuleSnapshot s = metrics.snapshot(replacer);
+		assertEquals(3, s.getMatchCount());
+		assertEquals(2, s.getMissCount());
+		assertEquals(Long.valueOf(1), s.getMissCounts().get(URIComponent.HOST));
+		assertEquals(Long.valueOf(1), s.getMissCounts().get(URIComponent.PORT));
+		assertEquals(2, s.getRewriteCount());
+		assertEquals(1, s.getRewriteFailureCount());
+		assertEquals(5, s.getMatchLatency().getCount());
+		assertEquals(2, s.getRewriteLatency().getCount());
+
+		// the recorder is carried to the built replacer
+		PatternReplacer built = replacer.build();
+		assertSame(metrics, built.getRecorder());
+		built.matches(new URI("http://a.example.com:80/x"));
+		assertEquals(2, metrics.getRuleCount());
+		assertEquals(4, metrics.getMatchCount());
+
+		metrics.reset();
+		assertEquals(0, metrics.getMatchCount());
+		assertEquals(0, metrics.snapshot(replacer).getMatchLatency()
+				.getCount());
+	}
+
+	@Test
+	public void testRuleSetMetrics() throws URISyntaxException {
+		RuleMetrics metrics = new RuleMetrics();
+		PatternReplacer a = new PatternReplacer("http://a/{path}")
+				.setHost("a\\.example\\.com");
+		PatternReplacer b = new PatternReplacer("http://b/{path}")
+				.setHost("b\\.example\\.com");
+		URIRuleSet ruleSet = new URIRuleSet().add(a).setRecorder(metrics)
+				.add(b);
+		assertSame(metrics, a.getRecorder());
+		assertSame(metrics, b.getRecorder());
+		for (int i = 0; i < 3; i++) {
+			ruleSet.rewrite(new URI("http://b.example.com/x"));
+		}
+		ruleSet.rewrite(new URI("http://a.example.com/x"));
+		List<RuleMetrics.RuleSnapshot> rules = metrics.snapshot();
+		assertEquals(3, rules.get(0).getMatchCount());
+		assertTrue(rules.get(0).getName().contains("http://b/"));
+		assertEquals(1, rules.get(1).getMatchCount());
+
+		ruleSet.setRecorder(null);
+		assertSame(MetricsRecorder.NOOP, a.getRecorder());
+	}
+
+	@Test
+	public void testRemovedRules() throws URISyntaxException {
+		RuleMetrics metrics = new RuleMetrics();
+		PatternReplacer a = new PatternReplacer("http://a/{path}")
+				.setHost("a\\.example\\.com");
+		PatternReplacer b = new PatternReplacer("http://b/{path}")
+				.setHost("b\\.example\\.com");
+		URIRuleSet ruleSet = new URIRuleSet().add(a).add(b)
+				.setRecorder(metrics);
+		ruleSet.rewrite(new URI("http://a.example.com/x"));
+		ruleSet.rewrite(new URI("http://b.example.com/x"));
+		assertEquals(2, metrics.getRuleCount());
+
+		// the removed rule is no longer held by the metrics
+		assertTrue(ruleSet.remove(a));
+		assertEquals(1, metrics.getRuleCount());
+		assertNull(metrics.snapshot(a));
+		assertNotNull(metrics.snapshot(b));
+
+		ruleSet.clear();
+		assertEquals(0, metrics.getRuleCount());
+	}
+
+	@Test
+	public void testNoop() throws URISyntaxException {
+		URIMatcher matcher = new URIMatcher().setHost(HOST_PATTERN);
+		assertSame(MetricsRecorder.NOOP, matcher.getRecorder());
+		matcher.setRecorder(new RuleMetrics()).setRecorder(null);
+		assertSame(MetricsRecorder.NOOP, matcher.getRecorder());
+		assertTrue(matcher.matches(new URI("http://a.example.com/")));
+	}
+
+	@Test
+	public void testTimeout() throws URISyntaxException {
+		RuleMetrics metrics = new RuleMetrics();
+		URIMatcher matcher = new URIMatcher().setPath("/(.*a){12}")
+				.setBudget(new MatchBudget(1000)).setRecorder(metrics);
+		try {
+			matcher.matches(new URI("http://example.com/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!"));
+			fail("Should have thrown MatchTimeoutException");
+		} catch (MatchTimeoutException expected) {
+			// expected
+		}
+		RuleMetrics.RuleSnapshot s = metrics.snapshot(matcher);
+		assertEquals(1, s.getTimeoutCount());
+		assertEquals(0, s.getMissCount());
+		assertEquals(1, metrics.getTimeoutCount());
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		RuleMetrics metrics = new RuleMetrics();
+		URIMatcher matcher = new URIMatcher().setHost(HOST_PATTERN)
+				.setRecorder(metrics);
+		matcher.matches(new URI("http://a.example.com/"));
+		ObjectName name = metrics.register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(1L, server.getAttribute(name, "MatchCount"));
+			CompositeData[] rules = (CompositeData[]) server.getAttribute(
+					name, "Rules");
+			assertEquals(1, rules.length);
+			assertEquals(1L, rules[0].get("matchCount"));
+			CompositeData latency = (CompositeData) rules[0]
+					.get("matchLatency");
+			assertEquals(1L, latency.get("count"));
+			try {
+				metrics.register("again");
+				fail("Should have thrown IllegalStateException");
+			} catch (IllegalStateException expected) {
+				// expected
+			}
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+				name));
+	}
+}
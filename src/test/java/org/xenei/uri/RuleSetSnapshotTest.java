@@ -0,0 +1,143 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RuleSetSnapshotTest {
+
+	private URIRuleSet ruleSet;
+
+	@Before
+	public void setup() throws Exception {
+		ruleSet = new URIRuleSet();
+		RuleFile.load(new StringReader("[rule]\n"
+				+ "host = (.+)\\.example\\.com\n"
+				+ "path = /api/(.*)\n"
+				+ "replace = https://api.example.com/{host:1}/{path:1}\n"
+				+ "[rule]\n"
+				+ "priority = -1\n"
+				+ "host = www\\.example\\.com\n"
+				+ "port = -1\n"
+				+ "replace = https://www.example.com{path}\n"
+				+ "[rule]\n"
+				+ "scheme = ftp\n"
+				+ "host =\n"
+				+ "replace = file:{path}\n"
+				+ "[rule]\n"
+				+ "host = example\\.org\n"
+				+ "query = .+\n"
+				+ "param.id = \\d+\n"
+				+ "replace = https://example.org/item/{param:id}\n"), ruleSet);
+	}
+
+	@Test
+	public void testFileRoundTrip() throws Exception {
+		Path file = Files.createTempFile("rules", ".snapshot");
+		try {
+			RuleSetSnapshot.write(ruleSet, file);
+			URIRuleSet copy = RuleSetSnapshot.read(file);
+			assertEquals(ruleSet.getRules(), copy.getRules());
+			assertArrayEquals(ruleSet.getPriorities(), copy.getPriorities());
+			// the index is restored from the snapshot
+			assertTrue(copy.getRuleEngine() instanceof RuleIndex);
+			String[] uris = { "http://www.example.com/api/x",
+					"http://www.example.com:81/api/x",
+					"http://cdn.example.com/api/x", "ftp:/pub/file",
+					"http://example.org/", "http://example.org/?id=7",
+					"http://example.org/?id=x" };
+			for (String uri : uris) {
+				assertEquals(uri, ruleSet.rewrite(new URI(uri)),
+						copy.rewrite(new URI(uri)));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testEngine() throws Exception {
+		ruleSet.setEngine(URIRuleSet.Engine.AUTOMATON);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RuleSetSnapshot.write(ruleSet, out);
+		URIRuleSet copy = RuleSetSnapshot.read(ByteBuffer.wrap(out
+				.toByteArray()));
+		assertEquals(URIRuleSet.Engine.AUTOMATON, copy.getEngine());
+		assertEquals(new URI("https://api.example.com/cdn/x"),
+				copy.rewrite(new URI("http://cdn.example.com/api/x")));
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RuleSetSnapshot.write(ruleSet, out);
+		byte[] bytes = out.toByteArray();
+		assertInvalid(ByteBuffer.wrap(bytes, 0, bytes.length - 3), "truncated");
+		bytes[0] = 0;
+		assertInvalid(ByteBuffer.wrap(bytes), "bad magic number");
+	}
+
+	@Test
+	public void testStoredIndexKeys() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RuleSetSnapshot.write(ruleSet, out);
+		byte[] bytes = out.toByteArray();
+		// the host suffix rule is keyed by com, example. Store it under
+		// port 0 so that the index can no longer find it.
+		byte[] key = { 0, 0, 0, 3, 0, 0, 0, 0, 0, 0, 0, 2, 0, 0, 0, 3, 'c',
+				'o', 'm' };
+		int pos = indexOf(bytes, key);
+		assertTrue(pos > 0);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.putInt(pos, RuleIndex.Key.PORT);
+		URI uri = new URI("http://cdn.example.com/api/x");
+
+		// the stored keys are trusted
+		URIRuleSet copy = RuleSetSnapshot.read(buffer);
+		assertTrue(copy.getRuleEngine() instanceof RuleIndex);
+		assertEquals(uri, copy.rewrite(uri));
+
+		// keys from another key selection version are ignored
+		buffer.clear();
+		buffer.putInt(8, RuleIndex.KEY_VERSION + 1);
+		copy = RuleSetSnapshot.read(buffer);
+		assertEquals(URIRuleSet.Engine.INDEX, copy.getEngine());
+		assertEquals(new URI("https://api.example.com/cdn/x"),
+				copy.rewrite(uri));
+
+		buffer.clear();
+		buffer.putInt(pos, 9);
+		assertInvalid(buffer, "bad index key");
+	}
+
+	private static int indexOf(byte[] bytes, byte[] target) {
+		for (int i = 0; i + target.length <= bytes.length; i++) {
+			int j = 0;
+			while (j < target.length && bytes[i + j] == target[j]) {
+				j++;
+			}
+			if (j == target.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void assertInvalid(ByteBuffer buffer, String message) {
+		try {
+			RuleSetSnapshot.read(buffer);
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			assertEquals("Invalid rule set snapshot: " + message,
+					expected.getMessage());
+		}
+	}
+}
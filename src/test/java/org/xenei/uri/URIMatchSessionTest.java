@@ -0,0 +1,117 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class URIMatchSessionTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int WARMUP = 20000;
+	private static final int ITERATIONS = 10000;
+
+	private static PatternReplacer replacer() {
+		return new PatternReplacer(
+				"{scheme}://{host:1}.example.org:{port}{path:1}/a%20b#{fragment}")
+				.setScheme("http").setHost("([^.]+)\\.example\\.com")
+				.setPath("(/[^/]+)/.*");
+	}
+
+	@Test
+	public void testMatch() {
+		URIMatchSession session = new URIMatchSession(replacer());
+		URIMatch match = session.match("http://www.example.com/foo/bar#frag");
+		assertNotNull(match);
+		assertEquals("www", match.group(URIComponent.HOST, 1));
+		assertEquals("/foo", match.group(URIComponent.PATH, 1));
+		assertNull(session.match("http://www.example.org/foo/bar"));
+		// the match is reused
+		assertSame(match, session.match("http://mail.example.com/x/y"));
+		assertEquals("mail", match.group(URIComponent.HOST, 1));
+		assertEquals("", match.getValue(URIComponent.FRAGMENT));
+		assertTrue(session.matches(ByteBuffer.wrap("http://a.example.com/b/c"
+				.getBytes(UTF8))));
+	}
+
+	@Test
+	public void testPopulateAndRewrite() {
+		PatternReplacer replacer = replacer();
+		URIMatchSession session = new URIMatchSession(replacer);
+		String uri = "http://www.example.com:8080/foo/bar#frag";
+		StringBuilder sb = new StringBuilder();
+		assertTrue(session.populate(uri, sb));
+		assertEquals(replacer.populate(uri), sb.toString());
+		assertFalse(session.populate("ftp://www.example.com/foo/bar", sb));
+
+		ByteBuffer in = ByteBuffer.wrap(uri.getBytes(UTF8));
+		ByteBuffer out = ByteBuffer.allocate(128);
+		assertTrue(session.rewrite(in, out));
+		out.flip();
+		assertEquals(replacer.populate(uri), UTF8.decode(out).toString());
+	}
+
+	@Test
+	public void testNotPatternReplacer() {
+		URIMatchSession session = new URIMatchSession(new URIMatcher());
+		try {
+			session.populate("http://example.com", new StringBuilder());
+			fail("Should have thrown IllegalStateException");
+		} catch (IllegalStateException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSteadyStateDoesNotAllocate() throws Exception {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Method allocated;
+		try {
+			allocated = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+			Assume.assumeTrue(((Long) allocated.invoke(bean, Thread
+					.currentThread().getId())) >= 0);
+		} catch (ClassNotFoundException e) {
+			Assume.assumeNoException(e);
+			return;
+		}
+		URIMatchSession session = new URIMatchSession(replacer());
+		String[] uris = { "http://www.example.com:8080/foo/bar#frag",
+				"http://mail.example.com/caf%C3%A9/menu",
+				"http://www.example.org/no/match" };
+		ByteBuffer[] buffers = new ByteBuffer[uris.length];
+		for (int i = 0; i < uris.length; i++) {
+			buffers[i] = ByteBuffer.allocateDirect(64);
+			buffers[i].put(uris[i].getBytes(UTF8)).flip();
+		}
+		StringBuilder sb = new StringBuilder(128);
+		ByteBuffer out = ByteBuffer.allocate(128);
+
+		run(session, uris, buffers, sb, out, WARMUP);
+		long id = Thread.currentThread().getId();
+		long before = (Long) allocated.invoke(bean, id);
+		run(session, uris, buffers, sb, out, ITERATIONS);
+		long after = (Long) allocated.invoke(bean, id);
+		// allow for the measurement itself, anything per iteration would be
+		// far larger.
+		assertTrue("Allocated " + (after - before) + " bytes",
+				after - before < 1024);
+	}
+
+	private static void run(URIMatchSession session, String[] uris,
+			ByteBuffer[] buffers, StringBuilder sb, ByteBuffer out, int count) {
+		for (int i = 0; i < count; i++) {
+			int idx = i % uris.length;
+			session.matches(uris[idx]);
+			sb.setLength(0);
+			session.populate(uris[idx], sb);
+			out.clear();
+			session.rewrite(buffers[idx], out);
+		}
+	}
+}
@@ -4,6 +4,11 @@ import static org.junit.Assert.*;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.junit.Before;
@@ -422,4 +427,325 @@ public class URIMatcherTest {
 		assertEquals( 5, matcher.getFragmentPosition());
 		
 	}
+	@Test
+	public void testMatch() throws URISyntaxException
+	{
+		URI uri = new URI( "http://www.example.com:80/foo/bar#frag");
+		matcher.setHost( "(.*)\\.example\\.com" ).setPath( "/foo/(.*)" );
+		URIMatch match = matcher.match( uri );
+		assertNotNull( "Should have matched", match );
+		assertSame( uri, match.getURI() );
+		assertSame( matcher, match.getMatcher() );
+		assertEquals( "www", match.group( URIComponent.HOST, 1 ));
+		assertEquals( "bar", match.group( URIComponent.PATH, 1 ));
+		assertEquals( "http", match.group( URIComponent.SCHEME, 0 ));
+		assertNull( "Unconstrained scheme has a result", match.getResult( URIComponent.SCHEME ));
+		assertNotNull( "Constrained host has no result", match.getResult( URIComponent.HOST ));
+		assertEquals( "80", match.getValue( URIComponent.PORT ));
+		assertEquals( 80, match.getPort() );
+		
+		assertNull( "Should not have matched", matcher.match( new URI( "http://example.com/foo/bar")));
+	}
+
+	@Test
+	public void testBudget() throws URISyntaxException {
+		URI hostile = new URI("http://example.com/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!");
+		matcher.setPath("/(.*a){12}");
+		assertEquals(1, matcher.getBacktrackingRisks().size());
+		assertTrue(matcher.getBacktrackingRisks().get(0).startsWith("PATH"));
+		matcher.setBudget(new MatchBudget(1000000));
+		assertTrue(matcher.matches(new URI("http://example.com/aaaaaaaaaaaa")));
+		assertFalse(matcher.matches(new URI("http://example.com/b")));
+		try {
+			matcher.matches(hostile);
+			fail("Should have thrown MatchTimeoutException");
+		} catch (MatchTimeoutException expected) {
+			assertEquals(URIComponent.PATH, expected.getComponent());
+			assertSame(matcher, expected.getMatcher());
+			assertTrue(expected.getSteps() > 1000000);
+		}
+		// the budget is copied by build()
+		URIMatcher built = matcher.build();
+		assertNotNull(built.getBudget());
+		try {
+			built.matches(hostile.toString());
+			fail("Should have thrown MatchTimeoutException");
+		} catch (MatchTimeoutException expected) {
+			// expected
+		}
+
+		// a deadline stops the match
+		matcher.setBudget(new MatchBudget(Long.MAX_VALUE, 50,
+				TimeUnit.MILLISECONDS));
+		long start = System.nanoTime();
+		try {
+			matcher.matches(hostile);
+			fail("Should have thrown MatchTimeoutException");
+		} catch (MatchTimeoutException expected) {
+			assertTrue(expected.getMessage().contains("deadline"));
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+		// a batch reports the timeout for the item only
+		matcher.setBudget(new MatchBudget(1000000));
+		BatchResult<Boolean> result = matcher.matchesAll(new URI[] {
+				new URI("http://example.com/aaaaaaaaaaaa"), hostile });
+		assertTrue(result.get(0));
+		assertTrue(result.getError(1) instanceof MatchTimeoutException);
+
+		matcher.setBudget(null).setPath("/(a+)b");
+		assertTrue(matcher.getBacktrackingRisks().isEmpty());
+	}
+
+	@Test
+	public void testPatternPool() {
+		URIMatcher other = new URIMatcher().setScheme("https?")
+				.setHost("(.+)\\.example\\.com").setPort(8080);
+		matcher.setScheme(new String("https?"))
+				.setHost(new String("(.+)\\.example\\.com")).setPort(8080);
+		// equal expressions share one compiled pattern
+		assertSame(other.getScheme(), matcher.getScheme());
+		assertSame(other.getHost(), matcher.getHost());
+		assertEquals(Integer.valueOf(8080), matcher.getPort());
+		assertEquals(other, matcher);
+		assertEquals(other.hashCode(), matcher.hashCode());
+		// the regular expression text is cached until a setter is called
+		assertSame(matcher.asRegEx(), matcher.asRegEx());
+		matcher.setPort(null);
+		assertNull(matcher.getPort());
+		assertFalse(other.equals(matcher));
+		assertTrue(matcher.matches("https://www.example.com:81/"));
+		assertFalse(other.matches("https://www.example.com:81/"));
+	}
+
+	@Test
+	public void testPrefilter() throws URISyntaxException {
+		// unescaped dots are matched without the regular expression
+		matcher.setHost("www.example.com").setPath("/api/(\\w+)/orders/(\\d+)");
+		URIMatch match = matcher.match(new URI("http://wwwXexampleXcom/api/v2/orders/7"));
+		assertNotNull("Should have matched", match);
+		assertEquals("wwwXexampleXcom", match.group(URIComponent.HOST, 0));
+		assertEquals("v2", match.group(URIComponent.PATH, 1));
+		assertEquals("7", match.group(URIComponent.PATH, 2));
+		assertFalse(matcher.matches(new URI("http://www.example.co/api/v2/orders/7")));
+		assertFalse(matcher.matches(new URI("http://www.example.com/app/v2/orders/7")));
+		assertFalse(matcher.matches(new URI("http://www.example.com/api/v2/order/7")));
+
+		// a wildcard matches a surrogate pair
+		matcher.setHost(null).setPath("/caf.");
+		assertTrue(matcher.matches(new URI("http://example.com/caf%F0%9F%98%80")));
+		assertTrue(matcher.matches(new URI("http://example.com/cafe")));
+		assertFalse(matcher.matches(new URI("http://example.com/cafes")));
+		assertFalse(matcher.matches(new URI("http://example.com/caf%0A")));
+
+		// the prefilter agrees with the regular expression
+		String[] values = { "/api/v2/orders/7", "/api//orders/7",
+				"/api/v2/orders/", "/api/v2/orders/7x", "/api/v2/orders/orders/7",
+				"/x/api/v2/orders/7" };
+		matcher.setPath("/api/(\\w+)/orders/(\\d+)");
+		Pattern p = matcher.getPath();
+		for (String value : values) {
+			assertEquals(value, p.matcher(value).matches(),
+					matcher.matches(new URI("http", "example.com", value, null)));
+		}
+	}
+
+	@Test
+	public void testMatchesAll() throws URISyntaxException {
+		matcher.setHost("(.+)\\.example\\.com").setPath("/even/.*");
+		List<URI> uris = new ArrayList<URI>();
+		for (int i = 0; i < 1000; i++) {
+			uris.add(new URI(String.format("http://h%s.example.com/%s/%s", i,
+					i % 2 == 0 ? "even" : "odd", i)));
+		}
+		BatchResult<Boolean> result = matcher.matchesAll(uris);
+		assertEquals(1000, result.size());
+		assertFalse(result.hasErrors());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i % 2 == 0, result.get(i));
+		}
+		result = matcher.matchesAll(new URI[] { uris.get(0), null });
+		assertTrue(result.get(0));
+		assertNotNull(result.getError(1));
+	}
+
+	@Test
+	public void testMatchCharSequence()
+	{
+		String uri = "http://www.example.com:80/foo/bar#frag";
+		matcher.setScheme( "http" ).setHost( "(.*)\\.example\\.com" ).setPort( 80 ).setPath( "/foo/(.*)" );
+		URIMatch match = matcher.match( uri );
+		assertNotNull( "Should have matched", match );
+		assertEquals( uri, match.getText() );
+		assertEquals( URI.create( uri ), match.getURI() );
+		assertEquals( "www", match.group( URIComponent.HOST, 1 ));
+		assertEquals( "bar", match.group( URIComponent.PATH, 1 ));
+		assertEquals( "frag", match.getValue( URIComponent.FRAGMENT ));
+		assertEquals( 80, match.getPort() );
+		
+		assertTrue( matcher.matches( new StringBuilder( uri )));
+		assertFalse( "Should not have matched", matcher.matches( "http://www.example.com:81/foo/bar" ));
+		assertFalse( "Should not have matched", matcher.matches( "https://www.example.com:80/foo/bar" ));
+	}
+
+	@Test
+	public void testMatchByteBuffer()
+	{
+		Charset utf8 = Charset.forName( "UTF-8" );
+		matcher.setScheme( "http" ).setHost( "www.example.com" ).setPath( "/caf\u00e9/(.*)" );
+		ByteBuffer buffer = ByteBuffer.wrap( "GET http://www.example.com/caf%C3%A9/menu HTTP/1.1".getBytes( utf8 ));
+		buffer.position( 4 ).limit( 41 );
+		URIMatch match = matcher.match( buffer );
+		assertNotNull( "Should have matched", match );
+		assertEquals( 4, buffer.position() );
+		assertEquals( "menu", match.group( URIComponent.PATH, 1 ));
+		assertEquals( "www.example.com", match.group( URIComponent.HOST, 0 ));
+		// literal scheme is compared without the regular expression
+		assertEquals( "http", match.group( URIComponent.SCHEME, 0 ));
+		assertEquals( 0, match.getResult( URIComponent.SCHEME ).groupCount() );
+		assertEquals( "http://www.example.com/caf%C3%A9/menu", match.getText().toString() );
+		
+		// non ASCII bytes are decoded
+		assertTrue( matcher.matches( ByteBuffer.wrap( "http://www.example.com/caf\u00e9/menu".getBytes( utf8 ))));
+		assertFalse( matcher.matches( ByteBuffer.wrap( "http://www.example.org/caf\u00e9/menu".getBytes( utf8 ))));
+	}
+
+	@Test
+	public void testBuild() throws URISyntaxException
+	{
+		URI uri = new URI( "http://www.example.com:80/foo/bar#frag");
+		matcher.setScheme( "http" ).setHost( "(.*)\\.example\\.com" ).setPort( 80 );
+		URIMatcher built = matcher.build();
+		assertTrue( built instanceof ImmutableURIMatcher );
+		assertEquals( matcher, built );
+		assertEquals( matcher.asRegEx(), built.asRegEx() );
+		assertEquals( matcher.getPortPosition(), built.getPortPosition() );
+		assertTrue( built.matches( uri ));
+		
+		matcher.setPort( 81 );
+		assertFalse( matcher.matches( uri ));
+		assertTrue( built.matches( uri ));
+		
+		// a copy of an immutable matcher is mutable
+		URIMatcher copy = new PatternReplacer( "{host}", built ).setPath( "/foo/bar" );
+		assertTrue( copy.matches( uri ));
+		try {
+			built.setPort( 81 );
+			fail( "Should have thrown UnsupportedOperationException" );
+		} catch (UnsupportedOperationException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testQuery() throws URISyntaxException
+	{
+		URI uri = new URI( "http://www.example.com/search?q=caf%C3%A9&page=2;lang#top");
+		matcher.setQuery( ".*page=\\d+.*" );
+		assertTrue( matcher.matches( uri ));
+		assertTrue( matcher.matches( uri.toString() ));
+		assertFalse( matcher.matches( new URI( "http://www.example.com/search?q=a" )));
+		// the empty expression matches URIs without a query
+		matcher.setQuery( "" );
+		assertFalse( matcher.matches( uri ));
+		assertTrue( matcher.matches( new URI( "http://www.example.com/search#top" )));
+
+		matcher.setQuery( null ).setParameter( "page", "\\d+" ).setParameter( "q", "caf%C3%A9" );
+		assertTrue( matcher.matches( uri ));
+		assertTrue( matcher.matches( uri.toString() ));
+		assertTrue( uri.toString().matches( matcher.asRegEx() ));
+		assertFalse( matcher.matches( new URI( "http://www.example.com/search?page=2" )));
+		assertFalse( matcher.matches( new URI( "http://www.example.com/search?q=caf%C3%A9&page=x" )));
+		URIMatch match = matcher.match( uri );
+		assertEquals( "2", match.getParameter( "page" ));
+		assertEquals( "", match.getParameter( "lang" ));
+		assertNull( match.getParameter( "missing" ));
+		assertEquals( "q=caf%C3%A9&page=2;lang", match.getValue( URIComponent.QUERY ));
+
+		matcher.setParameter( "q", null );
+		assertTrue( matcher.matches( new URI( "http://www.example.com/search?page=2" )));
+		try {
+			matcher.setParameter( "", "x" );
+			fail( "Should have thrown IllegalArgumentException" );
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testQueryParametersAreLazy()
+	{
+		QueryParameters params = new QueryParameters().reset( "a=1&&b=2&c=3&a=4" );
+		assertEquals( "1", params.get( "a" ).toString() );
+		assertEquals( 1, params.scannedCount() );
+		assertEquals( "2", params.get( "b" ).toString() );
+		assertEquals( 2, params.scannedCount() );
+		// earlier pairs are found without scanning further
+		assertEquals( "1", params.get( "a" ).toString() );
+		assertEquals( 2, params.scannedCount() );
+		assertNull( params.get( "d" ));
+		assertEquals( 4, params.scannedCount() );
+	}
+
+	@Test
+	public void testRawMatching() throws URISyntaxException
+	{
+		URI uri = new URI( "http://www.example.com/a%20b/c%2Fd#x%20y");
+		matcher.setPath( "/a%20b/(.*)" );
+		assertFalse( matcher.matches( uri ));
+		matcher.setRawMatching( true );
+		assertTrue( matcher.isRawMatching() );
+		assertTrue( matcher.matches( uri ));
+		assertTrue( matcher.matches( uri.toString() ));
+		URIMatch match = matcher.match( uri.toString() );
+		// the escaped slash is not decoded
+		assertEquals( "c%2Fd", match.group( URIComponent.PATH, 1 ));
+		assertEquals( "x%20y", match.getValue( URIComponent.FRAGMENT ));
+		assertEquals( "x%20y", matcher.match( uri ).getValue( URIComponent.FRAGMENT ));
+		// the mode is part of the matcher
+		URIMatcher decoded = new URIMatcher().setPath( "/a%20b/(.*)" );
+		assertNotEquals( matcher, decoded );
+		assertTrue( matcher.build().isRawMatching() );
+
+		matcher.setRawMatching( false ).setPath( "/a b/(.*)" );
+		assertEquals( "c/d", matcher.match( uri.toString() ).group( URIComponent.PATH, 1 ));
+	}
+
+	@Test
+	public void testQueryRegEx() throws URISyntaxException
+	{
+		matcher.setFragment( "(.*)" );
+		int groups = Pattern.compile( matcher.asRegEx() ).matcher( "" ).groupCount();
+		matcher.setParameter( "a", "(\\d)+" );
+		// the parameter adds the query group only
+		assertEquals( groups + 1, Pattern.compile( matcher.asRegEx() ).matcher( "" ).groupCount() );
+
+		// only the first occurrence of a parameter is matched
+		matcher.setFragment( null ).setParameter( "a", "1" );
+		String[] uris = { "http://x.com/p?a=2&a=1#f", "http://x.com/p?b=1&a=1#f",
+				"http://x.com/p?ab=1&a=1", "http://x.com/p?a&a=1", "http://x.com/p?a=1",
+				"http://x.com/p?ba=1" };
+		for (String uri : uris) {
+			assertEquals( uri, matcher.matches( new URI( uri )), uri.matches( matcher.asRegEx() ));
+		}
+		matcher.setParameter( "a", "" );
+		assertTrue( "http://x.com/p?b=2&a#f".matches( matcher.asRegEx() ));
+		assertTrue( matcher.matches( "http://x.com/p?b=2&a#f" ));
+	}
+
+	@Test
+	public void testMinimumPort() throws URISyntaxException
+	{
+		// any negative port, including the smallest, matches URIs without a port
+		matcher.setPort( Integer.MIN_VALUE );
+		assertEquals( URIMatcher.NO_PORT, matcher.getPort() );
+		assertFalse( matcher.matches( new URI( "http://example.com:80/" )));
+		assertTrue( matcher.matches( new URI( "http://example.com/" )));
+		try {
+			ComponentPatterns.EMPTY.withPort( Integer.MIN_VALUE );
+			fail( "Should have thrown IllegalArgumentException" );
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
 }
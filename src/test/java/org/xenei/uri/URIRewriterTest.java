@@ -2,8 +2,17 @@ package org.xenei.uri;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.junit.Test;
 
 public class URIRewriterTest {
@@ -63,4 +72,181 @@ public class URIRewriterTest {
 					e.getMessage());
 		}
 	}
+
+	@Test
+	public void testRewriteBuffer() {
+		Charset utf8 = Charset.forName("UTF-8");
+		PatternReplacer patternReplacer = new PatternReplacer(
+				"{scheme}://{host:1}.{host:2}/{path:1}/\u20ac")
+				.setHost(HOST_PATTERN).setPath(PATH_PATTERN);
+		rewriter = new URIRewriter(patternReplacer);
+		ByteBuffer in = ByteBuffer.allocateDirect(64);
+		in.put(PATTERN_MATCH_URI_STR.getBytes(utf8)).flip();
+		ByteBuffer out = ByteBuffer.allocate(64);
+		assertTrue(rewriter.rewrite(in, out));
+		assertEquals(0, in.position());
+		out.flip();
+		assertEquals("http://bax.com/foo/\u20ac", utf8.decode(out).toString());
+
+		// no match copies the input
+		in.clear();
+		in.put("http://example.org/foo".getBytes(utf8)).flip();
+		out.clear();
+		assertFalse(rewriter.rewrite(in, out));
+		out.flip();
+		assertEquals("http://example.org/foo", utf8.decode(out).toString());
+
+		// overflow leaves the output unchanged
+		in.clear();
+		in.put(PATTERN_MATCH_URI_STR.getBytes(utf8)).flip();
+		out = ByteBuffer.allocate(10);
+		try {
+			rewriter.rewrite(in, out);
+			fail("Should have thrown BufferOverflowException");
+		} catch (BufferOverflowException expected) {
+			assertEquals(0, out.position());
+		}
+	}
+
+	@Test
+	public void testRewriteAll() throws URISyntaxException {
+		PatternReplacer patternReplacer = new PatternReplacer(
+				"{scheme}://{host:1}.{host:2}/{path:1}/{path:2}")
+				.setHost(HOST_PATTERN).setPath(PATH_PATTERN);
+		rewriter = new URIRewriter(patternReplacer);
+		List<URI> uris = new ArrayList<URI>();
+		for (int i = 0; i < 2000; i++) {
+			uris.add(new URI(String.format("http://h%s.example.com/p/%s", i, i)));
+		}
+		uris.add(new URI("http://example.org/nomatch"));
+		uris.add(null);
+		BatchResult<URI> result = rewriter.rewriteAll(uris);
+		assertEquals(2002, result.size());
+		assertEquals(1, result.getErrorCount());
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(new URI(String.format("http://h%s.com/p/%s", i, i)),
+					result.get(i));
+			assertNull(result.getError(i));
+		}
+		// no match is returned unchanged
+		assertEquals(uris.get(2000), result.get(2000));
+		// a null input is an error for that index only
+		assertNull(result.get(2001));
+		assertTrue(result.getError(2001) instanceof IllegalArgumentException);
+		assertEquals(1, result.getErrors().size());
+
+		// the same results through the stream
+		List<URI> streamed = rewriter.rewriteStream(uris)
+				.map(BatchResult.Item::getResult).collect(Collectors.toList());
+		assertEquals(result.getResults(), streamed);
+	}
+
+	@Test
+	public void testRewriteAllArray() throws URISyntaxException {
+		PatternReplacer patternReplacer = new PatternReplacer(
+				"{scheme}://{host:1}.{host:2}/{path:1}/{fragment}")
+				.setHost(HOST_PATTERN).setPath(PATH_PATTERN);
+		rewriter = new URIRewriter(patternReplacer, new RewriteCache(10));
+		URI[] in = { new URI(PATTERN_MATCH_URI_STR),
+				new URI("http", "bax.example.com", "/foo/foo2", "a b"),
+				new URI("http://example.org/foo") };
+		URI[] out = new URI[3];
+		BatchResult<URI> result = rewriter.rewriteAll(in, out);
+		assertEquals(new URI("http://bax.com/foo/bar"), out[0]);
+		assertTrue(result.getError(1) instanceof URISyntaxException);
+		assertNull(out[1]);
+		assertEquals(in[2], out[2]);
+		// a longer output only reports the inputs
+		URI[] longer = new URI[5];
+		result = rewriter.rewriteAll(in, longer);
+		assertEquals(3, result.size());
+		assertEquals(3, result.getResults().size());
+		assertEquals(in[2], result.getResults().get(2));
+		assertNull(result.getError(2));
+		try {
+			result.get(3);
+			fail("Should have thrown IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException expected) {
+			// expected
+		}
+		try {
+			rewriter.rewriteAll(in, new URI[2]);
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRewriteToString() throws URISyntaxException, IOException {
+		PatternReplacer patternReplacer = new PatternReplacer(
+				"https://{host}/new/{path:1}").setPath("/old/(.*)");
+		rewriter = new URIRewriter(patternReplacer);
+		assertEquals("https://example.com/new/a",
+				rewriter.rewriteToString(new URI("http://example.com/old/a")));
+		assertEquals("https://example.com/new/x",
+				rewriter.rewriteToString("http://example.com/old/x"));
+		// no match returns the input text
+		assertEquals("http://example.com/other",
+				rewriter.rewriteToString("http://example.com/other"));
+
+		StringBuilder sb = new StringBuilder("Location: ");
+		assertTrue(rewriter.rewriteTo("http://example.com/old/x", sb, true));
+		assertEquals("Location: https://example.com/new/x", sb.toString());
+		StringWriter writer = new StringWriter();
+		assertFalse(rewriter.rewriteTo(new URI("http://example.com/y"), writer, true));
+		assertEquals("http://example.com/y", writer.toString());
+
+		// the decoded path contains a space which fails validation
+		sb.setLength(0);
+		try {
+			rewriter.rewriteTo(new URI("http://example.com/old/a%20b"), sb, true);
+			fail("Should have thrown URISyntaxException");
+		} catch (URISyntaxException expected) {
+			assertEquals(25, expected.getIndex());
+			assertEquals(0, sb.length());
+		}
+		// without validation the text is written as is
+		assertTrue(rewriter.rewriteTo("http://example.com/old/a%20b", sb, false));
+		assertEquals("https://example.com/new/a b", sb.toString());
+		// raw matching keeps the escape
+		patternReplacer.setRawMatching(true);
+		assertEquals("https://example.com/new/a%20b",
+				rewriter.rewriteToString(new URI("http://example.com/old/a%20b")));
+	}
+
+	@Test
+	public void testValidation() {
+		String[] valid = { "", "http://example.com/a?b=c#d", "mailto:a@b.org",
+				"/relative/path", "http://[::1]:8080/",
+				"http://[fe80::1%eth0]/x", "x:y%2Fz",
+				"http://example.com/caf\u00e9" };
+		String[] invalid = { "http://example.com/a b", "http:", ":x",
+				"http://example.com/%2", "http://example.com/%zz",
+				"http://example.com/a#b#c",
+				"1http://example.com/", "http://example.com/a\"b",
+				"a%20:b" };
+		for (String uri : valid) {
+			try {
+				URIValidator.validate(uri, 0, uri.length());
+				new URI(uri);
+			} catch (URISyntaxException e) {
+				fail(uri + " " + e.getMessage());
+			}
+		}
+		for (String uri : invalid) {
+			try {
+				URIValidator.validate(uri, 0, uri.length());
+				fail("Should have rejected " + uri);
+			} catch (URISyntaxException expected) {
+				// java.net.URI rejects it too
+				try {
+					new URI(uri);
+					fail("java.net.URI accepts " + uri);
+				} catch (URISyntaxException e) {
+					// expected
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,362 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class URIRuleSetTest {
+
+	private URIRuleSet ruleSet;
+
+	@Before
+	public void setup() {
+		ruleSet = new URIRuleSet();
+	}
+
+	@Test
+	public void testLazyCompilation() throws Exception {
+		String unique = Long.toString(System.nanoTime());
+		URIMatcher.setLazyCompilation(true);
+		try {
+			PatternReplacer hot = new PatternReplacer("hot:{path}")
+					.setPath("/hot/" + unique + "/(.*)");
+			PatternReplacer cold = new PatternReplacer("cold:{path}")
+					.setPath("/cold/" + unique + "/(.*)");
+			ruleSet.add(hot).add(cold);
+			try {
+				new URIMatcher().setPath("/broken/(" + unique);
+				fail("Should have thrown PatternSyntaxException");
+			} catch (PatternSyntaxException expected) {
+			}
+
+			// nothing is compiled until used
+			PatternPool.Entry hotEntry = PatternPool.intern(hot
+					.getExpression(URIComponent.PATH));
+			PatternPool.Entry coldEntry = PatternPool.intern(cold
+					.getExpression(URIComponent.PATH));
+			assertFalse(hotEntry.isCompiled());
+			assertFalse(coldEntry.isCompiled());
+			assertEquals(new URI("hot:/hot/" + unique + "/x"),
+					ruleSet.rewrite(new URI("http://example.com/hot/" + unique
+							+ "/x")));
+			assertTrue(hotEntry.isCompiled());
+			assertFalse(coldEntry.isCompiled());
+
+			// background compilation warms the cold rule
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				ruleSet.precompile(executor).get(10, TimeUnit.SECONDS);
+			} finally {
+				executor.shutdown();
+			}
+			assertTrue(coldEntry.isCompiled());
+
+			// an expression that passes the structural check fails later
+			ruleSet.add(new PatternReplacer("bad:{path}").setPath("/a{2,1}"
+					+ unique));
+			try {
+				ruleSet.precompile(Runnable::run).get();
+				fail("Should have thrown ExecutionException");
+			} catch (ExecutionException expected) {
+				assertTrue(expected.getCause() instanceof PatternSyntaxException);
+			}
+		} finally {
+			URIMatcher.setLazyCompilation(false);
+		}
+	}
+
+	@Test
+	public void testHostDispatch() throws URISyntaxException {
+		PatternReplacer a = new PatternReplacer("http://a.example.org{path}")
+				.setHost("a\\.example\\.com");
+		PatternReplacer b = new PatternReplacer("http://b.example.org{path}")
+				.setHost("b\\.example\\.com");
+		ruleSet.add(a).add(b);
+
+		assertEquals(new URI("http://b.example.org/foo"),
+				ruleSet.rewrite(new URI("http://b.example.com/foo")));
+		assertEquals(new URI("http://a.example.org/foo"),
+				ruleSet.rewrite(new URI("http://a.example.com/foo")));
+		URI other = new URI("http://c.example.com/foo");
+		assertSame(other, ruleSet.rewrite(other));
+
+		List<RuleIndex.Entry[]> candidates = ((RuleIndex) ruleSet.getRuleEngine()).candidates(
+				new URIScanner("http://b.example.com/foo"));
+		int count = 0;
+		for (RuleIndex.Entry[] bucket : candidates) {
+			for (RuleIndex.Entry entry : bucket) {
+				assertSame(b, entry.rule);
+				count++;
+			}
+		}
+		assertEquals(1, count);
+	}
+
+	@Test
+	public void testFirstMatchInPriorityOrder() throws URISyntaxException {
+		PatternReplacer byHost = new PatternReplacer("host:{path}")
+				.setHost("example\\.com");
+		PatternReplacer byPort = new PatternReplacer("port:{path}")
+				.setPort(8080);
+		PatternReplacer byScheme = new PatternReplacer("scheme:{path}")
+				.setScheme("http");
+		PatternReplacer byPath = new PatternReplacer("path:{path}")
+				.setPath("/foo.*");
+		ruleSet.add(byHost, 3).add(byPort, 2).add(byScheme, 1).add(byPath);
+
+		URI uri = new URI("http://example.com:8080/foo");
+		assertEquals(new URI("path:/foo"), ruleSet.rewrite(uri));
+		ruleSet.remove(byPath);
+		assertEquals(new URI("scheme:/foo"), ruleSet.rewrite(uri));
+		ruleSet.remove(byScheme);
+		assertEquals(new URI("port:/foo"), ruleSet.rewrite(uri));
+		ruleSet.remove(byPort);
+		assertEquals(new URI("host:/foo"), ruleSet.rewrite(uri));
+		ruleSet.remove(byHost);
+		assertSame(uri, ruleSet.rewrite(uri));
+	}
+
+	@Test
+	public void testInsertionOrder() throws URISyntaxException {
+		PatternReplacer first = new PatternReplacer("first:{path}")
+				.setPath("/foo");
+		PatternReplacer second = new PatternReplacer("second:{path}")
+				.setHost("example\\.com");
+		ruleSet.add(first).add(second);
+		assertEquals(2, ruleSet.size());
+		assertSame(first, ruleSet.getRules().get(0));
+		assertEquals(new URI("first:/foo"),
+				ruleSet.rewrite(new URI("http://example.com/foo")));
+		assertEquals(new URI("second:/bar"),
+				ruleSet.rewrite(new URI("http://example.com/bar")));
+	}
+
+	@Test
+	public void testReindex() throws URISyntaxException {
+		PatternReplacer rule = new PatternReplacer("moved:{path}")
+				.setHost("a\\.example\\.com");
+		ruleSet.add(rule);
+		URI uri = new URI("http://b.example.com/foo");
+		assertNull(ruleSet.match(uri));
+		rule.setHost("b\\.example\\.com");
+		ruleSet.reindex();
+		assertNotNull(ruleSet.match(uri));
+	}
+
+	@Test
+	public void testEmptyHost() throws URISyntaxException {
+		ruleSet.add(new PatternReplacer("nohost:{path}").setHost(""));
+		assertEquals(new URI("nohost:/foo"),
+				ruleSet.rewrite(new URI("file:/foo")));
+		URI uri = new URI("http://example.com/foo");
+		assertSame(uri, ruleSet.rewrite(uri));
+	}
+
+	@Test
+	public void testRegistryAuthority() throws URISyntaxException {
+		// java.net.URI has no host or port for a host with an underscore, the
+		// string is matched the same way.
+		PatternReplacer named = new PatternReplacer("named:{path}")
+				.setHost("my_host\\.internal");
+		PatternReplacer port = new PatternReplacer("port:{path}").setPort(80);
+		PatternReplacer noHost = new PatternReplacer("nohost:{path}")
+				.setHost("");
+		ruleSet.add(named).add(port).add(noHost);
+		String s = "ftp://my_host.internal:80/x";
+		URIMatch match = ruleSet.match(s);
+		assertSame(noHost, ruleSet.match(new URI(s)).getMatcher());
+		assertSame(noHost, match.getMatcher());
+		assertEquals("", match.getValue(URIComponent.HOST));
+		assertEquals(URIMatcher.NO_PORT.intValue(), match.getPort());
+		assertEquals(s, new URIRewriter(named).rewriteToString(s));
+	}
+
+	@Test
+	public void testHostSuffixDispatch() throws URISyntaxException {
+		PatternReplacer cdn = new PatternReplacer("cdn:{host:1}")
+				.setHost("([^.]+)\\.cdn\\.example\\.org");
+		PatternReplacer any = new PatternReplacer("any:{host:1}")
+				.setHost("(.*)\\.example\\.org");
+		PatternReplacer other = new PatternReplacer("other:{host:1}")
+				.setHost("(.*)\\.example\\.com");
+		ruleSet.add(cdn).add(any).add(other);
+
+		assertEquals(new URI("cdn:a"),
+				ruleSet.rewrite(new URI("http://a.cdn.example.org/")));
+		assertEquals(new URI("any:a.b.cdn"),
+				ruleSet.rewrite(new URI("http://a.b.cdn.example.org/")));
+		assertEquals(new URI("any:www"),
+				ruleSet.rewrite(new URI("http://www.example.org/")));
+		assertEquals(new URI("other:www"),
+				ruleSet.rewrite(new URI("http://www.example.com/")));
+		URI uri = new URI("http://example.org/");
+		assertSame(uri, ruleSet.rewrite(uri));
+
+		List<RuleIndex.Entry[]> candidates = ((RuleIndex) ruleSet.getRuleEngine()).candidates(
+				new URIScanner("http://www.example.com/"));
+		assertEquals(1, candidates.size());
+		assertSame(other, candidates.get(0)[0].rule);
+	}
+
+	@Test
+	public void testPathPrefixDispatch() throws URISyntaxException {
+		PatternReplacer orders = new PatternReplacer("orders:{path:1}")
+				.setPath("/api/v2/orders/(\\d+)");
+		PatternReplacer api = new PatternReplacer("api:{path:1}")
+				.setPath("/api/(.*)");
+		PatternReplacer partial = new PatternReplacer("partial:{path:1}")
+				.setPath("/api/v2/ord(.*)");
+		PatternReplacer users = new PatternReplacer("users:{path:1}")
+				.setPath("/api/v2/users/(\\d+)");
+		ruleSet.add(orders).add(partial).add(api).add(users);
+
+		assertEquals(new URI("orders:12"),
+				ruleSet.rewrite(new URI("http://example.com/api/v2/orders/12")));
+		assertEquals(new URI("partial:inal"),
+				ruleSet.rewrite(new URI("http://example.com/api/v2/ordinal")));
+		assertEquals(new URI("api:v2/users/12"),
+				ruleSet.rewrite(new URI("http://example.com/api/v2/users/12")));
+		assertEquals(new URI("api:x"),
+				ruleSet.rewrite(new URI("http://example.com/api/x")));
+		URI uri = new URI("http://example.com/api");
+		assertSame(uri, ruleSet.rewrite(uri));
+
+		List<RuleIndex.Entry[]> candidates = ((RuleIndex) ruleSet.getRuleEngine()).candidates(
+				new URIScanner("http://example.com/api/v1/orders/12"));
+		assertEquals(1, candidates.size());
+		assertSame(api, candidates.get(0)[0].rule);
+	}
+
+	@Test
+	public void testAutomatonEngine() throws URISyntaxException {
+		ruleSet.add(new PatternReplacer("orders:{path:1}")
+				.setPath("/api/v2/orders/(\\d+)"));
+		ruleSet.add(new PatternReplacer("cdn:{host:1}")
+				.setHost("([^.]+)\\.cdn\\.example\\.org"));
+		ruleSet.add(new PatternReplacer("backref:{path:1}")
+				.setPath("/(\\w+)/\\1"));
+		ruleSet.add(new PatternReplacer("secure:{host}").setScheme("https")
+				.setPort(8443));
+		ruleSet.add(new PatternReplacer("any:{host}"));
+		String[] uris = { "http://example.com/api/v2/orders/12",
+				"http://a.cdn.example.org/", "http://example.com/foo/foo",
+				"https://example.com:8443/", "https://example.com/",
+				"http://b.cdn.example.org/api/v2/orders/x" };
+
+		URIRuleSet automaton = new URIRuleSet()
+				.setEngine(URIRuleSet.Engine.AUTOMATON);
+		for (PatternReplacer rule : ruleSet.getRules()) {
+			automaton.add(rule);
+		}
+		assertEquals(URIRuleSet.Engine.AUTOMATON, automaton.getEngine());
+		for (String uri : uris) {
+			URI u = new URI(uri);
+			assertEquals(uri, ruleSet.rewrite(u), automaton.rewrite(u));
+		}
+		assertEquals(new URI("backref:foo"),
+				automaton.rewrite(new URI("http://example.com/foo/foo")));
+
+		BitSet candidates = ((RuleAutomaton) automaton.getRuleEngine())
+				.candidates(new URIScanner("http://example.com/api/v2/orders/12"));
+		// orders, backref (unsupported pattern) and any
+		assertEquals(3, candidates.cardinality());
+	}
+
+	@Test
+	public void testAdaptiveEngine() throws URISyntaxException {
+		ruleSet.setEngine(URIRuleSet.Engine.ADAPTIVE);
+		// rank 0, priority -1: never moved behind the priority 0 rules.
+		ruleSet.add(new PatternReplacer("first:{path}").setPath("/first/.*"),
+				-1);
+		// ranks 1 - 3: disjoint hosts.
+		ruleSet.add(new PatternReplacer("a:{path}").setHost("a\\.example\\.com"));
+		ruleSet.add(new PatternReplacer("b:{path}").setHost("b\\.example\\.com"));
+		ruleSet.add(new PatternReplacer("c:{path}").setHost("c\\.example\\.com"));
+		// rank 4: may match the same URIs as ranks 1 - 3, must stay behind
+		// them.
+		ruleSet.add(new PatternReplacer("hot:{path}").setPath("/hot/.*"));
+		// rank 5, priority 1: never moved ahead of the priority 0 rules.
+		ruleSet.add(new PatternReplacer("d:{path}").setHost("d\\.example\\.com"),
+				1);
+
+		RuleChain chain = (RuleChain) ruleSet.getRuleEngine();
+		assertTrue(Arrays.equals(new int[] { 0, 1, 2, 3, 4, 5 },
+				chain.getOrder()));
+		for (int i = 0; i < 100; i++) {
+			assertEquals(new URI("c:/x"),
+					ruleSet.rewrite(new URI("http://c.example.com/x")));
+			assertEquals(new URI("d:/x"),
+					ruleSet.rewrite(new URI("http://d.example.com/x")));
+			if (i % 10 == 0) {
+				assertEquals(new URI("b:/x"),
+						ruleSet.rewrite(new URI("http://b.example.com/x")));
+			}
+		}
+		chain.reorder();
+		assertTrue(Arrays.toString(chain.getOrder()), Arrays.equals(
+				new int[] { 0, 3, 2, 1, 4, 5 }, chain.getOrder()));
+
+		// the first match is unchanged by the new order.
+		assertEquals(new URI("c:/hot/x"),
+				ruleSet.rewrite(new URI("http://c.example.com/hot/x")));
+		assertEquals(new URI("hot:/hot/x"),
+				ruleSet.rewrite(new URI("http://e.example.com/hot/x")));
+		assertEquals(new URI("first:/first/x"),
+				ruleSet.rewrite(new URI("http://c.example.com/first/x")));
+
+		// hot traffic does not move the overlapping rule.
+		for (int i = 0; i < 1000; i++) {
+			ruleSet.rewrite(new URI("http://e.example.com/hot/x"));
+		}
+		chain.reorder();
+		assertTrue(Arrays.toString(chain.getOrder()), Arrays.equals(
+				new int[] { 0, 3, 2, 1, 4, 5 }, chain.getOrder()));
+
+		// a rule disjoint from all the others moves ahead of them, adding it
+		// resets the counts.
+		ruleSet.add(new PatternReplacer("e:{path}").setPath("/cold/.*")
+				.setHost("e\\.example\\.com"));
+		chain = (RuleChain) ruleSet.getRuleEngine();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(new URI("e:/cold/x"),
+					ruleSet.rewrite(new URI("http://e.example.com/cold/x")));
+		}
+		chain.reorder();
+		assertTrue(Arrays.toString(chain.getOrder()), Arrays.equals(
+				new int[] { 0, 5, 1, 2, 3, 4, 6 }, chain.getOrder()));
+	}
+
+	@Test
+	public void testRawMatchingEngines() throws URISyntaxException {
+		ruleSet.add(new PatternReplacer("http://raw/{path:1}")
+				.setRawMatching(true).setPath("/a%20b/(.*)"));
+		ruleSet.add(new PatternReplacer("http://decoded/{path:1}")
+				.setPath("/a b/(.*)"));
+		for (URIRuleSet.Engine engine : URIRuleSet.Engine.values()) {
+			URIRuleSet copy = new URIRuleSet().setEngine(engine);
+			for (PatternReplacer rule : ruleSet.getRules()) {
+				copy.add(rule);
+			}
+			// the raw path prefix is not indexed under the decoded path
+			assertEquals(engine.name(), new URI("http://raw/x%2Fy"),
+					copy.rewrite(new URI("http://example.com/a%20b/x%2Fy")));
+			assertEquals(engine.name(), new URI("http://raw/"),
+					copy.rewrite(new URI("http://example.com/a%20b/")));
+		}
+		// a raw and a decoded path expression may match the same URI
+		assertFalse(RuleChain.disjoint(ruleSet.getRules().get(0), ruleSet
+				.getRules().get(1)));
+	}
+}
@@ -0,0 +1,71 @@
+package org.xenei.uri;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class URIScannerTest {
+
+	private static final String[] URIS = {
+			"http://localhost:80/foo/foo2#bar",
+			"http://localhost/foo/foo2",
+			"http://localhost:8080",
+			"https://user:pw@example.com:443/a/b?x=1&y=2#frag",
+			"http://[::1]:8080/ipv6",
+			"http://[fe80::1]/ipv6",
+			"file:///etc/hosts",
+			"mailto:someone@example.com",
+			"urn:isbn:0451450523#frag",
+			"//example.com/relative",
+			"/absolute/path?query",
+			"relative/path#frag",
+			"http://example.com/a%20b/%E2%82%AC#x%2Fy",
+			"http://example.com?query#frag",
+			"http://example.com:/empty-port",
+			"HTTP://EXAMPLE.COM/",
+			"#only-frag",
+			"http://my_host.internal:8080/registry",
+			"http://user@host@example.com/at",
+			"http://1.2.3/partial-ipv4",
+			"http://192.168.0.1:08080/ipv4",
+			"http://example.com:2147483648/large-port",
+			"http://example.com/%E0%80%80/%ED%A0%80/%F4%90%80%80/%C3",
+			"",
+	};
+
+	@Test
+	public void testComponentsMatchURI() {
+		for (String s : URIS) {
+			URI uri = URI.create(s);
+			URIScanner scanner = new URIScanner(s);
+			for (URIComponent c : URIComponent.values()) {
+				assertEquals(s + " " + c, URIMatch.value(uri, c), scanner
+						.value(c).toString());
+			}
+			assertEquals(s, uri.getPort(), scanner.getPort());
+		}
+	}
+
+	@Test
+	public void testReset() {
+		URIScanner scanner = new URIScanner("http://a.example.com/one");
+		assertEquals("a.example.com", scanner.value(URIComponent.HOST)
+				.toString());
+		scanner.reset("ftp://b.example.com:21/two");
+		assertEquals("ftp", scanner.value(URIComponent.SCHEME).toString());
+		assertEquals("b.example.com", scanner.value(URIComponent.HOST)
+				.toString());
+		assertEquals("21", scanner.value(URIComponent.PORT).toString());
+		assertEquals("/two", scanner.value(URIComponent.PATH).toString());
+		assertEquals("", scanner.value(URIComponent.FRAGMENT).toString());
+	}
+
+	@Test
+	public void testMalformedEscapeIsLiteral() {
+		// java.net.URI rejects this, the scanner does not validate.
+		URIScanner scanner = new URIScanner("http://example.com/100%");
+		assertEquals("/100%", scanner.value(URIComponent.PATH).toString());
+	}
+}